@@ -0,0 +1,134 @@
+package ie.voltdb.h2outil;
+
+/* This file is part of VoltDB.
+ * Copyright (C) 2008-2019 VoltDB Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.stream.Stream;
+
+/**
+ * Sets up a model zip file so that H2OMojoWrangler can find it next to a
+ * class, both whole and split into fragments the way VoltDBSchemaBuilder
+ * splits big ones.
+ * 
+ * The zip file isn't on the benchmark's class path, so we copy it into a
+ * temporary directory and load a copy of ZipFileAnchor from a class loader
+ * that looks there. Resources next to that copy are the ones in the temporary
+ * directory.
+ *
+ */
+public class BenchmarkZipFiles {
+
+  /**
+   * Name the whole zip file has next to the anchor.
+   */
+  public static final String WHOLE_ZIP_FILE_NAME = "benchmark_model.zip";
+
+  /**
+   * Name the fragmented zip file has next to the anchor. Only its fragments
+   * exist.
+   */
+  public static final String FRAGMENTED_ZIP_FILE_NAME = "benchmark_model_fragmented.zip";
+
+  private final File tempDir;
+  private final URLClassLoader loader;
+  private final Class<?> anchorClass;
+  private final byte[] zipBytes;
+
+  /**
+   * @param zipFileName    A model zip file on disk
+   * @param fragmentLength Size of each fragment
+   * @throws IOException
+   * @throws ClassNotFoundException
+   */
+  public BenchmarkZipFiles(String zipFileName, int fragmentLength) throws IOException, ClassNotFoundException {
+
+    File zipFile = new File(zipFileName);
+
+    if (!zipFile.canRead()) {
+      throw new IOException("Can't read " + zipFile.getAbsolutePath() + "; set the zipFile parameter with -p");
+    }
+
+    zipBytes = Files.readAllBytes(zipFile.toPath());
+    tempDir = Files.createTempDirectory("mojobench").toFile();
+
+    File packageDir = new File(tempDir, ZipFileAnchor.class.getPackage().getName().replace('.', File.separatorChar));
+    packageDir.mkdirs();
+
+    Files.write(new File(packageDir, WHOLE_ZIP_FILE_NAME).toPath(), zipBytes);
+
+    for (int i = 0; i * fragmentLength < zipBytes.length; i++) {
+      Files.write(new File(packageDir, FRAGMENTED_ZIP_FILE_NAME + "." + i).toPath(),
+          Arrays.copyOfRange(zipBytes, i * fragmentLength, Math.min((i + 1) * fragmentLength, zipBytes.length)));
+    }
+
+    // No parent, so ZipFileAnchor is loaded again rather than found on our
+    // own class path...
+    URL anchorLocation = ZipFileAnchor.class.getProtectionDomain().getCodeSource().getLocation();
+    loader = new URLClassLoader(new URL[] { tempDir.toURI().toURL(), anchorLocation }, null);
+    anchorClass = loader.loadClass(ZipFileAnchor.class.getName());
+  }
+
+  /**
+   * @return A class that both zip files are next to
+   */
+  public Class<?> getAnchorClass() {
+    return anchorClass;
+  }
+
+  /**
+   * @return The zip file's contents
+   */
+  public byte[] getZipBytes() {
+    return zipBytes;
+  }
+
+  /**
+   * Remove the temporary directory.
+   * 
+   * @throws IOException
+   */
+  public void delete() throws IOException {
+
+    loader.close();
+
+    // Deepest first, so directories are empty by the time we get to them...
+    File[] files;
+
+    try (Stream<Path> paths = Files.walk(tempDir.toPath())) {
+      files = paths.sorted(Comparator.reverseOrder()).map(Path::toFile).toArray(File[]::new);
+    }
+
+    for (int i = 0; i < files.length; i++) {
+      files[i].delete();
+    }
+  }
+
+}
@@ -0,0 +1,111 @@
+package ie.voltdb.h2outil;
+
+/* This file is part of VoltDB.
+ * Copyright (C) 2008-2019 VoltDB Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import hex.genmodel.ModelMojoReader;
+import hex.genmodel.MojoModel;
+import hex.genmodel.MojoReaderBackend;
+
+/**
+ * How long it takes, and how much it allocates, to get from a zip file next to
+ * a procedure to a MojoModel:
+ * <ul>
+ * <li>readerBackend - H2OMojoWrangler reading and unzipping the zip file,
+ * either whole or in fragments</li>
+ * <li>readFrom - ModelMojoReader building the model from an unzipped
+ * backend</li>
+ * </ul>
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ModelLoadBenchmark {
+
+  /**
+   * Model zip file, relative to where the benchmark is run from.
+   */
+  @Param({ "src/main/mojoprocs/gbm_pojo_test.zip" })
+  public String zipFile;
+
+  /**
+   * Whether H2OMojoWrangler finds the zip file whole or in fragments.
+   */
+  @Param({ "whole", "fragmented" })
+  public String layout;
+
+  /**
+   * Size of each fragment when layout is 'fragmented'.
+   */
+  @Param({ "1048576" })
+  public int fragmentLength;
+
+  private BenchmarkZipFiles zipFiles;
+  private String zipFileName;
+  private MojoReaderBackend backend;
+
+  @Setup
+  public void setup() throws IOException, ClassNotFoundException {
+
+    zipFiles = new BenchmarkZipFiles(zipFile, fragmentLength);
+    zipFileName = layout.equals("fragmented") ? BenchmarkZipFiles.FRAGMENTED_ZIP_FILE_NAME
+        : BenchmarkZipFiles.WHOLE_ZIP_FILE_NAME;
+    backend = H2OMojoWrangler.createInMemoryReaderBackendFromZipBytes(zipFiles.getZipBytes());
+  }
+
+  @TearDown
+  public void tearDown() throws IOException {
+    zipFiles.delete();
+  }
+
+  @Benchmark
+  public MojoReaderBackend readerBackend() throws IOException {
+    return H2OMojoWrangler.createInMemoryReaderBackendFromSetOfZipFiles(zipFiles.getAnchorClass(), zipFileName);
+  }
+
+  @Benchmark
+  public MojoModel readFrom() throws IOException {
+    return ModelMojoReader.readFrom(backend);
+  }
+
+}
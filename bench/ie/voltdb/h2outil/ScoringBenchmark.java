@@ -0,0 +1,98 @@
+package ie.voltdb.h2outil;
+
+/* This file is part of VoltDB.
+ * Copyright (C) 2008-2019 VoltDB Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import hex.genmodel.ModelMojoReader;
+import hex.genmodel.easy.EasyPredictModelWrapper;
+import hex.genmodel.easy.exception.PredictException;
+import mojoprocs.IsFlightLate;
+
+/**
+ * What IsFlightLate's fallback scoring path costs per call: building a
+ * RowData from the procedure's parameters and calling
+ * EasyPredictModelWrapper.predictBinomial. We cycle through a fixed set of
+ * flights so every run scores the same rows.
+ *
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ScoringBenchmark {
+
+  /**
+   * Model zip file, relative to where the benchmark is run from.
+   */
+  @Param({ "src/main/mojoprocs/gbm_pojo_test.zip" })
+  public String zipFile;
+
+  /**
+   * Year, Month, DayofMonth, DayOfWeek, CRSDepTime, UniqueCarrier, Origin,
+   * Dest.
+   */
+  private static final String[][] FLIGHTS = { { "1987", "10", "14", "3", "0730", "PS", "SAN", "SFO" },
+      { "1987", "10", "15", "4", "0730", "PS", "SAN", "SFO" }, { "1988", "1", "2", "6", "1905", "AA", "ORD", "LAX" },
+      { "1990", "6", "30", "6", "0600", "UA", "SFO", "JFK" }, { "1995", "12", "24", "7", "1730", "DL", "ATL", "BOS" },
+      { "1999", "3", "1", "1", "2215", "WN", "LAS", "PHX" }, { "2001", "9", "10", "1", "0845", "US", "PIT", "DCA" },
+      { "2005", "7", "4", "1", "1200", "CO", "EWR", "IAH" } };
+
+  private EasyPredictModelWrapper modelWrapper;
+  private int next = 0;
+
+  @Setup
+  public void setup() throws IOException {
+    modelWrapper = new EasyPredictModelWrapper(ModelMojoReader.readFrom(
+        H2OMojoWrangler.createInMemoryReaderBackendFromZipBytes(Files.readAllBytes(Paths.get(zipFile)))));
+  }
+
+  @Benchmark
+  public String predictBinomial() throws PredictException {
+
+    String[] flight = FLIGHTS[next];
+    next = (next + 1) % FLIGHTS.length;
+
+    return modelWrapper.predictBinomial(IsFlightLate.createRowData(flight[6], flight[4], flight[0], flight[1],
+        flight[2], flight[3], flight[5], flight[7])).label;
+  }
+
+}
@@ -0,0 +1,252 @@
+package ie.voltdb.h2outil;
+
+/* This file is part of VoltDB.
+ * Copyright (C) 2008-2019 VoltDB Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+
+import java.util.Arrays;
+
+import hex.genmodel.MojoModel;
+import hex.genmodel.algos.gbm.GbmMojoModel;
+
+/**
+ * Scores a binomial MOJO without going through RowData and
+ * EasyPredictModelWrapper.
+ * 
+ * Callers set each input by number with setInput() and then call
+ * scoreLabel(). Categorical levels are looked up in precomputed
+ * CategoricalIndex tables, numbers are parsed in place, and the row and
+ * prediction arrays are reused, so once constructed scoring doesn't allocate.
+ * 
+ * If we're given a TreeEnsembleScorer we use it to add up the trees, and only
+ * use the model to turn the sums into a prediction.
+ * 
+ * Each site needs its own BinomialScorer, as the arrays are overwritten on
+ * every call. The FeatureLayout and model are shared.
+ *
+ */
+public class BinomialScorer {
+
+  private final FeatureLayout layout;
+  private final MojoModel model;
+  private final TreeEnsembleScorer treeScorer;
+  private final GbmMojoModel gbmModel;
+  private final double[] row;
+  private final double[] preds;
+
+  /**
+   * @param layout A layout from SharedMojoModel.getFeatureLayout()
+   */
+  public BinomialScorer(FeatureLayout layout) {
+    this(layout, null);
+  }
+
+  /**
+   * @param layout     A layout from SharedMojoModel.getFeatureLayout()
+   * @param treeScorer From SharedMojoModel.getTreeScorer(). Can be null.
+   */
+  public BinomialScorer(FeatureLayout layout, TreeEnsembleScorer treeScorer) {
+    super();
+    this.layout = layout;
+    this.model = layout.getModel();
+
+    if (treeScorer != null && model instanceof GbmMojoModel) {
+      this.treeScorer = treeScorer;
+      this.gbmModel = (GbmMojoModel) model;
+    } else {
+      this.treeScorer = null;
+      this.gbmModel = null;
+    }
+
+    // Columns we aren't given stay as NaN, which is what
+    // EasyPredictModelWrapper does for missing columns.
+    row = new double[model.nfeatures()];
+    Arrays.fill(row, Double.NaN);
+    preds = new double[model.getPredsSize()];
+  }
+
+  /**
+   * Set an input.
+   * 
+   * @param input input number, as per the FeatureLayout
+   * @param value the value
+   * @return false if the value isn't a known level of a categorical input, or
+   *         isn't a number for a numeric one. Callers should fall back to
+   *         EasyPredictModelWrapper, which will complain in the normal way.
+   */
+  public boolean setInput(int input, String value) {
+
+    if (value == null) {
+      row[layout.getModelColumn(input)] = Double.NaN;
+      return true;
+    }
+
+    CategoricalIndex index = layout.getCategoricalIndex(input);
+
+    double d;
+
+    if (index != null) {
+
+      int level = index.indexOf(value);
+
+      if (level < 0) {
+        return false;
+      }
+
+      d = level;
+
+    } else {
+
+      d = parseNumber(value);
+
+      if (Double.isNaN(d)) {
+        return false;
+      }
+    }
+
+    row[layout.getModelColumn(input)] = d;
+    return true;
+  }
+
+  /**
+   * Score the inputs set so far.
+   * 
+   * @return The predicted label. This is the same String object every time, so
+   *         no allocation happens.
+   */
+  public String scoreLabel() {
+    return layout.getResponseLabel(scoreLabelIndex());
+  }
+
+  /**
+   * Score the inputs set so far.
+   * 
+   * @return The index of the predicted label.
+   */
+  public int scoreLabelIndex() {
+
+    // preds[0] is the label index, preds[1..] are class probabilities
+    if (treeScorer != null) {
+      treeScorer.scoreTrees(row, preds);
+      gbmModel.unifyPreds(row, 0, preds);
+    } else {
+      model.score0(row, preds);
+    }
+
+    return (int) preds[0];
+  }
+
+  /**
+   * @param classIndex 0 or 1
+   * @return The probability of classIndex from the last call to score.
+   */
+  public double getClassProbability(int classIndex) {
+    return preds[classIndex + 1];
+  }
+
+  /**
+   * @return true if we're using a TreeEnsembleScorer
+   */
+  public boolean isUsingTreeScorer() {
+    return treeScorer != null;
+  }
+
+  /**
+   * @return the layout we use
+   */
+  public FeatureLayout getLayout() {
+    return layout;
+  }
+
+  /**
+   * Parse an optionally signed decimal like '0730' or '-12.5' without
+   * allocating. For anything fancier we use Double.parseDouble. Either way we
+   * return exactly what Double.parseDouble would, because an integer below
+   * 2^53 divided by a power of ten below 10^22 is correctly rounded.
+   * 
+   * @param value
+   * @return value as a double, or NaN if it isn't a number.
+   */
+  static double parseNumber(String value) {
+
+    final int length = value.length();
+    int pos = 0;
+    boolean negative = false;
+
+    if (length > 0 && (value.charAt(0) == '-' || value.charAt(0) == '+')) {
+      negative = value.charAt(0) == '-';
+      pos++;
+    }
+
+    long mantissa = 0;
+    int digits = 0;
+    int decimals = -1;
+
+    for (; pos < length; pos++) {
+
+      char c = value.charAt(pos);
+
+      if (c >= '0' && c <= '9') {
+
+        mantissa = (mantissa * 10) + (c - '0');
+
+        if (decimals >= 0) {
+          decimals++;
+        }
+
+        if (++digits > 15) {
+          return parseNumberTheSlowWay(value);
+        }
+
+      } else if (c == '.' && decimals < 0) {
+        decimals = 0;
+      } else {
+        return parseNumberTheSlowWay(value);
+      }
+    }
+
+    if (digits == 0) {
+      return parseNumberTheSlowWay(value);
+    }
+
+    double d = mantissa;
+
+    if (decimals > 0) {
+      d = d / POWERS_OF_TEN[decimals];
+    }
+
+    return negative ? -d : d;
+  }
+
+  private static double parseNumberTheSlowWay(String value) {
+    try {
+      return Double.parseDouble(value);
+    } catch (NumberFormatException e) {
+      return Double.NaN;
+    }
+  }
+
+  private static final double[] POWERS_OF_TEN = { 1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+      1e12, 1e13, 1e14, 1e15, 1e16 };
+
+}
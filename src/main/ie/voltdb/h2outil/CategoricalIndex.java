@@ -0,0 +1,283 @@
+package ie.voltdb.h2outil;
+
+/* This file is part of VoltDB.
+ * Copyright (C) 2008-2019 VoltDB Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+
+import java.util.Arrays;
+
+/**
+ * Maps the levels of a categorical column to their index in the column's
+ * domain, without allocating anything.
+ * 
+ * Short codes made of digits and upper case letters - airports, carriers,
+ * months - are packed into a number, which we use to index an array directly.
+ * That's a perfect hash with no String comparison at all.
+ * 
+ * For anything else we look for a power of two table size and hash seed for
+ * which every level lands in its own slot, so a lookup is one hash, one mask
+ * and one String.equals(). If we can't find one within reason we fall back to
+ * linear probing, which still doesn't allocate.
+ * 
+ * Instances are immutable and can be shared between sites.
+ *
+ */
+public class CategoricalIndex {
+
+  /**
+   * Codes of up to this many characters get a direct lookup table.
+   */
+  private static final int MAX_PACKED_LENGTH = 3;
+
+  /**
+   * 0 means 'no character', then 0-9 and A-Z.
+   */
+  private static final int PACKED_RADIX = 37;
+
+  /**
+   * We'll go up to this many slots per level looking for a perfect hash.
+   */
+  private static final int MAX_SLOTS_PER_LEVEL = 64;
+
+  /**
+   * How many seeds we try for each table size.
+   */
+  private static final int SEEDS_PER_SIZE = 8;
+
+  // Used if every level can be packed...
+  private final int[] packedTable;
+
+  // Used otherwise...
+  private final String[] keys;
+  private final int[] values;
+  private final int mask;
+  private final int seed;
+  private final boolean perfect;
+
+  /**
+   * @param domain The levels of a categorical column, in model order.
+   */
+  public CategoricalIndex(String[] domain) {
+
+    if (canPack(domain)) {
+
+      packedTable = new int[packedTableSize(domain)];
+      Arrays.fill(packedTable, -1);
+
+      for (int i = 0; i < domain.length; i++) {
+        packedTable[pack(domain[i])] = i;
+      }
+
+      keys = null;
+      values = null;
+      mask = 0;
+      seed = 0;
+      perfect = true;
+      return;
+    }
+
+    packedTable = null;
+
+    int size = Integer.highestOneBit(Math.max(domain.length, 1) * 2 - 1) * 2;
+    final int maxSize = Integer.highestOneBit(Math.max(domain.length, 1) * MAX_SLOTS_PER_LEVEL - 1) * 2;
+
+    int perfectSeed = findPerfectSeed(domain, size - 1);
+
+    while (perfectSeed < 0 && size < maxSize) {
+      size = size * 2;
+      perfectSeed = findPerfectSeed(domain, size - 1);
+    }
+
+    perfect = perfectSeed >= 0;
+    seed = perfect ? perfectSeed : 0;
+    mask = size - 1;
+    keys = new String[size];
+    values = new int[size];
+
+    for (int i = 0; i < domain.length; i++) {
+
+      int slot = spread(domain[i].hashCode(), seed) & mask;
+
+      while (keys[slot] != null) {
+        slot = (slot + 1) & mask;
+      }
+
+      keys[slot] = domain[i];
+      values[slot] = i;
+    }
+  }
+
+  /**
+   * @param level a value for this column
+   * @return the index of 'level' in the domain, or -1 if it isn't there.
+   */
+  public int indexOf(String level) {
+
+    if (packedTable != null) {
+
+      int packed = pack(level);
+
+      if (packed < 0 || packed >= packedTable.length) {
+        return -1;
+      }
+
+      return packedTable[packed];
+    }
+
+    int slot = spread(level.hashCode(), seed) & mask;
+
+    if (perfect) {
+      String key = keys[slot];
+      if (key != null && key.equals(level)) {
+        return values[slot];
+      }
+      return -1;
+    }
+
+    String key;
+    while ((key = keys[slot]) != null) {
+      if (key.equals(level)) {
+        return values[slot];
+      }
+      slot = (slot + 1) & mask;
+    }
+
+    return -1;
+  }
+
+  /**
+   * @return true if every level has its own slot.
+   */
+  public boolean isPerfect() {
+    return perfect;
+  }
+
+  /**
+   * @return number of slots in our table.
+   */
+  public int getTableSize() {
+    return packedTable != null ? packedTable.length : keys.length;
+  }
+
+  /**
+   * Turn a short code into a number. Different codes always get different
+   * numbers.
+   * 
+   * @param level
+   * @return A number between 0 and 37^3, or -1 if 'level' is too long or has
+   *         characters other than 0-9 and A-Z.
+   */
+  private static int pack(String level) {
+
+    final int length = level.length();
+
+    if (length > MAX_PACKED_LENGTH) {
+      return -1;
+    }
+
+    int packed = 0;
+
+    for (int i = 0; i < length; i++) {
+
+      char c = level.charAt(i);
+
+      if (c >= '0' && c <= '9') {
+        packed = (packed * PACKED_RADIX) + (c - '0' + 1);
+      } else if (c >= 'A' && c <= 'Z') {
+        packed = (packed * PACKED_RADIX) + (c - 'A' + 11);
+      } else {
+        return -1;
+      }
+    }
+
+    return packed;
+  }
+
+  private static boolean canPack(String[] domain) {
+
+    for (int i = 0; i < domain.length; i++) {
+      if (pack(domain[i]) < 0) {
+        return false;
+      }
+    }
+
+    return true;
+  }
+
+  private static int packedTableSize(String[] domain) {
+
+    int maxLength = 0;
+
+    for (int i = 0; i < domain.length; i++) {
+      maxLength = Math.max(maxLength, domain[i].length());
+    }
+
+    int size = 1;
+
+    for (int i = 0; i < maxLength; i++) {
+      size = size * PACKED_RADIX;
+    }
+
+    return size;
+  }
+
+  /**
+   * @return a seed for which every level gets its own slot, or -1 if none of
+   *         the ones we tried work.
+   */
+  private static int findPerfectSeed(String[] domain, int mask) {
+
+    boolean[] used = new boolean[mask + 1];
+
+    for (int seed = 0; seed < SEEDS_PER_SIZE; seed++) {
+
+      Arrays.fill(used, false);
+      boolean collision = false;
+
+      for (int i = 0; i < domain.length && !collision; i++) {
+        int slot = spread(domain[i].hashCode(), seed) & mask;
+        collision = used[slot];
+        used[slot] = true;
+      }
+
+      if (!collision) {
+        return seed;
+      }
+    }
+
+    return -1;
+  }
+
+  /**
+   * String.hashCode() puts most of the variation for short strings in the low
+   * bits, so mix in the high bits as well. Different seeds give different
+   * mixes.
+   */
+  private static int spread(int h, int seed) {
+    h ^= (h >>> 16);
+    h *= 0x85ebca6b + (seed * 0x3c6ef372);
+    h ^= (h >>> 13);
+    return h;
+  }
+
+}
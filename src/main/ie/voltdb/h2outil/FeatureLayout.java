@@ -0,0 +1,151 @@
+package ie.voltdb.h2outil;
+
+/* This file is part of VoltDB.
+ * Copyright (C) 2008-2019 VoltDB Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+
+import hex.ModelCategory;
+import hex.genmodel.MojoModel;
+
+/**
+ * Everything we need to know to turn a fixed list of named inputs into the
+ * double[] a MojoModel scores, worked out once: which model column each input
+ * goes in, and for categorical columns a CategoricalIndex to turn a level into
+ * its domain index.
+ * 
+ * A FeatureLayout is immutable and shared by every site via SharedMojoModel.
+ * The scratch space a site needs to actually score lives in BinomialScorer.
+ *
+ */
+public class FeatureLayout {
+
+  private final MojoModel model;
+  private final String[] inputNames;
+  private final int[] modelColumns;
+  private final CategoricalIndex[] categoricalIndexes;
+  private final String[][] inputDomains;
+  private final String[] responseLabels;
+
+  /**
+   * @param model      A binomial model
+   * @param inputNames The columns callers will provide, in the order they will
+   *                   provide them.
+   * @throws IllegalArgumentException if the model isn't binomial or doesn't
+   *                                  have a column called inputNames[n]
+   */
+  public FeatureLayout(MojoModel model, String[] inputNames) {
+
+    if (model.getModelCategory() != ModelCategory.Binomial) {
+      throw new IllegalArgumentException("Model is " + model.getModelCategory() + ", not Binomial");
+    }
+
+    this.model = model;
+    this.inputNames = inputNames.clone();
+
+    modelColumns = new int[inputNames.length];
+    categoricalIndexes = new CategoricalIndex[inputNames.length];
+    inputDomains = new String[inputNames.length][];
+
+    String[] modelNames = model.getNames();
+
+    for (int i = 0; i < inputNames.length; i++) {
+
+      modelColumns[i] = -1;
+
+      for (int j = 0; j < model.nfeatures(); j++) {
+        if (modelNames[j].equals(inputNames[i])) {
+          modelColumns[i] = j;
+          break;
+        }
+      }
+
+      if (modelColumns[i] == -1) {
+        throw new IllegalArgumentException("Model has no input column called " + inputNames[i]);
+      }
+
+      inputDomains[i] = model.getDomainValues(modelColumns[i]);
+
+      if (inputDomains[i] != null) {
+        categoricalIndexes[i] = new CategoricalIndex(inputDomains[i]);
+      }
+    }
+
+    responseLabels = model.getDomainValues(model.getResponseIdx());
+
+  }
+
+  /**
+   * @return the model we're a layout for
+   */
+  public MojoModel getModel() {
+    return model;
+  }
+
+  /**
+   * @return how many inputs callers provide
+   */
+  public int getInputCount() {
+    return inputNames.length;
+  }
+
+  /**
+   * @param input input number
+   * @return its name
+   */
+  public String getInputName(int input) {
+    return inputNames[input];
+  }
+
+  /**
+   * @param input input number
+   * @return which element of the row we score it goes in.
+   */
+  int getModelColumn(int input) {
+    return modelColumns[input];
+  }
+
+  /**
+   * @param input input number
+   * @return A CategoricalIndex, or null if the input is numeric.
+   */
+  CategoricalIndex getCategoricalIndex(int input) {
+    return categoricalIndexes[input];
+  }
+
+  /**
+   * @param input input number
+   * @return legal values for a categorical input, or null if it's numeric.
+   */
+  public String[] getInputDomain(int input) {
+    return inputDomains[input];
+  }
+
+  /**
+   * @param labelIndex 0 or 1
+   * @return the label the model uses for labelIndex.
+   */
+  public String getResponseLabel(int labelIndex) {
+    return responseLabels[labelIndex];
+  }
+
+}
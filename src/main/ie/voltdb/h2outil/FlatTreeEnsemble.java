@@ -0,0 +1,288 @@
+package ie.voltdb.h2outil;
+
+/* This file is part of VoltDB.
+ * Copyright (C) 2008-2019 VoltDB Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+
+import java.util.Arrays;
+
+/**
+ * A tree ensemble stored as a handful of primitive arrays, one entry per node,
+ * instead of one compressed byte array per tree.
+ * 
+ * Nodes are numbered depth first, so a node's left child is usually the next
+ * node, and walking a tree mostly reads memory that is next to what we just
+ * read. Every tree is in the same arrays, so scoring is one tight loop with no
+ * objects to chase and no bytes to decode, and the memory a model uses is
+ * simply the node count times the size of one entry in each array.
+ * 
+ * Decisions follow the same rules as SharedTreeMojoModel.scoreTree(), and trees
+ * are added up in the same order, so 'preds' ends up exactly the same.
+ *
+ */
+public class FlatTreeEnsemble implements TreeEnsembleScorer {
+
+  private static final byte NA_RIGHT = 1;
+  private static final byte NA_VS_REST = 2;
+  private static final byte CATEGORICAL = 4;
+
+  /**
+   * Set for numeric splits on numeric columns, which is most of them. These
+   * only need one comparison.
+   */
+  private static final byte SIMPLE = 8;
+
+  private final long checksum;
+
+  // One entry per tree...
+  private final int[] treeRoot;
+  private final int[] treePred;
+
+  // One entry per node...
+  private final int[] column;
+  private final float[] value;
+  private final int[] leftChild;
+  private final int[] rightChild;
+  private final byte[] flags;
+  private final int[] domainLength;
+  private final int[] levelsStart;
+  private final int[] levelsOffset;
+  private final int[] levelsLength;
+
+  /**
+   * Categorical split bitsets for every node, one after the other.
+   */
+  private final boolean[] levels;
+
+  private int nodeCount = 0;
+  private int levelCount = 0;
+
+  private FlatTreeEnsemble(long checksum, int treeCount, int nodeCount, int levelCount) {
+    this.checksum = checksum;
+    treeRoot = new int[treeCount];
+    treePred = new int[treeCount];
+    column = new int[nodeCount];
+    value = new float[nodeCount];
+    leftChild = new int[nodeCount];
+    rightChild = new int[nodeCount];
+    flags = new byte[nodeCount];
+    domainLength = new int[nodeCount];
+    levelsStart = new int[nodeCount];
+    levelsOffset = new int[nodeCount];
+    levelsLength = new int[nodeCount];
+    levels = new boolean[levelCount];
+  }
+
+  /**
+   * Flatten the trees of a model.
+   * 
+   * @param trees    from MojoTrees.read()
+   * @param checksum CRC32 of the zip file the trees came from
+   * @return A new FlatTreeEnsemble
+   */
+  public static FlatTreeEnsemble build(MojoTrees trees, long checksum) {
+
+    int treeCount = 0;
+    int nodeCount = 0;
+    int levelCount = 0;
+
+    for (int c = 0; c < trees.getNTreesPerGroup(); c++) {
+      for (int g = 0; g < trees.getNTreeGroups(); g++) {
+
+        MojoTreeNode tree = trees.getTree(c, g);
+
+        if (tree != null) {
+          treeCount++;
+          nodeCount += tree.getNodeCount();
+          levelCount += countLevels(tree);
+        }
+      }
+    }
+
+    FlatTreeEnsemble ensemble = new FlatTreeEnsemble(checksum, treeCount, nodeCount, levelCount);
+    final int classOffset = trees.getNClasses() == 1 ? 0 : 1;
+    int treeId = 0;
+
+    // Same order as SharedTreeMojoModel.scoreAllTrees()...
+    for (int c = 0; c < trees.getNTreesPerGroup(); c++) {
+      for (int g = 0; g < trees.getNTreeGroups(); g++) {
+
+        MojoTreeNode tree = trees.getTree(c, g);
+
+        if (tree != null) {
+          ensemble.treeRoot[treeId] = ensemble.addNode(tree);
+          ensemble.treePred[treeId++] = classOffset + c;
+        }
+      }
+    }
+
+    return ensemble;
+  }
+
+  private static int countLevels(MojoTreeNode node) {
+
+    if (node.isLeaf()) {
+      return 0;
+    }
+
+    return (node.getLevelsRight() == null ? 0 : node.getLevelsRight().length) + countLevels(node.getLeft())
+        + countLevels(node.getRight());
+  }
+
+  /**
+   * Add 'node' and everything below it, depth first.
+   * 
+   * @return the id of 'node'
+   */
+  private int addNode(MojoTreeNode node) {
+
+    final int id = nodeCount++;
+
+    if (node.isLeaf()) {
+      column[id] = -1;
+      value[id] = node.getLeafValue();
+      leftChild[id] = -1;
+      rightChild[id] = -1;
+      return id;
+    }
+
+    column[id] = node.getColumn();
+    value[id] = node.getSplitValue();
+    domainLength[id] = node.getDomainLength();
+
+    byte f = 0;
+
+    if (node.isNaRight()) {
+      f |= NA_RIGHT;
+    }
+
+    if (node.isNaVsRest()) {
+      f |= NA_VS_REST;
+    }
+
+    boolean[] levelsRight = node.getLevelsRight();
+
+    if (!node.isNaVsRest() && levelsRight == null && node.getDomainLength() < 0) {
+      f |= SIMPLE;
+    }
+
+    if (levelsRight != null) {
+      f |= CATEGORICAL;
+      levelsStart[id] = levelCount;
+      levelsOffset[id] = node.getBitOffset();
+      levelsLength[id] = levelsRight.length;
+      System.arraycopy(levelsRight, 0, levels, levelCount, levelsRight.length);
+      levelCount += levelsRight.length;
+    }
+
+    flags[id] = f;
+    leftChild[id] = addNode(node.getLeft());
+    rightChild[id] = addNode(node.getRight());
+
+    return id;
+  }
+
+  @Override
+  public void scoreTrees(double[] row, double[] preds) {
+
+    Arrays.fill(preds, 0);
+
+    for (int t = 0; t < treeRoot.length; t++) {
+
+      int n = treeRoot[t];
+
+      while (leftChild[n] >= 0) {
+        n = goesRight(n, row[column[n]]) ? rightChild[n] : leftChild[n];
+      }
+
+      preds[treePred[t]] += value[n];
+    }
+  }
+
+  /**
+   * @return true if a row with value 'd' goes right at node 'n'.
+   */
+  private boolean goesRight(int n, double d) {
+
+    final byte f = flags[n];
+
+    // Comparisons with NaN are always false, so '!(d < s)' sends NaNs right
+    // and 'd >= s' sends them left...
+    if ((f & SIMPLE) != 0) {
+      return (f & NA_RIGHT) != 0 ? !(d < value[n]) : d >= value[n];
+    }
+
+    if (Double.isNaN(d) || (domainLength[n] >= 0 && domainLength[n] <= (int) d)) {
+      return (f & NA_RIGHT) != 0;
+    }
+
+    if ((f & NA_VS_REST) != 0) {
+      return false;
+    }
+
+    if ((f & CATEGORICAL) == 0) {
+      return d >= value[n];
+    }
+
+    final int level = (int) d - levelsOffset[n];
+
+    if (level < 0 || level >= levelsLength[n]) {
+      return (f & NA_RIGHT) != 0;
+    }
+
+    return levels[levelsStart[n] + level];
+  }
+
+  @Override
+  public long getModelChecksum() {
+    return checksum;
+  }
+
+  /**
+   * @return how many trees we have
+   */
+  public int getTreeCount() {
+    return treeRoot.length;
+  }
+
+  /**
+   * @return how many nodes, including leaves, we have
+   */
+  public int getNodeCount() {
+    return column.length;
+  }
+
+  /**
+   * @return how many bytes our arrays take up, ignoring array headers
+   */
+  public long getSizeInBytes() {
+    return (treeRoot.length * 8L) + (column.length * 33L) + levels.length;
+  }
+
+  @Override
+  public String toString() {
+    return "FlatTreeEnsemble: " + getTreeCount() + " trees, " + getNodeCount() + " nodes, " + getSizeInBytes()
+        + " bytes";
+  }
+
+}
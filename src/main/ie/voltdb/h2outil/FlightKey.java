@@ -0,0 +1,332 @@
+package ie.voltdb.h2outil;
+
+/* This file is part of VoltDB.
+ * Copyright (C) 2008-2019 VoltDB Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+
+/**
+ * Packs the eight inputs IsFlightLate takes into a single long, without
+ * allocating, so they can be used as a key in places where Strings are too
+ * expensive.
+ * 
+ * The key is a mixed radix number made of origin and destination (three
+ * letters A-Z each), departure time in minutes since midnight, carrier (two
+ * characters 0-9 or A-Z) and the number of days since 1987-01-01. Day of week
+ * isn't stored, as it follows from the date.
+ * 
+ * Different inputs must never share a key, so we only pack values that are in
+ * one canonical form: a four digit year, a month and day of month with no
+ * leading zeros, a four digit 'HHMM' departure time and a day of week (1 is
+ * Monday) that matches the date. Anything else, including values the model
+ * might treat differently such as '07' for '7', gets NOT_PACKABLE.
+ *
+ */
+public class FlightKey {
+
+  /**
+   * Returned by pack() when the inputs aren't in canonical form.
+   */
+  public static final long NOT_PACKABLE = -1;
+
+  static final int AIRPORT_RADIX = 26 * 26 * 26;
+  static final int MINUTES_RADIX = 24 * 60;
+  static final int CARRIER_RADIX = 36 * 36;
+
+  /**
+   * The largest number of days that still lets the whole key fit in a positive
+   * long. This takes us to October 2030.
+   */
+  static final int DAYS_RADIX = 15998;
+
+  /**
+   * Every valid key is less than this.
+   */
+  public static final long MAX_KEY = (long) AIRPORT_RADIX * AIRPORT_RADIX * MINUTES_RADIX * CARRIER_RADIX * DAYS_RADIX;
+
+  /**
+   * 1987-01-01 was a Thursday.
+   */
+  private static final int FIRST_DAY_OF_WEEK = 4;
+
+  private static final int[] DAYS_IN_MONTH = { 31, 28, 31, 30, 31, 30, 31, 31, 30, 31, 30, 31 };
+
+  /**
+   * Pack the inputs to IsFlightLate into a long.
+   * 
+   * @return a key >= 0, or NOT_PACKABLE
+   */
+  public static long pack(String origin, String dest, String crsDepTime, String year, String month,
+      String dayOfMonth, String dayOfWeek, String uniqueCarrier) {
+
+    final int originCode = airportCode(origin);
+    final int destCode = airportCode(dest);
+    final int minutes = minutesSinceMidnight(crsDepTime);
+    final int carrierCode = carrierCode(uniqueCarrier);
+    final int days = daysSinceEpoch(year, month, dayOfMonth);
+
+    if (originCode < 0 || destCode < 0 || minutes < 0 || carrierCode < 0 || days < 0 || days >= DAYS_RADIX) {
+      return NOT_PACKABLE;
+    }
+
+    if (dayOfWeek == null || dayOfWeek.length() != 1
+        || dayOfWeek.charAt(0) - '0' != ((days + FIRST_DAY_OF_WEEK - 1) % 7) + 1) {
+      return NOT_PACKABLE;
+    }
+
+    long key = originCode;
+    key = (key * AIRPORT_RADIX) + destCode;
+    key = (key * MINUTES_RADIX) + minutes;
+    key = (key * CARRIER_RADIX) + carrierCode;
+    key = (key * DAYS_RADIX) + days;
+
+    return key;
+  }
+
+  /**
+   * @param key
+   * @return true if 'key' is something pack() could have returned.
+   */
+  public static boolean isValid(long key) {
+    return key >= 0 && key < MAX_KEY;
+  }
+
+  // The methods below turn a key back into the Strings it was packed from.
+  // They allocate, so they are meant for the rare occasions we need the
+  // original values, such as running the model.
+
+  public static String getOrigin(long key) {
+    return airportName((int) (key / ((long) AIRPORT_RADIX * MINUTES_RADIX * CARRIER_RADIX * DAYS_RADIX)));
+  }
+
+  public static String getDest(long key) {
+    return airportName((int) ((key / ((long) MINUTES_RADIX * CARRIER_RADIX * DAYS_RADIX)) % AIRPORT_RADIX));
+  }
+
+  public static String getCRSDepTime(long key) {
+    int minutes = (int) ((key / ((long) CARRIER_RADIX * DAYS_RADIX)) % MINUTES_RADIX);
+    return String.format("%02d%02d", minutes / 60, minutes % 60);
+  }
+
+  public static String getUniqueCarrier(long key) {
+    int code = (int) ((key / DAYS_RADIX) % CARRIER_RADIX);
+    return new String(new char[] { carrierChar(code / 36), carrierChar(code % 36) });
+  }
+
+  public static String getYear(long key) {
+    return Integer.toString(civilFromDays(getDays(key))[0]);
+  }
+
+  public static String getMonth(long key) {
+    return Integer.toString(civilFromDays(getDays(key))[1]);
+  }
+
+  public static String getDayOfMonth(long key) {
+    return Integer.toString(civilFromDays(getDays(key))[2]);
+  }
+
+  public static String getDayOfWeek(long key) {
+    return Integer.toString(((getDays(key) + FIRST_DAY_OF_WEEK - 1) % 7) + 1);
+  }
+
+  private static int getDays(long key) {
+    return (int) (key % DAYS_RADIX);
+  }
+
+  private static String airportName(int code) {
+    return new String(new char[] { (char) ('A' + (code / 676)), (char) ('A' + ((code / 26) % 26)),
+        (char) ('A' + (code % 26)) });
+  }
+
+  private static char carrierChar(int digit) {
+    return (char) (digit < 10 ? '0' + digit : 'A' + (digit - 10));
+  }
+
+  /**
+   * The inverse of daysFromCivil, but counting from 1987-01-01.
+   * 
+   * @return year, month and day
+   */
+  private static int[] civilFromDays(int daysSinceEpoch) {
+
+    final int z = daysSinceEpoch + daysFromCivil(1987, 1, 1) + 719468;
+    final int era = (z >= 0 ? z : z - 146096) / 146097;
+    final int doe = z - (era * 146097);
+    final int yoe = (doe - (doe / 1460) + (doe / 36524) - (doe / 146096)) / 365;
+    final int doy = doe - ((365 * yoe) + (yoe / 4) - (yoe / 100));
+    final int mp = ((5 * doy) + 2) / 153;
+    final int d = doy - (((153 * mp) + 2) / 5) + 1;
+    final int m = mp < 10 ? mp + 3 : mp - 9;
+
+    return new int[] { yoe + (era * 400) + (m <= 2 ? 1 : 0), m, d };
+  }
+
+  /**
+   * @return 'AAA' to 'ZZZ' as 0 to 17575, or -1
+   */
+  static int airportCode(String airport) {
+
+    if (airport == null || airport.length() != 3) {
+      return -1;
+    }
+
+    int code = 0;
+
+    for (int i = 0; i < 3; i++) {
+
+      char c = airport.charAt(i);
+
+      if (c < 'A' || c > 'Z') {
+        return -1;
+      }
+
+      code = (code * 26) + (c - 'A');
+    }
+
+    return code;
+  }
+
+  /**
+   * @return two characters from [0-9A-Z] as 0 to 1295, or -1
+   */
+  static int carrierCode(String carrier) {
+
+    if (carrier == null || carrier.length() != 2) {
+      return -1;
+    }
+
+    int code = 0;
+
+    for (int i = 0; i < 2; i++) {
+
+      char c = carrier.charAt(i);
+      int digit;
+
+      if (c >= '0' && c <= '9') {
+        digit = c - '0';
+      } else if (c >= 'A' && c <= 'Z') {
+        digit = 10 + (c - 'A');
+      } else {
+        return -1;
+      }
+
+      code = (code * 36) + digit;
+    }
+
+    return code;
+  }
+
+  /**
+   * @return 'HHMM' as minutes since midnight, or -1
+   */
+  static int minutesSinceMidnight(String hhmm) {
+
+    if (hhmm == null || hhmm.length() != 4) {
+      return -1;
+    }
+
+    final int hours = parseDigits(hhmm, 0, 2);
+    final int minutes = parseDigits(hhmm, 2, 4);
+
+    if (hours < 0 || hours > 23 || minutes < 0 || minutes > 59) {
+      return -1;
+    }
+
+    return (hours * 60) + minutes;
+  }
+
+  /**
+   * @return days since 1987-01-01, or -1 if the date isn't valid or isn't in
+   *         canonical form.
+   */
+  static int daysSinceEpoch(String year, String month, String dayOfMonth) {
+
+    if (year == null || year.length() != 4 || !isCanonicalSmallNumber(month)
+        || !isCanonicalSmallNumber(dayOfMonth)) {
+      return -1;
+    }
+
+    final int y = parseDigits(year, 0, 4);
+    final int m = parseDigits(month, 0, month.length());
+    final int d = parseDigits(dayOfMonth, 0, dayOfMonth.length());
+
+    if (y < 1987 || m < 1 || m > 12 || d < 1 || d > daysInMonth(y, m)) {
+      return -1;
+    }
+
+    return daysFromCivil(y, m, d) - daysFromCivil(1987, 1, 1);
+  }
+
+  /**
+   * @return true if 'value' is one or two digits with no leading zero
+   */
+  private static boolean isCanonicalSmallNumber(String value) {
+    return value != null && (value.length() == 1 || value.length() == 2) && value.charAt(0) != '0';
+  }
+
+  private static int daysInMonth(int year, int month) {
+
+    if (month == 2 && (year % 4 == 0) && (year % 100 != 0 || year % 400 == 0)) {
+      return 29;
+    }
+
+    return DAYS_IN_MONTH[month - 1];
+  }
+
+  /**
+   * Days since 1970-01-01 in the proleptic Gregorian calendar, using Howard
+   * Hinnant's algorithm. Unlike java.time this doesn't create any objects.
+   */
+  private static int daysFromCivil(int y, int m, int d) {
+
+    y -= m <= 2 ? 1 : 0;
+    final int era = (y >= 0 ? y : y - 399) / 400;
+    final int yoe = y - (era * 400);
+    final int doy = ((153 * (m > 2 ? m - 3 : m + 9)) + 2) / 5 + d - 1;
+    final int doe = (yoe * 365) + (yoe / 4) - (yoe / 100) + doy;
+
+    return (era * 146097) + doe - 719468;
+  }
+
+  /**
+   * @return the digits between 'start' and 'end' as a number, or -1 if they
+   *         aren't all digits.
+   */
+  private static int parseDigits(String value, int start, int end) {
+
+    int result = 0;
+
+    for (int i = start; i < end; i++) {
+
+      char c = value.charAt(i);
+
+      if (c < '0' || c > '9') {
+        return -1;
+      }
+
+      result = (result * 10) + (c - '0');
+    }
+
+    return result;
+  }
+
+}
@@ -23,97 +23,267 @@ package ie.voltdb.h2outil;
  * OTHER DEALINGS IN THE SOFTWARE.
  */
 
+import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.Closeable;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.SequenceInputStream;
 import java.net.URL;
+import java.net.URLConnection;
 import java.util.HashMap;
-import java.util.Vector;
+import java.util.Properties;
+import java.util.zip.CRC32;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipInputStream;
 
 import hex.genmodel.InMemoryMojoReaderBackend;
 import hex.genmodel.MojoReaderBackend;
 import hex.genmodel.utils.IOUtils;
-import mojoprocs.IsFlightLate;
 
 public class H2OMojoWrangler {
 
+  /**
+   * Class whose directory createInMemoryReaderBackendFromSetOfZipFiles(String)
+   * looks in.
+   */
+  private static final String DEFAULT_RESOURCE_CLASS = "mojoprocs.IsFlightLate";
+
+  /**
+   * Unzip a zip file, whole or in fragments, that lives next to IsFlightLate.
+   * 
+   * @param modelZipFileName name of zip file
+   * @return A MojoReaderBackend containing the uncompressed contents.
+   * @throws IOException if the zip doesn't exist whole or in fragments
+   * @deprecated Use createInMemoryReaderBackendFromSetOfZipFiles(Class,
+   *             String), which works for zip files next to any class.
+   */
+  @Deprecated
   public static MojoReaderBackend createInMemoryReaderBackendFromSetOfZipFiles(String modelZipFileName)
       throws IOException {
 
-    // What we unload content into
-    HashMap<String, byte[]> content = new HashMap<>();
+    // Looked up by name so this package doesn't depend on mojoprocs...
+    Class<?> resourceClass;
 
-    // A small zip file will be by itself; A lare one will be split into
-    // smaller ones, using the naming convention foo.zip.0, foo.zip.1 etc
-    // We create streams for our zip files...
-    Vector<InputStream> zipStreams = new Vector<InputStream>();
+    try {
+      resourceClass = Class.forName(DEFAULT_RESOURCE_CLASS);
+    } catch (ClassNotFoundException e) {
+      throw new IOException(DEFAULT_RESOURCE_CLASS + " not found", e);
+    }
 
-    // Either we have one zip file or many. Assume one and see
-    // what happens...
+    return createInMemoryReaderBackendFromSetOfZipFiles(resourceClass, modelZipFileName);
+  }
 
-    URL mojoURL = IsFlightLate.class.getResource(modelZipFileName);
-    InputStream inputStream = null;
+  /**
+   * Unzip a zip file, whole or in fragments, that lives in the same directory
+   * as 'resourceClass'.
+   * 
+   * @param resourceClass    class the zip file is next to
+   * @param modelZipFileName name of zip file
+   * @return A MojoReaderBackend containing the uncompressed contents.
+   * @throws IOException if the zip doesn't exist whole or in fragments
+   */
+  public static MojoReaderBackend createInMemoryReaderBackendFromSetOfZipFiles(Class<?> resourceClass,
+      String modelZipFileName) throws IOException {
 
-    try {
-      // Some oddness here. When developing on a desktop
-      // mojoURL will be 'null' if the zip is missing. If
-      // being run from inside a JAR mojoURL will not be null
-      // but will throw an IO exception if the file is bad.
-      //
-      // So the exception block below will catch either an
-      // NPE or an IOException...
-      inputStream = mojoURL.openStream();
-    } catch (Exception e) {
-      inputStream = null;
+    return createInMemoryReaderBackendFromZipBytes(readZipFileBytes(resourceClass, modelZipFileName));
+  }
+
+  /**
+   * Suffix of the manifest VoltDBSchemaBuilder writes when it splits a zip
+   * file into fragments. It's a properties file listing the fragments, in
+   * order, and the length and CRC32 of the zip file they make up.
+   */
+  public static final String MANIFEST_SUFFIX = ".manifest";
+
+  /**
+   * Read the raw (still compressed) bytes of a zip file that lives in the same
+   * directory as 'resourceClass', which is normally one of our stored
+   * procedures. A large zip file may have been split into fragments, in which
+   * case we return the fragments glued back together.
+   * 
+   * VoltDBSchemaBuilder names fragments after the zip file's contents and
+   * sends a manifest listing them after the fragments themselves, so until
+   * the manifest changes we still see the complete previous version. An empty
+   * file is one VoltDBSchemaBuilder has deleted, and is treated as missing.
+   * Zip files split by hand as foo.zip.0, foo.zip.1 etc, without a manifest,
+   * still work.
+   * 
+   * @param resourceClass    class the zip file is next to
+   * @param modelZipFileName name of zip file
+   * @return The zip file as a byte array
+   * @throws IOException if the zip doesn't exist whole or in fragments, or
+   *                     its fragments don't match its manifest
+   */
+  public static byte[] readZipFileBytes(Class<?> resourceClass, String modelZipFileName) throws IOException {
+
+    // A small zip file will be by itself...
+    byte[] zipBytes = readResource(resourceClass, modelZipFileName);
+
+    if (zipBytes != null) {
+      return zipBytes;
     }
 
-    if (inputStream != null) {
+    // A large one will be split into smaller ones, listed in a manifest...
+    byte[] manifestBytes = readResource(resourceClass, modelZipFileName + MANIFEST_SUFFIX);
 
-      zipStreams.add(inputStream);
+    if (manifestBytes != null) {
+      return readFragments(resourceClass, modelZipFileName, manifestBytes);
+    }
 
-    } else {
-      // Assume we got an io exception because we have many
-      // zip files instead of 1...
-      int zipCounter = 0;
-      boolean keepGoing = true;
+    // ...or use the naming convention foo.zip.0, foo.zip.1 etc
+    ByteArrayOutputStream os = new ByteArrayOutputStream();
+    int zipCounter = 0;
+    byte[] fragment;
 
-      while (keepGoing) {
+    while ((fragment = readResource(resourceClass, modelZipFileName + "." + zipCounter++)) != null) {
+      os.write(fragment);
+    }
 
-        try {
+    // Sanity check...
+    if (zipCounter == 1) {
+      throw new IOException("Zip file " + modelZipFileName + " doesn't exist whole or in fragments...");
+    }
 
-          URL mojoPartURL = IsFlightLate.class.getResource(modelZipFileName + "." + zipCounter++);
+    return os.toByteArray();
+  }
 
-          if (mojoPartURL != null) {
+  /**
+   * Glue together the fragments listed in a manifest, and check they add up
+   * to the zip file the manifest describes.
+   * 
+   * @param resourceClass    class the zip file is next to
+   * @param modelZipFileName name of zip file
+   * @param manifestBytes    contents of the manifest
+   * @return The zip file as a byte array
+   * @throws IOException if a fragment is missing, or the length or CRC32 is
+   *                     wrong
+   */
+  private static byte[] readFragments(Class<?> resourceClass, String modelZipFileName, byte[] manifestBytes)
+      throws IOException {
 
-            InputStream zipInputStream = mojoPartURL.openStream();
-            zipStreams.add(zipInputStream);
+    Properties manifest = new Properties();
+    manifest.load(new ByteArrayInputStream(manifestBytes));
 
-          } else {
+    String fragmentNames = manifest.getProperty("fragments");
+    String length = manifest.getProperty("length");
+    String crc32 = manifest.getProperty("crc32");
 
-            keepGoing = false;
+    if (fragmentNames == null || length == null || crc32 == null) {
+      throw new IOException("Manifest for " + modelZipFileName + " is incomplete");
+    }
 
-          }
-        } catch (IOException e2) {
-          // Same oddness as above...
-          // mojoPartURL will be non-null but unusable...
-          keepGoing = false;
-        }
+    byte[] zipBytes = new byte[Integer.parseInt(length)];
+    int offset = 0;
+
+    for (String fragmentName : fragmentNames.split(",")) {
+
+      byte[] fragment = readResource(resourceClass, fragmentName);
 
+      if (fragment == null) {
+        throw new IOException("Fragment " + fragmentName + " of " + modelZipFileName + " is missing");
       }
+
+      if (offset + fragment.length > zipBytes.length) {
+        throw new IOException("Fragments of " + modelZipFileName + " are bigger than its manifest says");
+      }
+
+      System.arraycopy(fragment, 0, zipBytes, offset, fragment.length);
+      offset += fragment.length;
     }
 
-    // Sanity check...
-    if (zipStreams.size() == 0) {
-      throw new IOException("Zip file " + modelZipFileName + " doesn't exist whole or in fragments...");
+    CRC32 crc = new CRC32();
+    crc.update(zipBytes, 0, offset);
+
+    if (offset != zipBytes.length || crc.getValue() != Long.parseLong(crc32)) {
+      throw new IOException("Fragments of " + modelZipFileName + " don't match its manifest");
+    }
+
+    return zipBytes;
+  }
+
+  /**
+   * Read a file that lives in the same directory as 'resourceClass'.
+   * 
+   * @param resourceClass class the file is next to
+   * @param name          name of the file
+   * @return its contents, or null if it doesn't exist, can't be read or is
+   *         empty.
+   */
+  private static byte[] readResource(Class<?> resourceClass, String name) {
+
+    URL url = resourceClass.getResource(name);
+    InputStream inputStream = null;
+
+    try {
+      // Some oddness here. When developing on a desktop
+      // url will be 'null' if the file is missing. If
+      // being run from inside a JAR url will not be null
+      // but will throw an IO exception if the file is bad.
+      //
+      // So the exception block below will catch either an
+      // NPE or an IOException...
+      URLConnection connection = url.openConnection();
+      inputStream = connection.getInputStream();
+      long length = connection.getContentLengthLong();
+
+      if (length >= 0 && length < Integer.MAX_VALUE) {
+
+        // If we know how big it is we can read it straight into an array of
+        // the right size...
+        byte[] contents = new byte[(int) length];
+        int offset = 0;
+        int n;
+
+        while (offset < contents.length && (n = inputStream.read(contents, offset, contents.length - offset)) > 0) {
+          offset += n;
+        }
+
+        // The length should be right, but if it isn't we want to know...
+        if (offset != contents.length || inputStream.read() != -1) {
+          throw new IOException(name + " isn't the size its URL said it was");
+        }
+
+        return contents.length > 0 ? contents : null;
+      }
+
+      ByteArrayOutputStream os = new ByteArrayOutputStream();
+      IOUtils.copyStream(inputStream, os);
+
+      return os.size() > 0 ? os.toByteArray() : null;
+
+    } catch (Exception e) {
+      return null;
+    } finally {
+      closeQuietly(inputStream);
     }
+  }
+
+  /**
+   * Create a MojoReaderBackend for a zip file that we've already read into
+   * memory, without unzipping anything until it's asked for. Call close() on
+   * it once the model is built.
+   * 
+   * @param zipBytes Contents of a zip file
+   * @return A LazyZipMojoReaderBackend
+   * @throws IOException
+   */
+  public static LazyZipMojoReaderBackend createLazyReaderBackendFromZipBytes(byte[] zipBytes) throws IOException {
+    return new LazyZipMojoReaderBackend(zipBytes);
+  }
+
+  /**
+   * Unzip a zip file that we've already read into memory.
+   * 
+   * @param zipBytes Contents of a zip file
+   * @return A MojoReaderBackend containing the uncompressed contents.
+   * @throws IOException
+   */
+  public static MojoReaderBackend createInMemoryReaderBackendFromZipBytes(byte[] zipBytes) throws IOException {
 
-    SequenceInputStream sequenceInputStream = new SequenceInputStream(zipStreams.elements());
+    // What we unload content into
+    HashMap<String, byte[]> content = new HashMap<>();
 
-    ZipInputStream zis = new ZipInputStream(sequenceInputStream);
+    ZipInputStream zis = new ZipInputStream(new ByteArrayInputStream(zipBytes));
 
     try {
       ZipEntry entry;
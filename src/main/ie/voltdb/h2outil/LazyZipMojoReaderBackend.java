@@ -0,0 +1,285 @@
+package ie.voltdb.h2outil;
+
+/* This file is part of VoltDB.
+ * Copyright (C) 2008-2019 VoltDB Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+import java.util.zip.ZipEntry;
+
+import hex.genmodel.MojoReaderBackend;
+
+/**
+ * MojoReaderBackend that reads straight out of the compressed bytes of a zip
+ * file.
+ * 
+ * The InMemoryMojoReaderBackend we used to create unzips every entry up front
+ * into a ByteArrayOutputStream and then copies it again, so while a model is
+ * being read we hold the zip file, every entry and a copy of every entry. Here
+ * we only read the zip's central directory when we're created, and inflate an
+ * entry into a buffer of exactly the right size when ModelMojoReader asks for
+ * it. Once the model is built close() lets go of the zip bytes.
+ * 
+ * We only understand what ZipOutputStream writes: entries that are STORED or
+ * DEFLATED, and no ZIP64.
+ *
+ */
+public class LazyZipMojoReaderBackend implements MojoReaderBackend, Closeable {
+
+  private static final int END_OF_CENTRAL_DIRECTORY_SIG = 0x06054b50;
+  private static final int CENTRAL_DIRECTORY_SIG = 0x02014b50;
+  private static final int LOCAL_HEADER_SIG = 0x04034b50;
+  private static final int END_OF_CENTRAL_DIRECTORY_SIZE = 22;
+  private static final int CENTRAL_DIRECTORY_HEADER_SIZE = 46;
+  private static final int LOCAL_HEADER_SIZE = 30;
+
+  /**
+   * Where to find one entry in 'zipBytes'.
+   */
+  private static class Entry {
+
+    final int method;
+    final long crc;
+    final int compressedSize;
+    final int size;
+    final int localHeaderOffset;
+
+    Entry(int method, long crc, int compressedSize, int size, int localHeaderOffset) {
+      this.method = method;
+      this.crc = crc;
+      this.compressedSize = compressedSize;
+      this.size = size;
+      this.localHeaderOffset = localHeaderOffset;
+    }
+  }
+
+  private byte[] zipBytes;
+  private final HashMap<String, Entry> entries = new HashMap<String, Entry>();
+
+  /**
+   * @param zipBytes Contents of a zip file. We don't copy it, so it mustn't be
+   *                 changed while we're in use.
+   * @throws IOException if zipBytes isn't a zip file we can read
+   */
+  public LazyZipMojoReaderBackend(byte[] zipBytes) throws IOException {
+    super();
+    this.zipBytes = zipBytes;
+    readCentralDirectory();
+  }
+
+  @Override
+  public BufferedReader getTextFile(String filename) throws IOException {
+    return new BufferedReader(
+        new InputStreamReader(new ByteArrayInputStream(getBinaryFile(filename)), StandardCharsets.UTF_8));
+  }
+
+  @Override
+  public byte[] getBinaryFile(String filename) throws IOException {
+
+    Entry entry = entries.get(filename);
+
+    if (entry == null) {
+      throw new IOException("Zip file doesn't contain " + filename);
+    }
+
+    if (zipBytes == null) {
+      throw new IOException("Can't read " + filename + " after close()");
+    }
+
+    if (readInt(entry.localHeaderOffset) != LOCAL_HEADER_SIG) {
+      throw new IOException("Bad local header for " + filename);
+    }
+
+    // The local header's name and extra field can differ in length from the
+    // central directory's, so we have to look here to find the data...
+    final int dataOffset = entry.localHeaderOffset + LOCAL_HEADER_SIZE + readShort(entry.localHeaderOffset + 26)
+        + readShort(entry.localHeaderOffset + 28);
+
+    if (dataOffset + (long) entry.compressedSize > zipBytes.length) {
+      throw new IOException("Zip file is truncated at " + filename);
+    }
+
+    byte[] content = new byte[entry.size];
+
+    if (entry.method == ZipEntry.STORED) {
+
+      System.arraycopy(zipBytes, dataOffset, content, 0, entry.size);
+
+    } else {
+
+      Inflater inflater = new Inflater(true);
+
+      try {
+
+        // Inflater wants an extra byte after the data when there's no zlib
+        // header. There's always at least the central directory after it.
+        inflater.setInput(zipBytes, dataOffset, Math.min(entry.compressedSize + 1, zipBytes.length - dataOffset));
+
+        int inflated = 0;
+
+        while (inflated < content.length && !inflater.finished()) {
+
+          int n = inflater.inflate(content, inflated, content.length - inflated);
+
+          if (n == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+            break;
+          }
+
+          inflated += n;
+        }
+
+        if (inflated != content.length) {
+          throw new IOException("Expected " + content.length + " bytes in " + filename + ", got " + inflated);
+        }
+
+      } catch (DataFormatException e) {
+        throw new IOException("Can't inflate " + filename + ": " + e.getMessage(), e);
+      } finally {
+        inflater.end();
+      }
+    }
+
+    CRC32 crc = new CRC32();
+    crc.update(content, 0, content.length);
+
+    if (crc.getValue() != entry.crc) {
+      throw new IOException("CRC mismatch for " + filename);
+    }
+
+    return content;
+  }
+
+  @Override
+  public boolean exists(String filename) {
+    return entries.containsKey(filename);
+  }
+
+  /**
+   * @return How many entries the zip file has.
+   */
+  public int getEntryCount() {
+    return entries.size();
+  }
+
+  /**
+   * Let go of the zip file's bytes. After this only exists() works.
+   */
+  @Override
+  public void close() {
+    zipBytes = null;
+  }
+
+  /**
+   * Find the end of central directory record, which is the last thing in the
+   * file apart from an optional comment, and use it to index every entry.
+   */
+  private void readCentralDirectory() throws IOException {
+
+    int endOffset = -1;
+
+    for (int i = zipBytes.length - END_OF_CENTRAL_DIRECTORY_SIZE; i >= 0
+        && i >= zipBytes.length - END_OF_CENTRAL_DIRECTORY_SIZE - 0xFFFF; i--) {
+
+      if (readInt(i) == END_OF_CENTRAL_DIRECTORY_SIG) {
+        endOffset = i;
+        break;
+      }
+    }
+
+    if (endOffset < 0) {
+      throw new IOException("Not a zip file");
+    }
+
+    final int entryCount = readShort(endOffset + 10);
+    final long directoryOffset = readInt(endOffset + 16) & 0xFFFFFFFFL;
+
+    if (entryCount == 0xFFFF || directoryOffset == 0xFFFFFFFFL) {
+      throw new IOException("ZIP64 files aren't supported");
+    }
+
+    int offset = (int) directoryOffset;
+
+    for (int i = 0; i < entryCount; i++) {
+
+      if (offset + CENTRAL_DIRECTORY_HEADER_SIZE > zipBytes.length || readInt(offset) != CENTRAL_DIRECTORY_SIG) {
+        throw new IOException("Bad central directory entry " + i);
+      }
+
+      final int method = readShort(offset + 10);
+      final long crc = readInt(offset + 16) & 0xFFFFFFFFL;
+      final long compressedSize = readInt(offset + 20) & 0xFFFFFFFFL;
+      final long size = readInt(offset + 24) & 0xFFFFFFFFL;
+      final int nameLength = readShort(offset + 28);
+      final int extraLength = readShort(offset + 30);
+      final int commentLength = readShort(offset + 32);
+      final long localHeaderOffset = readInt(offset + 42) & 0xFFFFFFFFL;
+
+      String name = new String(zipBytes, offset + CENTRAL_DIRECTORY_HEADER_SIZE, nameLength, StandardCharsets.UTF_8);
+
+      if (method != ZipEntry.STORED && method != ZipEntry.DEFLATED) {
+        throw new IOException("Unsupported compression method " + method + " for " + name);
+      }
+
+      if (size >= Integer.MAX_VALUE || compressedSize >= Integer.MAX_VALUE
+          || localHeaderOffset >= Integer.MAX_VALUE) {
+        throw new IOException("File too large: " + name);
+      }
+
+      if (method == ZipEntry.STORED && size != compressedSize) {
+        throw new IOException("Bad size for " + name);
+      }
+
+      // Directories don't have any content and ModelMojoReader never asks for
+      // them...
+      if (!name.endsWith("/")) {
+        entries.put(name, new Entry(method, crc, (int) compressedSize, (int) size, (int) localHeaderOffset));
+      }
+
+      offset += CENTRAL_DIRECTORY_HEADER_SIZE + nameLength + extraLength + commentLength;
+    }
+  }
+
+  /**
+   * @return little endian unsigned short at 'offset'
+   */
+  private int readShort(int offset) {
+    return (zipBytes[offset] & 0xFF) | ((zipBytes[offset + 1] & 0xFF) << 8);
+  }
+
+  /**
+   * @return little endian int at 'offset'
+   */
+  private int readInt(int offset) {
+    return readShort(offset) | (readShort(offset + 2) << 16);
+  }
+
+}
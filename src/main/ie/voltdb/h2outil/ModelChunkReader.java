@@ -0,0 +1,47 @@
+package ie.voltdb.h2outil;
+
+/* This file is part of VoltDB.
+ * Copyright (C) 2008-2019 VoltDB Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+
+import java.io.IOException;
+
+/**
+ * Somewhere MojoModelRegistry can read a model's zip file from, a piece at a
+ * time. Used for models kept in the MODEL_CHUNKS table, where the reading has
+ * to be done by the procedure that wants the model.
+ *
+ */
+public interface ModelChunkReader {
+
+  /**
+   * Read some chunks of a zip file.
+   * 
+   * @param firstChunkId id of the first chunk we want
+   * @param chunkCount   how many chunks we want
+   * @return the chunks, in order
+   * @throws IOException if any of them are missing
+   */
+  public byte[][] readChunks(int firstChunkId, int chunkCount) throws IOException;
+
+}
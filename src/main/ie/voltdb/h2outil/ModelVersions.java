@@ -0,0 +1,269 @@
+package ie.voltdb.h2outil;
+
+/* This file is part of VoltDB.
+ * Copyright (C) 2008-2019 VoltDB Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+
+import java.io.IOException;
+
+import org.voltcore.logging.VoltLogger;
+import org.voltdb.VoltTable;
+
+/**
+ * Turns rows from MODEL_VERSIONS into loaded models.
+ * 
+ * With k-safety every replica of a partition runs each read write
+ * transaction, and they all have to run the same SQL and come to the same
+ * answer. Whether a model is already loaded depends on what else has run in
+ * that replica's JVM - a node that has just rejoined the cluster has nothing
+ * loaded at all - so nothing a read write procedure does may depend on it.
+ * 
+ * What every replica does agree on is MODEL_LOADS. LoadModelVersion reads
+ * every chunk of a version on every replica of a partition, and records that
+ * it did so in MODEL_LOADS. Each server that loads a model from MODEL_CHUNKS
+ * also keeps a copy of its zip file on local disk (see MojoModelRegistry).
+ * So once MODEL_LOADS says a partition has loaded a version, every replica of
+ * it can get the model without reading MODEL_CHUNKS, even after a restart.
+ * 
+ * <ul>
+ * <li>getModel() reads MODEL_CHUNKS only if this JVM doesn't have the version
+ * it's asked for. Only read only procedures, which run on a single replica,
+ * may use it.
+ * <li>loadModel(Class, String, VoltTable, boolean, ModelChunkReader) is for
+ * read write procedures. If MODEL_LOADS says this partition has loaded the
+ * version it doesn't read anything. If not, every replica reads every chunk,
+ * so they all do the same thing.
+ * <li>loadModel(String, VoltTable, ModelChunkReader) always reads every chunk.
+ * It's what LoadModelVersion uses.
+ * <li>getLoadedModel() never reads anything from the database, and fails if
+ * this server doesn't have the model. It's only for things that can't change
+ * what a transaction writes or returns, such as shadow scoring, which counts
+ * the failure and carries on.
+ * </ul>
+ * 
+ * A server that joins the cluster without the copies the old one had, such
+ * as a replacement, has to read the chunks the first time it needs each
+ * version, even though its partners don't. It only reads - what it writes
+ * and returns is the same - and it only happens once per version, as after
+ * that it has its own copy.
+ *
+ */
+public class ModelVersions {
+
+  private static final VoltLogger LOG = new VoltLogger("MOJO");
+
+  /**
+   * Get a model, reading MODEL_CHUNKS only if this JVM doesn't have it. Only
+   * for read only procedures - see above.
+   * 
+   * @param resourceClass Class the zip file is next to, if 'version' is null or
+   *                      has a null CHECKSUM.
+   * @param modelName     Name of the model
+   * @param version       A row with VERSION, CHUNK_COUNT, TOTAL_BYTES and
+   *                      CHECKSUM columns, positioned on the version we want,
+   *                      or null if the model is the zip file in our JAR.
+   * @param chunkReader   Where to read the chunks from if this JVM doesn't
+   *                      have the model.
+   * @return The model
+   * @throws IOException if we don't have the model and can't read it
+   */
+  public static SharedMojoModel getModel(Class<?> resourceClass, String modelName, VoltTable version,
+      ModelChunkReader chunkReader) throws IOException {
+
+    if (isInJar(version)) {
+      return MojoModelRegistry.getModel(resourceClass, modelName);
+    }
+
+    return MojoModelRegistry.getModel(modelName, version.getLong("CHECKSUM"), version.getLong("TOTAL_BYTES"),
+        (int) version.getLong("CHUNK_COUNT"), chunkReader);
+  }
+
+  /**
+   * Get a model the same way on every replica, for read write procedures.
+   * 
+   * @param resourceClass Class the zip file is next to, if 'version' is null or
+   *                      has a null CHECKSUM.
+   * @param modelName     Name of the model
+   * @param version       A row with VERSION, CHUNK_COUNT, TOTAL_BYTES and
+   *                      CHECKSUM columns, positioned on the version we want,
+   *                      or null if the model is the zip file in our JAR.
+   * @param loadedHere    true if MODEL_LOADS says this partition has loaded
+   *                      'version' - see isLoadedHere().
+   * @param chunkReader   Reads the version's chunks from MODEL_CHUNKS. Only
+   *                      used if 'loadedHere' is false, or this server has
+   *                      lost its copy of the model.
+   * @return The model
+   * @throws IOException if the chunks are missing or don't add up to the
+   *                     zip file described by 'version'
+   */
+  public static SharedMojoModel loadModel(Class<?> resourceClass, String modelName, VoltTable version,
+      boolean loadedHere, ModelChunkReader chunkReader) throws IOException {
+
+    if (isInJar(version)) {
+      return MojoModelRegistry.getModel(resourceClass, modelName);
+    }
+
+    if (loadedHere) {
+
+      SharedMojoModel sharedModel = MojoModelRegistry.getLoadedModel(modelName, version.getLong("CHECKSUM"));
+
+      if (sharedModel != null) {
+        return sharedModel;
+      }
+
+      LOG.warn("ModelVersions: version " + version.getLong("VERSION") + " of " + modelName
+          + " was loaded on this partition but this server has no copy of it. Reading it from MODEL_CHUNKS.");
+    }
+
+    return loadModel(modelName, version, chunkReader);
+  }
+
+  /**
+   * @param loads Output of a query that counts the MODEL_LOADS rows for the
+   *              version we want on this partition, with a matching checksum.
+   * @return true if LoadModelVersion has loaded the version on this partition
+   */
+  public static boolean isLoadedHere(VoltTable loads) {
+
+    loads.resetRowPosition();
+
+    return loads.advanceRow() && loads.getLong(0) > 0;
+  }
+
+  /**
+   * Get a model this server already has, without reading anything from the
+   * database.
+   * 
+   * @param resourceClass Class the zip file is next to, if 'version' is null or
+   *                      has a null CHECKSUM.
+   * @param modelName     Name of the model
+   * @param version       A row with VERSION and CHECKSUM columns, positioned
+   *                      on the version we want, or null if the model is the
+   *                      zip file in our JAR.
+   * @return The model
+   * @throws IOException if this server doesn't have it
+   */
+  public static SharedMojoModel getLoadedModel(Class<?> resourceClass, String modelName, VoltTable version)
+      throws IOException {
+
+    if (isInJar(version)) {
+      return MojoModelRegistry.getModel(resourceClass, modelName);
+    }
+
+    SharedMojoModel sharedModel = MojoModelRegistry.getLoadedModel(modelName, version.getLong("CHECKSUM"));
+
+    if (sharedModel == null) {
+      throw new IOException("Version " + version.getLong("VERSION") + " of " + modelName
+          + " isn't loaded on this server");
+    }
+
+    return sharedModel;
+  }
+
+  /**
+   * @param version A MODEL_VERSIONS row, or null
+   * @return true if the model we want is the zip file in our JAR.
+   */
+  private static boolean isInJar(VoltTable version) {
+
+    if (version == null) {
+      return true;
+    }
+
+    version.getLong("CHECKSUM");
+
+    return version.wasNull();
+  }
+
+  /**
+   * Read every chunk of a version of a model and load it. The chunks are read
+   * even if we already have the model, so that every replica runs the same
+   * SQL.
+   * 
+   * @param modelName   Name of the model
+   * @param version     A row with CHUNK_COUNT, TOTAL_BYTES and CHECKSUM
+   *                    columns, positioned on the version we want
+   * @param chunkReader Reads the version's chunks from MODEL_CHUNKS
+   * @return The model
+   * @throws IOException if the chunks are missing or don't add up to the
+   *                     zip file described by 'version'
+   */
+  public static SharedMojoModel loadModel(String modelName, VoltTable version, ModelChunkReader chunkReader)
+      throws IOException {
+
+    final int chunkCount = (int) version.getLong("CHUNK_COUNT");
+    final byte[][] chunks = new byte[chunkCount][];
+
+    for (int firstChunk = 0; firstChunk < chunkCount; firstChunk += MojoModelRegistry.CHUNKS_PER_READ) {
+
+      int readCount = Math.min(MojoModelRegistry.CHUNKS_PER_READ, chunkCount - firstChunk);
+      System.arraycopy(chunkReader.readChunks(firstChunk, readCount), 0, chunks, firstChunk, readCount);
+    }
+
+    final ModelChunkReader chunksWeRead = (firstChunkId, readCount) -> {
+
+      byte[][] result = new byte[readCount][];
+      System.arraycopy(chunks, firstChunkId, result, 0, readCount);
+      return result;
+    };
+
+    SharedMojoModel sharedModel = MojoModelRegistry.getModel(modelName, version.getLong("CHECKSUM"),
+        version.getLong("TOTAL_BYTES"), chunkCount, chunksWeRead);
+
+    // If this server already had the model it may have lost its copy since...
+    MojoModelRegistry.keepCopy(modelName, version.getLong("CHECKSUM"), version.getLong("TOTAL_BYTES"), chunkCount,
+        chunksWeRead);
+
+    return sharedModel;
+  }
+
+  /**
+   * Turn the output of a query on MODEL_CHUNKS into what a ModelChunkReader
+   * returns.
+   * 
+   * @param chunks       Rows with CHUNK_ID and CHUNK columns, in CHUNK_ID
+   *                     order
+   * @param modelName    The model the chunks belong to
+   * @param firstChunkId The chunk we asked for first
+   * @param chunkCount   How many chunks we asked for
+   * @return The chunks, in order
+   * @throws IOException if any are missing
+   */
+  public static byte[][] getChunks(VoltTable chunks, String modelName, int firstChunkId, int chunkCount)
+      throws IOException {
+
+    byte[][] result = new byte[chunkCount][];
+
+    for (int i = 0; i < chunkCount; i++) {
+
+      if (!chunks.advanceRow() || chunks.getLong("CHUNK_ID") != firstChunkId + i) {
+        throw new IOException("Chunk " + (firstChunkId + i) + " of " + modelName + " is missing");
+      }
+
+      result[i] = chunks.getVarbinary("CHUNK");
+    }
+
+    return result;
+  }
+
+}
@@ -0,0 +1,712 @@
+package ie.voltdb.h2outil;
+
+/* This file is part of VoltDB.
+ * Copyright (C) 2008-2019 VoltDB Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.CRC32;
+
+import org.voltcore.logging.VoltLogger;
+
+import hex.genmodel.ModelMojoReader;
+import hex.genmodel.MojoModel;
+import hex.genmodel.MojoReaderBackend;
+import hex.genmodel.algos.gbm.GbmMojoModel;
+
+/**
+ * JVM wide registry of loaded MOJO models.
+ * 
+ * VoltDB creates one instance of a procedure per execution site, so if each
+ * procedure instance loads its own model we end up with one copy of the trees
+ * per site, and pay the unzip and parse cost once per site. Instead procedures
+ * ask this class for the model, and the first site to ask does the work.
+ * 
+ * Models either come from a zip file in the procedure JAR, or from chunks in
+ * the MODEL_CHUNKS table, which is how models that are too big for
+ * @UpdateClasses get deployed. Either way the zip file is read from memory by
+ * a LazyZipMojoReaderBackend.
+ * 
+ * Models are keyed by name and by the CRC32 of the zip file they came from.
+ * Normally this class is reloaded along with the procedures by @UpdateClasses,
+ * but if it ends up in VoltDB's lib directory it will outlive the procedures,
+ * and we don't want a new zip file with an old name to get the old model. A
+ * zip file in a JAR can't change without a new ClassLoader, so we remember
+ * its checksum per class and only read and check it again when it's asked
+ * for through a class we haven't seen. That holds even when the name is
+ * currently bound to a version from MODEL_CHUNKS.
+ * 
+ * Every site in the JVM calls this, so finding a model we already have takes
+ * no locks: it's a ConcurrentHashMap lookup and, at most once a millisecond,
+ * a write of the time it was last used. Loading a model takes seconds, so it
+ * happens in a FutureTask per model name. The site that starts the load runs
+ * it, sites that want the same model wait for it, and sites that want any
+ * other model aren't held up at all.
+ * 
+ * Any number of models can be asked for, but we only keep the maxModels most
+ * recently used ones. Sites that are still holding an evicted model can carry
+ * on using it; the next site to ask for it by name loads it again. We don't
+ * keep the zip files of models that came from MODEL_CHUNKS in memory once
+ * they're loaded. Instead we write each one to modelDir, and
+ * getLoadedModel(String, long) loads it again from there, without reading
+ * MODEL_CHUNKS, if it's been evicted or this JVM has been restarted. That's
+ * what lets read write procedures use a version without reading its chunks -
+ * see ModelVersions.
+ *
+ */
+public class MojoModelRegistry {
+
+  private static final VoltLogger LOG = new VoltLogger("MOJO");
+
+  /**
+   * Models we've loaded, keyed by name. There is only ever one version of a
+   * given name in here.
+   */
+  private static final ConcurrentHashMap<String, LoadedModel> models = new ConcurrentHashMap<String, LoadedModel>();
+
+  /**
+   * Loads that are in progress, keyed by model name.
+   */
+  private static final ConcurrentHashMap<String, FutureTask<SharedMojoModel>> loads =
+      new ConcurrentHashMap<String, FutureTask<SharedMojoModel>>();
+
+  /**
+   * CRC32 of each zip file we've read from a JAR, keyed by the class it's
+   * next to and then by name. A zip file in a JAR can't change without a new
+   * ClassLoader, and so a new class, so we only ever read each one once per
+   * class. ClassValue doesn't stop the class being unloaded after
+   * @UpdateClasses, and finding a value we already have takes no locks.
+   */
+  private static final ClassValue<ConcurrentHashMap<String, Long>> jarChecksums =
+      new ClassValue<ConcurrentHashMap<String, Long>>() {
+        @Override
+        protected ConcurrentHashMap<String, Long> computeValue(Class<?> type) {
+          return new ConcurrentHashMap<String, Long>();
+        }
+      };
+
+  /**
+   * Checksum of the newest version of each model we've loaded, for
+   * getLoadedChecksum(). We don't forget a model's checksum when it's evicted,
+   * as sites may still be using it.
+   */
+  private static final ConcurrentHashMap<String, Long> loadedChecksums = new ConcurrentHashMap<String, Long>();
+
+  /**
+   * How many chunks we ask a ModelChunkReader for at a time. VoltDB limits how
+   * much a single query can return, so we can't ask for all of them at once.
+   */
+  public static final int CHUNKS_PER_READ = 8;
+
+  /**
+   * Returned by getLoadedChecksum() if we don't have the model.
+   */
+  public static final long NO_MODEL_LOADED = -1;
+
+  /**
+   * How often, at most, we update the time a model was last used. Every site
+   * shares the same LoadedModel, so writing it on every call would bounce its
+   * cache line between cores.
+   */
+  private static final long USE_STAMP_NANOS = 1000000;
+
+  /**
+   * Where we keep a copy of each model we've loaded from MODEL_CHUNKS. This
+   * needs to survive a restart, so on a real server set it to somewhere other
+   * than the temporary directory.
+   */
+  private static final File modelDir = new File(System.getProperty("mojoprocs.modelDir",
+      new File(System.getProperty("java.io.tmpdir"), "mojoprocs-models").getPath()));
+
+  /**
+   * How many copies of each model we keep in modelDir. ActivateModelVersion
+   * keeps the version it replaces, so we keep that too.
+   */
+  private static final int COPIES_PER_MODEL = 2;
+
+  /**
+   * How many models we keep before we start evicting the least recently used.
+   */
+  private static volatile int maxModels = Integer.getInteger("mojoprocs.maxModels", 16);
+
+  /**
+   * How many models we've evicted. Sites that keep their own per model state
+   * can compare this with what it was last time to see if they need to tidy
+   * up.
+   */
+  private static final AtomicLong evictionCount = new AtomicLong();
+
+  /**
+   * Held while evicting, so two sites that finish loading at the same time
+   * don't both evict.
+   */
+  private static final Object evictionLock = new Object();
+
+  /**
+   * Something that can produce the bytes of a model's zip file. Only called
+   * if we don't already have the model.
+   */
+  private interface ZipBytesSource {
+    byte[] getZipBytes() throws IOException;
+  }
+
+  /**
+   * A model in 'models', along with when it was last used.
+   */
+  private static class LoadedModel {
+
+    final SharedMojoModel model;
+
+    volatile long lastUsedNanos;
+
+    LoadedModel(SharedMojoModel model) {
+      this.model = model;
+      this.lastUsedNanos = System.nanoTime();
+    }
+
+    SharedMojoModel use() {
+
+      long now = System.nanoTime();
+
+      if (now - lastUsedNanos > USE_STAMP_NANOS) {
+        lastUsedNanos = now;
+      }
+
+      return model;
+    }
+  }
+
+  /**
+   * Get a model, loading it if this is the first time anyone has asked for
+   * this version of it.
+   * 
+   * @param resourceClass    class the zip file is next to, normally the
+   *                         procedure asking for it.
+   * @param modelZipFileName name of zip file, which needs to be in the same
+   *                         directory as resourceClass.
+   * @return A model that is shared by every caller.
+   * @throws IOException
+   */
+  public static SharedMojoModel getModel(Class<?> resourceClass, String modelZipFileName) throws IOException {
+
+    ConcurrentHashMap<String, Long> checksums = jarChecksums.get(resourceClass);
+    Long knownChecksum = checksums.get(modelZipFileName);
+
+    if (knownChecksum != null) {
+
+      // We've seen this zip file before, so we only need to read it again if
+      // the model we have under its name is some other version, such as one
+      // from MODEL_CHUNKS...
+      LoadedModel loaded = models.get(modelZipFileName);
+
+      if (loaded != null && loaded.model.getChecksum() == knownChecksum) {
+        return loaded.use();
+      }
+
+      return getModel(modelZipFileName, knownChecksum, false,
+          () -> H2OMojoWrangler.readZipFileBytes(resourceClass, modelZipFileName));
+    }
+
+    // Reading the compressed bytes and calculating a CRC is cheap compared to
+    // unzipping them and building the trees, but we still only do it once...
+    byte[] zipBytes = H2OMojoWrangler.readZipFileBytes(resourceClass, modelZipFileName);
+    long checksum = getChecksum(zipBytes);
+    checksums.put(modelZipFileName, checksum);
+
+    return getModel(modelZipFileName, checksum, false, () -> zipBytes);
+
+  }
+
+  /**
+   * Get a model that is stored in chunks in the database, loading it if this
+   * is the first time anyone has asked for this version of it. Unlike
+   * getModel(Class, String) we don't need to read anything to find out if we already
+   * have it, as the caller tells us the checksum.
+   * 
+   * @param modelName   name of the model
+   * @param checksum    CRC32 of the model's zip file
+   * @param totalBytes  size of the model's zip file
+   * @param chunkCount  how many chunks the zip file is in
+   * @param chunkReader where to read the chunks from if we need them
+   * @return A model that is shared by every caller.
+   * @throws IOException if the chunks don't add up to a zip file with the
+   *                     right size and checksum
+   */
+  public static SharedMojoModel getModel(String modelName, long checksum, long totalBytes, int chunkCount,
+      ModelChunkReader chunkReader) throws IOException {
+
+    return getModel(modelName, checksum, true,
+        () -> readChunks(modelName, checksum, totalBytes, chunkCount, chunkReader));
+  }
+
+  /**
+   * Get a model we've already loaded, whatever version it is. Unlike
+   * getModel(Class, String) this doesn't read the zip file, so it's cheap
+   * enough to call every time.
+   * 
+   * @param modelName name of a model
+   * @return The model, or null if we don't have it.
+   */
+  public static SharedMojoModel getLoadedModel(String modelName) {
+
+    LoadedModel loaded = models.get(modelName);
+
+    if (loaded == null) {
+      return null;
+    }
+
+    return loaded.use();
+  }
+
+  /**
+   * Get a particular version of a model without reading anything from the
+   * database. If we don't have it but this server loaded it from MODEL_CHUNKS
+   * at some point, we load it again from the copy in modelDir.
+   * 
+   * @param modelName name of a model
+   * @param checksum  CRC32 of the version we want
+   * @return The model, or null if this server has never loaded this version,
+   *         or has lost its copy.
+   * @throws IOException if loading it again fails
+   */
+  public static SharedMojoModel getLoadedModel(String modelName, long checksum) throws IOException {
+
+    LoadedModel loaded = models.get(modelName);
+
+    if (loaded != null && loaded.model.getChecksum() == checksum) {
+      return loaded.use();
+    }
+
+    final File copy = getCopyFile(modelName, checksum);
+
+    if (!copy.isFile()) {
+      return null;
+    }
+
+    return getModel(modelName, checksum, false, () -> {
+
+      byte[] zipBytes = Files.readAllBytes(copy.toPath());
+
+      if (getChecksum(zipBytes) != checksum) {
+        throw new IOException(copy + " doesn't match its checksum");
+      }
+
+      return zipBytes;
+    });
+  }
+
+  /**
+   * @param sharedModel a model we gave out earlier
+   * @return true if 'sharedModel' is still the one we give out for its name.
+   *         Unlike getLoadedModel this doesn't count as using the model.
+   */
+  public static boolean isLoaded(SharedMojoModel sharedModel) {
+
+    LoadedModel loaded = models.get(sharedModel.getModelName());
+    return loaded != null && loaded.model == sharedModel;
+  }
+
+  /**
+   * @return How many models we're holding.
+   */
+  public static int getLoadedModelCount() {
+    return models.size();
+  }
+
+  /**
+   * @return How many models we've evicted since this class was loaded.
+   */
+  public static long getEvictionCount() {
+    return evictionCount.get();
+  }
+
+  /**
+   * @return How many models we keep before evicting the least recently used.
+   */
+  public static int getMaxModels() {
+    return maxModels;
+  }
+
+  /**
+   * @param newMaxModels How many models to keep before evicting the least
+   *                     recently used. Must be at least 1. If we have more than
+   *                     this already the extra ones are evicted now.
+   */
+  public static void setMaxModels(int newMaxModels) {
+
+    if (newMaxModels < 1) {
+      throw new IllegalArgumentException("maxModels must be at least 1, not " + newMaxModels);
+    }
+
+    maxModels = newMaxModels;
+    evictIfNeeded();
+  }
+
+  /**
+   * @param modelName name of a model
+   * @return Checksum of the newest version of 'modelName' we have loaded, or
+   *         NO_MODEL_LOADED. This is cheap enough to call every time.
+   */
+  public static long getLoadedChecksum(String modelName) {
+
+    Long checksum = loadedChecksums.get(modelName);
+
+    if (checksum == null) {
+      return NO_MODEL_LOADED;
+    }
+
+    return checksum;
+  }
+
+  /**
+   * Find a model with a given name and checksum, or load it if we don't have
+   * it. Only one site loads a given name at a time; the others wait for it
+   * without holding any lock, and then check that what it loaded is the
+   * version they wanted.
+   */
+  private static SharedMojoModel getModel(String modelName, long checksum, boolean keepCopy,
+      ZipBytesSource zipBytesSource) throws IOException {
+
+    while (true) {
+
+      LoadedModel loaded = models.get(modelName);
+
+      if (loaded != null && loaded.model.getChecksum() == checksum) {
+        return loaded.use();
+      }
+
+      FutureTask<SharedMojoModel> load = new FutureTask<SharedMojoModel>(
+          () -> loadModel(modelName, checksum, keepCopy, zipBytesSource.getZipBytes()));
+
+      FutureTask<SharedMojoModel> otherLoad = loads.putIfAbsent(modelName, load);
+
+      if (otherLoad == null) {
+
+        try {
+          load.run();
+        } finally {
+          loads.remove(modelName, load);
+        }
+
+        return waitFor(modelName, load);
+      }
+
+      // Someone else is loading this name, possibly a different version.
+      // Either way we go round again once they've finished...
+      SharedMojoModel otherModel = waitFor(modelName, otherLoad);
+
+      if (otherModel.getChecksum() == checksum) {
+        return otherModel;
+      }
+    }
+  }
+
+  /**
+   * Wait for a load to finish.
+   * 
+   * @return the model it loaded
+   * @throws IOException if it failed
+   */
+  private static SharedMojoModel waitFor(String modelName, FutureTask<SharedMojoModel> load) throws IOException {
+
+    boolean interrupted = false;
+
+    try {
+      while (true) {
+        try {
+          return load.get();
+        } catch (InterruptedException e) {
+          interrupted = true;
+        } catch (ExecutionException e) {
+
+          Throwable cause = e.getCause();
+
+          if (cause instanceof IOException) {
+            throw (IOException) cause;
+          }
+
+          if (cause instanceof RuntimeException) {
+            throw (RuntimeException) cause;
+          }
+
+          if (cause instanceof Error) {
+            throw (Error) cause;
+          }
+
+          throw new IOException("Can't load " + modelName, cause);
+        }
+      }
+    } finally {
+      if (interrupted) {
+        Thread.currentThread().interrupt();
+      }
+    }
+  }
+
+  /**
+   * Read a model's chunks into one zip file and check it.
+   */
+  private static byte[] readChunks(String modelName, long checksum, long totalBytes, int chunkCount,
+      ModelChunkReader chunkReader) throws IOException {
+
+    if (totalBytes < 0 || totalBytes >= Integer.MAX_VALUE) {
+      throw new IOException("Model " + modelName + " is too big: " + totalBytes + " bytes");
+    }
+
+    byte[] zipBytes = new byte[(int) totalBytes];
+    int offset = 0;
+
+    for (int firstChunk = 0; firstChunk < chunkCount; firstChunk += CHUNKS_PER_READ) {
+
+      byte[][] chunks = chunkReader.readChunks(firstChunk, Math.min(CHUNKS_PER_READ, chunkCount - firstChunk));
+
+      for (int i = 0; i < chunks.length; i++) {
+
+        if (offset + chunks[i].length > zipBytes.length) {
+          throw new IOException("Model " + modelName + " has more than " + totalBytes + " bytes");
+        }
+
+        System.arraycopy(chunks[i], 0, zipBytes, offset, chunks[i].length);
+        offset += chunks[i].length;
+      }
+    }
+
+    if (offset != zipBytes.length) {
+      throw new IOException("Model " + modelName + " has " + offset + " bytes, expected " + totalBytes);
+    }
+
+    if (getChecksum(zipBytes) != checksum) {
+      throw new IOException("Model " + modelName + " doesn't match its checksum");
+    }
+
+    return zipBytes;
+  }
+
+  /**
+   * Build a model from a zip file and put it in 'models', replacing any
+   * older version of the same model. Only called by whoever owns the load for
+   * 'modelName' in 'loads'. If 'keepCopy' is set the zip file came from
+   * MODEL_CHUNKS, and we write it to modelDir.
+   */
+  private static SharedMojoModel loadModel(String modelName, long checksum, boolean keepCopy, byte[] zipBytes)
+      throws IOException {
+
+    long startMs = System.currentTimeMillis();
+
+    // Entries are only unzipped as they're read, and once we've built the
+    // model and trees we don't need them...
+    LazyZipMojoReaderBackend reader = H2OMojoWrangler.createLazyReaderBackendFromZipBytes(zipBytes);
+    MojoModel model;
+    TreeEnsembleScorer treeScorer;
+
+    try {
+      model = ModelMojoReader.readFrom(reader);
+      treeScorer = createTreeScorer(modelName, checksum, reader, model);
+    } finally {
+      reader.close();
+    }
+
+    SharedMojoModel sharedModel = new SharedMojoModel(modelName, checksum, model, treeScorer,
+        System.currentTimeMillis() - startMs);
+    models.put(modelName, new LoadedModel(sharedModel));
+    loadedChecksums.put(modelName, checksum);
+
+    LOG.info("MojoModelRegistry: loaded " + sharedModel);
+
+    if (keepCopy) {
+      writeCopy(modelName, checksum, zipBytes);
+    }
+
+    evictIfNeeded();
+
+    return sharedModel;
+  }
+
+  /**
+   * Make sure this server has a copy of a model in modelDir, even if it
+   * loaded it long ago and the copy has since gone. The chunks are only
+   * asked for if it hasn't.
+   */
+  static void keepCopy(String modelName, long checksum, long totalBytes, int chunkCount, ModelChunkReader chunkReader)
+      throws IOException {
+
+    if (!getCopyFile(modelName, checksum).isFile()) {
+      writeCopy(modelName, checksum, readChunks(modelName, checksum, totalBytes, chunkCount, chunkReader));
+    }
+  }
+
+  /**
+   * @return where we keep our copy of a version of a model. Model names come
+   *         from users, so anything that could be part of a path is replaced.
+   */
+  private static File getCopyFile(String modelName, long checksum) {
+    return new File(modelDir, getCopyPrefix(modelName) + Long.toHexString(checksum));
+  }
+
+  private static String getCopyPrefix(String modelName) {
+    return modelName.replaceAll("[^A-Za-z0-9_.-]", "_").replace("..", "__") + ".";
+  }
+
+  /**
+   * Write a copy of a model's zip file to modelDir, and delete all but the
+   * newest COPIES_PER_MODEL copies of that model. We write to a temporary
+   * file first, so a half written copy is never seen. If we can't write it we
+   * carry on, as the copy is only there to save reading MODEL_CHUNKS.
+   */
+  private static void writeCopy(String modelName, long checksum, byte[] zipBytes) {
+
+    final File copy = getCopyFile(modelName, checksum);
+
+    try {
+
+      if (copy.isFile() && copy.length() == zipBytes.length) {
+        copy.setLastModified(System.currentTimeMillis());
+      } else {
+
+        Files.createDirectories(modelDir.toPath());
+        File temp = File.createTempFile(copy.getName(), ".tmp", modelDir);
+
+        try {
+          Files.write(temp.toPath(), zipBytes);
+          Files.move(temp.toPath(), copy.toPath(), StandardCopyOption.REPLACE_EXISTING,
+              StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+          temp.delete();
+        }
+      }
+
+      final String prefix = getCopyPrefix(modelName);
+      File[] copies = modelDir.listFiles((dir, name) -> name.startsWith(prefix)
+          && name.substring(prefix.length()).matches("[0-9a-f]+"));
+
+      if (copies != null && copies.length > COPIES_PER_MODEL) {
+
+        Arrays.sort(copies, (a, b) -> Long.compare(b.lastModified(), a.lastModified()));
+
+        for (int i = COPIES_PER_MODEL; i < copies.length; i++) {
+          copies[i].delete();
+        }
+      }
+
+    } catch (IOException e) {
+      LOG.warn("MojoModelRegistry: can't write " + copy + ": " + e.getMessage());
+    }
+  }
+
+  /**
+   * Evict the least recently used models until we have no more than
+   * maxModels. This only happens after a load, so a linear search for the
+   * oldest is fine.
+   */
+  private static void evictIfNeeded() {
+
+    synchronized (evictionLock) {
+
+      while (models.size() > maxModels) {
+
+        Map.Entry<String, LoadedModel> oldest = null;
+
+        for (Map.Entry<String, LoadedModel> entry : models.entrySet()) {
+          if (oldest == null || entry.getValue().lastUsedNanos - oldest.getValue().lastUsedNanos < 0) {
+            oldest = entry;
+          }
+        }
+
+        if (oldest == null) {
+          break;
+        }
+
+        if (models.remove(oldest.getKey(), oldest.getValue())) {
+          evictionCount.incrementAndGet();
+          LOG.info("MojoModelRegistry: evicted " + oldest.getValue().model);
+        }
+      }
+    }
+  }
+
+  /**
+   * Find a faster way to add up the trees of 'model' than the MOJO's own tree
+   * walker. We prefer a class generated by MojoScorerGenerator, and fall back
+   * to a FlatTreeEnsemble. Either way it has to give exactly the same answers
+   * as the MOJO on a set of test rows before we'll use it.
+   * 
+   * @return a TreeEnsembleScorer, or null if 'model' isn't a GBM or we can't
+   *         read its trees.
+   */
+  private static TreeEnsembleScorer createTreeScorer(String modelZipFileName, long checksum,
+      MojoReaderBackend reader, MojoModel model) {
+
+    if (!(model instanceof GbmMojoModel)) {
+      return null;
+    }
+
+    GbmMojoModel gbmModel = (GbmMojoModel) model;
+
+    try {
+
+      MojoTrees trees = MojoTrees.read(reader, model);
+      TreeEnsembleScorer treeScorer = MojoScorerGenerator.loadGeneratedScorer(modelZipFileName, checksum, gbmModel,
+          trees);
+
+      if (treeScorer == null) {
+
+        FlatTreeEnsemble flatTrees = FlatTreeEnsemble.build(trees, checksum);
+        String mismatch = trees.findMismatch(flatTrees, gbmModel, MojoScorerGenerator.VERIFY_ROWS);
+
+        if (mismatch == null) {
+          LOG.info("MojoModelRegistry: using " + flatTrees + " for " + modelZipFileName);
+          treeScorer = flatTrees;
+        } else {
+          LOG.warn("MojoModelRegistry: FlatTreeEnsemble doesn't match " + modelZipFileName + ": " + mismatch);
+        }
+      }
+
+      return treeScorer;
+
+    } catch (IOException e) {
+      LOG.warn("MojoModelRegistry: can't read trees of " + modelZipFileName + ": " + e.getMessage());
+    }
+
+    return null;
+  }
+
+  /**
+   * @param zipBytes
+   * @return CRC32 of zipBytes
+   */
+  private static long getChecksum(byte[] zipBytes) {
+    CRC32 crc = new CRC32();
+    crc.update(zipBytes, 0, zipBytes.length);
+    return crc.getValue();
+  }
+
+}
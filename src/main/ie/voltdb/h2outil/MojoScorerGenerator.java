@@ -0,0 +1,560 @@
+package ie.voltdb.h2outil;
+
+/* This file is part of VoltDB.
+ * Copyright (C) 2008-2019 VoltDB Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.zip.CRC32;
+
+import org.voltcore.logging.VoltLogger;
+
+import hex.genmodel.MojoModel;
+import hex.genmodel.MojoReaderBackend;
+import hex.genmodel.ModelMojoReader;
+import hex.genmodel.algos.gbm.GbmMojoModel;
+
+/**
+ * Turns the trees of a GBM MOJO into Java source code, with each tree
+ * compiled into nested if statements instead of being walked byte by byte by
+ * SharedTreeMojoModel.
+ * 
+ * VoltDB runs procedures in a JRE with no compiler, so this runs at build
+ * time. If src/main/mojoprocs/gbm_pojo_test.zip exists, 'mvn package' runs
+ * 
+ * <pre>
+ * java ie.voltdb.h2outil.MojoScorerGenerator src/main/mojoprocs/gbm_pojo_test.zip target/generated-sources/scorer
+ * </pre>
+ * 
+ * and compiles the mojoprocs.GbmPojoTestTrees it writes into target/classes,
+ * where the client finds it and puts it in the procedure JAR. When MojoModelRegistry
+ * loads a model it looks for a class with this name, checks it was generated
+ * from the same zip file, checks it gets the same answers as the MOJO, and
+ * only then lets BinomialScorer use it. A stale or missing class just means we
+ * use a FlatTreeEnsemble instead.
+ * 
+ * The generated code follows the same rules as SharedTreeMojoModel.scoreTree()
+ * - same float split values, same NA handling, same order of addition - so the
+ * results are identical, not just close.
+ *
+ */
+public class MojoScorerGenerator {
+
+  private static final VoltLogger LOG = new VoltLogger("MOJO");
+
+  /**
+   * Package we put generated classes in if we aren't told otherwise. Also
+   * where MojoModelRegistry looks for them.
+   */
+  public static final String DEFAULT_PACKAGE = "mojoprocs";
+
+  /**
+   * The JIT won't compile methods over 8000 bytes of bytecode, so we move big
+   * subtrees into their own methods.
+   */
+  private static final int MAX_NODES_PER_METHOD = 200;
+
+  /**
+   * How many trees we add up in each scoreTreesN() method, for the same reason.
+   */
+  private static final int MAX_TREES_PER_METHOD = 250;
+
+  /**
+   * A class file can only have 65535 constants, and a static initializer can
+   * only be 64K of bytecode, so big models are split into nested classes,
+   * called Part0, Part1 etc, with about this many nodes each.
+   */
+  private static final int MAX_NODES_PER_PART = 10000;
+
+  /**
+   * What we call the nested classes.
+   */
+  public static final String PART_CLASS_PREFIX = "Part";
+
+  /**
+   * How many made up rows we check a generated class against before we use it.
+   */
+  public static final int VERIFY_ROWS = 10000;
+
+  private final MojoTrees trees;
+  private final long checksum;
+  private final String packageName;
+  private final String className;
+
+  // Things that belong to the part we are currently writing...
+  private final ArrayList<String> treeCalls = new ArrayList<String>();
+  private final ArrayList<String> methods = new ArrayList<String>();
+  private final HashMap<String, String> levelArrays = new HashMap<String, String>();
+  private final StringBuilder levelArrayDeclarations = new StringBuilder();
+  private long partNodeCount = 0;
+  private int subTreeCounter = 0;
+
+  private MojoScorerGenerator(MojoTrees trees, long checksum, String packageName, String className) {
+    this.trees = trees;
+    this.checksum = checksum;
+    this.packageName = packageName;
+    this.className = className;
+  }
+
+  /**
+   * @param args zip file, source directory, [package], [class name]
+   */
+  public static void main(String[] args) {
+
+    if (args.length < 2) {
+      msg("Usage: MojoScorerGenerator modelZipFile sourceDirectory [packageName] [className]");
+      System.exit(1);
+    }
+
+    try {
+
+      File zipFile = new File(args[0]);
+      String packageName = args.length > 2 ? args[2] : DEFAULT_PACKAGE;
+      String className = args.length > 3 ? args[3] : getGeneratedClassName(zipFile.getName());
+
+      byte[] zipBytes = Files.readAllBytes(zipFile.toPath());
+      MojoReaderBackend reader = H2OMojoWrangler.createLazyReaderBackendFromZipBytes(zipBytes);
+      MojoModel model = ModelMojoReader.readFrom(reader);
+      MojoTrees trees = MojoTrees.read(reader, model);
+
+      msg("Read " + trees.getNTreeGroups() + " tree groups, " + trees.getNodeCount() + " nodes from "
+          + zipFile.getName());
+
+      File packageDir = new File(args[1], packageName.replace('.', File.separatorChar));
+      packageDir.mkdirs();
+      File sourceFile = new File(packageDir, className + ".java");
+
+      PrintWriter pw = new PrintWriter(new OutputStreamWriter(new FileOutputStream(sourceFile), "UTF-8"));
+
+      try {
+        writeClass(trees, getChecksum(zipBytes), packageName, className, pw);
+      } finally {
+        pw.close();
+      }
+
+      msg("Wrote " + sourceFile.getPath());
+
+    } catch (IOException e) {
+      msg(e.getMessage());
+      System.exit(2);
+    }
+
+  }
+
+  /**
+   * Work out what we call the class for a given zip file. 'gbm_pojo_test.zip'
+   * becomes 'GbmPojoTestTrees'.
+   * 
+   * @param modelZipFileName
+   * @return a class name, without a package.
+   */
+  public static String getGeneratedClassName(String modelZipFileName) {
+
+    String baseName = modelZipFileName;
+
+    if (baseName.toLowerCase().endsWith(".zip")) {
+      baseName = baseName.substring(0, baseName.length() - 4);
+    }
+
+    StringBuilder b = new StringBuilder();
+    boolean upper = true;
+
+    for (int i = 0; i < baseName.length(); i++) {
+
+      char c = baseName.charAt(i);
+
+      if (Character.isLetterOrDigit(c)) {
+        b.append(upper ? Character.toUpperCase(c) : c);
+        upper = false;
+      } else {
+        upper = true;
+      }
+    }
+
+    if (b.length() == 0 || !Character.isJavaIdentifierStart(b.charAt(0))) {
+      b.insert(0, "Model");
+    }
+
+    return b.append("Trees").toString();
+  }
+
+  /**
+   * Find, check and create the generated scorer for a model, if there is one.
+   * 
+   * @param modelZipFileName name of the zip file the model came from
+   * @param checksum         CRC32 of the zip file
+   * @param model            the model
+   * @param trees            trees of 'model'
+   * @return A TreeEnsembleScorer that gives the same answers as 'model', or
+   *         null if there isn't one.
+   */
+  public static TreeEnsembleScorer loadGeneratedScorer(String modelZipFileName, long checksum, GbmMojoModel model,
+      MojoTrees trees) {
+
+    String className = DEFAULT_PACKAGE + "." + getGeneratedClassName(modelZipFileName);
+    TreeEnsembleScorer scorer;
+
+    try {
+      scorer = (TreeEnsembleScorer) Class.forName(className).getDeclaredConstructor().newInstance();
+    } catch (ClassNotFoundException e) {
+      LOG.info("MojoScorerGenerator: no generated scorer " + className + " for " + modelZipFileName);
+      return null;
+    } catch (Exception e) {
+      LOG.warn("MojoScorerGenerator: can't create " + className + ": " + e);
+      return null;
+    }
+
+    if (scorer.getModelChecksum() != checksum) {
+      LOG.warn("MojoScorerGenerator: " + className + " was generated from a different version of "
+          + modelZipFileName + ", not using it");
+      return null;
+    }
+
+    String mismatch = trees.findMismatch(scorer, model, VERIFY_ROWS);
+
+    if (mismatch != null) {
+      LOG.warn("MojoScorerGenerator: " + className + " doesn't match " + modelZipFileName + ": " + mismatch
+          + ", not using it");
+      return null;
+    }
+
+    LOG.info("MojoScorerGenerator: using " + className + " for " + modelZipFileName);
+    return scorer;
+  }
+
+  /**
+   * Write the source of a scorer class for 'trees'. main() uses this, and so
+   * do the tests, which compile the result themselves.
+   * 
+   * @param trees       trees of the model
+   * @param checksum    CRC32 of the zip file the trees came from
+   * @param packageName package of the class, or "" for none
+   * @param className   name of the class, without a package
+   * @param pw          where the source goes
+   */
+  static void writeClass(MojoTrees trees, long checksum, String packageName, String className, PrintWriter pw) {
+    new MojoScorerGenerator(trees, checksum, packageName, className).writeClass(pw);
+  }
+
+  /**
+   * Write the source of the generated class.
+   * 
+   * @param pw
+   */
+  private void writeClass(PrintWriter pw) {
+
+    if (packageName.length() > 0) {
+      pw.println("package " + packageName + ";");
+      pw.println();
+    }
+
+    pw.println("import ie.voltdb.h2outil.TreeEnsembleScorer;");
+    pw.println();
+    pw.println("/**");
+    pw.println(" * Generated by ie.voltdb.h2outil.MojoScorerGenerator. Do not edit.");
+    pw.println(" * ");
+    pw.println(" * " + trees.getNTreeGroups() + " tree groups, " + trees.getNodeCount() + " nodes.");
+    pw.println(" */");
+    pw.println("public final class " + className + " implements TreeEnsembleScorer {");
+    pw.println();
+    pw.println("  public static final long MODEL_CHECKSUM = 0x" + Long.toHexString(checksum) + "L;");
+
+    final int classOffset = trees.getNClasses() == 1 ? 0 : 1;
+    int partCount = 0;
+
+    for (int c = 0; c < trees.getNTreesPerGroup(); c++) {
+      for (int g = 0; g < trees.getNTreeGroups(); g++) {
+
+        MojoTreeNode tree = trees.getTree(c, g);
+
+        if (tree != null) {
+
+          if (partNodeCount > 0 && partNodeCount + tree.getNodeCount() > MAX_NODES_PER_PART) {
+            writePart(pw, partCount++);
+          }
+
+          String methodName = "t" + c + "_" + g;
+          writeTreeMethod(methodName, tree);
+          treeCalls.add("preds[" + (classOffset + c) + "] += " + methodName + "(row);");
+          partNodeCount += tree.getNodeCount();
+        }
+      }
+    }
+
+    if (partNodeCount > 0) {
+      writePart(pw, partCount++);
+    }
+
+    pw.println();
+    pw.println("  @Override");
+    pw.println("  public long getModelChecksum() {");
+    pw.println("    return MODEL_CHECKSUM;");
+    pw.println("  }");
+    pw.println();
+    pw.println("  @Override");
+    pw.println("  public void scoreTrees(double[] row, double[] preds) {");
+    pw.println("    java.util.Arrays.fill(preds, 0);");
+
+    // Parts must be called in order, so we add things up in the same order as
+    // H2O does...
+    for (int i = 0; i < partCount; i++) {
+      pw.println("    " + PART_CLASS_PREFIX + i + ".scoreTrees(row, preds);");
+    }
+
+    pw.println("  }");
+    pw.println();
+    pw.println("  static boolean levelGoesRight(double d, boolean[] levelsRight, int bitOffset, int domainLength,");
+    pw.println("      boolean naRight) {");
+    pw.println("    if (Double.isNaN(d)) {");
+    pw.println("      return naRight;");
+    pw.println("    }");
+    pw.println("    final int level = (int) d;");
+    pw.println("    if (level < bitOffset || level - bitOffset >= levelsRight.length");
+    pw.println("        || (domainLength >= 0 && domainLength <= level)) {");
+    pw.println("      return naRight;");
+    pw.println("    }");
+    pw.println("    return levelsRight[level - bitOffset];");
+    pw.println("  }");
+    pw.println();
+    pw.println("  static boolean[] levels(String bits) {");
+    pw.println("    boolean[] levels = new boolean[bits.length()];");
+    pw.println("    for (int i = 0; i < levels.length; i++) {");
+    pw.println("      levels[i] = bits.charAt(i) == '1';");
+    pw.println("    }");
+    pw.println("    return levels;");
+    pw.println("  }");
+    pw.println();
+    pw.println("}");
+  }
+
+  /**
+   * Write the trees we've built up so far as a nested class, and start a new
+   * part.
+   */
+  private void writePart(PrintWriter pw, int partNumber) {
+
+    pw.println();
+    pw.println("  static final class " + PART_CLASS_PREFIX + partNumber + " {");
+
+    if (levelArrayDeclarations.length() > 0) {
+      pw.println();
+      pw.print(levelArrayDeclarations);
+    }
+
+    pw.println();
+    pw.println("    static void scoreTrees(double[] row, double[] preds) {");
+
+    for (int i = 0; i < treeCalls.size(); i += MAX_TREES_PER_METHOD) {
+      pw.println("      scoreTrees" + (i / MAX_TREES_PER_METHOD) + "(row, preds);");
+    }
+
+    pw.println("    }");
+
+    for (int i = 0; i < treeCalls.size(); i += MAX_TREES_PER_METHOD) {
+
+      pw.println();
+      pw.println("    private static void scoreTrees" + (i / MAX_TREES_PER_METHOD) + "(double[] row, double[] preds) {");
+
+      for (int j = i; j < Math.min(i + MAX_TREES_PER_METHOD, treeCalls.size()); j++) {
+        pw.println("      " + treeCalls.get(j));
+      }
+
+      pw.println("    }");
+    }
+
+    for (String method : methods) {
+      pw.println();
+      pw.print(method);
+    }
+
+    pw.println("  }");
+
+    treeCalls.clear();
+    methods.clear();
+    levelArrays.clear();
+    levelArrayDeclarations.setLength(0);
+    partNodeCount = 0;
+  }
+
+  /**
+   * Add a method that returns the leaf value of 'node' for a row. Subtrees
+   * that would make the method too big get methods of their own.
+   */
+  private void writeTreeMethod(String methodName, MojoTreeNode node) {
+
+    StringBuilder b = new StringBuilder();
+    b.append("    private static float " + methodName + "(double[] row) {\n");
+    writeNode(b, methodName, node, 3, new int[] { MAX_NODES_PER_METHOD });
+    b.append("    }\n");
+
+    methods.add(b.toString());
+  }
+
+  private void writeNode(StringBuilder b, String methodName, MojoTreeNode node, int depth, int[] budget) {
+
+    if (node.isLeaf()) {
+      indent(b, depth).append("return " + floatLiteral(node.getLeafValue()) + ";\n");
+      return;
+    }
+
+    budget[0]--;
+
+    indent(b, depth).append("if (" + getCondition(node) + ") {\n");
+    writeChild(b, methodName, node.getRight(), depth + 1, budget);
+    indent(b, depth).append("}\n");
+    writeChild(b, methodName, node.getLeft(), depth, budget);
+  }
+
+  private void writeChild(StringBuilder b, String methodName, MojoTreeNode child, int depth, int[] budget) {
+
+    if (child.isLeaf() || child.getNodeCount() <= budget[0]) {
+      writeNode(b, methodName, child, depth, budget);
+    } else {
+      String subTreeMethodName = methodName + "_" + subTreeCounter++;
+      writeTreeMethod(subTreeMethodName, child);
+      indent(b, depth).append("return " + subTreeMethodName + "(row);\n");
+    }
+  }
+
+  /**
+   * @return a Java expression that is true when a row goes right at 'node'.
+   */
+  private String getCondition(MojoTreeNode node) {
+
+    final String d = "row[" + node.getColumn() + "]";
+    final int domainLength = node.getDomainLength();
+
+    if (node.isNaVsRest()) {
+
+      if (!node.isNaRight()) {
+        return "false";
+      }
+
+      if (domainLength < 0) {
+        return "Double.isNaN(" + d + ")";
+      }
+
+      return "Double.isNaN(" + d + ") || (int) " + d + " >= " + domainLength;
+    }
+
+    if (node.getLevelsRight() != null) {
+      return className + ".levelGoesRight(" + d + ", " + getLevelArray(node.getLevelsRight()) + ", " + node.getBitOffset() + ", "
+          + domainLength + ", " + node.isNaRight() + ")";
+    }
+
+    final String splitValue = floatLiteral(node.getSplitValue());
+
+    // Comparisons with NaN are always false, so '!(d < s)' is true for NaNs
+    // and 'd >= s' isn't...
+    if (node.isNaRight()) {
+
+      if (domainLength < 0) {
+        return "!(" + d + " < " + splitValue + ")";
+      }
+
+      return "!(" + d + " < " + splitValue + ") || (int) " + d + " >= " + domainLength;
+    }
+
+    if (domainLength < 0) {
+      return d + " >= " + splitValue;
+    }
+
+    return d + " >= " + splitValue + " && (int) " + d + " < " + domainLength;
+  }
+
+  /**
+   * @return the name of a static array holding 'levelsRight'. Identical
+   *         arrays are shared.
+   */
+  private String getLevelArray(boolean[] levelsRight) {
+
+    StringBuilder bits = new StringBuilder(levelsRight.length);
+
+    for (int i = 0; i < levelsRight.length; i++) {
+      bits.append(levelsRight[i] ? '1' : '0');
+    }
+
+    String name = levelArrays.get(bits.toString());
+
+    if (name == null) {
+      name = "LEVELS_" + levelArrays.size();
+      levelArrays.put(bits.toString(), name);
+      levelArrayDeclarations.append(
+          "    private static final boolean[] " + name + " = " + className + ".levels(\"" + bits + "\");\n");
+    }
+
+    return name;
+  }
+
+  /**
+   * @return 'f' as a Java float literal that has exactly the same value.
+   */
+  static String floatLiteral(float f) {
+
+    if (Float.isNaN(f)) {
+      return "Float.NaN";
+    }
+
+    if (Float.isInfinite(f)) {
+      return f > 0 ? "Float.POSITIVE_INFINITY" : "Float.NEGATIVE_INFINITY";
+    }
+
+    return Float.toHexString(f) + "f";
+  }
+
+  private static StringBuilder indent(StringBuilder b, int depth) {
+
+    for (int i = 0; i < depth; i++) {
+      b.append("  ");
+    }
+
+    return b;
+  }
+
+  /**
+   * @param zipBytes
+   * @return CRC32 of zipBytes, calculated the same way as MojoModelRegistry
+   */
+  private static long getChecksum(byte[] zipBytes) {
+    CRC32 crc = new CRC32();
+    crc.update(zipBytes, 0, zipBytes.length);
+    return crc.getValue();
+  }
+
+  /**
+   * Print a formatted message.
+   * 
+   * @param message
+   */
+  private static void msg(String message) {
+    System.out.println(message);
+  }
+
+}
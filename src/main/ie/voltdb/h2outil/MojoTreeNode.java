@@ -0,0 +1,208 @@
+package ie.voltdb.h2outil;
+
+/* This file is part of VoltDB.
+ * Copyright (C) 2008-2019 VoltDB Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+
+/**
+ * One node of a decoded H2O tree. A node is either a leaf with a value or a
+ * split with two children.
+ * 
+ * The rules for which way a row goes are the same as H2O's own tree walker:
+ * NaNs, categorical levels outside the split's bitset and levels beyond the
+ * column's domain follow the 'NA direction'. Otherwise numeric splits send
+ * values >= the split value right, and categorical splits send levels whose
+ * bit is set right.
+ *
+ */
+public class MojoTreeNode {
+
+  private final boolean leaf;
+  private final float leafValue;
+
+  private final int column;
+  private final boolean naRight;
+  private final boolean naVsRest;
+  private final float splitValue;
+  private final int bitOffset;
+  private final boolean[] levelsRight;
+  private final int domainLength;
+  private final MojoTreeNode left;
+  private final MojoTreeNode right;
+  private final int nodeCount;
+
+  /**
+   * Create a leaf.
+   * 
+   * @param leafValue
+   */
+  MojoTreeNode(float leafValue) {
+    this.leaf = true;
+    this.leafValue = leafValue;
+    this.column = -1;
+    this.naRight = false;
+    this.naVsRest = false;
+    this.splitValue = 0;
+    this.bitOffset = 0;
+    this.levelsRight = null;
+    this.domainLength = -1;
+    this.left = null;
+    this.right = null;
+    this.nodeCount = 1;
+  }
+
+  /**
+   * Create a split.
+   * 
+   * @param column       column we split on
+   * @param naRight      true if missing or unknown values go right
+   * @param naVsRest     true if this split only separates NaNs from
+   *                     everything else
+   * @param splitValue   values >= this go right, if this is a numeric split
+   * @param bitOffset    first level covered by levelsRight
+   * @param levelsRight  for categorical splits, which levels go right. null
+   *                     for numeric splits.
+   * @param domainLength number of levels in 'column', or -1 if it's numeric
+   * @param left
+   * @param right
+   */
+  MojoTreeNode(int column, boolean naRight, boolean naVsRest, float splitValue, int bitOffset,
+      boolean[] levelsRight, int domainLength, MojoTreeNode left, MojoTreeNode right) {
+    this.leaf = false;
+    this.leafValue = 0;
+    this.column = column;
+    this.naRight = naRight;
+    this.naVsRest = naVsRest;
+    this.splitValue = splitValue;
+    this.bitOffset = bitOffset;
+    this.levelsRight = levelsRight;
+    this.domainLength = domainLength;
+    this.left = left;
+    this.right = right;
+    this.nodeCount = 1 + left.nodeCount + right.nodeCount;
+  }
+
+  /**
+   * @param d the value of getColumn() for the row we are scoring
+   * @return true if the row goes to the right child.
+   */
+  public boolean goesRight(double d) {
+
+    if (Double.isNaN(d) || (levelsRight != null && !isInRange((int) d))
+        || (domainLength >= 0 && domainLength <= (int) d)) {
+      return naRight;
+    }
+
+    if (naVsRest) {
+      return false;
+    }
+
+    if (levelsRight == null) {
+      return d >= splitValue;
+    }
+
+    return levelsRight[(int) d - bitOffset];
+  }
+
+  /**
+   * @param level
+   * @return true if 'level' is covered by our bitset.
+   */
+  public boolean isInRange(int level) {
+    return level >= bitOffset && level - bitOffset < levelsRight.length;
+  }
+
+  /**
+   * Walk the tree from this node.
+   * 
+   * @param row
+   * @return the value of the leaf 'row' ends up in.
+   */
+  public float score(double[] row) {
+
+    MojoTreeNode node = this;
+
+    while (!node.leaf) {
+      node = node.goesRight(row[node.column]) ? node.right : node.left;
+    }
+
+    return node.leafValue;
+  }
+
+  public boolean isLeaf() {
+    return leaf;
+  }
+
+  public float getLeafValue() {
+    return leafValue;
+  }
+
+  public int getColumn() {
+    return column;
+  }
+
+  public boolean isNaRight() {
+    return naRight;
+  }
+
+  public boolean isNaVsRest() {
+    return naVsRest;
+  }
+
+  public float getSplitValue() {
+    return splitValue;
+  }
+
+  public int getBitOffset() {
+    return bitOffset;
+  }
+
+  /**
+   * @return which levels go right for a categorical split, starting at
+   *         getBitOffset(), or null for a numeric split.
+   */
+  public boolean[] getLevelsRight() {
+    return levelsRight;
+  }
+
+  public int getDomainLength() {
+    return domainLength;
+  }
+
+  public MojoTreeNode getLeft() {
+    return left;
+  }
+
+  public MojoTreeNode getRight() {
+    return right;
+  }
+
+  /**
+   * @return number of nodes, including leaves, in the tree below and
+   *         including this one.
+   */
+  public int getNodeCount() {
+    return nodeCount;
+  }
+
+}
@@ -0,0 +1,479 @@
+package ie.voltdb.h2outil;
+
+/* This file is part of VoltDB.
+ * Copyright (C) 2008-2019 VoltDB Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Random;
+
+import hex.genmodel.MojoModel;
+import hex.genmodel.MojoReaderBackend;
+import hex.genmodel.algos.gbm.GbmMojoModel;
+import hex.genmodel.algos.tree.NaSplitDir;
+import hex.genmodel.utils.ByteBufferWrapper;
+import hex.genmodel.utils.GenmodelBitSet;
+
+/**
+ * The trees of a GBM MOJO, decoded from H2O's compressed byte format into
+ * MojoTreeNode objects.
+ * 
+ * We read 'model.ini' and 'trees/tCC_GGG.bin' straight from the
+ * MojoReaderBackend, and use H2O's own ByteBufferWrapper and GenmodelBitSet to
+ * pick the bytes apart, so byte order and bitset layout are whatever H2O says
+ * they are.
+ * 
+ * This is the starting point for MojoScorerGenerator and FlatTreeEnsemble.
+ * 
+ */
+public class MojoTrees {
+
+  /**
+   * Trees written by MOJO versions before this use an older format we don't
+   * decode.
+   */
+  private static final double MIN_MOJO_VERSION = 1.2;
+
+  private static final int NA_VS_REST = NaSplitDir.NAvsREST.value();
+  private static final int NA_LEFT = NaSplitDir.NALeft.value();
+  private static final int LEFT = NaSplitDir.Left.value();
+
+  private final int nClasses;
+  private final int nTreeGroups;
+  private final int nTreesPerGroup;
+  private final int featureCount;
+
+  /**
+   * Trees, indexed by [class][group]. A tree can be null if H2O didn't build
+   * it.
+   */
+  private final MojoTreeNode[][] trees;
+
+  private MojoTrees(int nClasses, int nTreeGroups, int nTreesPerGroup, int featureCount, MojoTreeNode[][] trees) {
+    this.nClasses = nClasses;
+    this.nTreeGroups = nTreeGroups;
+    this.nTreesPerGroup = nTreesPerGroup;
+    this.featureCount = featureCount;
+    this.trees = trees;
+  }
+
+  /**
+   * Decode the trees of a GBM MOJO.
+   * 
+   * @param reader Where the MOJO is
+   * @param model  The model we already read from 'reader'
+   * @return the decoded trees
+   * @throws IOException if this isn't a GBM MOJO we understand
+   */
+  public static MojoTrees read(MojoReaderBackend reader, MojoModel model) throws IOException {
+
+    if (!(model instanceof GbmMojoModel)) {
+      throw new IOException("Only GBM MOJOs are supported, not " + model.getClass().getName());
+    }
+
+    HashMap<String, String> info = readModelInfo(reader);
+
+    double mojoVersion = Double.parseDouble(getInfo(info, "mojo_version"));
+
+    if (mojoVersion < MIN_MOJO_VERSION) {
+      throw new IOException("MOJO version " + mojoVersion + " is too old, need " + MIN_MOJO_VERSION);
+    }
+
+    int nClasses = Integer.parseInt(getInfo(info, "n_classes"));
+    int nTreeGroups = Integer.parseInt(getInfo(info, "n_trees"));
+    int nTreesPerGroup = Integer.parseInt(getInfo(info, "n_trees_per_class"));
+
+    String[][] domains = model.getDomainValues();
+    MojoTreeNode[][] trees = new MojoTreeNode[nTreesPerGroup][nTreeGroups];
+
+    for (int c = 0; c < nTreesPerGroup; c++) {
+      for (int g = 0; g < nTreeGroups; g++) {
+
+        String blobName = String.format("trees/t%02d_%03d.bin", c, g);
+
+        if (reader.exists(blobName)) {
+
+          byte[] tree = reader.getBinaryFile(blobName);
+          ByteBufferWrapper ab = new ByteBufferWrapper(tree);
+          trees[c][g] = decodeNode(tree, ab, domains, blobName);
+
+          if (ab.hasRemaining()) {
+            throw new IOException(blobName + " has bytes left over after decoding");
+          }
+        }
+      }
+    }
+
+    return new MojoTrees(nClasses, nTreeGroups, nTreesPerGroup, model.nfeatures(), trees);
+  }
+
+  /**
+   * Decode one node and everything below it. This follows the same steps as
+   * SharedTreeMojoModel.scoreTree(), except that we visit both children
+   * instead of one.
+   */
+  private static MojoTreeNode decodeNode(byte[] tree, ByteBufferWrapper ab, String[][] domains, String blobName)
+      throws IOException {
+
+    int nodeType = ab.get1U();
+    int column = ab.get2();
+
+    // A tree that is just a leaf...
+    if (column == 65535) {
+      return new MojoTreeNode(ab.get4f());
+    }
+
+    int naSplitDir = ab.get1U();
+    boolean naVsRest = naSplitDir == NA_VS_REST;
+    boolean leftward = naSplitDir == NA_LEFT || naSplitDir == LEFT;
+    int lmask = (nodeType & 51);
+    int equal = (nodeType & 12);
+
+    if (equal == 4) {
+      throw new IOException(blobName + " uses a split type H2O no longer supports");
+    }
+
+    float splitValue = -1;
+    int bitOffset = 0;
+    boolean[] levelsRight = null;
+
+    if (!naVsRest) {
+
+      if (equal == 0) {
+
+        splitValue = ab.get4f();
+
+      } else {
+
+        GenmodelBitSet bs = new GenmodelBitSet(0);
+        int bitCount;
+
+        if (equal == 8) {
+          bitCount = 32;
+          bs.fill2(tree, ab);
+        } else {
+          // fill3 reads the offset and size itself, so peek at them first...
+          ByteBufferWrapper peek = new ByteBufferWrapper(tree);
+          peek.skip(ab.position());
+          bitOffset = peek.get2();
+          bitCount = peek.get4();
+          bs.fill3(tree, ab);
+        }
+
+        levelsRight = new boolean[bitCount];
+
+        for (int i = 0; i < bitCount; i++) {
+          levelsRight[i] = bs.contains(bitOffset + i);
+        }
+      }
+    }
+
+    MojoTreeNode left;
+
+    if (lmask <= 3) {
+
+      int leftSize = readSize(ab, lmask);
+      int leftStart = ab.position();
+      left = decodeNode(tree, ab, domains, blobName);
+
+      if (ab.position() - leftStart != leftSize) {
+        throw new IOException(blobName + " left subtree at " + leftStart + " should be " + leftSize + " bytes, was "
+            + (ab.position() - leftStart));
+      }
+
+    } else if (lmask == 48) {
+      left = new MojoTreeNode(ab.get4f());
+    } else {
+      throw new IOException(blobName + " has illegal lmask value " + lmask);
+    }
+
+    MojoTreeNode right;
+    int rmask = (nodeType & 0xC0) >> 2;
+
+    if ((rmask & 16) != 0) {
+      right = new MojoTreeNode(ab.get4f());
+    } else {
+      right = decodeNode(tree, ab, domains, blobName);
+    }
+
+    int domainLength = (domains != null && domains[column] != null) ? domains[column].length : -1;
+
+    return new MojoTreeNode(column, !leftward, naVsRest, splitValue, bitOffset, levelsRight, domainLength, left,
+        right);
+  }
+
+  private static int readSize(ByteBufferWrapper ab, int lmask) {
+
+    switch (lmask) {
+    case 0:
+      return ab.get1U();
+    case 1:
+      return ab.get2();
+    case 2:
+      return ab.get3();
+    default:
+      return ab.get4();
+    }
+  }
+
+  /**
+   * Read the [info] section of model.ini
+   */
+  private static HashMap<String, String> readModelInfo(MojoReaderBackend reader) throws IOException {
+
+    HashMap<String, String> info = new HashMap<String, String>();
+    BufferedReader br = reader.getTextFile("model.ini");
+
+    try {
+
+      boolean inInfo = false;
+      String line;
+
+      while ((line = br.readLine()) != null) {
+
+        line = line.trim();
+
+        if (line.startsWith("[")) {
+          inInfo = line.equals("[info]");
+        } else if (inInfo && line.indexOf('=') > 0) {
+          info.put(line.substring(0, line.indexOf('=')).trim(), line.substring(line.indexOf('=') + 1).trim());
+        }
+      }
+
+    } finally {
+      br.close();
+    }
+
+    return info;
+  }
+
+  private static String getInfo(HashMap<String, String> info, String key) throws IOException {
+
+    String value = info.get(key);
+
+    if (value == null) {
+      throw new IOException("model.ini has no value for " + key);
+    }
+
+    return value;
+  }
+
+  /**
+   * Add up the trees for 'row', the same way SharedTreeMojoModel does. preds
+   * ends up holding the raw tree sums, not probabilities.
+   * 
+   * @param row
+   * @param preds
+   */
+  public void scoreTrees(double[] row, double[] preds) {
+
+    Arrays.fill(preds, 0);
+    final int classOffset = nClasses == 1 ? 0 : 1;
+
+    for (int c = 0; c < nTreesPerGroup; c++) {
+      for (int g = 0; g < nTreeGroups; g++) {
+        if (trees[c][g] != null) {
+          preds[classOffset + c] += trees[c][g].score(row);
+        }
+      }
+    }
+  }
+
+  /**
+   * @param column
+   * @return every value a numeric split on 'column' uses, in no particular
+   *         order. Handy for making up rows that exercise every branch.
+   */
+  public float[] getSplitValues(int column) {
+
+    ArrayList<Float> values = new ArrayList<Float>();
+
+    for (int c = 0; c < nTreesPerGroup; c++) {
+      for (int g = 0; g < nTreeGroups; g++) {
+        addSplitValues(trees[c][g], column, values);
+      }
+    }
+
+    float[] splitValues = new float[values.size()];
+
+    for (int i = 0; i < splitValues.length; i++) {
+      splitValues[i] = values.get(i);
+    }
+
+    return splitValues;
+  }
+
+  private static void addSplitValues(MojoTreeNode node, int column, ArrayList<Float> values) {
+
+    if (node == null || node.isLeaf()) {
+      return;
+    }
+
+    if (node.getColumn() == column && node.getLevelsRight() == null && !node.isNaVsRest()) {
+      values.add(node.getSplitValue());
+    }
+
+    addSplitValues(node.getLeft(), column, values);
+    addSplitValues(node.getRight(), column, values);
+  }
+
+  /**
+   * Score made up rows with both 'model' and 'scorer', and make sure we get
+   * exactly the same predictions. Numeric values are picked from the split
+   * values in the trees, so every comparison gets exercised at and either side
+   * of the split. We also throw in NaNs and unseen categorical levels.
+   * 
+   * @param scorer
+   * @param model    the model we were read from
+   * @param rowCount how many rows to try
+   * @return null if everything matched, otherwise a description of the first
+   *         mismatch.
+   */
+  public String findMismatch(TreeEnsembleScorer scorer, GbmMojoModel model, int rowCount) {
+
+    // Fixed seed, so we check the same rows on every site...
+    Random r = new Random(42);
+
+    final int featureCount = model.nfeatures();
+    double[] row = new double[featureCount];
+    double[] expected = new double[model.getPredsSize()];
+    double[] actual = new double[model.getPredsSize()];
+
+    String[][] domains = new String[featureCount][];
+    float[][] splitValues = new float[featureCount][];
+
+    for (int i = 0; i < featureCount; i++) {
+      domains[i] = model.getDomainValues(i);
+      splitValues[i] = getSplitValues(i);
+    }
+
+    for (int i = 0; i < rowCount; i++) {
+
+      for (int j = 0; j < featureCount; j++) {
+        row[j] = makeUpValue(r, domains[j], splitValues[j]);
+      }
+
+      model.score0(row, expected);
+
+      scorer.scoreTrees(row, actual);
+      model.unifyPreds(row, 0, actual);
+
+      for (int j = 0; j < expected.length; j++) {
+        if (Double.compare(expected[j], actual[j]) != 0) {
+          return "row " + i + " pred " + j + " expected " + expected[j] + " got " + actual[j];
+        }
+      }
+    }
+
+    return null;
+  }
+
+  private static double makeUpValue(Random r, String[] domain, float[] splitValues) {
+
+    if (r.nextInt(10) == 0) {
+      return Double.NaN;
+    }
+
+    if (domain != null) {
+      // Sometimes return a level one past the end of the domain...
+      return r.nextInt(domain.length + 1);
+    }
+
+    if (splitValues.length == 0) {
+      return r.nextGaussian() * 1000;
+    }
+
+    double splitValue = splitValues[r.nextInt(splitValues.length)];
+
+    switch (r.nextInt(4)) {
+    case 0:
+      return splitValue;
+    case 1:
+      return Math.nextDown(splitValue);
+    case 2:
+      return Math.nextUp(splitValue);
+    default:
+      return splitValue * (0.9 + (r.nextDouble() * 0.2));
+    }
+  }
+
+  /**
+   * @return nClasses from model.ini
+   */
+  public int getNClasses() {
+    return nClasses;
+  }
+
+  /**
+   * @return how many groups of trees (i.e. boosting iterations) there are
+   */
+  public int getNTreeGroups() {
+    return nTreeGroups;
+  }
+
+  /**
+   * @return how many trees there are in each group
+   */
+  public int getNTreesPerGroup() {
+    return nTreesPerGroup;
+  }
+
+  /**
+   * @return how many input columns the model has
+   */
+  public int getFeatureCount() {
+    return featureCount;
+  }
+
+  /**
+   * @param classIndex
+   * @param group
+   * @return a tree, or null if H2O didn't build one.
+   */
+  public MojoTreeNode getTree(int classIndex, int group) {
+    return trees[classIndex][group];
+  }
+
+  /**
+   * @return total number of nodes, including leaves, in all trees.
+   */
+  public long getNodeCount() {
+
+    long count = 0;
+
+    for (int c = 0; c < nTreesPerGroup; c++) {
+      for (int g = 0; g < nTreeGroups; g++) {
+        if (trees[c][g] != null) {
+          count += trees[c][g].getNodeCount();
+        }
+      }
+    }
+
+    return count;
+  }
+
+}
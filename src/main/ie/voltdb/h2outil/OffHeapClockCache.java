@@ -0,0 +1,263 @@
+package ie.voltdb.h2outil;
+
+/* This file is part of VoltDB.
+ * Copyright (C) 2008-2019 VoltDB Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * A fixed size cache of long keys to small values (0 to 127), kept in a direct
+ * ByteBuffer so that however many entries it holds the garbage collector
+ * never has to look at them, and neither lookups nor inserts allocate.
+ * 
+ * The cache is split into buckets of WAYS slots. A key can only live in the
+ * bucket its hash picks, and each bucket evicts using the CLOCK algorithm:
+ * every slot has a 'referenced' bit that is set when the slot is used, and
+ * when we need room the bucket's hand moves round clearing set bits until it
+ * finds a slot whose bit is already clear.
+ * 
+ * Each slot is the key (8 bytes) followed by one byte holding the value in the
+ * low 7 bits and the referenced bit in the top bit.
+ * 
+ * Not thread safe. The idea is that each VoltDB site has its own.
+ *
+ */
+public class OffHeapClockCache {
+
+  /**
+   * Slots per bucket.
+   */
+  static final int WAYS = 8;
+
+  /**
+   * Value returned by get() when a key isn't in the cache.
+   */
+  public static final int NOT_FOUND = -1;
+
+  /**
+   * Largest value we can store.
+   */
+  public static final int MAX_VALUE = 0x7F;
+
+  private static final long EMPTY = Long.MIN_VALUE;
+  private static final int SLOT_BYTES = 9;
+  private static final int BUCKET_BYTES = WAYS * SLOT_BYTES;
+  private static final byte REFERENCED = (byte) 0x80;
+
+  private final ByteBuffer buffer;
+  private final int bucketMask;
+  private final int handsOffset;
+
+  private long hits = 0;
+  private long misses = 0;
+  private long evictions = 0;
+  private long size = 0;
+
+  /**
+   * @param minCapacity How many entries we need room for. Rounded up so the
+   *                    number of buckets is a power of two.
+   */
+  public OffHeapClockCache(int minCapacity) {
+
+    int bucketCount = Integer.highestOneBit(Math.max(1, (minCapacity + WAYS - 1) / WAYS));
+
+    if (bucketCount * WAYS < minCapacity) {
+      bucketCount <<= 1;
+    }
+
+    bucketMask = bucketCount - 1;
+    handsOffset = bucketCount * BUCKET_BYTES;
+
+    // One byte per bucket for its clock hand goes at the end...
+    buffer = ByteBuffer.allocateDirect(handsOffset + bucketCount).order(ByteOrder.nativeOrder());
+    clear();
+  }
+
+  /**
+   * Look a key up.
+   * 
+   * @param key
+   * @return the value we have for 'key', or NOT_FOUND
+   */
+  public int get(long key) {
+
+    final int bucketStart = bucketFor(key) * BUCKET_BYTES;
+
+    for (int slot = bucketStart; slot < bucketStart + BUCKET_BYTES; slot += SLOT_BYTES) {
+
+      final long slotKey = buffer.getLong(slot);
+
+      if (slotKey == key) {
+
+        final byte valueAndFlag = buffer.get(slot + 8);
+
+        if ((valueAndFlag & REFERENCED) == 0) {
+          buffer.put(slot + 8, (byte) (valueAndFlag | REFERENCED));
+        }
+
+        hits++;
+        return valueAndFlag & MAX_VALUE;
+      }
+
+      // Slots are filled in order and never emptied, so we can stop here...
+      if (slotKey == EMPTY) {
+        break;
+      }
+    }
+
+    misses++;
+    return NOT_FOUND;
+  }
+
+  /**
+   * Add or replace an entry, evicting something from the same bucket if it's
+   * full.
+   * 
+   * @param key   any value except Long.MIN_VALUE
+   * @param value 0 to MAX_VALUE
+   */
+  public void put(long key, int value) {
+
+    if (key == EMPTY || value < 0 || value > MAX_VALUE) {
+      throw new IllegalArgumentException("Can't cache " + key + "=" + value);
+    }
+
+    final int bucket = bucketFor(key);
+    final int bucketStart = bucket * BUCKET_BYTES;
+
+    for (int slot = bucketStart; slot < bucketStart + BUCKET_BYTES; slot += SLOT_BYTES) {
+
+      final long slotKey = buffer.getLong(slot);
+
+      if (slotKey == key) {
+        buffer.put(slot + 8, (byte) (value | REFERENCED));
+        return;
+      }
+
+      if (slotKey == EMPTY) {
+        buffer.putLong(slot, key);
+        buffer.put(slot + 8, (byte) (value | REFERENCED));
+        size++;
+        return;
+      }
+    }
+
+    // Bucket is full. Move the hand round until we find a slot nobody has
+    // used since we last passed it...
+    int hand = buffer.get(handsOffset + bucket);
+
+    while (true) {
+
+      final int slot = bucketStart + (hand * SLOT_BYTES);
+      final byte valueAndFlag = buffer.get(slot + 8);
+
+      hand = (hand + 1) % WAYS;
+
+      if ((valueAndFlag & REFERENCED) != 0) {
+        buffer.put(slot + 8, (byte) (valueAndFlag & MAX_VALUE));
+      } else {
+        buffer.putLong(slot, key);
+        buffer.put(slot + 8, (byte) (value | REFERENCED));
+        buffer.put(handsOffset + bucket, (byte) hand);
+        evictions++;
+        return;
+      }
+    }
+  }
+
+  /**
+   * Remove every entry. Stats are kept.
+   */
+  public void clear() {
+
+    for (int slot = 0; slot < handsOffset; slot += SLOT_BYTES) {
+      buffer.putLong(slot, EMPTY);
+      buffer.put(slot + 8, (byte) 0);
+    }
+
+    for (int i = handsOffset; i < buffer.capacity(); i++) {
+      buffer.put(i, (byte) 0);
+    }
+
+    size = 0;
+  }
+
+  /**
+   * Pick a bucket, using the finalizer from MurmurHash3 so that keys that
+   * differ only in their high bits still get spread out.
+   */
+  private int bucketFor(long key) {
+
+    long h = key;
+    h ^= h >>> 33;
+    h *= 0xff51afd7ed558ccdL;
+    h ^= h >>> 33;
+    h *= 0xc4ceb9fe1a85ec53L;
+    h ^= h >>> 33;
+
+    return (int) h & bucketMask;
+  }
+
+  /**
+   * @return how many entries we can hold
+   */
+  public long getCapacity() {
+    return (bucketMask + 1L) * WAYS;
+  }
+
+  /**
+   * @return how many entries we hold
+   */
+  public long getSize() {
+    return size;
+  }
+
+  /**
+   * @return how many bytes of direct memory we use
+   */
+  public long getOffHeapBytes() {
+    return buffer.capacity();
+  }
+
+  public long getHits() {
+    return hits;
+  }
+
+  public long getMisses() {
+    return misses;
+  }
+
+  public long getEvictions() {
+    return evictions;
+  }
+
+  /**
+   * @return hits / (hits + misses), or 0 if we haven't been used.
+   */
+  public double getHitRatio() {
+    return (hits + misses) == 0 ? 0 : (double) hits / (hits + misses);
+  }
+
+}
@@ -0,0 +1,244 @@
+package ie.voltdb.h2outil;
+
+/* This file is part of VoltDB.
+ * Copyright (C) 2008-2019 VoltDB Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+/**
+ * What one site has seen while shadow scoring a challenger model: how many
+ * requests were scored by both models, how often they agreed, and how long
+ * each took.
+ * 
+ * Each site has its own instance, and only that site's thread changes it, so
+ * nothing here is synchronized. Readers on other threads may see slightly
+ * stale numbers, which is fine for reporting.
+ *
+ */
+public class ShadowScoreStats {
+
+  /**
+   * Sampling rates are expressed as this many parts.
+   */
+  public static final int SAMPLE_RATE_PARTS = 10000;
+
+  /**
+   * How many requests we sample before we hold a challenger to its latency
+   * budget, so a slow first call doesn't stop it on its own.
+   */
+  public static final long MIN_BUDGET_SAMPLES = 100;
+
+  private final String challengerName;
+  private final long challengerChecksum;
+
+  private long sampled = 0;
+  private long agreed = 0;
+  private long errors = 0;
+  private long liveNs = 0;
+  private long challengerNs = 0;
+  private long maxChallengerNs = 0;
+  private boolean suspended = false;
+
+  /**
+   * @param challengerName     name of the challenger model
+   * @param challengerChecksum checksum of the version we're scoring with
+   */
+  public ShadowScoreStats(String challengerName, long challengerChecksum) {
+    super();
+    this.challengerName = challengerName;
+    this.challengerChecksum = challengerChecksum;
+  }
+
+  /**
+   * Decide whether a request should be shadow scored. The decision only
+   * depends on the request, so every replica makes the same one.
+   * 
+   * @param keyHash         A hash of the request's key, e.g. from hashKey()
+   * @param samplesPer10000 How many requests in SAMPLE_RATE_PARTS to sample
+   * @return true if this request should be sampled
+   */
+  public static boolean isSampled(int keyHash, int samplesPer10000) {
+
+    if (samplesPer10000 <= 0) {
+      return false;
+    }
+
+    if (samplesPer10000 >= SAMPLE_RATE_PARTS) {
+      return true;
+    }
+
+    // Mix the bits so keys that differ only slightly don't end up next to
+    // each other...
+    int h = keyHash;
+    h ^= h >>> 16;
+    h *= 0x85ebca6b;
+    h ^= h >>> 13;
+    h *= 0xc2b2ae35;
+    h ^= h >>> 16;
+
+    return Math.floorMod(h, SAMPLE_RATE_PARTS) < samplesPer10000;
+  }
+
+  /**
+   * @param keyParts The fields that make up a request's key
+   * @return A hash of keyParts that is the same in every JVM
+   */
+  public static int hashKey(String... keyParts) {
+
+    int h = 17;
+
+    for (int i = 0; i < keyParts.length; i++) {
+      h = (31 * h) + (keyParts[i] == null ? 0 : keyParts[i].hashCode());
+    }
+
+    return h;
+  }
+
+  /**
+   * Record a request both models scored.
+   * 
+   * @param liveLabel            what the live model said
+   * @param challengerLabel      what the challenger said
+   * @param liveDurationNs       how long the live model took
+   * @param challengerDurationNs how long the challenger took
+   */
+  public void record(String liveLabel, String challengerLabel, long liveDurationNs, long challengerDurationNs) {
+
+    sampled++;
+
+    if (liveLabel != null && liveLabel.equals(challengerLabel)) {
+      agreed++;
+    }
+
+    liveNs += liveDurationNs;
+    challengerNs += challengerDurationNs;
+
+    if (challengerDurationNs > maxChallengerNs) {
+      maxChallengerNs = challengerDurationNs;
+    }
+  }
+
+  /**
+   * See if the challenger is within its latency budget. Once its average time
+   * is over budget we stop sampling, so the average stops changing and
+   * sampling stays suspended until the budget is raised or the challenger
+   * changes, which starts a new ShadowScoreStats.
+   * 
+   * @param maxExtraUs Most the challenger may add to a request on average, in
+   *                   microseconds, or 0 if there's no limit
+   * @return true if we should stop scoring with the challenger
+   */
+  public boolean checkBudget(long maxExtraUs) {
+
+    suspended = maxExtraUs > 0 && sampled >= MIN_BUDGET_SAMPLES && getChallengerAvgUs() > maxExtraUs;
+
+    return suspended;
+  }
+
+  /**
+   * Record a request the challenger failed to score.
+   */
+  public void recordError() {
+    errors++;
+  }
+
+  /**
+   * @return name of the challenger model
+   */
+  public String getChallengerName() {
+    return challengerName;
+  }
+
+  /**
+   * @return checksum of the version of the challenger we're scoring with
+   */
+  public long getChallengerChecksum() {
+    return challengerChecksum;
+  }
+
+  /**
+   * @return true if the last call to checkBudget() found the challenger over
+   *         its budget
+   */
+  public boolean isSuspended() {
+    return suspended;
+  }
+
+  /**
+   * @return how many requests both models scored
+   */
+  public long getSampled() {
+    return sampled;
+  }
+
+  /**
+   * @return how many requests both models gave the same label for
+   */
+  public long getAgreed() {
+    return agreed;
+  }
+
+  /**
+   * @return how many requests the challenger failed to score
+   */
+  public long getErrors() {
+    return errors;
+  }
+
+  /**
+   * @return fraction of sampled requests both models agreed on, or 0 if we
+   *         haven't sampled anything
+   */
+  public double getAgreementRate() {
+    return sampled == 0 ? 0 : ((double) agreed) / sampled;
+  }
+
+  /**
+   * @return average time the live model took on sampled requests, in
+   *         microseconds
+   */
+  public double getLiveAvgUs() {
+    return sampled == 0 ? 0 : (liveNs / 1000.0) / sampled;
+  }
+
+  /**
+   * @return average time the challenger took on sampled requests, in
+   *         microseconds
+   */
+  public double getChallengerAvgUs() {
+    return sampled == 0 ? 0 : (challengerNs / 1000.0) / sampled;
+  }
+
+  /**
+   * @return longest time the challenger took, in microseconds
+   */
+  public double getChallengerMaxUs() {
+    return maxChallengerNs / 1000.0;
+  }
+
+  @Override
+  public String toString() {
+    return challengerName + "/" + Long.toHexString(challengerChecksum) + ": sampled=" + sampled + " agreed="
+        + agreed + " errors=" + errors + String.format(" live=%.1fus challenger=%.1fus", getLiveAvgUs(),
+            getChallengerAvgUs()) + (suspended ? " suspended" : "");
+  }
+
+}
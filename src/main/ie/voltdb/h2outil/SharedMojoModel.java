@@ -0,0 +1,139 @@
+package ie.voltdb.h2outil;
+
+/* This file is part of VoltDB.
+ * Copyright (C) 2008-2019 VoltDB Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+
+import hex.genmodel.MojoModel;
+
+/**
+ * An immutable, loaded MOJO model that can be shared by every execution site
+ * in the JVM. Scoring with a MojoModel is thread safe; anything a site needs
+ * to change per call (e.g. an EasyPredictModelWrapper or scratch arrays)
+ * belongs to the site, not to this class.
+ *
+ */
+public class SharedMojoModel {
+
+  private final String modelName;
+  private final long checksum;
+  private final MojoModel model;
+  private final TreeEnsembleScorer treeScorer;
+  private final long loadTimeMs;
+
+  /**
+   * FeatureLayouts we've built, keyed by the list of input names.
+   */
+  private final HashMap<List<String>, FeatureLayout> layouts = new HashMap<List<String>, FeatureLayout>();
+
+  /**
+   * @param modelName  name of the zip file the model came from
+   * @param checksum   CRC32 of the zip file's bytes
+   * @param model      the model itself
+   * @param treeScorer a faster way of adding up the model's trees, or null
+   * @param loadTimeMs how long it took to unzip and parse the model
+   */
+  public SharedMojoModel(String modelName, long checksum, MojoModel model, TreeEnsembleScorer treeScorer,
+      long loadTimeMs) {
+    super();
+    this.modelName = modelName;
+    this.checksum = checksum;
+    this.model = model;
+    this.treeScorer = treeScorer;
+    this.loadTimeMs = loadTimeMs;
+  }
+
+  /**
+   * @return the modelName
+   */
+  public String getModelName() {
+    return modelName;
+  }
+
+  /**
+   * @return the CRC32 of the zip file(s) the model came from
+   */
+  public long getChecksum() {
+    return checksum;
+  }
+
+  /**
+   * @return the model
+   */
+  public MojoModel getModel() {
+    return model;
+  }
+
+  /**
+   * @return a TreeEnsembleScorer that has been checked against the model, or
+   *         null if we don't have one.
+   */
+  public TreeEnsembleScorer getTreeScorer() {
+    return treeScorer;
+  }
+
+  /**
+   * @return how long it took to unzip and parse the model, in milliseconds
+   */
+  public long getLoadTimeMs() {
+    return loadTimeMs;
+  }
+
+  /**
+   * Get a FeatureLayout for a given list of inputs. Layouts are built once and
+   * shared by every site that asks for the same inputs.
+   * 
+   * @param inputNames Names of model columns, in the order callers will
+   *                   provide them.
+   * @return A FeatureLayout
+   * @throws IllegalArgumentException if the model isn't binomial or is missing
+   *                                  a column.
+   */
+  public FeatureLayout getFeatureLayout(String[] inputNames) {
+
+    List<String> key = Arrays.asList(inputNames.clone());
+
+    synchronized (layouts) {
+
+      FeatureLayout layout = layouts.get(key);
+
+      if (layout == null) {
+        layout = new FeatureLayout(model, inputNames);
+        layouts.put(key, layout);
+      }
+
+      return layout;
+    }
+  }
+
+  @Override
+  public String toString() {
+    return modelName + "/" + Long.toHexString(checksum) + " loaded in " + loadTimeMs + "ms"
+        + (treeScorer == null ? "" : " with " + treeScorer.getClass().getSimpleName());
+  }
+
+}
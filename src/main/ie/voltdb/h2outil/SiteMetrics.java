@@ -0,0 +1,436 @@
+package ie.voltdb.h2outil;
+
+/* This file is part of VoltDB.
+ * Copyright (C) 2008-2019 VoltDB Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import javax.management.MBeanRegistration;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.voltcore.logging.VoltLogger;
+
+/**
+ * Timings and cache hit counts for one procedure on one site.
+ * 
+ * Only the site's own thread records anything, so we don't need locks or even
+ * compare and swap: each counter is read, incremented and written back with
+ * lazySet, which is cheap and lets other threads see the new value soon
+ * afterwards. Timings go into histograms with 4 buckets per power of two, so
+ * percentiles are accurate to within 25%.
+ * 
+ * Every instance is published through JMX as
+ * ie.voltdb.h2outil:type=SiteMetrics,procedure=...,partition=... If
+ * -Dmojoprocs.metricsLogSeconds is more than 0 a background thread also logs
+ * one line per site that has done something every that many seconds. Neither
+ * touches the transaction path.
+ * 
+ * After @UpdateClasses each site of the new version of a procedure takes over
+ * the name its partition had. Unregistering the old instance tells it, through
+ * MBeanRegistration, to drop out of its version's allSiteMetrics, and the last
+ * one out stops that version's log thread, so nothing keeps the old class
+ * loader alive.
+ *
+ */
+public class SiteMetrics implements SiteMetricsMXBean, MBeanRegistration {
+
+  private static final VoltLogger LOG = new VoltLogger("MOJO");
+
+  public static final int CACHE_CHECK = 0;
+  public static final int MODEL_CREATE = 1;
+  public static final int MODEL_EXEC = 2;
+  public static final int DB_UPDATE = 3;
+
+  private static final int TIMER_COUNT = 4;
+  private static final String[] TIMER_NAMES = { "cacheCheck", "modelCreate", "modelExec", "dbUpdate" };
+
+  private static final int SUB_BUCKET_BITS = 3;
+  private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+  private static final int SUB_BUCKET_HALF = SUB_BUCKET_COUNT / 2;
+  private static final int MAX_VALUE_BITS = 40;
+  private static final long MAX_VALUE = (1L << MAX_VALUE_BITS) - 1;
+  private static final int BUCKET_COUNT = SUB_BUCKET_COUNT + ((MAX_VALUE_BITS - SUB_BUCKET_BITS) * SUB_BUCKET_HALF);
+
+  // Where each timer's count, total and max live in 'totals'...
+  private static final int COUNT = 0;
+  private static final int TOTAL_NS = 1;
+  private static final int MAX_NS = 2;
+
+  private static final int LOG_SECONDS = Integer.getInteger("mojoprocs.metricsLogSeconds", 0);
+
+  /**
+   * Every SiteMetrics made by this version of the class that is still
+   * published, for the log thread.
+   */
+  private static final CopyOnWriteArrayList<SiteMetrics> allSiteMetrics = new CopyOnWriteArrayList<SiteMetrics>();
+
+  private static ScheduledExecutorService logThread = null;
+
+  private final String procedureName;
+  private final int partitionId;
+
+  // Where hits and misses live in 'counters'...
+  private static final int HITS = 0;
+  private static final int MISSES = 1;
+
+  private final AtomicLongArray counters = new AtomicLongArray(2);
+  private final AtomicLongArray buckets = new AtomicLongArray(TIMER_COUNT * BUCKET_COUNT);
+  private final AtomicLongArray totals = new AtomicLongArray(TIMER_COUNT * 3);
+
+  /**
+   * hits + misses when the log thread last printed us.
+   */
+  private long lastLoggedCount = 0;
+
+  private SiteMetrics(String procedureName, int partitionId) {
+    super();
+    this.procedureName = procedureName;
+    this.partitionId = partitionId;
+  }
+
+  /**
+   * Create a SiteMetrics for a site and publish it. Call this from the site's
+   * first call to the procedure, not its constructor, as VoltDB creates
+   * procedure instances it never runs.
+   * 
+   * @param procedureName Name of the procedure
+   * @param partitionId   The site's partition, from getPartitionId(). A
+   *                      server only has one site for each partition.
+   * @return A new SiteMetrics
+   */
+  public static SiteMetrics register(String procedureName, int partitionId) {
+
+    SiteMetrics metrics = new SiteMetrics(procedureName, partitionId);
+
+    allSiteMetrics.add(metrics);
+
+    try {
+
+      MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+      ObjectName name = new ObjectName(
+          "ie.voltdb.h2outil:type=SiteMetrics,procedure=" + procedureName + ",partition=" + partitionId);
+
+      // After @UpdateClasses new sites take over the names the old ones
+      // had. The old ones then let go of their log thread - see
+      // postDeregister()...
+      if (server.isRegistered(name)) {
+        server.unregisterMBean(name);
+      }
+
+      server.registerMBean(metrics, name);
+
+    } catch (Exception e) {
+      LOG.warn("SiteMetrics: can't publish " + metrics.getName() + ": " + e.getMessage());
+    }
+
+    startLogThreadIfNeeded();
+
+    return metrics;
+  }
+
+  private static synchronized void startLogThreadIfNeeded() {
+
+    if (LOG_SECONDS > 0 && logThread == null) {
+
+      logThread = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "SiteMetrics log");
+        t.setDaemon(true);
+        return t;
+      });
+
+      logThread.scheduleAtFixedRate(SiteMetrics::logAll, LOG_SECONDS, LOG_SECONDS, TimeUnit.SECONDS);
+    }
+  }
+
+  /**
+   * Stop the log thread once nothing is left for it to log, which happens
+   * when every site of this version of the class has been replaced.
+   */
+  private static synchronized void stopLogThreadIfIdle() {
+
+    if (logThread != null && allSiteMetrics.isEmpty()) {
+      logThread.shutdown();
+      logThread = null;
+    }
+  }
+
+  @Override
+  public ObjectName preRegister(MBeanServer server, ObjectName name) {
+    return name;
+  }
+
+  @Override
+  public void postRegister(Boolean registrationDone) {
+  }
+
+  @Override
+  public void preDeregister() {
+  }
+
+  /**
+   * Called when a newer instance, usually from a newer version of this class,
+   * takes over our name.
+   */
+  @Override
+  public void postDeregister() {
+    allSiteMetrics.remove(this);
+    stopLogThreadIfIdle();
+  }
+
+  /**
+   * Log a line for each site that has done something since last time.
+   */
+  private static void logAll() {
+
+    for (SiteMetrics metrics : allSiteMetrics) {
+
+      long count = metrics.getHits() + metrics.getMisses();
+
+      if (count != metrics.lastLoggedCount) {
+        metrics.lastLoggedCount = count;
+        LOG.info("SiteMetrics: " + metrics.getSummary());
+      }
+    }
+  }
+
+  /**
+   * Record a request answered from the cache.
+   */
+  public void recordHit() {
+    increment(counters, HITS, 1);
+  }
+
+  /**
+   * Record a request we had to run the model for.
+   */
+  public void recordMiss() {
+    increment(counters, MISSES, 1);
+  }
+
+  /**
+   * Record how long something took.
+   * 
+   * @param timer      CACHE_CHECK, MODEL_CREATE, MODEL_EXEC or DB_UPDATE
+   * @param durationNs How long it took. Negative values mean 'didn't happen'
+   *                   and are ignored.
+   */
+  public void recordTime(int timer, long durationNs) {
+
+    if (durationNs < 0) {
+      return;
+    }
+
+    if (durationNs > MAX_VALUE) {
+      durationNs = MAX_VALUE;
+    }
+
+    increment(buckets, (timer * BUCKET_COUNT) + indexFor(durationNs), 1);
+    increment(totals, (timer * 3) + COUNT, 1);
+    increment(totals, (timer * 3) + TOTAL_NS, durationNs);
+
+    if (durationNs > totals.get((timer * 3) + MAX_NS)) {
+      totals.lazySet((timer * 3) + MAX_NS, durationNs);
+    }
+  }
+
+  /**
+   * Only safe because each instance has one writer.
+   */
+  private static void increment(AtomicLongArray a, int index, long delta) {
+    a.lazySet(index, a.get(index) + delta);
+  }
+
+  private double getAvgUs(int timer) {
+
+    long count = totals.get((timer * 3) + COUNT);
+    return count == 0 ? 0 : (totals.get((timer * 3) + TOTAL_NS) / 1000.0) / count;
+  }
+
+  private double getMaxUs(int timer) {
+    return totals.get((timer * 3) + MAX_NS) / 1000.0;
+  }
+
+  private double getPercentileUs(int timer, double percentile) {
+
+    long total = totals.get((timer * 3) + COUNT);
+
+    if (total == 0) {
+      return 0;
+    }
+
+    long target = Math.max(1, (long) Math.ceil((percentile / 100) * total));
+    long seen = 0;
+
+    for (int i = 0; i < BUCKET_COUNT; i++) {
+      seen += buckets.get((timer * BUCKET_COUNT) + i);
+      if (seen >= target) {
+        return Math.min(highestValueFor(i), totals.get((timer * 3) + MAX_NS)) / 1000.0;
+      }
+    }
+
+    return getMaxUs(timer);
+  }
+
+  /**
+   * Same scheme as the client's LatencyHistogram, with fewer buckets.
+   */
+  static int indexFor(long value) {
+
+    if (value < SUB_BUCKET_COUNT) {
+      return (int) value;
+    }
+
+    int shift = (63 - Long.numberOfLeadingZeros(value)) - (SUB_BUCKET_BITS - 1);
+    int subBucket = (int) (value >>> shift);
+
+    return SUB_BUCKET_COUNT + ((shift - 1) * SUB_BUCKET_HALF) + (subBucket - SUB_BUCKET_HALF);
+  }
+
+  static long highestValueFor(int index) {
+
+    if (index < SUB_BUCKET_COUNT) {
+      return index;
+    }
+
+    int offset = index - SUB_BUCKET_COUNT;
+    int shift = (offset / SUB_BUCKET_HALF) + 1;
+    long subBucket = (offset % SUB_BUCKET_HALF) + SUB_BUCKET_HALF;
+
+    return ((subBucket + 1) << shift) - 1;
+  }
+
+  private String getName() {
+    return procedureName + "/" + partitionId;
+  }
+
+  @Override
+  public String getProcedureName() {
+    return procedureName;
+  }
+
+  @Override
+  public int getPartitionId() {
+    return partitionId;
+  }
+
+  @Override
+  public long getHits() {
+    return counters.get(HITS);
+  }
+
+  @Override
+  public long getMisses() {
+    return counters.get(MISSES);
+  }
+
+  @Override
+  public double getCacheCheckAvgUs() {
+    return getAvgUs(CACHE_CHECK);
+  }
+
+  @Override
+  public double getCacheCheckP99Us() {
+    return getPercentileUs(CACHE_CHECK, 99);
+  }
+
+  @Override
+  public double getCacheCheckMaxUs() {
+    return getMaxUs(CACHE_CHECK);
+  }
+
+  @Override
+  public double getModelCreateAvgUs() {
+    return getAvgUs(MODEL_CREATE);
+  }
+
+  @Override
+  public double getModelCreateP99Us() {
+    return getPercentileUs(MODEL_CREATE, 99);
+  }
+
+  @Override
+  public double getModelCreateMaxUs() {
+    return getMaxUs(MODEL_CREATE);
+  }
+
+  @Override
+  public double getModelExecAvgUs() {
+    return getAvgUs(MODEL_EXEC);
+  }
+
+  @Override
+  public double getModelExecP99Us() {
+    return getPercentileUs(MODEL_EXEC, 99);
+  }
+
+  @Override
+  public double getModelExecMaxUs() {
+    return getMaxUs(MODEL_EXEC);
+  }
+
+  @Override
+  public double getDbUpdateAvgUs() {
+    return getAvgUs(DB_UPDATE);
+  }
+
+  @Override
+  public double getDbUpdateP99Us() {
+    return getPercentileUs(DB_UPDATE, 99);
+  }
+
+  @Override
+  public double getDbUpdateMaxUs() {
+    return getMaxUs(DB_UPDATE);
+  }
+
+  @Override
+  public String getSummary() {
+
+    StringBuffer b = new StringBuffer(getName());
+    b.append(" hits=");
+    b.append(getHits());
+    b.append(" misses=");
+    b.append(getMisses());
+
+    for (int i = 0; i < TIMER_COUNT; i++) {
+      if (totals.get((i * 3) + COUNT) > 0) {
+        b.append(String.format(" %s avg/p99/max=%.1f/%.1f/%.1fus", TIMER_NAMES[i], getAvgUs(i),
+            getPercentileUs(i, 99), getMaxUs(i)));
+      }
+    }
+
+    return b.toString();
+  }
+
+  @Override
+  public String toString() {
+    return getSummary();
+  }
+
+}
@@ -0,0 +1,69 @@
+package ie.voltdb.h2outil;
+
+/* This file is part of VoltDB.
+ * Copyright (C) 2008-2019 VoltDB Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+/**
+ * What SiteMetrics publishes through JMX. Times are in microseconds.
+ *
+ */
+public interface SiteMetricsMXBean {
+
+  public String getProcedureName();
+
+  public int getPartitionId();
+
+  public long getHits();
+
+  public long getMisses();
+
+  public double getCacheCheckAvgUs();
+
+  public double getCacheCheckP99Us();
+
+  public double getCacheCheckMaxUs();
+
+  public double getModelCreateAvgUs();
+
+  public double getModelCreateP99Us();
+
+  public double getModelCreateMaxUs();
+
+  public double getModelExecAvgUs();
+
+  public double getModelExecP99Us();
+
+  public double getModelExecMaxUs();
+
+  public double getDbUpdateAvgUs();
+
+  public double getDbUpdateP99Us();
+
+  public double getDbUpdateMaxUs();
+
+  /**
+   * @return Everything above as one line
+   */
+  public String getSummary();
+
+}
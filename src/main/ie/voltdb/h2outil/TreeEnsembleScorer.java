@@ -0,0 +1,53 @@
+package ie.voltdb.h2outil;
+
+/* This file is part of VoltDB.
+ * Copyright (C) 2008-2019 VoltDB Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+
+/**
+ * Something that can add up the trees of a tree ensemble model faster than
+ * H2O's generic tree walker. Implementations fill in 'preds' exactly the way
+ * SharedTreeMojoModel.scoreAllTrees() does, so that GbmMojoModel.unifyPreds()
+ * can turn the result into a prediction.
+ * 
+ * Implementations must be thread safe. Classes written by MojoScorerGenerator
+ * only have static final state, so they are.
+ *
+ */
+public interface TreeEnsembleScorer {
+
+  /**
+   * Add up the trees for 'row'.
+   * 
+   * @param row   input values, as used by MojoModel.score0()
+   * @param preds array of size getPredsSize(). Will be overwritten with the
+   *              raw tree sums.
+   */
+  public void scoreTrees(double[] row, double[] preds);
+
+  /**
+   * @return CRC32 of the MOJO zip file we were built from.
+   */
+  public long getModelChecksum();
+
+}
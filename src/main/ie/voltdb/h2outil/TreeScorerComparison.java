@@ -0,0 +1,288 @@
+package ie.voltdb.h2outil;
+
+/* This file is part of VoltDB.
+ * Copyright (C) 2008-2019 VoltDB Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.zip.CRC32;
+
+import hex.genmodel.ModelMojoReader;
+import hex.genmodel.MojoModel;
+import hex.genmodel.MojoReaderBackend;
+import hex.genmodel.algos.gbm.GbmMojoModel;
+import hex.genmodel.easy.EasyPredictModelWrapper;
+import hex.genmodel.easy.RowData;
+import hex.genmodel.easy.exception.PredictException;
+import hex.genmodel.easy.prediction.BinomialModelPrediction;
+
+/**
+ * Checks that BinomialScorer gives exactly the same predictions as
+ * EasyPredictModelWrapper for a binomial GBM MOJO, whether it uses the MOJO
+ * itself, a FlatTreeEnsemble or a class from MojoScorerGenerator to add up the
+ * trees, and then compares how fast each of them is.
+ * 
+ * <pre>
+ * java ie.voltdb.h2outil.TreeScorerComparison src/main/mojoprocs/gbm_pojo_test.zip [rowCount] [seconds]
+ * </pre>
+ * 
+ * Exits with a non-zero status if any prediction differs. If 'seconds' is 0
+ * we only check the predictions, which is how 'mvn test' runs us whenever the
+ * model's zip file is there, so a scorer that disagrees with the MOJO fails
+ * the build.
+ *
+ */
+public class TreeScorerComparison {
+
+  /**
+   * How often we leave an input out.
+   */
+  private static final int ONE_IN_N_MISSING = 10;
+
+  /**
+   * @param args zip file, [rows], [seconds per scorer]
+   */
+  public static void main(String[] args) {
+
+    if (args.length < 1) {
+      msg("Usage: TreeScorerComparison modelZipFile [rowCount] [secondsPerScorer]");
+      System.exit(1);
+    }
+
+    int rowCount = args.length > 1 ? Integer.parseInt(args[1]) : 100000;
+    int seconds = args.length > 2 ? Integer.parseInt(args[2]) : 10;
+
+    try {
+
+      File zipFile = new File(args[0]);
+      byte[] zipBytes = Files.readAllBytes(zipFile.toPath());
+      CRC32 crc = new CRC32();
+      crc.update(zipBytes, 0, zipBytes.length);
+
+      MojoReaderBackend reader = H2OMojoWrangler.createLazyReaderBackendFromZipBytes(zipBytes);
+      MojoModel model = ModelMojoReader.readFrom(reader);
+
+      if (!(model instanceof GbmMojoModel)) {
+        msg(zipFile.getName() + " isn't a GBM model");
+        System.exit(1);
+      }
+
+      MojoTrees trees = MojoTrees.read(reader, model);
+      FlatTreeEnsemble flatTrees = FlatTreeEnsemble.build(trees, crc.getValue());
+      TreeEnsembleScorer generated = MojoScorerGenerator.loadGeneratedScorer(zipFile.getName(), crc.getValue(),
+          (GbmMojoModel) model, trees);
+
+      msg("Model has " + trees.getNTreeGroups() + " tree groups and " + trees.getNodeCount() + " nodes");
+      msg(flatTrees.toString());
+
+      String[] inputNames = Arrays.copyOf(model.getNames(), model.nfeatures());
+      FeatureLayout layout = new FeatureLayout(model, inputNames);
+
+      ArrayList<String> scorerNames = new ArrayList<String>();
+      ArrayList<BinomialScorer> scorers = new ArrayList<BinomialScorer>();
+
+      scorerNames.add("MOJO tree walker");
+      scorers.add(new BinomialScorer(layout));
+      scorerNames.add("FlatTreeEnsemble");
+      scorers.add(new BinomialScorer(layout, flatTrees));
+
+      if (generated != null) {
+        scorerNames.add(generated.getClass().getSimpleName());
+        scorers.add(new BinomialScorer(layout, generated));
+      }
+
+      String[][] rows = makeRows(model, trees, inputNames, rowCount);
+      EasyPredictModelWrapper modelWrapper = new EasyPredictModelWrapper(model);
+
+      long mismatches = 0;
+
+      for (int i = 0; i < scorers.size(); i++) {
+        long scorerMismatches = compare(modelWrapper, scorers.get(i), inputNames, rows);
+        msg(scorerNames.get(i) + ": " + scorerMismatches + " of " + rows.length
+            + " predictions differ from EasyPredictModelWrapper");
+        mismatches += scorerMismatches;
+      }
+
+      if (seconds > 0) {
+
+        msg("EasyPredictModelWrapper: " + timeWrapper(modelWrapper, inputNames, rows, seconds)
+            + " predictions/sec");
+
+        for (int i = 0; i < scorers.size(); i++) {
+          msg(scorerNames.get(i) + ": " + timeScorer(scorers.get(i), rows, seconds) + " predictions/sec");
+        }
+      }
+
+      if (mismatches > 0) {
+        System.exit(2);
+      }
+
+    } catch (IOException | PredictException e) {
+      msg(e.getMessage());
+      System.exit(3);
+    }
+
+  }
+
+  /**
+   * Make up rows, picking categorical values from the model's domains and
+   * numeric values from the split values in its trees.
+   */
+  private static String[][] makeRows(MojoModel model, MojoTrees trees, String[] inputNames, int rowCount) {
+
+    // Fixed seed, so runs can be compared...
+    Random r = new Random(42);
+    String[][] rows = new String[rowCount][inputNames.length];
+
+    for (int j = 0; j < inputNames.length; j++) {
+
+      String[] domain = model.getDomainValues(j);
+      float[] splitValues = trees.getSplitValues(j);
+
+      for (int i = 0; i < rowCount; i++) {
+
+        if (r.nextInt(ONE_IN_N_MISSING) == 0) {
+          rows[i][j] = null;
+        } else if (domain != null) {
+          rows[i][j] = domain[r.nextInt(domain.length)];
+        } else if (splitValues.length == 0) {
+          rows[i][j] = Integer.toString(r.nextInt(1000));
+        } else {
+          rows[i][j] = Float.toString(splitValues[r.nextInt(splitValues.length)]);
+        }
+      }
+    }
+
+    return rows;
+  }
+
+  private static RowData makeRowData(String[] inputNames, String[] row) {
+
+    RowData rowData = new RowData();
+
+    for (int j = 0; j < inputNames.length; j++) {
+      if (row[j] != null) {
+        rowData.put(inputNames[j], row[j]);
+      }
+    }
+
+    return rowData;
+  }
+
+  private static boolean setInputs(BinomialScorer scorer, String[] row) {
+
+    for (int j = 0; j < row.length; j++) {
+      if (!scorer.setInput(j, row[j])) {
+        return false;
+      }
+    }
+
+    return true;
+  }
+
+  /**
+   * @return how many rows got a different label or different probabilities.
+   */
+  private static long compare(EasyPredictModelWrapper modelWrapper, BinomialScorer scorer, String[] inputNames,
+      String[][] rows) throws PredictException {
+
+    long mismatches = 0;
+
+    for (int i = 0; i < rows.length; i++) {
+
+      BinomialModelPrediction expected = modelWrapper.predictBinomial(makeRowData(inputNames, rows[i]));
+
+      if (!setInputs(scorer, rows[i])) {
+        mismatches++;
+        continue;
+      }
+
+      String label = scorer.scoreLabel();
+
+      if (!label.equals(expected.label)
+          || Double.compare(scorer.getClassProbability(0), expected.classProbabilities[0]) != 0
+          || Double.compare(scorer.getClassProbability(1), expected.classProbabilities[1]) != 0) {
+
+        if (mismatches++ < 10) {
+          msg("Row " + i + " " + Arrays.toString(rows[i]) + ": expected " + expected.label + " "
+              + Arrays.toString(expected.classProbabilities) + " got " + label + " [" + scorer.getClassProbability(0)
+              + ", " + scorer.getClassProbability(1) + "]");
+        }
+      }
+    }
+
+    return mismatches;
+  }
+
+  private static long timeWrapper(EasyPredictModelWrapper modelWrapper, String[] inputNames, String[][] rows,
+      int seconds) throws PredictException {
+
+    // Building RowData is part of the cost of using EasyPredictModelWrapper, so
+    // we time it too...
+    long count = 0;
+    long endNs = System.nanoTime() + (seconds * 1000000000L);
+    long startNs = System.nanoTime();
+
+    while (System.nanoTime() < endNs) {
+      modelWrapper.predictBinomial(makeRowData(inputNames, rows[(int) (count++ % rows.length)]));
+    }
+
+    return count * 1000000000L / (System.nanoTime() - startNs);
+  }
+
+  private static long timeScorer(BinomialScorer scorer, String[][] rows, int seconds) {
+
+    long count = 0;
+    long lateCount = 0;
+    long endNs = System.nanoTime() + (seconds * 1000000000L);
+    long startNs = System.nanoTime();
+
+    while (System.nanoTime() < endNs) {
+
+      setInputs(scorer, rows[(int) (count++ % rows.length)]);
+      lateCount += scorer.scoreLabelIndex();
+    }
+
+    // Use lateCount, so the JIT can't decide we didn't need to score...
+    if (lateCount < 0) {
+      msg("Impossible");
+    }
+
+    return count * 1000000000L / (System.nanoTime() - startNs);
+  }
+
+  /**
+   * Print a formatted message.
+   * 
+   * @param message
+   */
+  private static void msg(String message) {
+    System.out.println(message);
+  }
+
+}
@@ -0,0 +1,119 @@
+package mojoprocs;
+
+/* This file is part of VoltDB.
+ * Copyright (C) 2008-2019 VoltDB Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+
+import org.voltdb.SQLStmt;
+import org.voltdb.VoltProcedure;
+import org.voltdb.VoltTable;
+import org.voltdb.VoltType;
+
+/**
+ * Make a version of a model that has been uploaded to MODEL_CHUNKS and
+ * MODEL_VERSIONS the one our procedures use.
+ * 
+ * This runs across all partitions, so every site sees the change at the same
+ * point in the transaction order. IsFlightLate and friends look at
+ * MODEL_ACTIVE on each miss and switch to the new version, without any need
+ * for @UpdateClasses. They don't read MODEL_CHUNKS themselves, so the version
+ * should already have been loaded on every partition by LoadModelVersion, as
+ * ModelUploader does.
+ * 
+ * We keep the version we replace, so it can be activated again if the new one
+ * turns out to be bad. Anything older is deleted.
+ * 
+ * @author drolfe
+ *
+ */
+public class ActivateModelVersion extends VoltProcedure {
+
+  public static final SQLStmt getVersion = new SQLStmt(
+      "SELECT chunk_count, total_bytes FROM MODEL_VERSIONS WHERE model_name = ? AND version = ?;");
+
+  public static final SQLStmt countChunks = new SQLStmt(
+      "SELECT COUNT(*), MIN(chunk_id), MAX(chunk_id) FROM MODEL_CHUNKS WHERE model_name = ? AND version = ?;");
+
+  public static final SQLStmt getActiveVersion = new SQLStmt(
+      "SELECT version FROM MODEL_ACTIVE WHERE model_name = ?;");
+
+  public static final SQLStmt setActiveVersion = new SQLStmt(
+      "UPSERT INTO MODEL_ACTIVE (model_name, version, activated) VALUES (?,?,?);");
+
+  public static final SQLStmt deleteOldChunks = new SQLStmt(
+      "DELETE FROM MODEL_CHUNKS WHERE model_name = ? AND version <> ? AND version <> ?;");
+
+  public static final SQLStmt deleteOldVersions = new SQLStmt(
+      "DELETE FROM MODEL_VERSIONS WHERE model_name = ? AND version <> ? AND version <> ?;");
+
+  /**
+   * @param modelName Name of the model. For IsFlightLate this is the name of
+   *                  its zip file.
+   * @param version   Version to activate
+   * @return A table with one row, with columns VERSION and PREVIOUS_VERSION.
+   *         PREVIOUS_VERSION is -1 if there wasn't one.
+   * @throws VoltAbortException if the version doesn't exist or is missing
+   *                            chunks
+   */
+  public VoltTable[] run(String modelName, long version) throws VoltAbortException {
+
+    voltQueueSQL(getVersion, modelName, version);
+    voltQueueSQL(countChunks, modelName, version);
+    voltQueueSQL(getActiveVersion, modelName);
+    VoltTable[] results = voltExecuteSQL();
+
+    if (!results[0].advanceRow()) {
+      throw new VoltAbortException("Version " + version + " of " + modelName + " hasn't been uploaded");
+    }
+
+    final long chunkCount = results[0].getLong("CHUNK_COUNT");
+
+    // All the chunks have to be there, numbered from 0...
+    results[1].advanceRow();
+    final long foundCount = results[1].getLong(0);
+
+    if (foundCount != chunkCount || (chunkCount > 0
+        && (results[1].getLong(1) != 0 || results[1].getLong(2) != chunkCount - 1))) {
+      throw new VoltAbortException("Version " + version + " of " + modelName + " should have " + chunkCount
+          + " chunks, found " + foundCount);
+    }
+
+    long previousVersion = -1;
+
+    if (results[2].advanceRow()) {
+      previousVersion = results[2].getLong("VERSION");
+    }
+
+    voltQueueSQL(setActiveVersion, modelName, version, getTransactionTime());
+    voltQueueSQL(deleteOldChunks, modelName, version, previousVersion);
+    voltQueueSQL(deleteOldVersions, modelName, version, previousVersion);
+    voltExecuteSQL(true);
+
+    VoltTable t = new VoltTable(new VoltTable.ColumnInfo("VERSION", VoltType.BIGINT),
+        new VoltTable.ColumnInfo("PREVIOUS_VERSION", VoltType.BIGINT));
+    t.addRow(version, previousVersion);
+
+    return new VoltTable[] { t };
+  }
+
+}
@@ -0,0 +1,99 @@
+package mojoprocs;
+
+/* This file is part of VoltDB.
+ * Copyright (C) 2008-2019 VoltDB Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+import org.voltdb.SQLStmt;
+import org.voltdb.VoltProcedure;
+import org.voltdb.VoltTable;
+import org.voltdb.VoltType;
+import org.voltdb.types.TimestampType;
+
+/**
+ * Keeps one partition of CACHED_RESULTS down to a maximum number of rows.
+ * 
+ * The TTL on CACHED_RESULTS only removes rows that haven't been used for a
+ * while, so a burst of new flights can make the table as big as it likes.
+ * When a partition has more than 'maxRows' rows we delete the ones that have
+ * been used least, oldest first. Rows used in the last 'protectSeconds' are
+ * left alone, so new entries get a chance to prove themselves, and flights
+ * that have been asked for a lot stay cached even if nobody has asked for
+ * them lately.
+ * 
+ * Victims are picked in an order that includes the whole primary key, so
+ * every replica deletes the same rows. We delete at most 'maxDeletes' rows per
+ * call to keep the transaction short; CacheEvictor calls us again if we say
+ * there's more to do.
+ * 
+ */
+public class EvictCachedResults extends VoltProcedure {
+
+  public static final SQLStmt countRows = new SQLStmt("SELECT COUNT(*) FROM CACHED_RESULTS;");
+
+  public static final SQLStmt evictRows = new SQLStmt("DELETE FROM CACHED_RESULTS WHERE last_used < ? "
+      + "ORDER BY usage_count, last_used, origin, dest, CRSDepTime, year, month, dayOfMonth, dayOfWeek, "
+      + "uniqueCarrier LIMIT ?;");
+
+  /**
+   * @param partitionKey   A value that maps to the partition we want to trim.
+   *                       Comes from @GetPartitionKeys.
+   * @param maxRows        How many rows this partition is allowed
+   * @param maxDeletes     Most rows to delete in this call
+   * @param protectSeconds Rows used this recently aren't deleted
+   * @return A table with one row, with ROWS_BEFORE, ROWS_EVICTED and
+   *         ROWS_AFTER columns. If ROWS_AFTER is still more than maxRows and
+   *         ROWS_EVICTED is maxDeletes there's more to do.
+   * @throws VoltAbortException
+   */
+  public VoltTable[] run(String partitionKey, long maxRows, long maxDeletes, int protectSeconds)
+      throws VoltAbortException {
+
+    if (maxRows < 0 || maxDeletes < 0 || protectSeconds < 0) {
+      throw new VoltAbortException("maxRows, maxDeletes and protectSeconds can't be negative");
+    }
+
+    voltQueueSQL(countRows);
+    long rowsBefore = voltExecuteSQL()[0].asScalarLong();
+    long rowsEvicted = 0;
+
+    if (rowsBefore > maxRows) {
+
+      // The transaction time is the same on every replica...
+      TimestampType protectedSince = new TimestampType(
+          (getTransactionTime().getTime() - (protectSeconds * 1000L)) * 1000);
+
+      voltQueueSQL(evictRows, protectedSince, Math.min(rowsBefore - maxRows, maxDeletes));
+      rowsEvicted = voltExecuteSQL(true)[0].asScalarLong();
+    }
+
+    VoltTable t = new VoltTable(new VoltTable.ColumnInfo("PARTITION_KEY", VoltType.STRING),
+        new VoltTable.ColumnInfo("ROWS_BEFORE", VoltType.BIGINT),
+        new VoltTable.ColumnInfo("ROWS_EVICTED", VoltType.BIGINT),
+        new VoltTable.ColumnInfo("ROWS_AFTER", VoltType.BIGINT));
+
+    t.addRow(partitionKey, rowsBefore, rowsEvicted, rowsBefore - rowsEvicted);
+
+    return new VoltTable[] { t };
+  }
+
+}
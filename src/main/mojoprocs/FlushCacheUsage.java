@@ -0,0 +1,247 @@
+package mojoprocs;
+
+/* This file is part of VoltDB.
+ * Copyright (C) 2008-2019 VoltDB Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+
+import java.io.IOException;
+
+import org.voltdb.SQLStmt;
+import org.voltdb.VoltProcedure;
+import org.voltdb.VoltTable;
+import org.voltdb.VoltType;
+
+import hex.genmodel.easy.EasyPredictModelWrapper;
+import ie.voltdb.h2outil.BinomialScorer;
+import ie.voltdb.h2outil.MojoModelRegistry;
+import ie.voltdb.h2outil.SharedMojoModel;
+
+/**
+ * Apply usage the client has counted for flights from one airport to
+ * CACHED_RESULTS, for use with IsFlightLateReadOnly and
+ * IsFlightLateNearCache, which don't write.
+ * 
+ * For each flight we add USAGE_COUNT to the row's usage_count and set
+ * last_used to NOW, which is this transaction's time and so the same on every
+ * replica. We don't take times from the client, whose clock may not agree with
+ * the database's. This means last_used can be up to one flush interval later
+ * than the flight was really asked about, which only keeps it from the TTL a
+ * little longer.
+ * 
+ * If the flight isn't there, either because it was a miss or because the TTL
+ * removed it since, we run the active model ourselves and insert what it says.
+ * Flights that were only asked about once since the last flush are left out,
+ * as most of them are never asked about again and would only fill the cache
+ * until the TTL removed them. They're counted as INSERTS_SKIPPED. This only
+ * depends on the counts we're sent, so every replica, and any node that
+ * rejoins later, skips the same ones.
+ * We don't take labels from the client either, as what it got back may have
+ * come from an older model, and we'd be putting it back in the cache. As
+ * every replica runs this we can't depend on what this JVM happens to have
+ * loaded, so we get the model the same way IsFlightLate does: if
+ * LoadModelVersion has loaded the active version on this partition we use
+ * the copy every replica has, and if it hasn't they all read it from
+ * MODEL_CHUNKS. We only get the model if at least one flight is missing, and
+ * only once per call.
+ * 
+ * @author drolfe
+ *
+ */
+public class FlushCacheUsage extends VoltProcedure {
+
+  // Column numbers in the 'usage' table...
+  static final int DEST_COL = 0;
+  static final int CRS_DEP_TIME_COL = 1;
+  static final int YEAR_COL = 2;
+  static final int MONTH_COL = 3;
+  static final int DAY_OF_MONTH_COL = 4;
+  static final int DAY_OF_WEEK_COL = 5;
+  static final int UNIQUE_CARRIER_COL = 6;
+  static final int USAGE_COUNT_COL = 7;
+
+  public static final SQLStmt addUsage = new SQLStmt("UPDATE CACHED_RESULTS "
+      + "set last_used = NOW, usage_count = usage_count + ? "
+      + "WHERE origin = ? AND dest = ? AND CRSDepTime = ? AND year = ? AND month = ? AND dayOfMonth = ? "
+      + "AND dayOfWeek = ? AND uniqueCarrier= ?;");
+
+  public static final SQLStmt addCacheEntry = new SQLStmt(
+      "INSERT INTO CACHED_RESULTS " + "(origin, dest,cRSDepTime,  year,  month,  dayOfMonth,"
+          + "       dayOfWeek,  uniqueCarrier,  last_used,usage_count, delayed) " + " VALUES "
+          + " (?,?,?,?,?,?,?,?,NOW,?,?);");
+
+  public static final SQLStmt getActiveModel = new SQLStmt(
+      "SELECT v.version, v.chunk_count, v.total_bytes, v.checksum FROM MODEL_ACTIVE a, MODEL_VERSIONS v "
+          + "WHERE a.model_name = ? AND v.model_name = a.model_name AND v.version = a.version;");
+
+  public static final SQLStmt getActiveModelLoads = new SQLStmt(
+      "SELECT COUNT(*) FROM MODEL_ACTIVE a, MODEL_VERSIONS v, MODEL_LOADS l WHERE a.model_name = ? "
+          + "AND v.model_name = a.model_name AND v.version = a.version AND l.model_name = v.model_name "
+          + "AND l.version = v.version AND l.checksum = v.checksum;");
+
+  public static final SQLStmt getModelChunks = new SQLStmt("SELECT chunk_id, chunk FROM MODEL_CHUNKS "
+      + "WHERE model_name = ? AND version = ? AND chunk_id >= ? AND chunk_id < ? ORDER BY chunk_id;");
+
+  EasyPredictModelWrapper modelWrapper = null;
+
+  BinomialScorer scorer = null;
+
+  /**
+   * Checksum of the model modelWrapper and scorer were made from.
+   */
+  long modelChecksum = MojoModelRegistry.NO_MODEL_LOADED;
+
+  /**
+   * @return An empty table in the format run() expects.
+   */
+  public static VoltTable createUsageTable() {
+
+    return new VoltTable(new VoltTable.ColumnInfo("DEST", VoltType.STRING),
+        new VoltTable.ColumnInfo("CRSDEPTIME", VoltType.STRING), new VoltTable.ColumnInfo("YEAR", VoltType.STRING),
+        new VoltTable.ColumnInfo("MONTH", VoltType.STRING), new VoltTable.ColumnInfo("DAYOFMONTH", VoltType.STRING),
+        new VoltTable.ColumnInfo("DAYOFWEEK", VoltType.STRING),
+        new VoltTable.ColumnInfo("UNIQUECARRIER", VoltType.STRING),
+        new VoltTable.ColumnInfo("USAGE_COUNT", VoltType.BIGINT));
+  }
+
+  /**
+   * @param origin Origin airport for all the flights. This is also how we are
+   *               partitioned.
+   * @param usage  One row per flight, in the format created by
+   *               createUsageTable(). Each flight should only appear once.
+   * @return A table with one row, with columns UPDATED, INSERTED and
+   *         INSERTS_SKIPPED.
+   * @throws VoltAbortException
+   */
+  public VoltTable[] run(String origin, VoltTable usage) throws VoltAbortException {
+
+    final int rowCount = usage.getRowCount();
+    long updatedCount = 0;
+    long insertedCount = 0;
+    long insertsSkippedCount = 0;
+    boolean modelReady = false;
+
+    try {
+
+      for (int start = 0; start < rowCount; start += IsFlightLateBatch.MAX_STATEMENTS_PER_BATCH) {
+
+        final int end = Math.min(start + IsFlightLateBatch.MAX_STATEMENTS_PER_BATCH, rowCount);
+
+        for (int i = start; i < end; i++) {
+
+          usage.advanceToRow(i);
+
+          voltQueueSQL(addUsage, usage.getLong(USAGE_COUNT_COL), origin, usage.getString(DEST_COL),
+              usage.getString(CRS_DEP_TIME_COL), usage.getString(YEAR_COL), usage.getString(MONTH_COL),
+              usage.getString(DAY_OF_MONTH_COL), usage.getString(DAY_OF_WEEK_COL),
+              usage.getString(UNIQUE_CARRIER_COL));
+        }
+
+        VoltTable[] updateResults = voltExecuteSQL();
+
+        // Anything we didn't find needs to be scored and added...
+        for (int i = start; i < end; i++) {
+
+          if (updateResults[i - start].asScalarLong() > 0) {
+            updatedCount++;
+            continue;
+          }
+
+          usage.advanceToRow(i);
+
+          // Only cache flights we've been asked about more than once...
+          if (usage.getLong(USAGE_COUNT_COL) <= 1) {
+            insertsSkippedCount++;
+            continue;
+          }
+
+          if (!modelReady) {
+            loadActiveModel();
+            modelReady = true;
+          }
+
+          final String dest = usage.getString(DEST_COL);
+          final String cRSDepTime = usage.getString(CRS_DEP_TIME_COL);
+          final String year = usage.getString(YEAR_COL);
+          final String month = usage.getString(MONTH_COL);
+          final String dayOfMonth = usage.getString(DAY_OF_MONTH_COL);
+          final String dayOfWeek = usage.getString(DAY_OF_WEEK_COL);
+          final String uniqueCarrier = usage.getString(UNIQUE_CARRIER_COL);
+
+          final String delayed = IsFlightLate.predictLabel(scorer, modelWrapper, origin, cRSDepTime, year, month,
+              dayOfMonth, dayOfWeek, uniqueCarrier, dest);
+
+          voltQueueSQL(addCacheEntry, origin, dest, cRSDepTime, year, month, dayOfMonth, dayOfWeek, uniqueCarrier,
+              usage.getLong(USAGE_COUNT_COL), delayed);
+          insertedCount++;
+        }
+
+        voltExecuteSQL(end == rowCount);
+      }
+
+    } catch (Exception e) {
+      throw new VoltAbortException(e);
+    }
+
+    VoltTable results = new VoltTable(new VoltTable.ColumnInfo("UPDATED", VoltType.BIGINT),
+        new VoltTable.ColumnInfo("INSERTED", VoltType.BIGINT),
+        new VoltTable.ColumnInfo("INSERTS_SKIPPED", VoltType.BIGINT));
+    results.addRow(updatedCount, insertedCount, insertsSkippedCount);
+
+    return new VoltTable[] { results };
+  }
+
+  /**
+   * Make sure modelWrapper and scorer are for the version of the model in
+   * MODEL_ACTIVE, or the one in our JAR file if nothing is active. If there's
+   * an active version we only read it if LoadModelVersion hasn't loaded it on
+   * this partition - see ModelVersions.
+   */
+  private void loadActiveModel() throws IOException {
+
+    voltQueueSQL(getActiveModel, IsFlightLate.modelZipFileName);
+    voltQueueSQL(getActiveModelLoads, IsFlightLate.modelZipFileName);
+    final VoltTable[] modelResults = voltExecuteSQL();
+    final VoltTable activeModel = modelResults[0];
+
+    SharedMojoModel sharedModel = IsFlightLate.loadSharedModel(activeModel, modelResults[1],
+        (firstChunkId, chunkCount) -> readModelChunks(activeModel, firstChunkId, chunkCount));
+
+    if (modelWrapper == null || sharedModel.getChecksum() != modelChecksum) {
+      modelWrapper = new EasyPredictModelWrapper(sharedModel.getModel());
+      scorer = IsFlightLate.createScorer(sharedModel);
+      modelChecksum = sharedModel.getChecksum();
+    }
+  }
+
+  /**
+   * ModelChunkReader for the version of our model in 'activeModel'.
+   */
+  private byte[][] readModelChunks(VoltTable activeModel, int firstChunkId, int chunkCount) throws IOException {
+
+    voltQueueSQL(getModelChunks, IsFlightLate.modelZipFileName, activeModel.getLong("VERSION"), firstChunkId,
+        firstChunkId + chunkCount);
+
+    return IsFlightLate.getChunks(voltExecuteSQL()[0], firstChunkId, chunkCount);
+  }
+
+}
@@ -25,18 +25,25 @@ package mojoprocs;
  * OTHER DEALINGS IN THE SOFTWARE.
  */
 
+import java.io.IOException;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.voltcore.logging.VoltLogger;
 import org.voltdb.SQLStmt;
 import org.voltdb.VoltProcedure;
 import org.voltdb.VoltTable;
 import org.voltdb.VoltType;
 
 import hex.genmodel.easy.RowData;
-import hex.genmodel.ModelMojoReader;
-import hex.genmodel.MojoModel;
-import hex.genmodel.MojoReaderBackend;
 import hex.genmodel.easy.EasyPredictModelWrapper;
-import hex.genmodel.easy.prediction.*;
-import ie.voltdb.h2outil.H2OMojoWrangler;
+import hex.genmodel.easy.exception.PredictException;
+import ie.voltdb.h2outil.BinomialScorer;
+import ie.voltdb.h2outil.ModelChunkReader;
+import ie.voltdb.h2outil.ModelVersions;
+import ie.voltdb.h2outil.MojoModelRegistry;
+import ie.voltdb.h2outil.ShadowScoreStats;
+import ie.voltdb.h2outil.SharedMojoModel;
+import ie.voltdb.h2outil.SiteMetrics;
 
 /**
  * VoltDB procedure to invoke a generated h20.ai class that uses a MOJO.
@@ -46,13 +53,67 @@ import ie.voltdb.h2outil.H2OMojoWrangler;
  */
 public class IsFlightLate extends VoltProcedure {
 
+  private static final VoltLogger LOG = new VoltLogger("MOJO");
+
+  /**
+   * Name of h20.ai class we're going to use. ScheduleLoader uses the same
+   * model, so this is public.
+   */
+  public static final String modelZipFileName = "gbm_pojo_test.zip";
+
   /**
-   * Name of h20.ai class we're going to use.
+   * App status code we return when the answer came from CACHED_RESULTS. Unlike
+   * timings this is the same on every replica, so it's safe to send back.
    */
-  private static final String modelZipFileName = "gbm_pojo_test.zip";
+  public static final byte CACHE_HIT = 1;
+
+  /**
+   * App status code we return when we had to run the model.
+   */
+  public static final byte CACHE_MISS = 2;
+
+  /**
+   * Model columns we pass to BinomialScorer, in the order we pass them.
+   */
+  static final String[] inputNames = { "Year", "Month", "DayofMonth", "DayOfWeek", "CRSDepTime", "UniqueCarrier",
+      "Origin", "Dest" };
 
   EasyPredictModelWrapper modelWrapper = null;
 
+  /**
+   * Allocation free scorer for our model. Null if the model isn't one
+   * BinomialScorer can handle.
+   */
+  BinomialScorer scorer = null;
+
+  /**
+   * Checksum of the model modelWrapper and scorer were made from.
+   */
+  long modelChecksum = MojoModelRegistry.NO_MODEL_LOADED;
+
+  /**
+   * Timings and hit counts for this site. Created on our first call.
+   */
+  SiteMetrics metrics = null;
+
+  /**
+   * Challenger model we're shadow scoring, if any, and what we use to score
+   * it.
+   */
+  SharedMojoModel challengerModel = null;
+  EasyPredictModelWrapper challengerWrapper = null;
+  BinomialScorer challengerScorer = null;
+
+  /**
+   * Shadow scoring statistics for each site, keyed by the id of its thread,
+   * so ShadowScoringStats can find the ones for the site it runs on. Not a
+   * ThreadLocal, as site threads outlive @UpdateClasses, and a ThreadLocal
+   * would keep this version of the class loaded. Nothing outside this class
+   * refers to this map, so it goes when the class does.
+   */
+  private static final ConcurrentHashMap<Long, ShadowScoreStats> siteShadowStats =
+      new ConcurrentHashMap<Long, ShadowScoreStats>();
+
   public static final SQLStmt seeIfCached = new SQLStmt("SELECT * FROM CACHED_RESULTS WHERE origin = ? "
       + "AND dest = ? AND CRSDepTime = ? AND year = ? AND month = ? AND dayOfMonth = ? "
       + "AND dayOfWeek = ? AND uniqueCarrier= ?;");
@@ -67,6 +128,37 @@ public class IsFlightLate extends VoltProcedure {
           + "       dayOfWeek,  uniqueCarrier,  last_used,usage_count, delayed) " + " VALUES "
           + " (?,?,?,?,?,?,?,?,NOW,1,?);");
 
+  /**
+   * Finds the version of our model ActivateModelVersion last activated, if
+   * there is one. If there isn't we use the zip file in our JAR. Only read on
+   * a miss, as a hit doesn't need the model.
+   */
+  public static final SQLStmt getActiveModel = new SQLStmt(
+      "SELECT v.version, v.chunk_count, v.total_bytes, v.checksum FROM MODEL_ACTIVE a, MODEL_VERSIONS v "
+          + "WHERE a.model_name = ? AND v.model_name = a.model_name AND v.version = a.version;");
+
+  /**
+   * Counts the MODEL_LOADS rows that say LoadModelVersion has loaded the
+   * active version of our model on this partition. If there are any we don't
+   * need to read MODEL_CHUNKS - see ModelVersions.
+   */
+  public static final SQLStmt getActiveModelLoads = new SQLStmt(
+      "SELECT COUNT(*) FROM MODEL_ACTIVE a, MODEL_VERSIONS v, MODEL_LOADS l WHERE a.model_name = ? "
+          + "AND v.model_name = a.model_name AND v.version = a.version AND l.model_name = v.model_name "
+          + "AND l.version = v.version AND l.checksum = v.checksum;");
+
+  public static final SQLStmt getModelChunks = new SQLStmt("SELECT chunk_id, chunk FROM MODEL_CHUNKS "
+      + "WHERE model_name = ? AND version = ? AND chunk_id >= ? AND chunk_id < ? ORDER BY chunk_id;");
+
+  /**
+   * Finds the challenger we should shadow score our model against, if there
+   * is one. This is a primary key lookup that usually finds nothing. Which
+   * version of the challenger to use is only looked up, with getActiveModel,
+   * for requests we sample.
+   */
+  public static final SQLStmt getChallenger = new SQLStmt(
+      "SELECT challenger_name, samples_per_10000, max_extra_us FROM MODEL_CHALLENGER WHERE model_name = ?;");
+
   /**
    * This VoltDB procedure uses an H20.AI function to guess whether a given
    * flight will be late. To make the example as simple as possible all values
@@ -99,7 +191,8 @@ public class IsFlightLate extends VoltProcedure {
    * @param dest
    *          Destination Airport
    * @param doStats
-   *          - Dump nanosecond timings to System.out if == 1.
+   *          - Ignored. Timings are always recorded in SiteMetrics, which
+   *          publishes them through JMX.
    * @return pmmlOut An array of VoltTable objects containing the results.
    * @throws VoltAbortException
    */
@@ -108,6 +201,10 @@ public class IsFlightLate extends VoltProcedure {
 
     long startNs = System.nanoTime();
 
+    if (metrics == null) {
+      metrics = SiteMetrics.register("IsFlightLate", getPartitionId());
+    }
+
     // We need to return an array of VoltTable[]. Normally we get
     // VoltTable's by issuing SQL queries. In this case we'll be inventing
     // one based on the results of h20.
@@ -130,6 +227,8 @@ public class IsFlightLate extends VoltProcedure {
       // We know the answer, so send that back...
       result = cacheResults[0].getString("DELAYED");
       h2oOut = createH2Oout(result);
+      setAppStatusCode(CACHE_HIT);
+      metrics.recordHit();
 
       // Update cache so we know it's useful.
       voltQueueSQL(trackCacheUsage, origin, dest, cRSDepTime, year, month, dayOfMonth, dayOfWeek, uniqueCarrier);
@@ -151,55 +250,73 @@ public class IsFlightLate extends VoltProcedure {
         // it's null.
         startNs = System.nanoTime();
 
-        if (modelWrapper == null) {
-          synchronized (this) {
-            if (modelWrapper == null) {
-
-              // Note that the zip file needs to be in the same directory in the
-              // JAR
-              // file as the procedures we are creating...
-
-              // URL mojoURL = IsFlightLate.class.getResource(modelZipFileName);
-              MojoReaderBackend reader = H2OMojoWrangler.createInMemoryReaderBackendFromSetOfZipFiles(modelZipFileName);
-
-              // = MojoReaderBackendFactory.createReaderBackend(mojoURL,
-              // MojoReaderBackendFactory.CachingStrategy.MEMORY);
-              MojoModel model = ModelMojoReader.readFrom(reader);
-              modelWrapper = new EasyPredictModelWrapper(model);
-            }
-          }
+        // Only a miss needs to know which version of the model to use...
+        voltQueueSQL(getActiveModel, modelZipFileName);
+        voltQueueSQL(getActiveModelLoads, modelZipFileName);
+        voltQueueSQL(getChallenger, modelZipFileName);
+        VoltTable[] modelResults = voltExecuteSQL();
+        final VoltTable activeModel = modelResults[0];
+        final VoltTable challenger = modelResults[2];
+
+        // Note that the zip file needs to be in the same directory in the
+        // JAR file as the procedures we are creating, unless a newer version
+        // has been put in MODEL_CHUNKS. If it has, LoadModelVersion will
+        // normally have loaded it on this partition already, and we use the
+        // copy every replica has. If not, every replica reads all of it - see
+        // ModelVersions.
+        //
+        // The model itself is shared by every site in this JVM - only the
+        // first site to get here actually unzips and parses it. The wrapper
+        // and scorer are small and belong to this site.
+        SharedMojoModel sharedModel = loadSharedModel(activeModel, modelResults[1],
+            (firstChunkId, chunkCount) -> readModelChunks(activeModel, firstChunkId, chunkCount));
+
+        if (modelWrapper == null || sharedModel.getChecksum() != modelChecksum) {
+          modelWrapper = new EasyPredictModelWrapper(sharedModel.getModel());
+          scorer = createScorer(sharedModel);
+          modelChecksum = sharedModel.getChecksum();
 
         }
 
         durationCreateModeNs = System.nanoTime() - startNs;
 
-        // Load our params into the data structure uses by H20...
-        RowData row = new RowData();
-        row.put("Year", year);
-        row.put("Month", month);
-        row.put("DayofMonth", dayOfMonth);
-        row.put("DayOfWeek", dayOfWeek);
-        row.put("CRSDepTime", cRSDepTime);
-        row.put("UniqueCarrier", uniqueCarrier);
-        row.put("Origin", origin);
-        row.put("Dest", dest);
-
-        // Run the modelWrapper. As before we track the time it takes.
+        // Run the model. As before we track the time it takes.
         startNs = System.nanoTime();
-        BinomialModelPrediction p = modelWrapper.predictBinomial(row);
+
+        result = predictLabel(scorer, modelWrapper, origin, cRSDepTime, year, month, dayOfMonth, dayOfWeek,
+            uniqueCarrier, dest);
+
         durationModelExecNs = System.nanoTime() - startNs;
 
+        final int keyHash = ShadowScoreStats.hashKey(origin, dest, cRSDepTime, year, month, dayOfMonth,
+            dayOfWeek, uniqueCarrier);
+
+        // If a challenger model is being evaluated see what it would have
+        // said. This never changes what we return or store. Whether we
+        // sample depends only on the request and MODEL_CHALLENGER, so every
+        // replica runs the same SQL.
+        if (challenger.advanceRow()
+            && ShadowScoreStats.isSampled(keyHash, (int) challenger.getLong("SAMPLES_PER_10000"))) {
+
+          voltQueueSQL(getActiveModel, challenger.getString("CHALLENGER_NAME"));
+          final VoltTable activeChallenger = voltExecuteSQL()[0];
+
+          shadowScore(challenger, activeChallenger.advanceRow() ? activeChallenger : null, result,
+              durationModelExecNs, origin, cRSDepTime, year, month, dayOfMonth, dayOfWeek, uniqueCarrier, dest);
+        }
+
         // Cache for future use...
         voltQueueSQL(addCacheEntry, origin, dest, cRSDepTime, year, month, dayOfMonth, dayOfWeek, uniqueCarrier,
-            p.label);
+            result);
 
         // We now need to load the results into a VoltTable.
-        result = p.label;
         h2oOut = createH2Oout(result);
+        setAppStatusCode(CACHE_MISS);
+        metrics.recordMiss();
 
       } catch (Exception e) {
 
-        System.err.println(e.getMessage());
+        LOG.error("IsFlightLate: " + e.getMessage());
 
         // VoltAbortException undoes all the DB changes made by a stored
         // procedure call. In thus case there aren't any, but if we added
@@ -215,73 +332,291 @@ public class IsFlightLate extends VoltProcedure {
     voltExecuteSQL(true);
     long updateDBNs = System.nanoTime() - startNs;
 
-    // Note that we dump stats to System.out. We do *not* send them back as
-    // part of a result. In VoltDB we implement High Availability by running the
-    // same procedure in two or more places at once, so we can't have any copy
-    // of
-    // a procedure return different answers. It's very unlikely nanosecond
-    // timings
-    // will be the same in two places, even with the same inputs. The VoltDB
-    // client
-    // will get very upset if two copies of a procedure return different
-    // answers,
-    // so we dump the stats to Standard Output.
-    if (doStats == 1) {
-      printToSystemDotOut(origin, cRSDepTime, year, month, dayOfMonth, dayOfWeek, uniqueCarrier, dest, cacheCheckNs,
-          durationCreateModeNs, durationModelExecNs, result, updateDBNs);
-    }
+    // Note that we do *not* send timings back as part of a result. In VoltDB
+    // we implement High Availability by running the same procedure in two or
+    // more places at once, so we can't have any copy of a procedure return
+    // different answers, and nanosecond timings won't be the same in two
+    // places. Instead they go into this site's SiteMetrics, which ops can
+    // read through JMX without slowing us down.
+    metrics.recordTime(SiteMetrics.CACHE_CHECK, cacheCheckNs);
+    metrics.recordTime(SiteMetrics.MODEL_CREATE, durationCreateModeNs);
+    metrics.recordTime(SiteMetrics.MODEL_EXEC, durationModelExecNs);
+    metrics.recordTime(SiteMetrics.DB_UPDATE, updateDBNs);
 
     // Return the array we invented.
     return h2oOut;
   }
 
   /**
-   * @param origin
-   * @param cRSDepTime
-   * @param year
-   * @param month
-   * @param dayOfMonth
-   * @param dayOfWeek
-   * @param uniqueCarrier
-   * @param dest
-   * @param cacheCheckNs
-   * @param durationCreateModeNs
-   * @param durationModelExecNs
-   * @param result
-   * @param updateDBNs
+   * Score a request with the challenger model and record how long it took and
+   * whether it agreed with our model. Failures are counted, not thrown, as the
+   * challenger mustn't affect what the caller gets. Once the challenger's
+   * average time on this site is over MAX_EXTRA_US we stop scoring with it
+   * here, until it or its budget changes.
+   * 
+   * @param challenger       Output of getChallenger, positioned on its row
+   * @param activeChallenger Output of getActiveModel for the challenger,
+   *                         positioned on its row, or null if it's a zip file
+   *                         in our JAR
+   * @param liveLabel        What our model said
+   * @param liveDurationNs   How long our model took
    */
-  private void printToSystemDotOut(String origin, String cRSDepTime, String year, String month, String dayOfMonth,
-      String dayOfWeek, String uniqueCarrier, String dest, long cacheCheckNs, long durationCreateModeNs,
-      long durationModelExecNs, String result, long updateDBNs) {
-    StringBuffer b = new StringBuffer(cRSDepTime);
-    b.append(" ");
-    b.append(year);
-    b.append(" ");
-    b.append(month);
-    b.append(" ");
-    b.append(dayOfMonth);
-    b.append(" ");
-    b.append(dayOfWeek);
-    b.append(" ");
-    b.append(uniqueCarrier);
-    b.append(" ");
-    b.append(origin);
-    b.append(" ");
-    b.append(dest);
-    b.append(" Result=");
-    b.append(result);
-    b.append(" Cache Check/Model Create/Model Exec/Update DB Exec time=");
-    b.append(cacheCheckNs);
-    b.append("/");
-    b.append(durationCreateModeNs);
-    b.append("/");
-    b.append(durationModelExecNs);
-    b.append("/");
-    b.append(updateDBNs);
-    System.out.println(b.toString());
+  private void shadowScore(final VoltTable challenger, final VoltTable activeChallenger, String liveLabel,
+      long liveDurationNs, String origin, String cRSDepTime, String year, String month, String dayOfMonth,
+      String dayOfWeek, String uniqueCarrier, String dest) {
+
+    final Long siteKey = Thread.currentThread().getId();
+    final String challengerName = challenger.getString("CHALLENGER_NAME");
+
+    // A null budget means there isn't one...
+    long maxExtraUs = challenger.getLong("MAX_EXTRA_US");
+
+    if (challenger.wasNull()) {
+      maxExtraUs = 0;
+    }
+
+    ShadowScoreStats stats = siteShadowStats.get(siteKey);
+
+    try {
+
+      // Loading the challenger isn't part of what it costs to score with it.
+      // If this JVM doesn't have the challenger's active version we count
+      // an error rather than read MODEL_CHUNKS. That's safe because nothing
+      // we write or return depends on the challenger...
+      SharedMojoModel sharedModel = ModelVersions.getLoadedModel(IsFlightLate.class, challengerName,
+          activeChallenger);
+
+      if (sharedModel != challengerModel) {
+        challengerModel = sharedModel;
+        challengerWrapper = new EasyPredictModelWrapper(sharedModel.getModel());
+        challengerScorer = createScorer(sharedModel);
+      }
+
+      if (stats == null || !stats.getChallengerName().equals(challengerName)
+          || stats.getChallengerChecksum() != sharedModel.getChecksum()) {
+        stats = new ShadowScoreStats(challengerName, sharedModel.getChecksum());
+        siteShadowStats.put(siteKey, stats);
+      }
+
+      // We've already looked up the challenger, so all this saves is the
+      // time it takes to score with it...
+      if (stats.checkBudget(maxExtraUs)) {
+        return;
+      }
+
+      final long startNs = System.nanoTime();
+      final String challengerLabel = predictLabel(challengerScorer, challengerWrapper, origin, cRSDepTime, year,
+          month, dayOfMonth, dayOfWeek, uniqueCarrier, dest);
+
+      stats.record(liveLabel, challengerLabel, liveDurationNs, System.nanoTime() - startNs);
+
+    } catch (Exception e) {
+
+      if (stats == null || !stats.getChallengerName().equals(challengerName)) {
+        stats = new ShadowScoreStats(challengerName, MojoModelRegistry.NO_MODEL_LOADED);
+        siteShadowStats.put(siteKey, stats);
+      }
+
+      // Don't flood the log if the challenger is broken...
+      stats.recordError();
+      if (stats.getErrors() % 1000 == 1) {
+        LOG.warn("IsFlightLate: shadow scoring with " + challengerName + " failed: " + e.getMessage());
+      }
+    }
+  }
+
+  /**
+   * @return This site's shadow scoring statistics, or null if it hasn't shadow
+   *         scored anything. Only call this from a procedure.
+   */
+  static ShadowScoreStats getSiteShadowStats() {
+    return siteShadowStats.get(Thread.currentThread().getId());
+  }
+
+  /**
+   * @param activeModel   Output of getActiveModel
+   * @param modelChecksum Checksum of the model we're using
+   * @return true if a version of our model has been activated that isn't the
+   *         one we're using.
+   */
+  static boolean isNewModel(VoltTable activeModel, long modelChecksum) {
+
+    activeModel.resetRowPosition();
+
+    return activeModel.advanceRow() && activeModel.getLong("CHECKSUM") != modelChecksum;
+  }
+
+  /**
+   * Get the model we should be using, for read only procedures. The active
+   * version's chunks are only read if this JVM doesn't have it.
+   * 
+   * @param activeModel Output of getActiveModel
+   * @param chunkReader Reads the active version's chunks from MODEL_CHUNKS
+   * @return The version of our model in MODEL_ACTIVE, or the one in our JAR
+   *         if there isn't one.
+   * @throws IOException if we don't have the active version and can't read
+   *                     it
+   */
+  public static SharedMojoModel getSharedModel(VoltTable activeModel, ModelChunkReader chunkReader)
+      throws IOException {
+
+    activeModel.resetRowPosition();
+
+    return ModelVersions.getModel(IsFlightLate.class, modelZipFileName, activeModel.advanceRow() ? activeModel : null,
+        chunkReader);
+  }
+
+  /**
+   * Get the model we should be using, for read write procedures. Every
+   * replica of a partition sees the same MODEL_ACTIVE and MODEL_LOADS rows in
+   * the same transaction. If LoadModelVersion has loaded the active version
+   * on this partition they all use the copy they already have, and if it
+   * hasn't they all read every chunk - see ModelVersions.
+   * 
+   * @param activeModel       Output of getActiveModel
+   * @param activeModelLoads  Output of getActiveModelLoads
+   * @param chunkReader       Reads the active version's chunks from
+   *                          MODEL_CHUNKS
+   * @return The version of our model in MODEL_ACTIVE, or the one in our JAR
+   *         if there isn't one.
+   * @throws IOException if the active version's chunks can't be read
+   */
+  public static SharedMojoModel loadSharedModel(VoltTable activeModel, VoltTable activeModelLoads,
+      ModelChunkReader chunkReader) throws IOException {
+
+    activeModel.resetRowPosition();
+
+    return ModelVersions.loadModel(IsFlightLate.class, modelZipFileName,
+        activeModel.advanceRow() ? activeModel : null, ModelVersions.isLoadedHere(activeModelLoads), chunkReader);
+  }
+
+  /**
+   * ModelChunkReader for the version of our model in 'activeModel'.
+   */
+  private byte[][] readModelChunks(VoltTable activeModel, int firstChunkId, int chunkCount) throws IOException {
+
+    voltQueueSQL(getModelChunks, modelZipFileName, activeModel.getLong("VERSION"), firstChunkId,
+        firstChunkId + chunkCount);
+
+    return getChunks(voltExecuteSQL()[0], firstChunkId, chunkCount);
+  }
+
+  /**
+   * Turn the output of getModelChunks into what a ModelChunkReader returns.
+   * 
+   * @param chunks       Output of getModelChunks
+   * @param firstChunkId The chunk we asked for first
+   * @param chunkCount   How many chunks we asked for
+   * @return The chunks, in order
+   * @throws IOException if any are missing
+   */
+  public static byte[][] getChunks(VoltTable chunks, int firstChunkId, int chunkCount) throws IOException {
+    return ModelVersions.getChunks(chunks, modelZipFileName, firstChunkId, chunkCount);
   }
 
-  private VoltTable[] createH2Oout(String value) {
+  /**
+   * Run a model for one flight. We try 'scorer' first, as it doesn't
+   * allocate. It gives up if it sees a value the model doesn't know about, in
+   * which case we use 'modelWrapper', which will complain properly. Everything
+   * that scores a flight should come through here or predictLabelIndex, so
+   * the order of inputNames is only written down once.
+   * 
+   * @param scorer       From createScorer(). Can be null.
+   * @param modelWrapper Wrapper for the same model as 'scorer'
+   * @return the predicted label
+   * @throws PredictException if the model can't score the flight
+   */
+  public static String predictLabel(BinomialScorer scorer, EasyPredictModelWrapper modelWrapper, String origin,
+      String cRSDepTime, String year, String month, String dayOfMonth, String dayOfWeek, String uniqueCarrier,
+      String dest) throws PredictException {
+
+    if (setInputs(scorer, origin, cRSDepTime, year, month, dayOfMonth, dayOfWeek, uniqueCarrier, dest)) {
+      return scorer.scoreLabel();
+    }
+
+    return modelWrapper.predictBinomial(
+        createRowData(origin, cRSDepTime, year, month, dayOfMonth, dayOfWeek, uniqueCarrier, dest)).label;
+  }
+
+  /**
+   * Same as predictLabel, but returns the index of the label in the model's
+   * response domain.
+   * 
+   * @return the index of the predicted label
+   * @throws PredictException if the model can't score the flight
+   */
+  public static int predictLabelIndex(BinomialScorer scorer, EasyPredictModelWrapper modelWrapper, String origin,
+      String cRSDepTime, String year, String month, String dayOfMonth, String dayOfWeek, String uniqueCarrier,
+      String dest) throws PredictException {
+
+    if (setInputs(scorer, origin, cRSDepTime, year, month, dayOfMonth, dayOfWeek, uniqueCarrier, dest)) {
+      return scorer.scoreLabelIndex();
+    }
+
+    return modelWrapper.predictBinomial(
+        createRowData(origin, cRSDepTime, year, month, dayOfMonth, dayOfWeek, uniqueCarrier, dest)).labelIndex;
+  }
+
+  /**
+   * Load a flight into a BinomialScorer made by createScorer(), in the order
+   * of inputNames.
+   * 
+   * @return false if 'scorer' is null or doesn't know one of the values
+   */
+  private static boolean setInputs(BinomialScorer scorer, String origin, String cRSDepTime, String year,
+      String month, String dayOfMonth, String dayOfWeek, String uniqueCarrier, String dest) {
+
+    return scorer != null && scorer.setInput(0, year) && scorer.setInput(1, month)
+        && scorer.setInput(2, dayOfMonth) && scorer.setInput(3, dayOfWeek) && scorer.setInput(4, cRSDepTime)
+        && scorer.setInput(5, uniqueCarrier) && scorer.setInput(6, origin) && scorer.setInput(7, dest);
+  }
+
+  /**
+   * Load a flight into the data structure used by H2O. ScoringBenchmark
+   * measures this too.
+   * 
+   * @return A RowData with a value for each of inputNames
+   */
+  public static RowData createRowData(String origin, String cRSDepTime, String year, String month,
+      String dayOfMonth, String dayOfWeek, String uniqueCarrier, String dest) {
+
+    RowData row = new RowData();
+    row.put(inputNames[0], year);
+    row.put(inputNames[1], month);
+    row.put(inputNames[2], dayOfMonth);
+    row.put(inputNames[3], dayOfWeek);
+    row.put(inputNames[4], cRSDepTime);
+    row.put(inputNames[5], uniqueCarrier);
+    row.put(inputNames[6], origin);
+    row.put(inputNames[7], dest);
+
+    return row;
+  }
+
+  /**
+   * Create a BinomialScorer for this site.
+   * 
+   * @param sharedModel
+   * @return A BinomialScorer, or null if the model isn't binomial or doesn't
+   *         have the columns we expect.
+   */
+  public static BinomialScorer createScorer(SharedMojoModel sharedModel) {
+
+    try {
+      return new BinomialScorer(sharedModel.getFeatureLayout(inputNames), sharedModel.getTreeScorer());
+    } catch (IllegalArgumentException e) {
+      LOG.warn("IsFlightLate: can't use BinomialScorer for " + sharedModel.getModelName() + ": " + e.getMessage());
+    }
+
+    return null;
+  }
+
+  /**
+   * @param value The label we're returning
+   * @return A table with one row with a LABEL column. Not private, as
+   *         CreateH2OoutBenchmark measures it.
+   */
+  static VoltTable[] createH2Oout(String value) {
 
     // We now need to load the results into a VoltTable.
     VoltTable[] newH2oOut = new VoltTable[1];
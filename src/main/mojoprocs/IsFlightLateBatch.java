@@ -0,0 +1,306 @@
+package mojoprocs;
+
+/* This file is part of VoltDB.
+ * Copyright (C) 2008-2019 VoltDB Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+
+import java.io.IOException;
+import java.util.HashMap;
+
+import org.voltcore.logging.VoltLogger;
+import org.voltdb.SQLStmt;
+import org.voltdb.VoltProcedure;
+import org.voltdb.VoltTable;
+import org.voltdb.VoltType;
+
+import hex.genmodel.easy.EasyPredictModelWrapper;
+import ie.voltdb.h2outil.BinomialScorer;
+import ie.voltdb.h2outil.MojoModelRegistry;
+import ie.voltdb.h2outil.SharedMojoModel;
+
+/**
+ * VoltDB procedure that does what IsFlightLate does, but for a whole batch of
+ * flights from the same airport in one transaction.
+ * 
+ * All the cache lookups are queued and sent to the database together, then
+ * all the misses are scored in one loop, then all the cache updates and
+ * inserts are sent together. VoltDB won't take more than
+ * MAX_STATEMENTS_PER_BATCH statements at a time, so big batches take more than
+ * one trip, but far fewer than one per flight.
+ * 
+ * VoltDB's INSERT only takes one row, so each hit is still its own UPDATE and
+ * each miss its own INSERT. What we save is the round trips between them, not
+ * the statements.
+ * 
+ * @author drolfe
+ *
+ */
+public class IsFlightLateBatch extends VoltProcedure {
+
+  private static final VoltLogger LOG = new VoltLogger("MOJO");
+
+  /**
+   * Most statements VoltDB lets us queue before calling voltExecuteSQL().
+   */
+  static final int MAX_STATEMENTS_PER_BATCH = 200;
+
+  // Column numbers in the 'flights' table...
+  static final int CRS_DEP_TIME_COL = 0;
+  static final int YEAR_COL = 1;
+  static final int MONTH_COL = 2;
+  static final int DAY_OF_MONTH_COL = 3;
+  static final int DAY_OF_WEEK_COL = 4;
+  static final int UNIQUE_CARRIER_COL = 5;
+  static final int DEST_COL = 6;
+
+  public static final SQLStmt seeIfCached = new SQLStmt("SELECT delayed FROM CACHED_RESULTS WHERE origin = ? "
+      + "AND dest = ? AND CRSDepTime = ? AND year = ? AND month = ? AND dayOfMonth = ? "
+      + "AND dayOfWeek = ? AND uniqueCarrier= ?;");
+
+  public static final SQLStmt trackCacheUsage = new SQLStmt(
+      "UPDATE CACHED_RESULTS set last_used = NOW, " + "usage_count = usage_count + 1 WHERE origin = ? "
+          + "AND dest = ? AND CRSDepTime = ? AND year = ? AND month = ? AND dayOfMonth = ? "
+          + "AND dayOfWeek = ? AND uniqueCarrier= ?;");
+
+  public static final SQLStmt addCacheEntry = new SQLStmt(
+      "INSERT INTO CACHED_RESULTS " + "(origin, dest,cRSDepTime,  year,  month,  dayOfMonth,"
+          + "       dayOfWeek,  uniqueCarrier,  last_used,usage_count, delayed) " + " VALUES "
+          + " (?,?,?,?,?,?,?,?,NOW,1,?);");
+
+  public static final SQLStmt getActiveModel = new SQLStmt(
+      "SELECT v.version, v.chunk_count, v.total_bytes, v.checksum FROM MODEL_ACTIVE a, MODEL_VERSIONS v "
+          + "WHERE a.model_name = ? AND v.model_name = a.model_name AND v.version = a.version;");
+
+  public static final SQLStmt getActiveModelLoads = new SQLStmt(
+      "SELECT COUNT(*) FROM MODEL_ACTIVE a, MODEL_VERSIONS v, MODEL_LOADS l WHERE a.model_name = ? "
+          + "AND v.model_name = a.model_name AND v.version = a.version AND l.model_name = v.model_name "
+          + "AND l.version = v.version AND l.checksum = v.checksum;");
+
+  public static final SQLStmt getModelChunks = new SQLStmt("SELECT chunk_id, chunk FROM MODEL_CHUNKS "
+      + "WHERE model_name = ? AND version = ? AND chunk_id >= ? AND chunk_id < ? ORDER BY chunk_id;");
+
+  EasyPredictModelWrapper modelWrapper = null;
+
+  BinomialScorer scorer = null;
+
+  /**
+   * Checksum of the model modelWrapper and scorer were made from.
+   */
+  long modelChecksum = MojoModelRegistry.NO_MODEL_LOADED;
+
+  /**
+   * @return An empty table in the format run() expects.
+   */
+  public static VoltTable createFlightsTable() {
+
+    return new VoltTable(new VoltTable.ColumnInfo("CRSDEPTIME", VoltType.STRING),
+        new VoltTable.ColumnInfo("YEAR", VoltType.STRING), new VoltTable.ColumnInfo("MONTH", VoltType.STRING),
+        new VoltTable.ColumnInfo("DAYOFMONTH", VoltType.STRING),
+        new VoltTable.ColumnInfo("DAYOFWEEK", VoltType.STRING),
+        new VoltTable.ColumnInfo("UNIQUECARRIER", VoltType.STRING),
+        new VoltTable.ColumnInfo("DEST", VoltType.STRING));
+  }
+
+  /**
+   * Predict whether each of a batch of flights will be late.
+   * 
+   * @param origin  Origin airport for all the flights. This is also how we
+   *                are partitioned.
+   * @param flights Flights, in the format created by createFlightsTable().
+   * @return A table with one row for each row of 'flights', in the same
+   *         order, with columns LABEL and FROM_CACHE. FROM_CACHE is 1 if the
+   *         answer was already in CACHED_RESULTS.
+   * @throws VoltAbortException
+   */
+  public VoltTable[] run(String origin, VoltTable flights) throws VoltAbortException {
+
+    final int flightCount = flights.getRowCount();
+
+    String[][] rows = new String[flightCount][];
+    String[] labels = new String[flightCount];
+    boolean[] fromCache = new boolean[flightCount];
+
+    flights.resetRowPosition();
+
+    for (int i = 0; i < flightCount; i++) {
+
+      flights.advanceRow();
+      rows[i] = new String[] { flights.getString(CRS_DEP_TIME_COL), flights.getString(YEAR_COL),
+          flights.getString(MONTH_COL), flights.getString(DAY_OF_MONTH_COL), flights.getString(DAY_OF_WEEK_COL),
+          flights.getString(UNIQUE_CARRIER_COL), flights.getString(DEST_COL) };
+    }
+
+    VoltTable activeModel = null;
+    VoltTable activeModelLoads = null;
+
+    // Look everything up, MAX_STATEMENTS_PER_BATCH flights at a time. The
+    // first trip also finds out which version of the model to use and whether
+    // it's been loaded here, so it has room for two fewer flights...
+    for (int start = 0, end; start < flightCount; start = end) {
+
+      end = Math.min(start + MAX_STATEMENTS_PER_BATCH - (start == 0 ? 2 : 0), flightCount);
+
+      for (int i = start; i < end; i++) {
+        queueWithKey(seeIfCached, origin, rows[i]);
+      }
+
+      if (start == 0) {
+        voltQueueSQL(getActiveModel, IsFlightLate.modelZipFileName);
+        voltQueueSQL(getActiveModelLoads, IsFlightLate.modelZipFileName);
+      }
+
+      VoltTable[] cacheResults = voltExecuteSQL();
+
+      if (start == 0) {
+        activeModel = cacheResults[end - start];
+        activeModelLoads = cacheResults[end - start + 1];
+      }
+
+      for (int i = start; i < end; i++) {
+        if (cacheResults[i - start].advanceRow()) {
+          labels[i] = cacheResults[i - start].getString("DELAYED");
+          fromCache[i] = true;
+        }
+      }
+    }
+
+    // Score the misses. The same flight can appear more than once in a batch,
+    // so we remember what we've scored and only insert it once...
+    HashMap<String, String> scoredThisCall = new HashMap<String, String>();
+    int queuedCount = 0;
+
+    try {
+
+      // Reading the model runs SQL, so it has to happen before we start
+      // queueing writes...
+      for (int i = 0; i < flightCount; i++) {
+        if (!fromCache[i]) {
+          loadModel(activeModel, activeModelLoads);
+          break;
+        }
+      }
+
+      for (int i = 0; i < flightCount; i++) {
+
+        if (fromCache[i]) {
+
+          queueWithKey(trackCacheUsage, origin, rows[i]);
+
+        } else {
+
+          String key = String.join(",", rows[i]);
+          labels[i] = scoredThisCall.get(key);
+
+          if (labels[i] != null) {
+            continue;
+          }
+
+          labels[i] = predict(origin, rows[i]);
+          scoredThisCall.put(key, labels[i]);
+
+          voltQueueSQL(addCacheEntry, origin, rows[i][DEST_COL], rows[i][CRS_DEP_TIME_COL], rows[i][YEAR_COL],
+              rows[i][MONTH_COL], rows[i][DAY_OF_MONTH_COL], rows[i][DAY_OF_WEEK_COL],
+              rows[i][UNIQUE_CARRIER_COL], labels[i]);
+        }
+
+        if (++queuedCount == MAX_STATEMENTS_PER_BATCH) {
+          voltExecuteSQL();
+          queuedCount = 0;
+        }
+      }
+
+    } catch (Exception e) {
+      LOG.error("IsFlightLateBatch: " + e.getMessage());
+      throw new VoltAbortException(e);
+    }
+
+    voltExecuteSQL(true);
+
+    VoltTable results = new VoltTable(new VoltTable.ColumnInfo("LABEL", VoltType.STRING),
+        new VoltTable.ColumnInfo("FROM_CACHE", VoltType.TINYINT));
+
+    for (int i = 0; i < flightCount; i++) {
+      results.addRow(labels[i], fromCache[i] ? 1 : 0);
+    }
+
+    return new VoltTable[] { results };
+  }
+
+  /**
+   * Queue a statement whose parameters are the primary key of CACHED_RESULTS.
+   */
+  private void queueWithKey(SQLStmt stmt, String origin, String[] row) {
+    voltQueueSQL(stmt, origin, row[DEST_COL], row[CRS_DEP_TIME_COL], row[YEAR_COL], row[MONTH_COL],
+        row[DAY_OF_MONTH_COL], row[DAY_OF_WEEK_COL], row[UNIQUE_CARRIER_COL]);
+  }
+
+  /**
+   * Make sure modelWrapper and scorer are for the active version of our model.
+   * Every replica reads the active version's chunks if LoadModelVersion
+   * hasn't loaded it on this partition, and none of them do if it has - see
+   * ModelVersions. We only do this once per call, and only if something
+   * missed.
+   * 
+   * @param activeModel      Output of getActiveModel
+   * @param activeModelLoads Output of getActiveModelLoads
+   * @throws IOException
+   */
+  private void loadModel(final VoltTable activeModel, VoltTable activeModelLoads) throws IOException {
+
+    SharedMojoModel sharedModel = IsFlightLate.loadSharedModel(activeModel, activeModelLoads,
+        (firstChunkId, chunkCount) -> readModelChunks(activeModel, firstChunkId, chunkCount));
+
+    if (modelWrapper == null || sharedModel.getChecksum() != modelChecksum) {
+      modelWrapper = new EasyPredictModelWrapper(sharedModel.getModel());
+      scorer = IsFlightLate.createScorer(sharedModel);
+      modelChecksum = sharedModel.getChecksum();
+    }
+  }
+
+  /**
+   * Run the model for one flight, the same way IsFlightLate does. loadModel()
+   * must have been called first.
+   * 
+   * @param origin
+   * @param row
+   * @return predicted label
+   * @throws Exception
+   */
+  private String predict(String origin, String[] row) throws Exception {
+
+    return IsFlightLate.predictLabel(scorer, modelWrapper, origin, row[CRS_DEP_TIME_COL], row[YEAR_COL],
+        row[MONTH_COL], row[DAY_OF_MONTH_COL], row[DAY_OF_WEEK_COL], row[UNIQUE_CARRIER_COL], row[DEST_COL]);
+  }
+
+  /**
+   * ModelChunkReader for the version of our model in 'activeModel'.
+   */
+  private byte[][] readModelChunks(VoltTable activeModel, int firstChunkId, int chunkCount) throws IOException {
+
+    voltQueueSQL(getModelChunks, IsFlightLate.modelZipFileName, activeModel.getLong("VERSION"), firstChunkId,
+        firstChunkId + chunkCount);
+
+    return IsFlightLate.getChunks(voltExecuteSQL()[0], firstChunkId, chunkCount);
+  }
+
+}
@@ -0,0 +1,274 @@
+package mojoprocs;
+
+/* This file is part of VoltDB.
+ * Copyright (C) 2008-2019 VoltDB Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+
+import java.io.IOException;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.voltcore.logging.VoltLogger;
+import org.voltdb.SQLStmt;
+import org.voltdb.VoltProcedure;
+import org.voltdb.VoltTable;
+import org.voltdb.VoltType;
+
+import hex.genmodel.GenModel;
+import hex.genmodel.easy.EasyPredictModelWrapper;
+import ie.voltdb.h2outil.BinomialScorer;
+import ie.voltdb.h2outil.FlightKey;
+import ie.voltdb.h2outil.MojoModelRegistry;
+import ie.voltdb.h2outil.OffHeapClockCache;
+import ie.voltdb.h2outil.SharedMojoModel;
+
+/**
+ * Version of IsFlightLate that keeps recent answers in an off heap near cache
+ * belonging to the site, so a repeat question doesn't need any SQL at all.
+ * 
+ * If the near cache doesn't know the answer we look in CACHED_RESULTS, and if
+ * that doesn't either we run the model. Either way the answer goes in the near
+ * cache.
+ * 
+ * This procedure never writes to the database. That matters: with k-safety
+ * every replica of a partition runs each read-write transaction, and they all
+ * have to issue the same writes. After a node rejoins, its near cache is empty
+ * and the others' aren't, so if the near cache decided what we wrote the
+ * replicas would drift apart. As a read only procedure we only run on one
+ * replica, and the answer depends only on the inputs and the model, never on
+ * what happens to be in a cache.
+ * 
+ * The near cache lives as long as this class, so @UpdateClasses also gives
+ * every site an empty near cache. A near cache hit doesn't look at
+ * MODEL_ACTIVE, so each site only trusts its near cache for
+ * Predict.ACTIVE_MODEL_CHECK_MS after it last read MODEL_ACTIVE. After that
+ * the next call reads it again, and if a new version has been activated the
+ * site switches to it and empties its near cache. A new version is picked up
+ * within that time, which is one second unless -Dmojoprocs.activeModelCheckMs
+ * says otherwise.
+ * 
+ * @author drolfe
+ *
+ */
+public class IsFlightLateNearCache extends VoltProcedure {
+
+  private static final VoltLogger LOG = new VoltLogger("MOJO");
+
+  /**
+   * How many answers each site keeps. Each one needs 9 bytes of direct memory.
+   */
+  static final int NEAR_CACHE_ENTRIES = Integer.getInteger("mojoprocs.nearCacheEntries", 262144);
+
+  /**
+   * Each site's near cache, keyed by the id of the site's thread, so
+   * NearCacheStats can find it. This isn't a ThreadLocal because a thread
+   * holds on to its ThreadLocal values, and site threads outlive
+   * @UpdateClasses. The old class's near caches, and their direct memory,
+   * would never be freed. Nothing outside this class refers to this map, so
+   * it goes when the class does.
+   */
+  private static final ConcurrentHashMap<Long, OffHeapClockCache> siteNearCaches =
+      new ConcurrentHashMap<Long, OffHeapClockCache>();
+
+  public static final SQLStmt seeIfCached = new SQLStmt("SELECT delayed FROM CACHED_RESULTS WHERE origin = ? "
+      + "AND dest = ? AND CRSDepTime = ? AND year = ? AND month = ? AND dayOfMonth = ? "
+      + "AND dayOfWeek = ? AND uniqueCarrier= ?;");
+
+  public static final SQLStmt getActiveModel = new SQLStmt(
+      "SELECT v.version, v.chunk_count, v.total_bytes, v.checksum FROM MODEL_ACTIVE a, MODEL_VERSIONS v "
+          + "WHERE a.model_name = ? AND v.model_name = a.model_name AND v.version = a.version;");
+
+  public static final SQLStmt getModelChunks = new SQLStmt("SELECT chunk_id, chunk FROM MODEL_CHUNKS "
+      + "WHERE model_name = ? AND version = ? AND chunk_id >= ? AND chunk_id < ? ORDER BY chunk_id;");
+
+  EasyPredictModelWrapper modelWrapper = null;
+
+  BinomialScorer scorer = null;
+
+  /**
+   * The model's labels, so we can turn the label index in the near cache back
+   * into a String.
+   */
+  String[] responseLabels = null;
+
+  OffHeapClockCache nearCache = null;
+
+  /**
+   * Checksum of the model the answers in the near cache came from.
+   */
+  long modelChecksum = MojoModelRegistry.NO_MODEL_LOADED;
+
+  /**
+   * When we last read MODEL_ACTIVE.
+   */
+  long activeCheckedMs = 0;
+
+  /**
+   * Predict whether a flight will be late. Parameters are the same as
+   * IsFlightLate's.
+   * 
+   * @return A table with one row with a LABEL column.
+   * @throws VoltAbortException
+   */
+  public VoltTable[] run(String origin, String cRSDepTime, String year, String month, String dayOfMonth,
+      String dayOfWeek, String uniqueCarrier, String dest, int doStats) throws VoltAbortException {
+
+    try {
+
+      final long key = FlightKey.pack(origin, dest, cRSDepTime, year, month, dayOfMonth, dayOfWeek, uniqueCarrier);
+      final long nowMs = System.currentTimeMillis();
+
+      // If it's a while since we looked at MODEL_ACTIVE a new version may
+      // have been activated and our near cache may be out of date, so we go
+      // to the database, which will tell us which version to use...
+      final boolean modelInDoubt = modelWrapper == null || nowMs - activeCheckedMs >= Predict.ACTIVE_MODEL_CHECK_MS;
+
+      if (key != FlightKey.NOT_PACKABLE && !modelInDoubt) {
+
+        final int labelIndex = nearCache.get(key);
+
+        if (labelIndex != OffHeapClockCache.NOT_FOUND) {
+          setAppStatusCode(IsFlightLate.CACHE_HIT);
+          return createH2Oout(responseLabels[labelIndex]);
+        }
+      }
+
+      // We only need to know which version of the model to use if we're
+      // going to run it, or if it might have changed...
+      voltQueueSQL(seeIfCached, origin, dest, cRSDepTime, year, month, dayOfMonth, dayOfWeek, uniqueCarrier);
+
+      if (modelInDoubt) {
+        voltQueueSQL(getActiveModel, IsFlightLate.modelZipFileName);
+      }
+
+      VoltTable[] results = voltExecuteSQL();
+      VoltTable cacheResults = results[0];
+      final boolean cacheHit = cacheResults.advanceRow();
+
+      if (modelInDoubt || !cacheHit) {
+
+        if (!modelInDoubt) {
+          voltQueueSQL(getActiveModel, IsFlightLate.modelZipFileName);
+        }
+
+        final VoltTable activeModel = modelInDoubt ? results[1] : voltExecuteSQL()[0];
+        activeCheckedMs = nowMs;
+
+        // We only run on one replica, so we're allowed to read the chunks if
+        // nobody in this JVM has loaded this version yet. If someone has, or
+        // it's the zip file in our JAR, this doesn't read anything...
+        SharedMojoModel sharedModel = IsFlightLate.getSharedModel(activeModel,
+            (firstChunkId, chunkCount) -> readModelChunks(activeModel, firstChunkId, chunkCount));
+
+        if (modelWrapper == null || sharedModel.getChecksum() != modelChecksum) {
+
+          GenModel model = sharedModel.getModel();
+          modelWrapper = new EasyPredictModelWrapper(model);
+          scorer = IsFlightLate.createScorer(sharedModel);
+          responseLabels = model.getDomainValues(model.getResponseIdx());
+          modelChecksum = sharedModel.getChecksum();
+
+          // Answers from any other version of the model are no use to us...
+          nearCache = getSiteNearCache(true);
+          nearCache.clear();
+        }
+      }
+
+      int labelIndex;
+
+      if (cacheHit) {
+
+        labelIndex = indexOfLabel(cacheResults.getString("DELAYED"));
+        setAppStatusCode(IsFlightLate.CACHE_HIT);
+
+      } else {
+
+        labelIndex = IsFlightLate.predictLabelIndex(scorer, modelWrapper, origin, cRSDepTime, year, month,
+            dayOfMonth, dayOfWeek, uniqueCarrier, dest);
+
+        setAppStatusCode(IsFlightLate.CACHE_MISS);
+      }
+
+      if (key != FlightKey.NOT_PACKABLE && labelIndex >= 0 && labelIndex <= OffHeapClockCache.MAX_VALUE) {
+        nearCache.put(key, labelIndex);
+      }
+
+      return createH2Oout(labelIndex >= 0 ? responseLabels[labelIndex] : cacheResults.getString("DELAYED"));
+
+    } catch (Exception e) {
+      LOG.error("IsFlightLateNearCache: " + e.getMessage());
+      throw new VoltAbortException(e);
+    }
+  }
+
+  /**
+   * @param create true if we should create a near cache if this site doesn't
+   *               have one yet
+   * @return the near cache for the site we're running on, or null if there
+   *         isn't one and 'create' is false.
+   */
+  static OffHeapClockCache getSiteNearCache(boolean create) {
+
+    // Each site runs on its own thread...
+    final Long siteKey = Thread.currentThread().getId();
+
+    if (create) {
+      return siteNearCaches.computeIfAbsent(siteKey, k -> new OffHeapClockCache(NEAR_CACHE_ENTRIES));
+    }
+
+    return siteNearCaches.get(siteKey);
+  }
+
+  /**
+   * @return index of 'label' in the model's labels, or -1
+   */
+  private int indexOfLabel(String label) {
+
+    for (int i = 0; i < responseLabels.length; i++) {
+      if (responseLabels[i].equals(label)) {
+        return i;
+      }
+    }
+
+    return -1;
+  }
+
+  private VoltTable[] createH2Oout(String value) {
+
+    VoltTable t = new VoltTable(new VoltTable.ColumnInfo("LABEL", VoltType.STRING));
+    t.addRow(value);
+
+    return new VoltTable[] { t };
+  }
+
+  /**
+   * ModelChunkReader for the version of our model in 'activeModel'.
+   */
+  private byte[][] readModelChunks(VoltTable activeModel, int firstChunkId, int chunkCount) throws IOException {
+
+    voltQueueSQL(getModelChunks, IsFlightLate.modelZipFileName, activeModel.getLong("VERSION"), firstChunkId,
+        firstChunkId + chunkCount);
+
+    return IsFlightLate.getChunks(voltExecuteSQL()[0], firstChunkId, chunkCount);
+  }
+
+}
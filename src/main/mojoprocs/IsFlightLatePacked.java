@@ -0,0 +1,218 @@
+package mojoprocs;
+
+/* This file is part of VoltDB.
+ * Copyright (C) 2008-2019 VoltDB Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+
+import java.io.IOException;
+
+import org.voltcore.logging.VoltLogger;
+import org.voltdb.SQLStmt;
+import org.voltdb.VoltProcedure;
+import org.voltdb.VoltTable;
+import org.voltdb.VoltType;
+
+import hex.genmodel.easy.EasyPredictModelWrapper;
+import ie.voltdb.h2outil.BinomialScorer;
+import ie.voltdb.h2outil.FlightKey;
+import ie.voltdb.h2outil.MojoModelRegistry;
+import ie.voltdb.h2outil.SharedMojoModel;
+import ie.voltdb.h2outil.SiteMetrics;
+
+/**
+ * Version of IsFlightLate that uses CACHED_RESULTS_PACKED, where the eight
+ * VARCHAR key columns are replaced by one BIGINT made by FlightKey.pack().
+ * The label is stored as the label itself rather than as an index into the
+ * model's labels, so a row means the same thing whichever version of the
+ * model wrote it, and a hit doesn't need the model at all.
+ * 
+ * The client packs the key, and the table is partitioned on it, so the only
+ * parameter we need is the key itself. We only unpack it when we have to run
+ * the model. Flights that FlightKey can't pack should be sent to IsFlightLate
+ * instead.
+ * 
+ * @author drolfe
+ *
+ */
+public class IsFlightLatePacked extends VoltProcedure {
+
+  private static final VoltLogger LOG = new VoltLogger("MOJO");
+
+  public static final SQLStmt seeIfCached = new SQLStmt(
+      "SELECT delayed FROM CACHED_RESULTS_PACKED WHERE flight_key = ?;");
+
+  public static final SQLStmt trackCacheUsage = new SQLStmt(
+      "UPDATE CACHED_RESULTS_PACKED set last_used = NOW, usage_count = usage_count + 1 WHERE flight_key = ?;");
+
+  public static final SQLStmt addCacheEntry = new SQLStmt(
+      "INSERT INTO CACHED_RESULTS_PACKED (flight_key, delayed, last_used, usage_count) VALUES (?,?,NOW,1);");
+
+  public static final SQLStmt getActiveModel = new SQLStmt(
+      "SELECT v.version, v.chunk_count, v.total_bytes, v.checksum FROM MODEL_ACTIVE a, MODEL_VERSIONS v "
+          + "WHERE a.model_name = ? AND v.model_name = a.model_name AND v.version = a.version;");
+
+  public static final SQLStmt getActiveModelLoads = new SQLStmt(
+      "SELECT COUNT(*) FROM MODEL_ACTIVE a, MODEL_VERSIONS v, MODEL_LOADS l WHERE a.model_name = ? "
+          + "AND v.model_name = a.model_name AND v.version = a.version AND l.model_name = v.model_name "
+          + "AND l.version = v.version AND l.checksum = v.checksum;");
+
+  public static final SQLStmt getModelChunks = new SQLStmt("SELECT chunk_id, chunk FROM MODEL_CHUNKS "
+      + "WHERE model_name = ? AND version = ? AND chunk_id >= ? AND chunk_id < ? ORDER BY chunk_id;");
+
+  EasyPredictModelWrapper modelWrapper = null;
+
+  BinomialScorer scorer = null;
+
+  /**
+   * Checksum of the model modelWrapper and scorer were made from.
+   */
+  long modelChecksum = MojoModelRegistry.NO_MODEL_LOADED;
+
+  /**
+   * Timings and hit counts for this site. Created on our first call.
+   */
+  SiteMetrics metrics = null;
+
+  /**
+   * Predict whether a flight will be late.
+   * 
+   * @param flightKey Output of FlightKey.pack()
+   * @param doStats   Ignored. Timings are always recorded in SiteMetrics.
+   * @return A table with one row with a LABEL column.
+   * @throws VoltAbortException
+   */
+  public VoltTable[] run(long flightKey, int doStats) throws VoltAbortException {
+
+    long startNs = System.nanoTime();
+
+    if (metrics == null) {
+      metrics = SiteMetrics.register("IsFlightLatePacked", getPartitionId());
+    }
+
+    if (!FlightKey.isValid(flightKey)) {
+      throw new VoltAbortException("Invalid flight key " + flightKey);
+    }
+
+    try {
+
+      voltQueueSQL(seeIfCached, flightKey);
+      VoltTable cacheResults = voltExecuteSQL()[0];
+      long cacheCheckNs = System.nanoTime() - startNs;
+      long modelCreateNs = -1;
+      long modelExecNs = -1;
+
+      String label;
+
+      if (cacheResults.advanceRow()) {
+
+        label = cacheResults.getString("DELAYED");
+        setAppStatusCode(IsFlightLate.CACHE_HIT);
+        metrics.recordHit();
+        voltQueueSQL(trackCacheUsage, flightKey);
+
+      } else {
+
+        // Only a miss needs the model...
+        voltQueueSQL(getActiveModel, IsFlightLate.modelZipFileName);
+        voltQueueSQL(getActiveModelLoads, IsFlightLate.modelZipFileName);
+        final VoltTable[] modelResults = voltExecuteSQL();
+        final VoltTable activeModel = modelResults[0];
+
+        // Every replica only reads the active version's chunks if
+        // LoadModelVersion hasn't loaded it on this partition - see
+        // ModelVersions...
+        modelCreateNs = System.nanoTime();
+        SharedMojoModel sharedModel = IsFlightLate.loadSharedModel(activeModel, modelResults[1],
+            (firstChunkId, chunkCount) -> readModelChunks(activeModel, firstChunkId, chunkCount));
+
+        if (modelWrapper == null || sharedModel.getChecksum() != modelChecksum) {
+          modelWrapper = new EasyPredictModelWrapper(sharedModel.getModel());
+          scorer = IsFlightLate.createScorer(sharedModel);
+          modelChecksum = sharedModel.getChecksum();
+        }
+
+        modelCreateNs = System.nanoTime() - modelCreateNs;
+
+        modelExecNs = System.nanoTime();
+        label = predict(flightKey);
+        modelExecNs = System.nanoTime() - modelExecNs;
+        setAppStatusCode(IsFlightLate.CACHE_MISS);
+        metrics.recordMiss();
+        voltQueueSQL(addCacheEntry, flightKey, label);
+      }
+
+      long updateDBNs = System.nanoTime();
+      voltExecuteSQL(true);
+      updateDBNs = System.nanoTime() - updateDBNs;
+
+      metrics.recordTime(SiteMetrics.CACHE_CHECK, cacheCheckNs);
+      metrics.recordTime(SiteMetrics.MODEL_CREATE, modelCreateNs);
+      metrics.recordTime(SiteMetrics.MODEL_EXEC, modelExecNs);
+      metrics.recordTime(SiteMetrics.DB_UPDATE, updateDBNs);
+
+      VoltTable t = new VoltTable(new VoltTable.ColumnInfo("LABEL", VoltType.STRING));
+      t.addRow(label);
+
+      return new VoltTable[] { t };
+
+    } catch (VoltAbortException e) {
+      throw e;
+    } catch (Exception e) {
+      LOG.error("IsFlightLatePacked: " + e.getMessage());
+      throw new VoltAbortException(e);
+    }
+  }
+
+  /**
+   * Run the model for the flight 'flightKey' was packed from.
+   * 
+   * @return the predicted label
+   * @throws Exception
+   */
+  private String predict(long flightKey) throws Exception {
+
+    final String origin = FlightKey.getOrigin(flightKey);
+    final String dest = FlightKey.getDest(flightKey);
+    final String cRSDepTime = FlightKey.getCRSDepTime(flightKey);
+    final String year = FlightKey.getYear(flightKey);
+    final String month = FlightKey.getMonth(flightKey);
+    final String dayOfMonth = FlightKey.getDayOfMonth(flightKey);
+    final String dayOfWeek = FlightKey.getDayOfWeek(flightKey);
+    final String uniqueCarrier = FlightKey.getUniqueCarrier(flightKey);
+
+    return IsFlightLate.predictLabel(scorer, modelWrapper, origin, cRSDepTime, year, month, dayOfMonth, dayOfWeek,
+        uniqueCarrier, dest);
+  }
+
+  /**
+   * ModelChunkReader for the version of our model in 'activeModel'.
+   */
+  private byte[][] readModelChunks(VoltTable activeModel, int firstChunkId, int chunkCount) throws IOException {
+
+    voltQueueSQL(getModelChunks, IsFlightLate.modelZipFileName, activeModel.getLong("VERSION"), firstChunkId,
+        firstChunkId + chunkCount);
+
+    return IsFlightLate.getChunks(voltExecuteSQL()[0], firstChunkId, chunkCount);
+  }
+
+}
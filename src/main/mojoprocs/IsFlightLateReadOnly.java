@@ -0,0 +1,151 @@
+package mojoprocs;
+
+/* This file is part of VoltDB.
+ * Copyright (C) 2008-2019 VoltDB Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+
+import java.io.IOException;
+
+import org.voltcore.logging.VoltLogger;
+import org.voltdb.SQLStmt;
+import org.voltdb.VoltProcedure;
+import org.voltdb.VoltTable;
+import org.voltdb.VoltType;
+
+import hex.genmodel.easy.EasyPredictModelWrapper;
+import ie.voltdb.h2outil.BinomialScorer;
+import ie.voltdb.h2outil.MojoModelRegistry;
+import ie.voltdb.h2outil.SharedMojoModel;
+
+/**
+ * Version of IsFlightLate that never writes to the database.
+ * 
+ * IsFlightLate updates LAST_USED and USAGE_COUNT on every cache hit, which
+ * makes every hit a write that each replica has to do, and which also changes
+ * CACHED_RESULTS_TTL_IDX and CACHE_EFFECTIVENESS. Here a hit is just a SELECT.
+ * A miss runs the model but doesn't add to CACHED_RESULTS.
+ * 
+ * Instead the client counts how often it asked about each flight, and every
+ * so often sends the counts to FlushCacheUsage, which updates LAST_USED and
+ * USAGE_COUNT and scores and adds the misses in bulk. This is the price of not
+ * writing: until the next flush a flight that missed will miss again and be
+ * scored again, and LAST_USED and USAGE_COUNT lag behind by up to one flush
+ * interval. The shorter the interval the less this costs.
+ * 
+ * As we only run on one replica we're allowed to read MODEL_CHUNKS if this
+ * JVM doesn't have the active version of the model yet. We only look at
+ * MODEL_ACTIVE on a miss.
+ * 
+ * @author drolfe
+ *
+ */
+public class IsFlightLateReadOnly extends VoltProcedure {
+
+  private static final VoltLogger LOG = new VoltLogger("MOJO");
+
+  public static final SQLStmt seeIfCached = new SQLStmt("SELECT delayed FROM CACHED_RESULTS WHERE origin = ? "
+      + "AND dest = ? AND CRSDepTime = ? AND year = ? AND month = ? AND dayOfMonth = ? "
+      + "AND dayOfWeek = ? AND uniqueCarrier= ?;");
+
+  public static final SQLStmt getActiveModel = new SQLStmt(
+      "SELECT v.version, v.chunk_count, v.total_bytes, v.checksum FROM MODEL_ACTIVE a, MODEL_VERSIONS v "
+          + "WHERE a.model_name = ? AND v.model_name = a.model_name AND v.version = a.version;");
+
+  public static final SQLStmt getModelChunks = new SQLStmt("SELECT chunk_id, chunk FROM MODEL_CHUNKS "
+      + "WHERE model_name = ? AND version = ? AND chunk_id >= ? AND chunk_id < ? ORDER BY chunk_id;");
+
+  EasyPredictModelWrapper modelWrapper = null;
+
+  BinomialScorer scorer = null;
+
+  /**
+   * Checksum of the model modelWrapper and scorer were made from.
+   */
+  long modelChecksum = MojoModelRegistry.NO_MODEL_LOADED;
+
+  /**
+   * Predict whether a flight will be late. Parameters are the same as
+   * IsFlightLate's.
+   * 
+   * @return A table with one row with a LABEL column. The app status code is
+   *         IsFlightLate.CACHE_HIT or IsFlightLate.CACHE_MISS.
+   * @throws VoltAbortException
+   */
+  public VoltTable[] run(String origin, String cRSDepTime, String year, String month, String dayOfMonth,
+      String dayOfWeek, String uniqueCarrier, String dest, int doStats) throws VoltAbortException {
+
+    voltQueueSQL(seeIfCached, origin, dest, cRSDepTime, year, month, dayOfMonth, dayOfWeek, uniqueCarrier);
+    VoltTable cacheResults = voltExecuteSQL()[0];
+
+    if (cacheResults.advanceRow()) {
+      setAppStatusCode(IsFlightLate.CACHE_HIT);
+      return createH2Oout(cacheResults.getString("DELAYED"));
+    }
+
+    String result;
+
+    try {
+
+      voltQueueSQL(getActiveModel, IsFlightLate.modelZipFileName);
+      final VoltTable activeModel = voltExecuteSQL()[0];
+
+      if (modelWrapper == null || IsFlightLate.isNewModel(activeModel, modelChecksum)) {
+        SharedMojoModel sharedModel = IsFlightLate.getSharedModel(activeModel,
+            (firstChunkId, chunkCount) -> readModelChunks(activeModel, firstChunkId, chunkCount));
+        modelWrapper = new EasyPredictModelWrapper(sharedModel.getModel());
+        scorer = IsFlightLate.createScorer(sharedModel);
+        modelChecksum = sharedModel.getChecksum();
+      }
+
+      result = IsFlightLate.predictLabel(scorer, modelWrapper, origin, cRSDepTime, year, month, dayOfMonth,
+          dayOfWeek, uniqueCarrier, dest);
+
+    } catch (Exception e) {
+      LOG.error("IsFlightLateReadOnly: " + e.getMessage());
+      throw new VoltAbortException(e);
+    }
+
+    setAppStatusCode(IsFlightLate.CACHE_MISS);
+    return createH2Oout(result);
+  }
+
+  private VoltTable[] createH2Oout(String value) {
+
+    VoltTable t = new VoltTable(new VoltTable.ColumnInfo("LABEL", VoltType.STRING));
+    t.addRow(value);
+
+    return new VoltTable[] { t };
+  }
+
+  /**
+   * ModelChunkReader for the version of our model in 'activeModel'.
+   */
+  private byte[][] readModelChunks(VoltTable activeModel, int firstChunkId, int chunkCount) throws IOException {
+
+    voltQueueSQL(getModelChunks, IsFlightLate.modelZipFileName, activeModel.getLong("VERSION"), firstChunkId,
+        firstChunkId + chunkCount);
+
+    return IsFlightLate.getChunks(voltExecuteSQL()[0], firstChunkId, chunkCount);
+  }
+
+}
@@ -0,0 +1,112 @@
+package mojoprocs;
+
+/* This file is part of VoltDB.
+ * Copyright (C) 2008-2019 VoltDB Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+import java.io.IOException;
+
+import org.voltdb.SQLStmt;
+import org.voltdb.VoltProcedure;
+import org.voltdb.VoltTable;
+import org.voltdb.VoltType;
+
+import ie.voltdb.h2outil.ModelVersions;
+import ie.voltdb.h2outil.SharedMojoModel;
+
+/**
+ * Load a version of a model from MODEL_CHUNKS into the JVMs that hold one
+ * partition, before anything needs it.
+ * 
+ * ModelUploader calls this on every partition before it activates a new
+ * version, so that a broken upload is found before anything uses it, and so
+ * that every JVM has already parsed it when the procedures switch over. It
+ * reads every chunk whether or not the JVM already has the model, as every
+ * replica has to run the same SQL, and records that it did in MODEL_LOADS.
+ * Each server also keeps a copy of the zip file on local disk. From then on
+ * the read write procedures use that instead of reading MODEL_CHUNKS on this
+ * partition - see ModelVersions.
+ * 
+ * Works for any model, including challengers and models used by Predict.
+ * 
+ */
+public class LoadModelVersion extends VoltProcedure {
+
+  public static final SQLStmt getVersion = new SQLStmt(
+      "SELECT version, chunk_count, total_bytes, checksum FROM MODEL_VERSIONS WHERE model_name = ? AND version = ?;");
+
+  public static final SQLStmt getModelChunks = new SQLStmt("SELECT chunk_id, chunk FROM MODEL_CHUNKS "
+      + "WHERE model_name = ? AND version = ? AND chunk_id >= ? AND chunk_id < ? ORDER BY chunk_id;");
+
+  public static final SQLStmt recordLoad = new SQLStmt(
+      "UPSERT INTO MODEL_LOADS (partition_key, model_name, version, checksum, loaded) VALUES (?,?,?,?,?);");
+
+  /**
+   * @param partitionKey A value that maps to the partition we want to load
+   *                     the model on. Comes from @GetPartitionKeys.
+   * @param modelName    Name of the model
+   * @param version      Version of it in MODEL_VERSIONS
+   * @return A table with one row, with columns MODEL_NAME, VERSION and
+   *         CHECKSUM.
+   * @throws VoltAbortException if the version doesn't exist, or its chunks
+   *                            don't add up to the zip file it describes
+   */
+  public VoltTable[] run(String partitionKey, String modelName, long version) throws VoltAbortException {
+
+    voltQueueSQL(getVersion, modelName, version);
+    final VoltTable versionRow = voltExecuteSQL()[0];
+
+    if (!versionRow.advanceRow()) {
+      throw new VoltAbortException("Version " + version + " of " + modelName + " hasn't been uploaded");
+    }
+
+    SharedMojoModel sharedModel;
+
+    try {
+      sharedModel = ModelVersions.loadModel(modelName, versionRow,
+          (firstChunkId, chunkCount) -> readModelChunks(modelName, version, firstChunkId, chunkCount));
+    } catch (IOException e) {
+      throw new VoltAbortException(e);
+    }
+
+    voltQueueSQL(recordLoad, partitionKey, modelName, version, sharedModel.getChecksum(), getTransactionTime());
+    voltExecuteSQL(true);
+
+    VoltTable t = new VoltTable(new VoltTable.ColumnInfo("MODEL_NAME", VoltType.STRING),
+        new VoltTable.ColumnInfo("VERSION", VoltType.BIGINT), new VoltTable.ColumnInfo("CHECKSUM", VoltType.BIGINT));
+    t.addRow(modelName, version, sharedModel.getChecksum());
+
+    return new VoltTable[] { t };
+  }
+
+  /**
+   * Read some of the chunks of a version of a model.
+   */
+  private byte[][] readModelChunks(String modelName, long version, int firstChunkId, int chunkCount)
+      throws IOException {
+
+    voltQueueSQL(getModelChunks, modelName, version, firstChunkId, firstChunkId + chunkCount);
+
+    return ModelVersions.getChunks(voltExecuteSQL()[0], modelName, firstChunkId, chunkCount);
+  }
+
+}
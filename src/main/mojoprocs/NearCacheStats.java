@@ -0,0 +1,72 @@
+package mojoprocs;
+
+/* This file is part of VoltDB.
+ * Copyright (C) 2008-2019 VoltDB Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+
+import org.voltdb.VoltProcedure;
+import org.voltdb.VoltTable;
+import org.voltdb.VoltType;
+
+import ie.voltdb.h2outil.OffHeapClockCache;
+
+/**
+ * Reports on the near cache IsFlightLateNearCache keeps on one partition. Call
+ * it once for each key from @GetPartitionKeys to see every partition.
+ * 
+ * This is read only and runs on one replica, so it's fine for the numbers to
+ * be different on each one.
+ * 
+ * @author drolfe
+ *
+ */
+public class NearCacheStats extends VoltProcedure {
+
+  /**
+   * @param partitionKey A value that maps to the partition we want to know
+   *                     about. Comes from @GetPartitionKeys.
+   * @return A table with one row of near cache statistics.
+   * @throws VoltAbortException
+   */
+  public VoltTable[] run(String partitionKey) throws VoltAbortException {
+
+    VoltTable t = new VoltTable(new VoltTable.ColumnInfo("PARTITION_KEY", VoltType.STRING),
+        new VoltTable.ColumnInfo("CAPACITY", VoltType.BIGINT), new VoltTable.ColumnInfo("SIZE", VoltType.BIGINT),
+        new VoltTable.ColumnInfo("OFF_HEAP_BYTES", VoltType.BIGINT),
+        new VoltTable.ColumnInfo("HITS", VoltType.BIGINT), new VoltTable.ColumnInfo("MISSES", VoltType.BIGINT),
+        new VoltTable.ColumnInfo("EVICTIONS", VoltType.BIGINT),
+        new VoltTable.ColumnInfo("HIT_RATIO", VoltType.FLOAT));
+
+    OffHeapClockCache nearCache = IsFlightLateNearCache.getSiteNearCache(false);
+
+    if (nearCache == null) {
+      t.addRow(partitionKey, 0, 0, 0, 0, 0, 0, 0.0);
+    } else {
+      t.addRow(partitionKey, nearCache.getCapacity(), nearCache.getSize(), nearCache.getOffHeapBytes(),
+          nearCache.getHits(), nearCache.getMisses(), nearCache.getEvictions(), nearCache.getHitRatio());
+    }
+
+    return new VoltTable[] { t };
+  }
+
+}
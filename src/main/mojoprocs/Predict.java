@@ -0,0 +1,299 @@
+package mojoprocs;
+
+/* This file is part of VoltDB.
+ * Copyright (C) 2008-2019 VoltDB Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+import org.voltcore.logging.VoltLogger;
+import org.voltdb.SQLStmt;
+import org.voltdb.VoltProcedure;
+import org.voltdb.VoltTable;
+import org.voltdb.VoltType;
+
+import hex.genmodel.easy.EasyPredictModelWrapper;
+import hex.genmodel.easy.RowData;
+import hex.genmodel.easy.prediction.AbstractPrediction;
+import hex.genmodel.easy.prediction.BinomialModelPrediction;
+import hex.genmodel.easy.prediction.MultinomialModelPrediction;
+import hex.genmodel.easy.prediction.RegressionModelPrediction;
+import ie.voltdb.h2outil.ModelVersions;
+import ie.voltdb.h2outil.MojoModelRegistry;
+import ie.voltdb.h2outil.SharedMojoModel;
+
+/**
+ * Score any model we know about. Where IsFlightLate has its model and its
+ * inputs built in, Predict is given the model's name and a list of column
+ * names and values, so one procedure can serve as many models as we like.
+ * 
+ * A model is either the version ActivateModelVersion last activated for its
+ * name in MODEL_ACTIVE, or if there isn't one, a zip file of that name in the
+ * same directory as our procedures. Models are loaded and shared by
+ * MojoModelRegistry, which evicts the least recently used ones if too many are
+ * asked for. Each site keeps its own EasyPredictModelWrapper for each model it
+ * has used.
+ * 
+ * Looking at MODEL_ACTIVE on every call would double the SQL we run, so each
+ * site only looks again once ACTIVE_MODEL_CHECK_MS has passed since it last
+ * looked for that model. A newly activated version is picked up within that
+ * time. Predict is read only and runs on one replica, so it's fine for what
+ * SQL we run to depend on the clock.
+ * 
+ * Predict doesn't read or change any partitioned tables, so the partitioning
+ * parameter is only used to pick a partition. Callers should pass something
+ * that spreads the work around, such as the key of whatever is being scored.
+ * 
+ */
+public class Predict extends VoltProcedure {
+
+  private static final VoltLogger LOG = new VoltLogger("MOJO");
+
+  /**
+   * How long a site goes without looking at MODEL_ACTIVE for a model it's
+   * already using.
+   */
+  static final long ACTIVE_MODEL_CHECK_MS = Long.getLong("mojoprocs.activeModelCheckMs", 1000);
+
+  public static final SQLStmt getActiveModel = new SQLStmt(
+      "SELECT v.version, v.chunk_count, v.total_bytes, v.checksum FROM MODEL_ACTIVE a, MODEL_VERSIONS v "
+          + "WHERE a.model_name = ? AND v.model_name = a.model_name AND v.version = a.version;");
+
+  public static final SQLStmt getModelChunks = new SQLStmt("SELECT chunk_id, chunk FROM MODEL_CHUNKS "
+      + "WHERE model_name = ? AND version = ? AND chunk_id >= ? AND chunk_id < ? ORDER BY chunk_id;");
+
+  /**
+   * Models this site has used, keyed by name.
+   */
+  HashMap<String, SharedMojoModel> siteModels = new HashMap<String, SharedMojoModel>();
+
+  /**
+   * Wrappers for the models in siteModels, keyed by name.
+   */
+  HashMap<String, EasyPredictModelWrapper> modelWrappers = new HashMap<String, EasyPredictModelWrapper>();
+
+  /**
+   * When we last looked at MODEL_ACTIVE for each of the models in
+   * siteModels, keyed by name.
+   */
+  HashMap<String, Long> activeCheckedMs = new HashMap<String, Long>();
+
+  /**
+   * MojoModelRegistry.getEvictionCount() when we last checked siteModels.
+   */
+  long evictionCount = 0;
+
+  /**
+   * Score one row.
+   * 
+   * @param partitionKey Only used to pick a partition
+   * @param modelName    Name of the model in MODEL_ACTIVE, or of its zip file.
+   *                     Can't contain '/' or '..'.
+   * @param columnNames  Names of the model columns we have values for.
+   *                     Columns we don't mention are treated as missing.
+   * @param values       Values for 'columnNames', in the same order
+   * @return Two tables. The first has one row, with LABEL, LABEL_INDEX and
+   *         VALUE columns. For a regression model LABEL is null, LABEL_INDEX
+   *         is -1 and VALUE is the prediction. Otherwise VALUE is the
+   *         probability of LABEL. The second has a LABEL and PROBABILITY row
+   *         for every label the model knows about, and is empty for a
+   *         regression model.
+   * @throws VoltAbortException
+   */
+  public VoltTable[] run(String partitionKey, String modelName, String[] columnNames, String[] values)
+      throws VoltAbortException {
+
+    if (columnNames == null || values == null || columnNames.length != values.length) {
+      throw new VoltAbortException("Need the same number of column names and values");
+    }
+
+    // A name without an active version is looked up next to this class, so
+    // it mustn't be able to reach anything else...
+    if (modelName == null || modelName.indexOf('/') > -1 || modelName.indexOf("..") > -1) {
+      throw new VoltAbortException("Model name can't contain '/' or '..': " + modelName);
+    }
+
+    try {
+
+      forgetEvictedModels();
+
+      final long nowMs = System.currentTimeMillis();
+      final Long checkedMs = activeCheckedMs.get(modelName);
+      EasyPredictModelWrapper modelWrapper = modelWrappers.get(modelName);
+
+      if (modelWrapper == null || checkedMs == null || nowMs - checkedMs >= ACTIVE_MODEL_CHECK_MS) {
+
+        voltQueueSQL(getActiveModel, modelName);
+        modelWrapper = getModelWrapper(modelName, voltExecuteSQL()[0]);
+        activeCheckedMs.put(modelName, nowMs);
+      }
+
+      RowData row = new RowData();
+
+      for (int i = 0; i < columnNames.length; i++) {
+        row.put(columnNames[i], values[i]);
+      }
+
+      return createPredictionOut(modelWrapper.getResponseDomainValues(), modelWrapper.predict(row));
+
+    } catch (VoltAbortException e) {
+      throw e;
+    } catch (Exception e) {
+      LOG.error("Predict: " + modelName + ": " + e.getMessage());
+      throw new VoltAbortException(e);
+    }
+  }
+
+  /**
+   * Get this site's wrapper for the version of 'modelName' we should be
+   * using, creating one if the model is new to us or has changed.
+   * 
+   * @param modelName   Name of a model
+   * @param activeModel Output of getActiveModel
+   * @return An EasyPredictModelWrapper
+   * @throws IOException if we can't load the model
+   */
+  private EasyPredictModelWrapper getModelWrapper(final String modelName, final VoltTable activeModel)
+      throws IOException {
+
+    SharedMojoModel sharedModel;
+
+    if (activeModel.advanceRow()) {
+
+      // Cheap if the registry already has this version...
+      sharedModel = MojoModelRegistry.getModel(modelName, activeModel.getLong("CHECKSUM"),
+          activeModel.getLong("TOTAL_BYTES"), (int) activeModel.getLong("CHUNK_COUNT"),
+          (firstChunkId, chunkCount) -> readModelChunks(modelName, activeModel, firstChunkId, chunkCount));
+
+    } else {
+
+      // Only read the zip file if nobody has loaded it yet...
+      sharedModel = MojoModelRegistry.getLoadedModel(modelName);
+
+      if (sharedModel == null) {
+        sharedModel = MojoModelRegistry.getModel(Predict.class, modelName);
+      }
+    }
+
+    EasyPredictModelWrapper modelWrapper = modelWrappers.get(modelName);
+
+    if (modelWrapper == null || siteModels.get(modelName) != sharedModel) {
+      modelWrapper = new EasyPredictModelWrapper(sharedModel.getModel());
+      modelWrappers.put(modelName, modelWrapper);
+      siteModels.put(modelName, sharedModel);
+    }
+
+    return modelWrapper;
+  }
+
+  /**
+   * If MojoModelRegistry has evicted anything since we last looked, stop
+   * holding on to any models it no longer has, so they can be garbage
+   * collected.
+   */
+  private void forgetEvictedModels() {
+
+    long currentEvictionCount = MojoModelRegistry.getEvictionCount();
+
+    if (currentEvictionCount == evictionCount) {
+      return;
+    }
+
+    evictionCount = currentEvictionCount;
+
+    Iterator<Map.Entry<String, SharedMojoModel>> i = siteModels.entrySet().iterator();
+
+    while (i.hasNext()) {
+
+      Map.Entry<String, SharedMojoModel> siteModel = i.next();
+
+      if (!MojoModelRegistry.isLoaded(siteModel.getValue())) {
+        modelWrappers.remove(siteModel.getKey());
+        activeCheckedMs.remove(siteModel.getKey());
+        i.remove();
+      }
+    }
+  }
+
+  /**
+   * Read some of the chunks of a model version from MODEL_CHUNKS.
+   */
+  private byte[][] readModelChunks(String modelName, VoltTable activeModel, int firstChunkId, int chunkCount)
+      throws IOException {
+
+    voltQueueSQL(getModelChunks, modelName, activeModel.getLong("VERSION"), firstChunkId,
+        firstChunkId + chunkCount);
+
+    return ModelVersions.getChunks(voltExecuteSQL()[0], modelName, firstChunkId, chunkCount);
+  }
+
+  /**
+   * @param labels     The model's labels, or null for a regression model
+   * @param prediction What the model said
+   * @return The tables described in run()
+   */
+  private static VoltTable[] createPredictionOut(String[] labels, AbstractPrediction prediction) {
+
+    VoltTable[] predictionOut = new VoltTable[2];
+
+    predictionOut[0] = new VoltTable(new VoltTable.ColumnInfo("LABEL", VoltType.STRING),
+        new VoltTable.ColumnInfo("LABEL_INDEX", VoltType.INTEGER), new VoltTable.ColumnInfo("VALUE", VoltType.FLOAT));
+
+    predictionOut[1] = new VoltTable(new VoltTable.ColumnInfo("LABEL", VoltType.STRING),
+        new VoltTable.ColumnInfo("PROBABILITY", VoltType.FLOAT));
+
+    int labelIndex;
+    double[] classProbabilities;
+
+    if (prediction instanceof BinomialModelPrediction) {
+
+      labelIndex = ((BinomialModelPrediction) prediction).labelIndex;
+      classProbabilities = ((BinomialModelPrediction) prediction).classProbabilities;
+
+    } else if (prediction instanceof MultinomialModelPrediction) {
+
+      labelIndex = ((MultinomialModelPrediction) prediction).labelIndex;
+      classProbabilities = ((MultinomialModelPrediction) prediction).classProbabilities;
+
+    } else if (prediction instanceof RegressionModelPrediction) {
+
+      predictionOut[0].addRow(null, -1, ((RegressionModelPrediction) prediction).value);
+      return predictionOut;
+
+    } else {
+
+      throw new VoltAbortException("Predict doesn't support " + prediction.getClass().getSimpleName());
+    }
+
+    predictionOut[0].addRow(labels[labelIndex], labelIndex, classProbabilities[labelIndex]);
+
+    for (int i = 0; i < labels.length; i++) {
+      predictionOut[1].addRow(labels[i], classProbabilities[i]);
+    }
+
+    return predictionOut;
+  }
+
+}
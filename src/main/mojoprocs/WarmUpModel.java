@@ -0,0 +1,245 @@
+package mojoprocs;
+
+/* This file is part of VoltDB.
+ * Copyright (C) 2008-2019 VoltDB Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+
+import java.io.IOException;
+
+import org.voltcore.logging.VoltLogger;
+import org.voltdb.SQLStmt;
+import org.voltdb.VoltProcedure;
+import org.voltdb.VoltTable;
+import org.voltdb.VoltType;
+
+import hex.genmodel.MojoModel;
+import hex.genmodel.easy.EasyPredictModelWrapper;
+import hex.genmodel.easy.RowData;
+import hex.genmodel.easy.prediction.BinomialModelPrediction;
+import ie.voltdb.h2outil.BinomialScorer;
+import ie.voltdb.h2outil.FeatureLayout;
+import ie.voltdb.h2outil.ModelVersions;
+import ie.voltdb.h2outil.MojoModelRegistry;
+import ie.voltdb.h2outil.SharedMojoModel;
+
+/**
+ * VoltDB procedure that warms up the model IsFlightLate uses on one
+ * partition. It loads the shared model (if nobody has yet) and then scores
+ * 'rowCount' made up rows, so that by the time real traffic arrives the MOJO
+ * has been parsed and the scoring code has been JIT compiled.
+ * 
+ * The client calls this once for every partition after deploying the schema,
+ * and ModelUploader calls it after activating a new version. We get the
+ * model the same way IsFlightLate does - see ModelVersions. If the active
+ * version is in MODEL_CHUNKS and LoadModelVersion hasn't loaded it on this
+ * partition, every replica reads it, and we record the load in MODEL_LOADS
+ * just as LoadModelVersion would, so IsFlightLate and friends don't have to.
+ * This is what puts things right after ActivateModelVersion is used to go
+ * back to an older version.
+ * 
+ * @author drolfe
+ *
+ */
+public class WarmUpModel extends VoltProcedure {
+
+  private static final VoltLogger LOG = new VoltLogger("MOJO");
+
+  /**
+   * We never run this. It's here because VoltDB only runs read only
+   * procedures on one copy of a partition, and we need every replica to be
+   * warmed up...
+   */
+  public static final SQLStmt forceReadWrite = new SQLStmt(
+      "UPDATE CACHED_RESULTS SET usage_count = usage_count WHERE origin = ? AND usage_count < 0;");
+
+  public static final SQLStmt getActiveModel = new SQLStmt(
+      "SELECT v.version, v.chunk_count, v.total_bytes, v.checksum FROM MODEL_ACTIVE a, MODEL_VERSIONS v "
+          + "WHERE a.model_name = ? AND v.model_name = a.model_name AND v.version = a.version;");
+
+  public static final SQLStmt getActiveModelLoads = new SQLStmt(
+      "SELECT COUNT(*) FROM MODEL_ACTIVE a, MODEL_VERSIONS v, MODEL_LOADS l WHERE a.model_name = ? "
+          + "AND v.model_name = a.model_name AND v.version = a.version AND l.model_name = v.model_name "
+          + "AND l.version = v.version AND l.checksum = v.checksum;");
+
+  public static final SQLStmt getModelChunks = new SQLStmt("SELECT chunk_id, chunk FROM MODEL_CHUNKS "
+      + "WHERE model_name = ? AND version = ? AND chunk_id >= ? AND chunk_id < ? ORDER BY chunk_id;");
+
+  public static final SQLStmt recordLoad = new SQLStmt(
+      "UPSERT INTO MODEL_LOADS (partition_key, model_name, version, checksum, loaded) VALUES (?,?,?,?,?);");
+
+  MojoModel model = null;
+
+  EasyPredictModelWrapper modelWrapper = null;
+
+  BinomialScorer scorer = null;
+
+  /**
+   * Checksum of the model modelWrapper and scorer were made from.
+   */
+  long modelChecksum = MojoModelRegistry.NO_MODEL_LOADED;
+
+  /**
+   * Warm up the model on this partition.
+   * 
+   * @param partitionKey A value that maps to the partition we want to warm
+   *                     up. Comes from @GetPartitionKeys.
+   * @param rowCount     How many rows to score.
+   * @return A table with one row showing how many rows were scored and how
+   *         many of them were predicted to be late. Note that we don't
+   *         return timings, as they will be different on each replica.
+   * @throws VoltAbortException
+   */
+  public VoltTable[] run(String partitionKey, int rowCount) throws VoltAbortException {
+
+    long startNs = System.nanoTime();
+    long lateCount = 0;
+
+    try {
+
+      voltQueueSQL(getActiveModel, IsFlightLate.modelZipFileName);
+      voltQueueSQL(getActiveModelLoads, IsFlightLate.modelZipFileName);
+      final VoltTable[] modelResults = voltExecuteSQL();
+      final VoltTable activeModel = modelResults[0];
+
+      SharedMojoModel sharedModel = IsFlightLate.loadSharedModel(activeModel, modelResults[1],
+          (firstChunkId, chunkCount) -> readModelChunks(activeModel, firstChunkId, chunkCount));
+
+      activeModel.resetRowPosition();
+
+      if (activeModel.advanceRow() && !ModelVersions.isLoadedHere(modelResults[1])) {
+        voltQueueSQL(recordLoad, partitionKey, IsFlightLate.modelZipFileName, activeModel.getLong("VERSION"),
+            activeModel.getLong("CHECKSUM"), getTransactionTime());
+        voltExecuteSQL(true);
+      }
+
+      if (modelWrapper == null || sharedModel.getChecksum() != modelChecksum) {
+        model = sharedModel.getModel();
+        modelWrapper = new EasyPredictModelWrapper(model);
+        scorer = IsFlightLate.createScorer(sharedModel);
+        modelChecksum = sharedModel.getChecksum();
+      }
+
+      long modelReadyNs = System.nanoTime();
+
+      String[] names = model.getNames();
+
+      // Warm up whichever path IsFlightLate will use...
+      for (int i = 0; i < rowCount; i++) {
+
+        if (scorer != null) {
+
+          if (scoreWarmUpRow(i) == 1) {
+            lateCount++;
+          }
+
+        } else {
+
+          BinomialModelPrediction p = modelWrapper.predictBinomial(createWarmUpRow(names, i));
+
+          if (p.labelIndex == 1) {
+            lateCount++;
+          }
+        }
+      }
+
+      // Timings vary between replicas, so we log them rather than return
+      // them...
+      LOG.info("WarmUpModel: partition key " + partitionKey + " model ready in "
+          + ((modelReadyNs - startNs) / 1000) + "us, " + rowCount + " rows scored in "
+          + ((System.nanoTime() - modelReadyNs) / 1000) + "us");
+
+    } catch (Exception e) {
+      throw new VoltAbortException(e);
+    }
+
+    VoltTable t = new VoltTable(new VoltTable.ColumnInfo("ROWS_SCORED", VoltType.BIGINT),
+        new VoltTable.ColumnInfo("ROWS_LATE", VoltType.BIGINT));
+    t.addRow(rowCount, lateCount);
+
+    return new VoltTable[] { t };
+  }
+
+  /**
+   * Score a made up row using BinomialScorer, picking values the same way as
+   * createWarmUpRow.
+   * 
+   * @param rowNumber
+   * @return label index
+   */
+  private int scoreWarmUpRow(int rowNumber) {
+
+    FeatureLayout layout = scorer.getLayout();
+
+    for (int i = 0; i < layout.getInputCount(); i++) {
+
+      String[] domain = layout.getInputDomain(i);
+
+      if (domain != null && domain.length > 0) {
+        scorer.setInput(i, domain[(rowNumber + i) % domain.length]);
+      } else {
+        scorer.setInput(i, Integer.toString(((rowNumber % 24) * 100) + (rowNumber % 60)));
+      }
+    }
+
+    return scorer.scoreLabelIndex();
+  }
+
+  /**
+   * Create a plausible row for the model by cycling through the legal values
+   * of each categorical column. Numeric columns get a value that looks like a
+   * departure time, which is the only numeric input IsFlightLate uses.
+   * 
+   * @param names Column names
+   * @param rowNumber
+   * @return A RowData object
+   */
+  private RowData createWarmUpRow(String[] names, int rowNumber) {
+
+    RowData row = new RowData();
+
+    for (int i = 0; i < model.getNumCols(); i++) {
+
+      String[] domain = model.getDomainValues(i);
+
+      if (domain != null && domain.length > 0) {
+        row.put(names[i], domain[(rowNumber + i) % domain.length]);
+      } else {
+        row.put(names[i], Integer.toString(((rowNumber % 24) * 100) + (rowNumber % 60)));
+      }
+    }
+
+    return row;
+  }
+
+  /**
+   * ModelChunkReader for the version of our model in 'activeModel'.
+   */
+  private byte[][] readModelChunks(VoltTable activeModel, int firstChunkId, int chunkCount) throws IOException {
+
+    voltQueueSQL(getModelChunks, IsFlightLate.modelZipFileName, activeModel.getLong("VERSION"), firstChunkId,
+        firstChunkId + chunkCount);
+
+    return IsFlightLate.getChunks(voltExecuteSQL()[0], firstChunkId, chunkCount);
+  }
+
+}
@@ -0,0 +1,211 @@
+package org.voltdb.h20mojo.client;
+
+/* This file is part of VoltDB.
+ * Copyright (C) 2008-2019 VoltDB Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
+
+import org.voltdb.VoltTable;
+import org.voltdb.client.Client;
+import org.voltdb.client.ProcCallException;
+
+/**
+ * Keeps every partition of CACHED_RESULTS under a row limit by calling
+ * EvictCachedResults on each partition in turn, and reports how many rows it
+ * evicted and roughly how much memory that gave back.
+ * <p>
+ * Memory is estimated from @Statistics: before we start we work out how many
+ * bytes of tuple, string and index memory each partition uses per row, and
+ * multiply that by the rows we evicted from it.
+ * <p>
+ * Usage: CacheEvictor hostnames maxRowsPerPartition [intervalSeconds]
+ * [protectSeconds] [maxDeletes]
+ *
+ */
+public class CacheEvictor {
+
+  private static final String TABLE_NAME = "CACHED_RESULTS";
+
+  private final Client client;
+  private final long maxRowsPerPartition;
+  private final int protectSeconds;
+  private final long maxDeletes;
+
+  private long totalEvicted = 0;
+  private long totalBytesReclaimed = 0;
+
+  /**
+   * @param client              A connected client
+   * @param maxRowsPerPartition Most rows we allow in each partition
+   * @param protectSeconds      Rows used this recently are never evicted
+   * @param maxDeletes          Most rows each call to EvictCachedResults
+   *                            deletes
+   */
+  public CacheEvictor(Client client, long maxRowsPerPartition, int protectSeconds, long maxDeletes) {
+    super();
+    this.client = client;
+    this.maxRowsPerPartition = maxRowsPerPartition;
+    this.protectSeconds = protectSeconds;
+    this.maxDeletes = maxDeletes;
+  }
+
+  public static void main(String[] args) {
+
+    VoltDBH2OMojoClient.msg("Parameters:" + Arrays.toString(args));
+
+    if (args.length < 2) {
+      VoltDBH2OMojoClient.msg(
+          "Usage: CacheEvictor hostnames maxRowsPerPartition [intervalSeconds] [protectSeconds] [maxDeletes]");
+      System.exit(1);
+    }
+
+    String hostnames = args[0];
+    long maxRowsPerPartition = Long.parseLong(args[1]);
+    int intervalSeconds = 10;
+    int protectSeconds = 60;
+    long maxDeletes = 10000;
+
+    if (args.length > 2) {
+      intervalSeconds = Integer.parseInt(args[2]);
+    }
+
+    if (args.length > 3) {
+      protectSeconds = Integer.parseInt(args[3]);
+    }
+
+    if (args.length > 4) {
+      maxDeletes = Long.parseLong(args[4]);
+    }
+
+    try {
+
+      Client client = VoltDBH2OMojoClient.connectVoltDB(hostnames);
+      CacheEvictor evictor = new CacheEvictor(client, maxRowsPerPartition, protectSeconds, maxDeletes);
+
+      while (true) {
+        evictor.evictAll();
+        Thread.sleep(intervalSeconds * 1000L);
+      }
+
+    } catch (Exception e) {
+      VoltDBH2OMojoClient.msg(e.getClass().getName() + ":" + e.getMessage());
+    }
+
+  }
+
+  /**
+   * Trim every partition down to maxRowsPerPartition.
+   * 
+   * @return How many rows we evicted
+   * @throws IOException
+   * @throws ProcCallException
+   */
+  public long evictAll() throws IOException, ProcCallException {
+
+    HashMap<Long, Double> bytesPerRow = getBytesPerRow();
+    VoltTable partitionKeys = client.callProcedure("@GetPartitionKeys", "STRING").getResults()[0];
+
+    long evicted = 0;
+    long bytesReclaimed = 0;
+    long rowsAfter = 0;
+
+    while (partitionKeys.advanceRow()) {
+
+      long partitionId = partitionKeys.getLong("PARTITION_ID");
+      String partitionKey = partitionKeys.getString("PARTITION_KEY");
+      long partitionEvicted = 0;
+      VoltTable result;
+
+      // Keep going until the partition is small enough or there's nothing
+      // we're allowed to evict...
+      do {
+        result = client.callProcedure("EvictCachedResults", partitionKey, maxRowsPerPartition, maxDeletes,
+            protectSeconds).getResults()[0];
+        result.advanceRow();
+        partitionEvicted += result.getLong("ROWS_EVICTED");
+      } while (result.getLong("ROWS_EVICTED") == maxDeletes && maxDeletes > 0
+          && result.getLong("ROWS_AFTER") > maxRowsPerPartition);
+
+      rowsAfter += result.getLong("ROWS_AFTER");
+      evicted += partitionEvicted;
+
+      Double partitionBytesPerRow = bytesPerRow.get(partitionId);
+
+      if (partitionBytesPerRow != null) {
+        bytesReclaimed += (long) (partitionEvicted * partitionBytesPerRow);
+      }
+    }
+
+    totalEvicted += evicted;
+    totalBytesReclaimed += bytesReclaimed;
+
+    VoltDBH2OMojoClient.msg("Evicted " + evicted + " rows from " + partitionKeys.getRowCount()
+        + " partitions, about " + (bytesReclaimed / 1024) + "KB; " + rowsAfter + " rows left. Total evicted "
+        + totalEvicted + " rows, about " + (totalBytesReclaimed / 1024) + "KB");
+
+    return evicted;
+  }
+
+  /**
+   * @return Bytes of tuple, string and index memory per CACHED_RESULTS row,
+   *         keyed by partition id. Partitions with no rows aren't included.
+   * @throws IOException
+   * @throws ProcCallException
+   */
+  private HashMap<Long, Double> getBytesPerRow() throws IOException, ProcCallException {
+
+    HashMap<Long, Long> rows = new HashMap<Long, Long>();
+    HashMap<Long, Long> kb = new HashMap<Long, Long>();
+
+    VoltTable tableStats = client.callProcedure("@Statistics", "TABLE", 0).getResults()[0];
+
+    while (tableStats.advanceRow()) {
+      if (TABLE_NAME.equalsIgnoreCase(tableStats.getString("TABLE_NAME"))) {
+        long partitionId = tableStats.getLong("PARTITION_ID");
+        rows.merge(partitionId, tableStats.getLong("TUPLE_COUNT"), Long::sum);
+        kb.merge(partitionId,
+            tableStats.getLong("TUPLE_ALLOCATED_MEMORY") + tableStats.getLong("STRING_DATA_MEMORY"), Long::sum);
+      }
+    }
+
+    VoltTable indexStats = client.callProcedure("@Statistics", "INDEX", 0).getResults()[0];
+
+    while (indexStats.advanceRow()) {
+      if (TABLE_NAME.equalsIgnoreCase(indexStats.getString("TABLE_NAME"))) {
+        kb.merge(indexStats.getLong("PARTITION_ID"), indexStats.getLong("MEMORY_ESTIMATE"), Long::sum);
+      }
+    }
+
+    HashMap<Long, Double> bytesPerRow = new HashMap<Long, Double>();
+
+    for (Long partitionId : rows.keySet()) {
+      if (rows.get(partitionId) > 0) {
+        bytesPerRow.put(partitionId, (kb.get(partitionId) * 1024.0) / rows.get(partitionId));
+      }
+    }
+
+    return bytesPerRow;
+  }
+
+}
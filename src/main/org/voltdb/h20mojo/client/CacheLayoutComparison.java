@@ -0,0 +1,279 @@
+package org.voltdb.h20mojo.client;
+
+/* This file is part of VoltDB.
+ * Copyright (C) 2008-2019 VoltDB Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+import java.io.IOException;
+import java.time.LocalDate;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Random;
+
+import org.voltdb.VoltTable;
+import org.voltdb.client.Client;
+import org.voltdb.client.ClientResponse;
+import org.voltdb.client.NoConnectionsException;
+import org.voltdb.client.ProcCallException;
+import org.voltdb.client.ProcedureCallback;
+
+import ie.voltdb.h2outil.FlightKey;
+import mojoprocs.IsFlightLate;
+
+/**
+ * Compares the original cached_results table, with its eight varchar key
+ * columns, against cached_results_packed, which uses a single bigint made by
+ * FlightKey.pack().
+ * <p>
+ * We load the same random flights into both tables, use @Statistics to see
+ * how much memory each one uses, and then time lookups of flights we know are
+ * there using IsFlightLate and IsFlightLatePacked.
+ * <p>
+ * Usage: CacheLayoutComparison hostnames [rowCount] [lookupCount]
+ * <p>
+ * Note that both tables have a 5 minute TTL, so the numbers are only
+ * meaningful if the comparison finishes inside that.
+ *
+ */
+public class CacheLayoutComparison {
+
+  private static final String[] DELAYED = { "NO", "YES" };
+
+  private final Client client;
+  private final long[] keys;
+  private final String[][] flights;
+
+  /**
+   * @param client    A connected client. The schema must already exist.
+   * @param rowCount  How many distinct flights to generate
+   */
+  public CacheLayoutComparison(Client client, int rowCount) {
+    super();
+    this.client = client;
+    this.keys = new long[rowCount];
+    this.flights = new String[rowCount][];
+
+    makeFlights(new Random(42));
+  }
+
+  public static void main(String[] args) {
+
+    VoltDBH2OMojoClient.msg("Parameters:" + Arrays.toString(args));
+
+    String hostnames = "localhost";
+    int rowCount = 1000000;
+    int lookupCount = 100000;
+
+    if (args.length > 0) {
+      hostnames = args[0];
+    }
+
+    if (args.length > 1) {
+      rowCount = Integer.parseInt(args[1]);
+    }
+
+    if (args.length > 2) {
+      lookupCount = Integer.parseInt(args[2]);
+    }
+
+    try {
+
+      VoltDBH2OMojoClient mc = new VoltDBH2OMojoClient(hostnames);
+      mc.createSchemaIfNeeded();
+
+      CacheLayoutComparison c = new CacheLayoutComparison(mc.client, rowCount);
+
+      c.load();
+
+      c.reportMemory("CACHED_RESULTS");
+      c.reportMemory("CACHED_RESULTS_PACKED");
+
+      c.timeLookups(lookupCount);
+
+      mc.client.drain();
+      mc.client.close();
+
+    } catch (Exception e) {
+      VoltDBH2OMojoClient.msg(e.getClass().getName() + ":" + e.getMessage());
+    }
+
+    VoltDBH2OMojoClient.msg("Finished");
+
+  }
+
+  /**
+   * Create 'rowCount' distinct flights FlightKey can pack. dayOfWeek has to
+   * match the date, so we work it out instead of picking it at random.
+   */
+  private void makeFlights(Random r) {
+
+    String[] origin = VoltDBH2OMojoClient.getOrigin();
+    String[] dest = VoltDBH2OMojoClient.getDest();
+    String[] carrier = { "AA", "CO", "DL", "HP", "NW", "PS", "TW", "UA", "US", "WN" };
+
+    HashSet<Long> seen = new HashSet<Long>(flights.length * 2);
+    int count = 0;
+
+    while (count < flights.length) {
+
+      LocalDate date = LocalDate.of(1987 + r.nextInt(22), 1, 1).plusDays(r.nextInt(365));
+
+      String[] flight = { origin[r.nextInt(origin.length)], dest[r.nextInt(dest.length)],
+          VoltDBH2OMojoClient.getRandomDepTime(r), "" + date.getYear(), "" + date.getMonthValue(),
+          "" + date.getDayOfMonth(), "" + date.getDayOfWeek().getValue(), carrier[r.nextInt(carrier.length)] };
+
+      long key = FlightKey.pack(flight[0], flight[1], flight[2], flight[3], flight[4], flight[5], flight[6],
+          flight[7]);
+
+      if (key != FlightKey.NOT_PACKABLE && seen.add(key)) {
+        keys[count] = key;
+        flights[count++] = flight;
+      }
+    }
+  }
+
+  /**
+   * Put every flight into both tables, using the default insert procedures.
+   * 
+   * @throws IOException
+   * @throws InterruptedException
+   * @throws NoConnectionsException
+   */
+  private void load() throws NoConnectionsException, IOException, InterruptedException {
+
+    VoltDBH2OMojoClient.msg("Loading " + flights.length + " rows into each table...");
+
+    final long startMs = System.currentTimeMillis();
+    final long nowMicros = startMs * 1000;
+    final long[] errorCount = new long[1];
+
+    ProcedureCallback cb = new ProcedureCallback() {
+      @Override
+      public void clientCallback(ClientResponse response) throws Exception {
+        if (response.getStatus() != ClientResponse.SUCCESS) {
+          synchronized (errorCount) {
+            if (errorCount[0]++ == 0) {
+              VoltDBH2OMojoClient.msg("Insert failed: " + response.getStatusString());
+            }
+          }
+        }
+      }
+    };
+
+    for (int i = 0; i < flights.length; i++) {
+
+      String[] f = flights[i];
+      int delayed = i % 2;
+
+      client.callProcedure(cb, "CACHED_RESULTS.insert", f[0], f[1], f[2], f[3], f[4], f[5], f[6], f[7],
+          DELAYED[delayed], nowMicros, 1);
+      client.callProcedure(cb, "CACHED_RESULTS_PACKED.insert", keys[i], DELAYED[delayed], nowMicros, 1);
+    }
+
+    client.drain();
+
+    VoltDBH2OMojoClient.msg("Loaded in " + (System.currentTimeMillis() - startMs) + "ms with " + errorCount[0]
+        + " failures");
+  }
+
+  /**
+   * Report how much memory 'tableName' and its indexes use, in total and per
+   * million rows. @Statistics reports memory in KB.
+   * 
+   * @throws IOException
+   * @throws ProcCallException
+   */
+  private void reportMemory(String tableName) throws IOException, ProcCallException {
+
+    long tupleCount = 0;
+    long tupleKb = 0;
+    long stringKb = 0;
+    long indexKb = 0;
+
+    VoltTable tableStats = client.callProcedure("@Statistics", "TABLE", 0).getResults()[0];
+
+    while (tableStats.advanceRow()) {
+      if (tableName.equalsIgnoreCase(tableStats.getString("TABLE_NAME"))) {
+        tupleCount += tableStats.getLong("TUPLE_COUNT");
+        tupleKb += tableStats.getLong("TUPLE_ALLOCATED_MEMORY");
+        stringKb += tableStats.getLong("STRING_DATA_MEMORY");
+      }
+    }
+
+    VoltTable indexStats = client.callProcedure("@Statistics", "INDEX", 0).getResults()[0];
+
+    while (indexStats.advanceRow()) {
+      if (tableName.equalsIgnoreCase(indexStats.getString("TABLE_NAME"))) {
+        indexKb += indexStats.getLong("MEMORY_ESTIMATE");
+      }
+    }
+
+    long totalKb = tupleKb + stringKb + indexKb;
+
+    VoltDBH2OMojoClient.msg(tableName + ": rows=" + tupleCount + " tuples=" + tupleKb + "KB strings=" + stringKb
+        + "KB indexes=" + indexKb + "KB total=" + totalKb + "KB"
+        + (tupleCount == 0 ? "" : (" (" + (totalKb * 1000000 / tupleCount / 1024) + "MB per million rows)")));
+  }
+
+  /**
+   * Look up 'lookupCount' flights we loaded, one at a time, with each
+   * procedure.
+   * 
+   * @throws IOException
+   * @throws ProcCallException
+   */
+  private void timeLookups(int lookupCount) throws IOException, ProcCallException {
+
+    LatencyHistogram stringKeys = new LatencyHistogram("IsFlightLate       ");
+    LatencyHistogram packedKeys = new LatencyHistogram("IsFlightLatePacked ");
+    long stringHits = 0;
+    long packedHits = 0;
+
+    Random r = new Random(43);
+
+    for (int i = 0; i < lookupCount; i++) {
+
+      int row = r.nextInt(flights.length);
+      String[] f = flights[row];
+
+      long startNs = System.nanoTime();
+      ClientResponse cr = client.callProcedure("IsFlightLate", f[0], f[2], f[3], f[4], f[5], f[6], f[7], f[1], 0);
+      stringKeys.recordValue((System.nanoTime() - startNs) / 1000);
+
+      if (cr.getAppStatus() == IsFlightLate.CACHE_HIT) {
+        stringHits++;
+      }
+
+      startNs = System.nanoTime();
+      cr = client.callProcedure("IsFlightLatePacked", keys[row], 0);
+      packedKeys.recordValue((System.nanoTime() - startNs) / 1000);
+
+      if (cr.getAppStatus() == IsFlightLate.CACHE_HIT) {
+        packedHits++;
+      }
+    }
+
+    VoltDBH2OMojoClient.msg(stringKeys.toSummaryString() + " hits=" + stringHits);
+    VoltDBH2OMojoClient.msg(packedKeys.toSummaryString() + " hits=" + packedHits);
+  }
+
+}
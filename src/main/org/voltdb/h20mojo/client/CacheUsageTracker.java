@@ -0,0 +1,213 @@
+package org.voltdb.h20mojo.client;
+
+/* This file is part of VoltDB.
+ * Copyright (C) 2008-2019 VoltDB Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.voltdb.VoltTable;
+import org.voltdb.client.Client;
+import org.voltdb.client.ClientResponse;
+import org.voltdb.client.ProcedureCallback;
+
+import mojoprocs.FlushCacheUsage;
+
+/**
+ * Counts how often each flight is asked about, so that IsFlightLateReadOnly
+ * and IsFlightLateNearCache don't have to write to CACHED_RESULTS on every
+ * call. Every 'flushIntervalMs' we send the counts for each origin to
+ * FlushCacheUsage in one transaction, which updates LAST_USED and USAGE_COUNT
+ * and scores and adds any flights that aren't in CACHED_RESULTS yet and were
+ * asked about more than once. We only send counts: FlushCacheUsage decides
+ * the time and the label itself.
+ * <p>
+ * This means CACHED_RESULTS and CACHE_EFFECTIVENESS are never more than one
+ * flush interval (plus however long the flush takes) out of date, provided the
+ * interval is well under the 5 minute TTL. If the client dies we lose at most
+ * one interval's worth of counts.
+ * <p>
+ * record() is called from client callbacks, so it's synchronized. The map is
+ * swapped for an empty one when we flush, so callbacks aren't held up while
+ * we build the tables.
+ *
+ */
+public class CacheUsageTracker {
+
+  private static Logger logger = LoggerFactory.getLogger(CacheUsageTracker.class);
+
+  private final Client client;
+  private final long flushIntervalMs;
+
+  /**
+   * Usage since the last flush, keyed by origin and then by the rest of the
+   * primary key.
+   */
+  private HashMap<String, HashMap<String, FlightUsage>> usage = new HashMap<String, HashMap<String, FlightUsage>>();
+
+  private long nextFlushMs;
+
+  private final AtomicLong flushCallCount = new AtomicLong();
+  private final AtomicLong flushErrorCount = new AtomicLong();
+  private final AtomicLong updatedCount = new AtomicLong();
+  private final AtomicLong insertedCount = new AtomicLong();
+  private final AtomicLong insertsSkippedCount = new AtomicLong();
+
+  /**
+   * What we know about one flight since the last flush.
+   */
+  private static class FlightUsage {
+
+    final String[] flight;
+    long usageCount = 0;
+
+    FlightUsage(String[] flight) {
+      this.flight = flight;
+    }
+  }
+
+  /**
+   * @param client          Client we send flushes with
+   * @param flushIntervalMs How often flushIfDue() actually flushes
+   */
+  public CacheUsageTracker(Client client, long flushIntervalMs) {
+    super();
+    this.client = client;
+    this.flushIntervalMs = flushIntervalMs;
+    this.nextFlushMs = System.currentTimeMillis() + flushIntervalMs;
+  }
+
+  /**
+   * Note that a flight was asked about. Parameters are in the same order as
+   * IsFlightLate's.
+   */
+  public synchronized void record(String origin, String cRSDepTime, String year, String month, String dayOfMonth,
+      String dayOfWeek, String uniqueCarrier, String dest) {
+
+    HashMap<String, FlightUsage> originUsage = usage.get(origin);
+
+    if (originUsage == null) {
+      originUsage = new HashMap<String, FlightUsage>();
+      usage.put(origin, originUsage);
+    }
+
+    String key = dest + "," + cRSDepTime + "," + year + "," + month + "," + dayOfMonth + "," + dayOfWeek + ","
+        + uniqueCarrier;
+
+    FlightUsage flightUsage = originUsage.get(key);
+
+    if (flightUsage == null) {
+      flightUsage = new FlightUsage(
+          new String[] { dest, cRSDepTime, year, month, dayOfMonth, dayOfWeek, uniqueCarrier });
+      originUsage.put(key, flightUsage);
+    }
+
+    flightUsage.usageCount++;
+  }
+
+  /**
+   * Flush if it's been more than 'flushIntervalMs' since we last did.
+   */
+  public void flushIfDue() {
+
+    if (System.currentTimeMillis() >= nextFlushMs) {
+      flush();
+    }
+  }
+
+  /**
+   * Send everything we've counted since the last flush to FlushCacheUsage,
+   * one call per origin. The calls are asynchronous.
+   */
+  public void flush() {
+
+    HashMap<String, HashMap<String, FlightUsage>> toFlush;
+
+    synchronized (this) {
+      toFlush = usage;
+      usage = new HashMap<String, HashMap<String, FlightUsage>>();
+      nextFlushMs = System.currentTimeMillis() + flushIntervalMs;
+    }
+
+    for (Map.Entry<String, HashMap<String, FlightUsage>> originUsage : toFlush.entrySet()) {
+
+      VoltTable t = FlushCacheUsage.createUsageTable();
+
+      for (FlightUsage u : originUsage.getValue().values()) {
+        t.addRow(u.flight[0], u.flight[1], u.flight[2], u.flight[3], u.flight[4], u.flight[5], u.flight[6],
+            u.usageCount);
+      }
+
+      try {
+
+        flushCallCount.incrementAndGet();
+
+        if (!client.callProcedure(new FlushCallback(), "FlushCacheUsage", originUsage.getKey(), t)) {
+          flushErrorCount.incrementAndGet();
+        }
+
+      } catch (IOException e) {
+        flushErrorCount.incrementAndGet();
+        logger.error(e.getMessage());
+      }
+    }
+  }
+
+  /**
+   * @return A one line summary of what we've flushed so far.
+   */
+  public String getReport() {
+    return "Cache usage: " + flushCallCount.get() + " flush calls, " + flushErrorCount.get() + " failed, "
+        + updatedCount.get() + " rows updated, " + insertedCount.get() + " rows inserted, "
+        + insertsSkippedCount.get() + " one-off flights not cached";
+  }
+
+  /**
+   * Adds up what each flush did.
+   */
+  private class FlushCallback implements ProcedureCallback {
+
+    @Override
+    public void clientCallback(ClientResponse response) throws Exception {
+
+      if (response.getStatus() == ClientResponse.SUCCESS) {
+
+        VoltTable results = response.getResults()[0];
+
+        if (results.advanceRow()) {
+          updatedCount.addAndGet(results.getLong("UPDATED"));
+          insertedCount.addAndGet(results.getLong("INSERTED"));
+          insertsSkippedCount.addAndGet(results.getLong("INSERTS_SKIPPED"));
+        }
+
+      } else if (flushErrorCount.incrementAndGet() % 1000 == 1) {
+        logger.error("FlushCacheUsage failed: " + response.getStatusString());
+      }
+    }
+  }
+
+}
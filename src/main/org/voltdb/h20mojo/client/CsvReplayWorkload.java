@@ -0,0 +1,577 @@
+package org.voltdb.h20mojo.client;
+
+/* This file is part of VoltDB.
+ * Copyright (C) 2008-2019 VoltDB Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Random;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Replays the flights in an FAA on-time performance CSV file, in the order
+ * they appear.
+ * <p>
+ * The file is memory mapped a window at a time, so files much bigger than the
+ * heap stream through without being read into it. We only look at the eight
+ * columns IsFlightLate needs, which we find by name in the header line, and
+ * turn their bytes into Strings through a small pool per column. The columns
+ * only have a few hundred different values between them, so once the pools
+ * are warm a row costs no allocation at all. Departure times are padded to
+ * four digits, as the rest of the client sends them.
+ * <p>
+ * Rows with missing ('NA' or empty) values are skipped. Quoted fields are
+ * handled, as long as they don't contain line breaks.
+ * <p>
+ * Options are given as 'name=value' pairs separated by commas:
+ * <ul>
+ * <li>file - the CSV file. Required.</li>
+ * <li>speedup - if > 0, keep the gaps between rows' scheduled departures,
+ * divided by this. 60 replays an hour of departures a minute. The file needs
+ * to be sorted by date and departure time for this to mean much. Default 0,
+ * which sends rows as fast as the client will take them.</li>
+ * <li>loop - if 'true' start again at the top when we reach the end. Default
+ * false, in which case the run stops at the end of the file.</li>
+ * </ul>
+ *
+ */
+public class CsvReplayWorkload implements FlightWorkload {
+
+  /**
+   * How much of the file we map at once. Lines can't be longer than this.
+   */
+  static final int WINDOW_BYTES = 256 * 1024 * 1024;
+
+  /**
+   * Names each of our fields may have in the header, in FlightWorkload field
+   * order. Older files use UniqueCarrier, newer ones Reporting_Airline.
+   */
+  static final String[][] COLUMN_NAMES = { { "Origin" }, { "CRSDepTime" }, { "Year" }, { "Month" },
+      { "DayofMonth", "DayOfMonth" }, { "DayOfWeek" },
+      { "UniqueCarrier", "Reporting_Airline", "IATA_CODE_Reporting_Airline", "Carrier" }, { "Dest" } };
+
+  private String fileName = null;
+  private double speedup = 0;
+  private boolean loop = false;
+
+  private final FileChannel channel;
+  private final long fileSize;
+
+  /**
+   * Offset in the file of the first row after the header.
+   */
+  private long firstRowOffset;
+
+  /**
+   * The part of the file we have mapped, and where it starts.
+   */
+  private MappedByteBuffer window = null;
+  private long windowStart = 0;
+
+  /**
+   * Offset in the file of the next byte we'll read.
+   */
+  private long position = 0;
+
+  /**
+   * Which column each of our fields is in.
+   */
+  private final int[] columnForField = new int[FIELD_COUNT];
+
+  /**
+   * Where each field of the current line starts and ends in 'window'.
+   */
+  private final int[] fieldStart = new int[FIELD_COUNT];
+  private final int[] fieldEnd = new int[FIELD_COUNT];
+
+  private final StringPool[] pools = new StringPool[FIELD_COUNT];
+
+  /**
+   * The next flight we'll return, or null if there isn't one.
+   */
+  private String[] next = new String[FIELD_COUNT];
+  private long nextDepartureMinutes = 0;
+
+  // For keeping the original gaps between rows...
+  private long firstDepartureMinutes = Long.MIN_VALUE;
+  private long firstFlightNs = 0;
+
+  private long rowsReplayed = 0;
+  private long rowsSkipped = 0;
+  private long passes = 1;
+
+  /**
+   * @param options Comma separated 'name=value' pairs.
+   * @throws IllegalArgumentException if an option isn't valid or the file has
+   *                                  no header we understand
+   * @throws UncheckedIOException     if we can't read the file
+   */
+  public CsvReplayWorkload(String options) {
+    super();
+
+    parseOptions(options);
+
+    for (int field = 0; field < FIELD_COUNT; field++) {
+      pools[field] = new StringPool(field == DEP_TIME ? 4 : 0);
+    }
+
+    try {
+      channel = FileChannel.open(Paths.get(fileName), StandardOpenOption.READ);
+      fileSize = channel.size();
+      readHeader();
+    } catch (IOException e) {
+      throw new UncheckedIOException("Can't read " + fileName + ": " + e.getMessage(), e);
+    }
+
+    fetchNext();
+  }
+
+  private void parseOptions(String options) {
+
+    for (String option : options.split(",")) {
+
+      if (option.trim().length() == 0) {
+        continue;
+      }
+
+      String[] nameAndValue = option.split("=", 2);
+
+      if (nameAndValue.length != 2) {
+        throw new IllegalArgumentException("Expected name=value, got '" + option + "'");
+      }
+
+      String name = nameAndValue[0].trim();
+      String value = nameAndValue[1].trim();
+
+      if (name.equals("file")) {
+        fileName = value;
+      } else if (name.equals("speedup")) {
+        speedup = Double.parseDouble(value);
+      } else if (name.equals("loop")) {
+        loop = Boolean.parseBoolean(value);
+      } else {
+        throw new IllegalArgumentException("Unknown option '" + name + "'");
+      }
+    }
+
+    if (fileName == null) {
+      throw new IllegalArgumentException("replay needs a file, e.g. 'replay:file=2008.csv'");
+    }
+  }
+
+  /**
+   * Find our columns in the first line of the file. This is the only time we
+   * make Strings from what we read.
+   */
+  private void readHeader() throws IOException {
+
+    position = 0;
+
+    if (!mapLine()) {
+      throw new IllegalArgumentException(fileName + " is empty");
+    }
+
+    int lineStart = (int) (position - windowStart);
+    int lineEnd = lineStart;
+
+    while (lineEnd < window.limit() && window.get(lineEnd) != '\n') {
+      lineEnd++;
+    }
+
+    byte[] headerBytes = new byte[lineEnd - lineStart];
+    window.position(lineStart);
+    window.get(headerBytes);
+
+    String[] columns = new String(headerBytes, StandardCharsets.UTF_8).trim().split(",");
+
+    for (int field = 0; field < FIELD_COUNT; field++) {
+
+      columnForField[field] = -1;
+
+      for (int c = 0; c < columns.length && columnForField[field] < 0; c++) {
+
+        String column = columns[c].trim().replace("\"", "");
+
+        for (String name : COLUMN_NAMES[field]) {
+          if (column.equalsIgnoreCase(name)) {
+            columnForField[field] = c;
+          }
+        }
+      }
+
+      if (columnForField[field] < 0) {
+        throw new IllegalArgumentException(fileName + " has no " + COLUMN_NAMES[field][0] + " column");
+      }
+    }
+
+    firstRowOffset = windowStart + lineEnd + 1;
+    position = firstRowOffset;
+  }
+
+  /**
+   * Make sure the line starting at 'position' is in our window, moving it if
+   * it isn't.
+   * 
+   * @return false if we're at the end of the file
+   */
+  private boolean mapLine() throws IOException {
+
+    if (position >= fileSize) {
+      return false;
+    }
+
+    if (window != null && position >= windowStart) {
+
+      // Is there a line break between position and the end of the window? If
+      // there is the whole line is in the window...
+      int i = (int) (position - windowStart);
+
+      if (windowStart + window.limit() == fileSize) {
+        return true;
+      }
+
+      while (i < window.limit()) {
+        if (window.get(i) == '\n') {
+          return true;
+        }
+        i++;
+      }
+    }
+
+    // Move the window so it starts at this line. Old windows are unmapped
+    // when they're garbage collected.
+    windowStart = position;
+    window = channel.map(FileChannel.MapMode.READ_ONLY, windowStart,
+        Math.min(WINDOW_BYTES, fileSize - windowStart));
+
+    return true;
+  }
+
+  /**
+   * Find the next usable row and put it in 'next', or set 'next' to null if
+   * we've run out.
+   */
+  private void fetchNext() {
+
+    try {
+
+      while (true) {
+
+        if (!mapLine()) {
+
+          if (loop && rowsReplayed > 0) {
+            position = firstRowOffset;
+            passes++;
+            continue;
+          }
+
+          next = null;
+          return;
+        }
+
+        if (parseLine()) {
+          return;
+        }
+
+        rowsSkipped++;
+      }
+
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  /**
+   * Parse the line at 'position' and move 'position' to the start of the
+   * next one.
+   * 
+   * @return true if the line had all our fields, in which case they are in
+   *         'next'.
+   */
+  private boolean parseLine() {
+
+    for (int field = 0; field < FIELD_COUNT; field++) {
+      fieldStart[field] = -1;
+    }
+
+    final int limit = window.limit();
+    int i = (int) (position - windowStart);
+    int column = 0;
+    int columnStart = i;
+    boolean inQuotes = false;
+
+    while (true) {
+
+      final byte b = i < limit ? window.get(i) : (byte) '\n';
+
+      if (b == '"') {
+        inQuotes = !inQuotes;
+      } else if ((b == ',' && !inQuotes) || b == '\n' || b == '\r') {
+
+        for (int field = 0; field < FIELD_COUNT; field++) {
+          if (columnForField[field] == column) {
+            fieldStart[field] = columnStart;
+            fieldEnd[field] = i;
+          }
+        }
+
+        column++;
+        columnStart = i + 1;
+
+        if (b != ',') {
+          break;
+        }
+      }
+
+      i++;
+    }
+
+    // Skip the rest of the line, including any '\r\n'...
+    while (i < limit && window.get(i) != '\n') {
+      i++;
+    }
+
+    position = windowStart + i + 1;
+
+    for (int field = 0; field < FIELD_COUNT; field++) {
+
+      int start = fieldStart[field];
+      int end = fieldEnd[field];
+
+      if (start < 0) {
+        return false;
+      }
+
+      // Strip quotes...
+      if (end - start >= 2 && window.get(start) == '"' && window.get(end - 1) == '"') {
+        start++;
+        end--;
+      }
+
+      if (end == start || (end - start == 2 && window.get(start) == 'N' && window.get(start + 1) == 'A')) {
+        return false;
+      }
+
+      fieldStart[field] = start;
+      fieldEnd[field] = end;
+    }
+
+    for (int field = 0; field < FIELD_COUNT; field++) {
+      next[field] = pools[field].get(window, fieldStart[field], fieldEnd[field]);
+    }
+
+    if (speedup > 0) {
+      nextDepartureMinutes = (daysFromCivil(parseInt(YEAR), parseInt(MONTH), parseInt(DAY_OF_MONTH)) * 1440L)
+          + ((parseInt(DEP_TIME) / 100) * 60) + (parseInt(DEP_TIME) % 100);
+    }
+
+    return true;
+  }
+
+  /**
+   * @return The digits of field 'field' of the current line as a number
+   */
+  private int parseInt(int field) {
+
+    int value = 0;
+
+    for (int i = fieldStart[field]; i < fieldEnd[field]; i++) {
+      byte b = window.get(i);
+      if (b >= '0' && b <= '9') {
+        value = (value * 10) + (b - '0');
+      }
+    }
+
+    return value;
+  }
+
+  /**
+   * Days since 1970-01-01, from Howard Hinnant's date algorithms.
+   */
+  static int daysFromCivil(int y, int m, int d) {
+
+    y -= m <= 2 ? 1 : 0;
+    final int era = (y >= 0 ? y : y - 399) / 400;
+    final int yoe = y - (era * 400);
+    final int doy = ((153 * (m > 2 ? m - 3 : m + 9)) + 2) / 5 + d - 1;
+    final int doe = (yoe * 365) + (yoe / 4) - (yoe / 100) + doy;
+
+    return (era * 146097) + doe - 719468;
+  }
+
+  @Override
+  public boolean isFinished() {
+    return next == null;
+  }
+
+  @Override
+  public void nextFlight(Random r, String[] flight) {
+
+    if (next == null) {
+      throw new IllegalStateException("No more flights in " + fileName);
+    }
+
+    if (speedup > 0) {
+
+      if (firstDepartureMinutes == Long.MIN_VALUE) {
+        firstDepartureMinutes = nextDepartureMinutes;
+        firstFlightNs = System.nanoTime();
+      }
+
+      // Wait until this row is due. Rows that are out of order go at once.
+      long dueNs = firstFlightNs + (long) (((nextDepartureMinutes - firstDepartureMinutes) * 60e9) / speedup);
+      long waitNs = dueNs - System.nanoTime();
+
+      if (waitNs > 0) {
+        LockSupport.parkNanos(waitNs);
+      }
+    }
+
+    System.arraycopy(next, 0, flight, 0, FIELD_COUNT);
+    rowsReplayed++;
+
+    fetchNext();
+  }
+
+  @Override
+  public String toString() {
+    return "replay: file=" + fileName + " (" + (fileSize / (1024 * 1024)) + "MB), speedup="
+        + (speedup > 0 ? speedup : "none") + ", loop=" + loop + ", " + rowsReplayed + " rows replayed, "
+        + rowsSkipped + " skipped" + (loop ? ", pass " + passes : "");
+  }
+
+  /**
+   * Turns the bytes of a field into a String, making each different String
+   * only once. Uses open addressing, keyed on the bytes.
+   */
+  private static class StringPool {
+
+    private final int padToLength;
+
+    private byte[][] keys = new byte[1024][];
+    private String[] values = new String[1024];
+    private int size = 0;
+
+    /**
+     * @param padToLength Values shorter than this get leading zeros. 0 means
+     *                    don't pad.
+     */
+    StringPool(int padToLength) {
+      this.padToLength = padToLength;
+    }
+
+    String get(MappedByteBuffer buffer, int start, int end) {
+
+      int hash = 0;
+
+      for (int i = start; i < end; i++) {
+        hash = (31 * hash) + buffer.get(i);
+      }
+
+      int mask = keys.length - 1;
+      int slot = (hash ^ (hash >>> 16)) & mask;
+
+      while (keys[slot] != null) {
+        if (matches(keys[slot], buffer, start, end)) {
+          return values[slot];
+        }
+        slot = (slot + 1) & mask;
+      }
+
+      // First time we've seen this value...
+      byte[] key = new byte[end - start];
+
+      for (int i = 0; i < key.length; i++) {
+        key[i] = buffer.get(start + i);
+      }
+
+      String value = new String(key, StandardCharsets.UTF_8);
+
+      while (value.length() < padToLength) {
+        value = "0" + value;
+      }
+
+      keys[slot] = key;
+      values[slot] = value;
+
+      if (++size * 2 > keys.length) {
+        grow();
+      }
+
+      return value;
+    }
+
+    private static boolean matches(byte[] key, MappedByteBuffer buffer, int start, int end) {
+
+      if (key.length != end - start) {
+        return false;
+      }
+
+      for (int i = 0; i < key.length; i++) {
+        if (key[i] != buffer.get(start + i)) {
+          return false;
+        }
+      }
+
+      return true;
+    }
+
+    private void grow() {
+
+      byte[][] oldKeys = keys;
+      String[] oldValues = values;
+
+      keys = new byte[oldKeys.length * 2][];
+      values = new String[oldKeys.length * 2];
+
+      int mask = keys.length - 1;
+
+      for (int i = 0; i < oldKeys.length; i++) {
+
+        if (oldKeys[i] != null) {
+
+          int hash = 0;
+
+          for (byte b : oldKeys[i]) {
+            hash = (31 * hash) + b;
+          }
+
+          int slot = (hash ^ (hash >>> 16)) & mask;
+
+          while (keys[slot] != null) {
+            slot = (slot + 1) & mask;
+          }
+
+          keys[slot] = oldKeys[i];
+          values[slot] = oldValues[i];
+        }
+      }
+    }
+
+  }
+
+}
@@ -0,0 +1,95 @@
+package org.voltdb.h20mojo.client;
+
+/* This file is part of VoltDB.
+ * Copyright (C) 2008-2019 VoltDB Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.voltdb.VoltTable;
+import org.voltdb.client.ClientResponse;
+import org.voltdb.client.ProcedureCallback;
+
+/**
+ * Callback used when we call IsFlightLateBatch. It owns one permit from the
+ * 'in flight' semaphore for each flight in the batch, and records latency for
+ * each flight separately, from when that flight was requested.
+ *
+ */
+public class FlightBatchCallback implements ProcedureCallback {
+
+  private static Logger logger = LoggerFactory.getLogger(FlightBatchCallback.class);
+
+  private final Semaphore inFlight;
+  private final AtomicLong okCount;
+  private final AtomicLong errorCount;
+  private final FlightLatencyStats stats;
+  private final long[] startNs;
+
+  /**
+   * @param inFlight   Semaphore we release one permit per flight on
+   * @param okCount    Counter of successful flights
+   * @param errorCount Counter of failed flights
+   * @param stats      Where we record latency
+   * @param startNs    System.nanoTime() from when each flight was requested,
+   *                   in the same order as the rows we sent.
+   */
+  public FlightBatchCallback(Semaphore inFlight, AtomicLong okCount, AtomicLong errorCount,
+      FlightLatencyStats stats, long[] startNs) {
+    super();
+    this.inFlight = inFlight;
+    this.okCount = okCount;
+    this.errorCount = errorCount;
+    this.stats = stats;
+    this.startNs = startNs;
+  }
+
+  @Override
+  public void clientCallback(ClientResponse response) throws Exception {
+
+    try {
+      if (response.getStatus() == ClientResponse.SUCCESS) {
+
+        VoltTable results = response.getResults()[0];
+
+        for (int i = 0; results.advanceRow(); i++) {
+          stats.record(response, startNs[i], results.getLong("FROM_CACHE") == 1);
+        }
+
+        okCount.addAndGet(startNs.length);
+
+      } else {
+        // Don't flood the log if the cluster goes away...
+        if (errorCount.getAndAdd(startNs.length) < 1000) {
+          logger.error("IsFlightLateBatch failed: " + response.getStatusString());
+        }
+      }
+    } finally {
+      inFlight.release(startNs.length);
+    }
+
+  }
+
+}
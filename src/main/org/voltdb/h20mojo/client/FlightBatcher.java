@@ -0,0 +1,202 @@
+package org.voltdb.h20mojo.client;
+
+/* This file is part of VoltDB.
+ * Copyright (C) 2008-2019 VoltDB Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.voltdb.VoltTable;
+import org.voltdb.client.Client;
+
+import mojoprocs.IsFlightLateBatch;
+
+/**
+ * Groups flight predictions by origin airport, which is what CACHED_RESULTS is
+ * partitioned on, and sends each group to IsFlightLateBatch as one
+ * transaction.
+ * 
+ * A group is sent when it has 'maxBatchSize' flights in it, or when its oldest
+ * flight has been waiting for 'windowMs' milliseconds, whichever comes first.
+ * Nothing here is thread safe - the thread that calls add() also needs to call
+ * flushExpired() regularly, so a quiet airport's flights don't wait forever.
+ *
+ */
+public class FlightBatcher {
+
+  private static Logger logger = LoggerFactory.getLogger(FlightBatcher.class);
+
+  private final Client client;
+  private final long windowNs;
+  private final int maxBatchSize;
+  private final Semaphore inFlight;
+  private final AtomicLong okCount;
+  private final AtomicLong errorCount;
+  private final FlightLatencyStats stats;
+
+  /**
+   * Batches that haven't been sent yet, keyed by origin.
+   */
+  private final HashMap<String, PendingBatch> pending = new HashMap<String, PendingBatch>();
+
+  private long batchCount = 0;
+  private long flightCount = 0;
+
+  /**
+   * Flights for one origin that haven't been sent yet.
+   */
+  private static class PendingBatch {
+
+    final long firstNs;
+    final VoltTable flights = IsFlightLateBatch.createFlightsTable();
+    final ArrayList<Long> startNs = new ArrayList<Long>();
+
+    PendingBatch(long firstNs) {
+      this.firstNs = firstNs;
+    }
+  }
+
+  /**
+   * @param client       VoltDB client
+   * @param windowMs     Longest we hold on to a flight before sending it
+   * @param maxBatchSize Most flights we send in one call
+   * @param inFlight     Semaphore the caller took a permit from for each
+   *                     flight. We give them back when the batch completes.
+   * @param okCount      Counter of successful flights
+   * @param errorCount   Counter of failed flights
+   * @param stats        Where we record latency
+   */
+  public FlightBatcher(Client client, int windowMs, int maxBatchSize, Semaphore inFlight, AtomicLong okCount,
+      AtomicLong errorCount, FlightLatencyStats stats) {
+    super();
+    this.client = client;
+    this.windowNs = windowMs * 1000000L;
+    this.maxBatchSize = maxBatchSize;
+    this.inFlight = inFlight;
+    this.okCount = okCount;
+    this.errorCount = errorCount;
+    this.stats = stats;
+  }
+
+  /**
+   * Add a flight, sending its batch if it's now full.
+   */
+  public void add(String origin, String depTime, String year, String month, String day, String dayOfWeek,
+      String airline, String dest) {
+
+    final long nowNs = System.nanoTime();
+    PendingBatch batch = pending.get(origin);
+
+    if (batch == null) {
+      batch = new PendingBatch(nowNs);
+      pending.put(origin, batch);
+    }
+
+    batch.flights.addRow(depTime, year, month, day, dayOfWeek, airline, dest);
+    batch.startNs.add(nowNs);
+
+    if (batch.startNs.size() >= maxBatchSize) {
+      pending.remove(origin);
+      send(origin, batch);
+    }
+  }
+
+  /**
+   * Send any batches whose oldest flight has been waiting longer than the
+   * window.
+   */
+  public void flushExpired() {
+
+    final long nowNs = System.nanoTime();
+    Iterator<Map.Entry<String, PendingBatch>> i = pending.entrySet().iterator();
+
+    while (i.hasNext()) {
+
+      Map.Entry<String, PendingBatch> entry = i.next();
+
+      if (nowNs - entry.getValue().firstNs >= windowNs) {
+        i.remove();
+        send(entry.getKey(), entry.getValue());
+      }
+    }
+  }
+
+  /**
+   * Send everything we have.
+   */
+  public void flushAll() {
+
+    for (Map.Entry<String, PendingBatch> entry : pending.entrySet()) {
+      send(entry.getKey(), entry.getValue());
+    }
+
+    pending.clear();
+  }
+
+  private void send(String origin, PendingBatch batch) {
+
+    long[] startNs = new long[batch.startNs.size()];
+
+    for (int i = 0; i < startNs.length; i++) {
+      startNs[i] = batch.startNs.get(i);
+    }
+
+    FlightBatchCallback cb = new FlightBatchCallback(inFlight, okCount, errorCount, stats, startNs);
+
+    batchCount++;
+    flightCount += startNs.length;
+
+    try {
+      if (!client.callProcedure(cb, "IsFlightLateBatch", origin, batch.flights)) {
+        inFlight.release(startNs.length);
+        errorCount.addAndGet(startNs.length);
+      }
+    } catch (IOException e) {
+      inFlight.release(startNs.length);
+      errorCount.addAndGet(startNs.length);
+      logger.error(e.getMessage());
+    }
+  }
+
+  /**
+   * @return How many flights we've sent, on average, in each call.
+   */
+  public double getAverageBatchSize() {
+    return batchCount == 0 ? 0 : (double) flightCount / batchCount;
+  }
+
+  /**
+   * @return How many calls to IsFlightLateBatch we've made.
+   */
+  public long getBatchCount() {
+    return batchCount;
+  }
+
+}
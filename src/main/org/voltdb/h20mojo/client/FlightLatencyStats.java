@@ -0,0 +1,135 @@
+package org.voltdb.h20mojo.client;
+
+/* This file is part of VoltDB.
+ * Copyright (C) 2008-2019 VoltDB Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+import java.util.ArrayList;
+
+import org.voltdb.client.ClientResponse;
+
+import mojoprocs.IsFlightLate;
+
+/**
+ * Latency histograms for calls to IsFlightLate, split by whether the answer
+ * came from the cache or from running the model.
+ *
+ * For each outcome we track three things:
+ * <ul>
+ * <li>End to end - from just before we called the procedure until the
+ * response arrived, including any time spent queued inside the client.</li>
+ * <li>Client round trip - as reported by ClientResponse.getClientRoundtripNanos()</li>
+ * <li>Cluster round trip - as reported by ClientResponse.getClusterRoundtrip().
+ * VoltDB only gives us this in milliseconds.</li>
+ * </ul>
+ *
+ */
+public class FlightLatencyStats {
+
+  private final LatencyHistogram hitEndToEnd = new LatencyHistogram("Cache hit  end to end         ");
+  private final LatencyHistogram hitClient = new LatencyHistogram("Cache hit  client round trip  ");
+  private final LatencyHistogram hitCluster = new LatencyHistogram("Cache hit  cluster round trip ");
+  private final LatencyHistogram missEndToEnd = new LatencyHistogram("Cache miss end to end         ");
+  private final LatencyHistogram missClient = new LatencyHistogram("Cache miss client round trip  ");
+  private final LatencyHistogram missCluster = new LatencyHistogram("Cache miss cluster round trip ");
+
+  /**
+   * Record the timings for a successful call.
+   *
+   * @param response The response from IsFlightLate
+   * @param startNs  System.nanoTime() from just before we called it
+   */
+  public void record(ClientResponse response, long startNs) {
+    record(response, startNs, response.getAppStatus() == IsFlightLate.CACHE_HIT);
+  }
+
+  /**
+   * Record the timings for one flight in a successful call. Used for
+   * IsFlightLateBatch, where some flights in a call may come from the cache
+   * and others not.
+   *
+   * @param response The response the flight was part of
+   * @param startNs  System.nanoTime() from when the flight was requested
+   * @param cacheHit true if the flight's answer came from the cache
+   */
+  public void record(ClientResponse response, long startNs, boolean cacheHit) {
+
+    long endToEndUs = (System.nanoTime() - startNs) / 1000;
+    long clientUs = response.getClientRoundtripNanos() / 1000;
+    long clusterUs = response.getClusterRoundtrip() * 1000L;
+
+    if (cacheHit) {
+      hitEndToEnd.recordValue(endToEndUs);
+      hitClient.recordValue(clientUs);
+      hitCluster.recordValue(clusterUs);
+    } else {
+      missEndToEnd.recordValue(endToEndUs);
+      missClient.recordValue(clientUs);
+      missCluster.recordValue(clusterUs);
+    }
+  }
+
+  /**
+   * @return How many responses were answered from the cache.
+   */
+  public long getHitCount() {
+    return hitEndToEnd.getTotalCount();
+  }
+
+  /**
+   * @return How many responses needed the model.
+   */
+  public long getMissCount() {
+    return missEndToEnd.getTotalCount();
+  }
+
+  /**
+   * @param cacheHit   true for cache hits, false for misses
+   * @param percentile a number between 0 and 100
+   * @return The end to end latency, in microseconds, that 'percentile' percent
+   *         of calls were faster than. 0 if we have no data.
+   */
+  public long getEndToEndPercentileUs(boolean cacheHit, double percentile) {
+    return (cacheHit ? hitEndToEnd : missEndToEnd).getValueAtPercentile(percentile);
+  }
+
+  /**
+   * @return A list of report lines, one per histogram.
+   */
+  public ArrayList<String> getReport() {
+
+    ArrayList<String> report = new ArrayList<String>();
+
+    long total = getHitCount() + getMissCount();
+    report.add("Latency report: " + total + " calls, " + getHitCount() + " cache hits ("
+        + (total == 0 ? 0 : (getHitCount() * 100 / total)) + "%), " + getMissCount() + " cache misses");
+    report.add(hitEndToEnd.toSummaryString());
+    report.add(hitClient.toSummaryString());
+    report.add(hitCluster.toSummaryString());
+    report.add(missEndToEnd.toSummaryString());
+    report.add(missClient.toSummaryString());
+    report.add(missCluster.toSummaryString());
+
+    return report;
+  }
+
+}
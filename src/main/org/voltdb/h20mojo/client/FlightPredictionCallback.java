@@ -0,0 +1,91 @@
+package org.voltdb.h20mojo.client;
+
+/* This file is part of VoltDB.
+ * Copyright (C) 2008-2019 VoltDB Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.voltdb.client.ClientResponse;
+import org.voltdb.client.ProcedureCallback;
+
+/**
+ * Callback used when we call IsFlightLate asynchronously. Each callback owns
+ * one permit from the 'in flight' semaphore and gives it back when the
+ * response arrives, which is how the client keeps a fixed number of calls
+ * outstanding.
+ *
+ * Callbacks run on the VoltDB client's network thread, so they need to be
+ * quick and thread safe. Successful calls have their latency recorded in a
+ * FlightLatencyStats.
+ *
+ */
+public class FlightPredictionCallback implements ProcedureCallback {
+
+  private static Logger logger = LoggerFactory.getLogger(FlightPredictionCallback.class);
+
+  private final Semaphore inFlight;
+  private final AtomicLong okCount;
+  private final AtomicLong errorCount;
+  private final FlightLatencyStats stats;
+  private final long startNs;
+
+  /**
+   * @param inFlight   Semaphore we release a permit on when the call completes
+   * @param okCount    Counter of successful calls
+   * @param errorCount Counter of failed calls
+   * @param stats      Where we record latency
+   * @param startNs    System.nanoTime() from just before the call was made
+   */
+  public FlightPredictionCallback(Semaphore inFlight, AtomicLong okCount, AtomicLong errorCount,
+      FlightLatencyStats stats, long startNs) {
+    super();
+    this.inFlight = inFlight;
+    this.okCount = okCount;
+    this.errorCount = errorCount;
+    this.stats = stats;
+    this.startNs = startNs;
+  }
+
+  @Override
+  public void clientCallback(ClientResponse response) throws Exception {
+
+    try {
+      if (response.getStatus() == ClientResponse.SUCCESS) {
+        okCount.incrementAndGet();
+        stats.record(response, startNs);
+      } else {
+        // Don't flood the log if the cluster goes away...
+        if (errorCount.incrementAndGet() % 1000 == 1) {
+          logger.error("IsFlightLate failed: " + response.getStatusString());
+        }
+      }
+    } finally {
+      inFlight.release();
+    }
+
+  }
+
+}
@@ -0,0 +1,101 @@
+package org.voltdb.h20mojo.client;
+
+/* This file is part of VoltDB.
+ * Copyright (C) 2008-2019 VoltDB Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+import java.util.Random;
+
+/**
+ * Decides which flights the client asks about. Implementations build all the
+ * Strings they will ever return up front, so picking a flight doesn't
+ * allocate anything.
+ * <p>
+ * Use create() to get one from a spec on the command line:
+ * <ul>
+ * <li>'uniform' - UniformFlightWorkload, which is what the client has always
+ * done.</li>
+ * <li>'zipf' or 'zipf:option=value,...' - SkewedFlightWorkload. See it for
+ * the options.</li>
+ * <li>'replay:file=...,option=value,...' - CsvReplayWorkload, which replays
+ * an FAA on-time CSV file.</li>
+ * </ul>
+ *
+ */
+public interface FlightWorkload {
+
+  // Where each field goes in the array nextFlight() fills in. This is the
+  // order IsFlightLate takes them in.
+  public static final int ORIGIN = 0;
+  public static final int DEP_TIME = 1;
+  public static final int YEAR = 2;
+  public static final int MONTH = 3;
+  public static final int DAY_OF_MONTH = 4;
+  public static final int DAY_OF_WEEK = 5;
+  public static final int CARRIER = 6;
+  public static final int DEST = 7;
+  public static final int FIELD_COUNT = 8;
+
+  /**
+   * Pick the next flight to ask about.
+   * 
+   * @param r      Random number generator to use
+   * @param flight An array of at least FIELD_COUNT elements, which we fill in
+   */
+  public void nextFlight(Random r, String[] flight);
+
+  /**
+   * @return true if there are no more flights, for workloads that can run
+   *         out. Don't call nextFlight() after this returns true.
+   */
+  public default boolean isFinished() {
+    return false;
+  }
+
+  /**
+   * @param spec 'uniform', 'zipf', 'zipf:option=value,...' or
+   *             'replay:file=...,option=value,...'
+   * @return The workload 'spec' describes
+   * @throws IllegalArgumentException if we don't understand 'spec'
+   */
+  public static FlightWorkload create(String spec) {
+
+    if (spec == null || spec.equalsIgnoreCase("uniform")) {
+      return new UniformFlightWorkload();
+    }
+
+    if (spec.equalsIgnoreCase("zipf")) {
+      return new SkewedFlightWorkload("");
+    }
+
+    if (spec.toLowerCase().startsWith("zipf:")) {
+      return new SkewedFlightWorkload(spec.substring("zipf:".length()));
+    }
+
+    if (spec.toLowerCase().startsWith("replay:")) {
+      return new CsvReplayWorkload(spec.substring("replay:".length()));
+    }
+
+    throw new IllegalArgumentException(
+        "Unknown workload '" + spec + "'. Use 'uniform', 'zipf[:option=value,...]' or 'replay:file=...'");
+  }
+
+}
@@ -0,0 +1,172 @@
+package org.voltdb.h20mojo.client;
+
+/* This file is part of VoltDB.
+ * Copyright (C) 2008-2019 VoltDB Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import org.voltdb.InProcessVoltDBServer;
+
+/**
+ * End to end performance check that doesn't need a cluster. We start VoltDB
+ * inside this JVM, deploy the schema, procedures and model the same way the
+ * client does, run the client's async workload against IsFlightLate and then
+ * check the results against a set of floors. The exit status is 0 if every
+ * floor was met and 1 if any wasn't, so this can be run from a script or CI
+ * job to catch regressions in the procedure, the cache SQL or the wrangler.
+ * <p>
+ * Usage: InProcessPerformanceTest [durationSeconds] [minTps]
+ * [maxHitP99Ms] [maxMissP99Ms] [maxInFlight] [partitionCount]
+ * <p>
+ * The model zip file needs to be on the class path next to the procedures, as
+ * it does for the client. VoltDB's native library only runs on Linux, and
+ * VoltDB listens on its usual ports, so nothing else can be using them.
+ * Numbers from one box running both the client and the server are only
+ * comparable with other runs on the same box.
+ *
+ */
+public class InProcessPerformanceTest {
+
+  public static void main(String[] args) {
+
+    VoltDBH2OMojoClient.msg("Parameters:" + Arrays.toString(args));
+
+    int durationSeconds = 60;
+    long minTps = 1000;
+    double maxHitP99Ms = 20;
+    double maxMissP99Ms = 50;
+    int maxInFlight = 50;
+    int partitionCount = 4;
+
+    if (args.length > 0) {
+      durationSeconds = Integer.parseInt(args[0]);
+    }
+
+    if (args.length > 1) {
+      minTps = Long.parseLong(args[1]);
+    }
+
+    if (args.length > 2) {
+      maxHitP99Ms = Double.parseDouble(args[2]);
+    }
+
+    if (args.length > 3) {
+      maxMissP99Ms = Double.parseDouble(args[3]);
+    }
+
+    if (args.length > 4) {
+      maxInFlight = Integer.parseInt(args[4]);
+    }
+
+    if (args.length > 5) {
+      partitionCount = Integer.parseInt(args[5]);
+    }
+
+    ArrayList<String> failures = new ArrayList<String>();
+    InProcessVoltDBServer server = null;
+
+    try {
+
+      VoltDBH2OMojoClient.msg("Starting in process VoltDB with " + partitionCount + " partitions");
+      server = new InProcessVoltDBServer().configPartitionCount(partitionCount).start();
+
+      VoltDBH2OMojoClient mc = new VoltDBH2OMojoClient("localhost");
+      mc.createSchemaIfNeeded();
+
+      // Give the JIT and the cache a head start, and then forget about it...
+      VoltDBH2OMojoClient.msg("Warming up");
+      mc.runAsyncBenchmark(Math.max(1, durationSeconds / 4), maxInFlight, 0, 0, 0);
+      mc.latencyStats = new FlightLatencyStats();
+
+      VoltDBH2OMojoClient.msg("Measuring");
+      mc.runAsyncBenchmark(durationSeconds, maxInFlight, 0, 0, 0);
+      mc.reportLatency();
+
+      check(failures, "errors", mc.lastRunErrorCount, 0, false);
+      check(failures, "TPS", mc.lastRunTps, minTps, true);
+      checkLatency(failures, "cache hits", mc.latencyStats, true, maxHitP99Ms);
+      checkLatency(failures, "cache misses", mc.latencyStats, false, maxMissP99Ms);
+
+      mc.disconnect();
+
+    } catch (Exception e) {
+      failures.add(e.getClass().getName() + ":" + e.getMessage());
+    } finally {
+      if (server != null) {
+        server.shutdown();
+      }
+    }
+
+    if (failures.isEmpty()) {
+      VoltDBH2OMojoClient.msg("PASSED");
+      System.exit(0);
+    }
+
+    for (String failure : failures) {
+      VoltDBH2OMojoClient.msg("FAILED: " + failure);
+    }
+
+    System.exit(1);
+  }
+
+  /**
+   * Add a message to 'failures' if 'value' is on the wrong side of 'limit'.
+   * 
+   * @param failures Where we record failures
+   * @param name     What 'value' is
+   * @param value    What we saw
+   * @param limit    The floor or ceiling
+   * @param isFloor  true if 'value' must be at least 'limit', false if it must
+   *                 be at most 'limit'
+   */
+  private static void check(ArrayList<String> failures, String name, long value, long limit, boolean isFloor) {
+
+    if (isFloor ? value < limit : value > limit) {
+      failures.add(name + " was " + value + ", " + (isFloor ? "minimum" : "maximum") + " is " + limit);
+    } else {
+      VoltDBH2OMojoClient.msg(name + " was " + value + ", OK");
+    }
+  }
+
+  /**
+   * Check the p99 end to end latency of cache hits or misses. If we didn't see
+   * any we've nothing to check.
+   */
+  private static void checkLatency(ArrayList<String> failures, String name, FlightLatencyStats stats,
+      boolean cacheHit, double maxP99Ms) {
+
+    if ((cacheHit ? stats.getHitCount() : stats.getMissCount()) == 0) {
+      VoltDBH2OMojoClient.msg("No " + name + " seen");
+      return;
+    }
+
+    double p99Ms = stats.getEndToEndPercentileUs(cacheHit, 99) / 1000.0;
+
+    if (p99Ms > maxP99Ms) {
+      failures.add(name + " p99 was " + p99Ms + "ms, maximum is " + maxP99Ms + "ms");
+    } else {
+      VoltDBH2OMojoClient.msg(name + " p99 was " + p99Ms + "ms, OK");
+    }
+  }
+
+}
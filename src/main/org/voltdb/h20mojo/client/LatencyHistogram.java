@@ -0,0 +1,192 @@
+package org.voltdb.h20mojo.client;
+
+/* This file is part of VoltDB.
+ * Copyright (C) 2008-2019 VoltDB Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A thread safe latency histogram in the style of HdrHistogram. Values are
+ * recorded in microseconds. Values below 256us get a bucket each; above that
+ * each power of two is split into 128 buckets, so any value we report is
+ * within 1% of what was recorded, all the way up to 2^40us.
+ *
+ * Recording is lock free and doesn't allocate, so it's safe to call from VoltDB
+ * client callbacks.
+ *
+ */
+public class LatencyHistogram {
+
+  private static final int SUB_BUCKET_BITS = 8;
+  private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+  private static final int SUB_BUCKET_HALF = SUB_BUCKET_COUNT / 2;
+  private static final int MAX_VALUE_BITS = 40;
+  private static final long MAX_VALUE = (1L << MAX_VALUE_BITS) - 1;
+  private static final int BUCKET_COUNT = SUB_BUCKET_COUNT
+      + ((MAX_VALUE_BITS - SUB_BUCKET_BITS) * SUB_BUCKET_HALF);
+
+  private final String name;
+  private final AtomicLongArray counts = new AtomicLongArray(BUCKET_COUNT);
+  private final AtomicLong totalCount = new AtomicLong();
+  private final AtomicLong maxValue = new AtomicLong();
+
+  /**
+   * @param name What we call this histogram in reports.
+   */
+  public LatencyHistogram(String name) {
+    super();
+    this.name = name;
+  }
+
+  /**
+   * Record a value.
+   *
+   * @param valueUs latency in microseconds. Negative values are treated as 0,
+   *                values above 2^40us are capped.
+   */
+  public void recordValue(long valueUs) {
+
+    if (valueUs < 0) {
+      valueUs = 0;
+    } else if (valueUs > MAX_VALUE) {
+      valueUs = MAX_VALUE;
+    }
+
+    counts.incrementAndGet(indexFor(valueUs));
+    totalCount.incrementAndGet();
+
+    long currentMax = maxValue.get();
+    while (valueUs > currentMax && !maxValue.compareAndSet(currentMax, valueUs)) {
+      currentMax = maxValue.get();
+    }
+  }
+
+  /**
+   * @return how many values we've recorded.
+   */
+  public long getTotalCount() {
+    return totalCount.get();
+  }
+
+  /**
+   * @return the largest value we've recorded, in microseconds.
+   */
+  public long getMaxValue() {
+    return maxValue.get();
+  }
+
+  /**
+   * @param percentile a number between 0 and 100
+   * @return The value (in microseconds) that 'percentile' percent of recorded
+   *         values are less than or equal to. Returns 0 if we have no data.
+   */
+  public long getValueAtPercentile(double percentile) {
+
+    long total = totalCount.get();
+
+    if (total == 0) {
+      return 0;
+    }
+
+    long target = (long) Math.ceil((percentile / 100) * total);
+
+    if (target < 1) {
+      target = 1;
+    }
+
+    long seen = 0;
+
+    for (int i = 0; i < BUCKET_COUNT; i++) {
+      seen += counts.get(i);
+      if (seen >= target) {
+        return Math.min(highestValueFor(i), maxValue.get());
+      }
+    }
+
+    return maxValue.get();
+  }
+
+  /**
+   * @return A one line summary of the form 'name: count=... p50=... p99=...
+   *         p99.9=... max=...', with values in milliseconds.
+   */
+  public String toSummaryString() {
+
+    StringBuffer b = new StringBuffer(name);
+    b.append(": count=");
+    b.append(getTotalCount());
+
+    if (getTotalCount() > 0) {
+      b.append(" p50=");
+      b.append(formatMs(getValueAtPercentile(50)));
+      b.append(" p99=");
+      b.append(formatMs(getValueAtPercentile(99)));
+      b.append(" p99.9=");
+      b.append(formatMs(getValueAtPercentile(99.9)));
+      b.append(" max=");
+      b.append(formatMs(getMaxValue()));
+    }
+
+    return b.toString();
+  }
+
+  private static String formatMs(long valueUs) {
+    return String.format("%.3fms", valueUs / 1000.0);
+  }
+
+  /**
+   * Map a value to a bucket. Values below SUB_BUCKET_COUNT map to themselves.
+   * Larger values are shifted right until they fit in
+   * [SUB_BUCKET_HALF,SUB_BUCKET_COUNT), and the shift tells us which group of
+   * SUB_BUCKET_HALF buckets to use.
+   */
+  static int indexFor(long value) {
+
+    if (value < SUB_BUCKET_COUNT) {
+      return (int) value;
+    }
+
+    int shift = (63 - Long.numberOfLeadingZeros(value)) - (SUB_BUCKET_BITS - 1);
+    int subBucket = (int) (value >>> shift);
+
+    return SUB_BUCKET_COUNT + ((shift - 1) * SUB_BUCKET_HALF) + (subBucket - SUB_BUCKET_HALF);
+  }
+
+  /**
+   * @return The largest value that maps to bucket 'index'.
+   */
+  static long highestValueFor(int index) {
+
+    if (index < SUB_BUCKET_COUNT) {
+      return index;
+    }
+
+    int offset = index - SUB_BUCKET_COUNT;
+    int shift = (offset / SUB_BUCKET_HALF) + 1;
+    long subBucket = (offset % SUB_BUCKET_HALF) + SUB_BUCKET_HALF;
+
+    return ((subBucket + 1) << shift) - 1;
+  }
+
+}
@@ -0,0 +1,213 @@
+package org.voltdb.h20mojo.client;
+
+/* This file is part of VoltDB.
+ * Copyright (C) 2008-2019 VoltDB Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.CRC32;
+
+import org.voltdb.VoltTable;
+import org.voltdb.client.Client;
+import org.voltdb.client.ClientResponse;
+import org.voltdb.client.ProcedureCallback;
+import org.voltdb.types.TimestampType;
+
+/**
+ * Deploys a new version of a model without @UpdateClasses.
+ * <p>
+ * The zip file is cut into chunks, which are inserted into MODEL_CHUNKS in
+ * parallel. Once they're all there we add a row to MODEL_VERSIONS describing
+ * them and call LoadModelVersion on every partition, so every server has the
+ * new version loaded before anything uses it. Read write procedures never
+ * read MODEL_CHUNKS themselves (see ModelVersions), so this has to happen
+ * first. Only then do we call ActivateModelVersion. The procedures pick up
+ * the new version in their next miss, and we finish by calling WarmUpModel
+ * on every partition.
+ * <p>
+ * Because nothing goes through @UpdateClasses the model isn't limited by the
+ * size of the procedure JAR, and deploying it doesn't reload every class in
+ * the cluster.
+ * <p>
+ * Usage: ModelUploader hostnames zipFile [modelName] [chunkKb]
+ * <p>
+ * modelName defaults to the name of the zip file, which is what IsFlightLate
+ * looks for. chunkKb defaults to 512 and can't be more than 1024.
+ *
+ */
+public class ModelUploader {
+
+  public static void main(String[] args) {
+
+    VoltDBH2OMojoClient.msg("Parameters:" + Arrays.toString(args));
+
+    if (args.length < 2) {
+      VoltDBH2OMojoClient.msg("Usage: ModelUploader hostnames zipFile [modelName] [chunkKb]");
+      System.exit(1);
+    }
+
+    File zipFile = new File(args[1]);
+    String modelName = args.length > 2 ? args[2] : zipFile.getName();
+    int chunkBytes = (args.length > 3 ? Integer.parseInt(args[3]) : 512) * 1024;
+
+    if (chunkBytes <= 0 || chunkBytes > 1024 * 1024) {
+      VoltDBH2OMojoClient.msg("chunkKb must be between 1 and 1024");
+      System.exit(1);
+    }
+
+    try {
+
+      VoltDBH2OMojoClient mc = new VoltDBH2OMojoClient(args[0]);
+      mc.createSchemaIfNeeded();
+
+      long version = upload(mc.client, zipFile, modelName, chunkBytes);
+
+      if (version >= 0) {
+        mc.warmUp();
+      }
+
+      mc.client.drain();
+      mc.client.close();
+
+    } catch (Exception e) {
+      VoltDBH2OMojoClient.msg(e.getClass().getName() + ":" + e.getMessage());
+    }
+
+    VoltDBH2OMojoClient.msg("Finished");
+
+  }
+
+  /**
+   * Upload and activate a new version of a model.
+   * 
+   * @return the new version, or -1 if the upload failed
+   * @throws Exception
+   */
+  static long upload(Client client, File zipFile, String modelName, int chunkBytes) throws Exception {
+
+    final long startMs = System.currentTimeMillis();
+
+    byte[] zipBytes = Files.readAllBytes(zipFile.toPath());
+
+    CRC32 crc = new CRC32();
+    crc.update(zipBytes, 0, zipBytes.length);
+
+    // Versions only need to be unique and increasing...
+    final long version = startMs;
+    final int chunkCount = (zipBytes.length + chunkBytes - 1) / chunkBytes;
+    final AtomicLong errorCount = new AtomicLong();
+
+    VoltDBH2OMojoClient.msg("Uploading " + zipBytes.length + " bytes of " + modelName + " as version " + version
+        + " in " + chunkCount + " chunks");
+
+    ProcedureCallback cb = new ProcedureCallback() {
+      @Override
+      public void clientCallback(ClientResponse response) throws Exception {
+        if (response.getStatus() != ClientResponse.SUCCESS && errorCount.incrementAndGet() == 1) {
+          VoltDBH2OMojoClient.msg("Chunk upload failed: " + response.getStatusString());
+        }
+      }
+    };
+
+    for (int i = 0; i < chunkCount; i++) {
+
+      byte[] chunk = Arrays.copyOfRange(zipBytes, i * chunkBytes, Math.min((i + 1) * chunkBytes, zipBytes.length));
+
+      if (!client.callProcedure(cb, "MODEL_CHUNKS.insert", modelName, version, i, chunk)) {
+        errorCount.incrementAndGet();
+      }
+    }
+
+    client.drain();
+
+    if (errorCount.get() > 0) {
+      VoltDBH2OMojoClient.msg(errorCount.get() + " chunks failed to upload. Version " + version
+          + " has not been activated.");
+      return -1;
+    }
+
+    client.callProcedure("MODEL_VERSIONS.insert", modelName, version, chunkCount, zipBytes.length, crc.getValue(),
+        new TimestampType());
+
+    if (!loadOnAllPartitions(client, modelName, version)) {
+      VoltDBH2OMojoClient.msg("Version " + version + " has not been activated.");
+      return -1;
+    }
+
+    VoltTable activated = client.callProcedure("ActivateModelVersion", modelName, version).getResults()[0];
+    activated.advanceRow();
+
+    VoltDBH2OMojoClient.msg("Version " + version + " of " + modelName + " (checksum "
+        + Long.toHexString(crc.getValue()) + ") activated in " + (System.currentTimeMillis() - startMs)
+        + "ms. Previous version was " + activated.getLong("PREVIOUS_VERSION"));
+
+    return version;
+  }
+
+  /**
+   * Call LoadModelVersion on every partition, and then check MODEL_LOADS to
+   * make sure they all loaded it.
+   * 
+   * @return true if every partition has loaded 'version' of 'modelName'
+   * @throws Exception
+   */
+  static boolean loadOnAllPartitions(Client client, String modelName, long version) throws Exception {
+
+    final long startMs = System.currentTimeMillis();
+    final AtomicLong errorCount = new AtomicLong();
+
+    ProcedureCallback cb = new ProcedureCallback() {
+      @Override
+      public void clientCallback(ClientResponse response) throws Exception {
+        if (response.getStatus() != ClientResponse.SUCCESS && errorCount.incrementAndGet() == 1) {
+          VoltDBH2OMojoClient.msg("LoadModelVersion failed: " + response.getStatusString());
+        }
+      }
+    };
+
+    VoltTable partitionKeys = client.callProcedure("@GetPartitionKeys", "STRING").getResults()[0];
+
+    while (partitionKeys.advanceRow()) {
+      if (!client.callProcedure(cb, "LoadModelVersion", partitionKeys.getString("PARTITION_KEY"), modelName,
+          version)) {
+        errorCount.incrementAndGet();
+      }
+    }
+
+    client.drain();
+
+    VoltTable loads = client.callProcedure("@AdHoc",
+        "SELECT COUNT(*) FROM MODEL_LOADS WHERE model_name = ? AND version = ?;", modelName, version)
+        .getResults()[0];
+    loads.advanceRow();
+    final long loadedCount = loads.getLong(0);
+
+    VoltDBH2OMojoClient.msg("Version " + version + " of " + modelName + " loaded on " + loadedCount + " of "
+        + partitionKeys.getRowCount() + " partitions in " + (System.currentTimeMillis() - startMs) + "ms");
+
+    return errorCount.get() == 0 && loadedCount == partitionKeys.getRowCount();
+  }
+
+}
@@ -0,0 +1,335 @@
+package org.voltdb.h20mojo.client;
+
+/* This file is part of VoltDB.
+ * Copyright (C) 2008-2019 VoltDB Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.voltdb.VoltTable;
+import org.voltdb.client.Client;
+import org.voltdb.client.ClientResponse;
+import org.voltdb.client.ProcCallException;
+import org.voltdb.client.VoltBulkLoader.VoltBulkLoader;
+import org.voltdb.types.TimestampType;
+
+import hex.genmodel.easy.EasyPredictModelWrapper;
+import ie.voltdb.h2outil.BinomialScorer;
+import ie.voltdb.h2outil.SharedMojoModel;
+import mojoprocs.IsFlightLate;
+
+/**
+ * Reads a flight schedule, works out whether each flight will be late and
+ * loads the answers into CACHED_RESULTS before anyone asks, so the first
+ * request for each flight on the day is a cache hit.
+ * <p>
+ * The schedule is a CSV file with one flight per line:
+ * 
+ * <pre>
+ * origin,dest,carrier,yyyy-mm-dd,HHMM
+ * </pre>
+ * 
+ * Blank lines, lines starting with '#' and a header line starting with
+ * 'origin' are skipped.
+ * <p>
+ * Scoring is done here, on every core we have, with the same version of the
+ * model IsFlightLate is using. Rows are sent with VoltBulkLoader, which
+ * groups them by partition, and are upserted, so loading a schedule again
+ * after a new model version is activated replaces the old answers.
+ * <p>
+ * CACHED_RESULTS has a TTL on last_used, so a row we loaded with the current
+ * time would be gone in 5 minutes. Instead we set last_used to the flight's
+ * scheduled departure, taken as UTC, or to now if that has passed. usage_count
+ * starts at 0, so cache_effectiveness shows how many were never asked for.
+ * <p>
+ * Usage: ScheduleLoader hostnames scheduleFile [threads] [batchSize]
+ *
+ */
+public class ScheduleLoader {
+
+  private static final String TABLE_NAME = "CACHED_RESULTS";
+
+  private final Client client;
+  private final int threadCount;
+  private final int batchSize;
+
+  private final AtomicLong scoredCount = new AtomicLong();
+  private final AtomicLong badLineCount = new AtomicLong();
+  private final AtomicLong failedCount = new AtomicLong();
+
+  /**
+   * @param client      A connected client
+   * @param threadCount How many threads to score with
+   * @param batchSize   How many rows VoltBulkLoader sends at a time
+   */
+  public ScheduleLoader(Client client, int threadCount, int batchSize) {
+    super();
+    this.client = client;
+    this.threadCount = threadCount;
+    this.batchSize = batchSize;
+  }
+
+  public static void main(String[] args) {
+
+    VoltDBH2OMojoClient.msg("Parameters:" + Arrays.toString(args));
+
+    if (args.length < 2) {
+      VoltDBH2OMojoClient.msg("Usage: ScheduleLoader hostnames scheduleFile [threads] [batchSize]");
+      System.exit(1);
+    }
+
+    String hostnames = args[0];
+    String scheduleFile = args[1];
+    int threadCount = Runtime.getRuntime().availableProcessors();
+    int batchSize = 200;
+
+    if (args.length > 2) {
+      threadCount = Integer.parseInt(args[2]);
+    }
+
+    if (args.length > 3) {
+      batchSize = Integer.parseInt(args[3]);
+    }
+
+    try {
+
+      Client client = VoltDBH2OMojoClient.connectVoltDB(hostnames);
+      ScheduleLoader loader = new ScheduleLoader(client, threadCount, batchSize);
+
+      loader.load(readSchedule(scheduleFile));
+
+      client.drain();
+      client.close();
+
+    } catch (Exception e) {
+      VoltDBH2OMojoClient.msg(e.getClass().getName() + ":" + e.getMessage());
+      System.exit(1);
+    }
+
+    VoltDBH2OMojoClient.msg("Finished");
+  }
+
+  /**
+   * @param scheduleFile name of a schedule file
+   * @return Its flights, one line each
+   * @throws IOException
+   */
+  static ArrayList<String> readSchedule(String scheduleFile) throws IOException {
+
+    ArrayList<String> lines = new ArrayList<String>();
+
+    try (BufferedReader reader = new BufferedReader(new FileReader(scheduleFile))) {
+
+      String line;
+
+      while ((line = reader.readLine()) != null) {
+
+        line = line.trim();
+
+        if (line.length() > 0 && !line.startsWith("#") && !line.toLowerCase().startsWith("origin")) {
+          lines.add(line);
+        }
+      }
+    }
+
+    return lines;
+  }
+
+  /**
+   * Score every flight in 'schedule' and load the answers.
+   * 
+   * @param schedule Lines from a schedule file
+   * @return how many rows were loaded
+   * @throws Exception
+   */
+  public long load(ArrayList<String> schedule) throws Exception {
+
+    final long startMs = System.currentTimeMillis();
+    final SharedMojoModel sharedModel = getActiveModel();
+
+    VoltDBH2OMojoClient.msg("Scoring " + schedule.size() + " flights with " + sharedModel + " on " + threadCount
+        + " threads");
+
+    VoltBulkLoader bulkLoader = client.getNewBulkLoader(TABLE_NAME, batchSize, true,
+        (rowHandle, fieldList, response) -> {
+          // Don't flood the log if the cluster goes away...
+          if (failedCount.incrementAndGet() % 1000 == 1) {
+            VoltDBH2OMojoClient.msg("Load of " + rowHandle + " failed: " + response.getStatusString());
+          }
+        });
+
+    ExecutorService executor = Executors.newFixedThreadPool(threadCount);
+    ArrayList<Future<?>> futures = new ArrayList<Future<?>>();
+    final int sliceSize = (schedule.size() + threadCount - 1) / threadCount;
+
+    for (int i = 0; i < threadCount; i++) {
+
+      final int first = i * sliceSize;
+      final int last = Math.min(first + sliceSize, schedule.size());
+
+      futures.add(executor.submit(() -> {
+        scoreAndLoad(sharedModel, schedule, first, last, bulkLoader);
+        return null;
+      }));
+    }
+
+    try {
+      for (Future<?> future : futures) {
+        future.get();
+      }
+    } finally {
+      executor.shutdown();
+    }
+
+    bulkLoader.drain();
+    bulkLoader.close();
+
+    long loaded = scoredCount.get() - failedCount.get();
+
+    VoltDBH2OMojoClient.msg(loaded + " rows loaded, " + failedCount.get() + " failed, " + badLineCount.get()
+        + " lines skipped in " + (System.currentTimeMillis() - startMs) + "ms");
+
+    return loaded;
+  }
+
+  /**
+   * Score lines first to last - 1 of 'schedule' and pass them to
+   * 'bulkLoader'. Each thread has its own scorer and wrapper, as neither is
+   * thread safe. The model itself is shared.
+   */
+  private void scoreAndLoad(SharedMojoModel sharedModel, ArrayList<String> schedule, int first, int last,
+      VoltBulkLoader bulkLoader) throws InterruptedException {
+
+    final BinomialScorer scorer = IsFlightLate.createScorer(sharedModel);
+    final EasyPredictModelWrapper modelWrapper = new EasyPredictModelWrapper(sharedModel.getModel());
+    final long nowMicros = System.currentTimeMillis() * 1000;
+
+    for (int i = first; i < last; i++) {
+
+      String[] fields = schedule.get(i).split(",");
+
+      if (fields.length != 5) {
+        badLine(schedule.get(i), "expected 5 fields");
+        continue;
+      }
+
+      String origin = fields[0].trim();
+      String dest = fields[1].trim();
+      String uniqueCarrier = fields[2].trim();
+      String cRSDepTime = fields[4].trim();
+      LocalDate date;
+
+      try {
+
+        date = LocalDate.parse(fields[3].trim());
+
+        while (cRSDepTime.length() < 4) {
+          cRSDepTime = "0" + cRSDepTime;
+        }
+
+        if (Integer.parseInt(cRSDepTime) % 100 > 59 || Integer.parseInt(cRSDepTime) / 100 > 23) {
+          throw new IllegalArgumentException(cRSDepTime);
+        }
+
+      } catch (RuntimeException e) {
+        badLine(schedule.get(i), e.getMessage());
+        continue;
+      }
+
+      // Use the same canonical forms the client sends, which are what
+      // IsFlightLate looks for in the cache...
+      String year = Integer.toString(date.getYear());
+      String month = Integer.toString(date.getMonthValue());
+      String dayOfMonth = Integer.toString(date.getDayOfMonth());
+      String dayOfWeek = Integer.toString(date.getDayOfWeek().getValue());
+
+      String result;
+
+      try {
+
+        result = IsFlightLate.predictLabel(scorer, modelWrapper, origin, cRSDepTime, year, month, dayOfMonth,
+            dayOfWeek, uniqueCarrier, dest);
+
+      } catch (Exception e) {
+        badLine(schedule.get(i), e.getMessage());
+        continue;
+      }
+
+      long departureMicros = LocalDateTime
+          .of(date.getYear(), date.getMonthValue(), date.getDayOfMonth(), Integer.parseInt(cRSDepTime) / 100,
+              Integer.parseInt(cRSDepTime) % 100)
+          .toEpochSecond(ZoneOffset.UTC) * 1000000;
+
+      scoredCount.incrementAndGet();
+      bulkLoader.insertRow(i, origin, dest, cRSDepTime, year, month, dayOfMonth, dayOfWeek, uniqueCarrier, result,
+          new TimestampType(Math.max(nowMicros, departureMicros)), 0);
+    }
+  }
+
+  private void badLine(String line, String reason) {
+
+    // Don't flood the log if the whole file is wrong...
+    if (badLineCount.incrementAndGet() <= 10) {
+      VoltDBH2OMojoClient.msg("Skipping '" + line + "': " + reason);
+    }
+  }
+
+  /**
+   * @return The version of IsFlightLate's model in MODEL_ACTIVE, or the one in
+   *         our JAR if there isn't one, so we give the same answers it would.
+   * @throws Exception
+   */
+  private SharedMojoModel getActiveModel() throws Exception {
+
+    final VoltTable activeModel = client
+        .callProcedure("@AdHoc", IsFlightLate.getActiveModel.getText(), IsFlightLate.modelZipFileName)
+        .getResults()[0];
+
+    return IsFlightLate.getSharedModel(activeModel, (firstChunkId, chunkCount) -> {
+
+      try {
+
+        activeModel.resetRowPosition();
+        activeModel.advanceRow();
+
+        ClientResponse cr = client.callProcedure("@AdHoc", IsFlightLate.getModelChunks.getText(),
+            IsFlightLate.modelZipFileName, activeModel.getLong("VERSION"), firstChunkId, firstChunkId + chunkCount);
+
+        return IsFlightLate.getChunks(cr.getResults()[0], firstChunkId, chunkCount);
+
+      } catch (ProcCallException e) {
+        throw new IOException(e.getMessage(), e);
+      }
+    });
+  }
+
+}
@@ -0,0 +1,294 @@
+package org.voltdb.h20mojo.client;
+
+/* This file is part of VoltDB.
+ * Copyright (C) 2008-2019 VoltDB Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+import java.time.LocalDate;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Random;
+
+/**
+ * A workload that looks more like real traffic than UniformFlightWorkload.
+ * <p>
+ * We start by making a pool of 'keys' different flights. Origins are picked
+ * with a Zipf distribution, so a few big airports have most of the flights
+ * and their partitions get most of the work. Carriers follow a weighted mix,
+ * departure times follow a typical day with morning and evening peaks, and
+ * dates are spread over 'days' days from 'start'. Requests then pick flights
+ * from the pool with a second Zipf distribution, so a few flights are asked
+ * about all the time and most hardly ever.
+ * <p>
+ * Options are given as 'name=value' pairs separated by commas:
+ * <ul>
+ * <li>keys - how many different flights there are. Default 100000.</li>
+ * <li>s - Zipf exponent for picking flights. 0 is uniform, higher is more
+ * skewed. Default 1.0.</li>
+ * <li>originSkew - Zipf exponent for picking origins. Default 1.0.</li>
+ * <li>days - how many days the flights are spread over. Default 7.</li>
+ * <li>start - first day, as yyyy-mm-dd. Default 1987-10-12.</li>
+ * <li>carriers - carriers and their weights, as 'AA:15/DL:15/...'.</li>
+ * <li>seed - seed for building the pool, so two runs with the same options
+ * ask about the same flights. Default 42.</li>
+ * </ul>
+ * Everything is built in the constructor. nextFlight() only does a binary
+ * search and some array lookups.
+ *
+ */
+public class SkewedFlightWorkload implements FlightWorkload {
+
+  /**
+   * Carriers flying in 1987, roughly in proportion to how many flights each
+   * had.
+   */
+  static final String DEFAULT_CARRIERS = "DL:15/AA:13/US:12/UA:12/NW:10/CO:9/TW:8/EA:7/WN:6/PI:4/PS:2/AS:1/HP:1";
+
+  /**
+   * Relative number of departures in each hour of the day.
+   */
+  static final int[] HOURLY_WEIGHTS = { 1, 0, 0, 0, 0, 2, 6, 10, 10, 8, 7, 7, 7, 7, 7, 7, 8, 9, 10, 8, 6, 4, 3, 2 };
+
+  private int keys = 100000;
+  private double s = 1.0;
+  private double originSkew = 1.0;
+  private int days = 7;
+  private LocalDate start = LocalDate.of(1987, 10, 12);
+  private String carriers = DEFAULT_CARRIERS;
+  private long seed = 42;
+
+  /**
+   * The pool of flights: flights[field][i] is field 'field' of flight 'i'.
+   */
+  private final String[][] flights = new String[FIELD_COUNT][];
+
+  /**
+   * Cumulative probability of picking flights 0 to i.
+   */
+  private final double[] cdf;
+
+  /**
+   * @param options Comma separated 'name=value' pairs. May be empty.
+   * @throws IllegalArgumentException if an option isn't valid
+   */
+  public SkewedFlightWorkload(String options) {
+    super();
+
+    parseOptions(options);
+
+    Random poolRandom = new Random(seed);
+    buildPool(poolRandom);
+    cdf = makeZipfCdf(flights[ORIGIN].length, s);
+  }
+
+  private void parseOptions(String options) {
+
+    for (String option : options.split(",")) {
+
+      if (option.trim().length() == 0) {
+        continue;
+      }
+
+      String[] nameAndValue = option.split("=", 2);
+
+      if (nameAndValue.length != 2) {
+        throw new IllegalArgumentException("Expected name=value, got '" + option + "'");
+      }
+
+      String name = nameAndValue[0].trim();
+      String value = nameAndValue[1].trim();
+
+      if (name.equals("keys")) {
+        keys = Integer.parseInt(value);
+      } else if (name.equals("s")) {
+        s = Double.parseDouble(value);
+      } else if (name.equals("originSkew")) {
+        originSkew = Double.parseDouble(value);
+      } else if (name.equals("days")) {
+        days = Integer.parseInt(value);
+      } else if (name.equals("start")) {
+        start = LocalDate.parse(value);
+      } else if (name.equals("carriers")) {
+        carriers = value;
+      } else if (name.equals("seed")) {
+        seed = Long.parseLong(value);
+      } else {
+        throw new IllegalArgumentException("Unknown option '" + name + "'");
+      }
+    }
+
+    if (keys < 1 || days < 1 || s < 0 || originSkew < 0) {
+      throw new IllegalArgumentException("keys and days must be at least 1, s and originSkew can't be negative");
+    }
+  }
+
+  /**
+   * Make 'keys' different flights. If there aren't that many possible flights
+   * we make as many as we can.
+   */
+  private void buildPool(Random poolRandom) {
+
+    final String[] origins = VoltDBH2OMojoClient.getOrigin();
+    final String[] dests = VoltDBH2OMojoClient.getDest();
+    final double[] originCdf = makeZipfCdf(origins.length, originSkew);
+
+    // Carriers and their weights...
+    String[] carrierMix = carriers.split("/");
+    String[] carrierNames = new String[carrierMix.length];
+    double[] carrierCdf = new double[carrierMix.length];
+
+    for (int i = 0; i < carrierMix.length; i++) {
+      String[] nameAndWeight = carrierMix[i].split(":");
+      carrierNames[i] = nameAndWeight[0].trim();
+      carrierCdf[i] = (i == 0 ? 0 : carrierCdf[i - 1])
+          + (nameAndWeight.length > 1 ? Double.parseDouble(nameAndWeight[1]) : 1);
+    }
+
+    normalize(carrierCdf);
+
+    // Departure times, every 5 minutes, weighted by HOURLY_WEIGHTS...
+    String[] depTimes = new String[24 * 12];
+    double[] depTimeCdf = new double[depTimes.length];
+
+    for (int i = 0; i < depTimes.length; i++) {
+      depTimes[i] = String.format("%02d%02d", i / 12, (i % 12) * 5);
+      depTimeCdf[i] = (i == 0 ? 0 : depTimeCdf[i - 1]) + HOURLY_WEIGHTS[i / 12];
+    }
+
+    normalize(depTimeCdf);
+
+    // The date fields for each day, in the same form the client has always
+    // sent them...
+    String[][] dates = new String[days][];
+
+    for (int i = 0; i < days; i++) {
+      LocalDate date = start.plusDays(i);
+      dates[i] = new String[] { Integer.toString(date.getYear()), Integer.toString(date.getMonthValue()),
+          Integer.toString(date.getDayOfMonth()), Integer.toString(date.getDayOfWeek().getValue()) };
+    }
+
+    for (int field = 0; field < FIELD_COUNT; field++) {
+      flights[field] = new String[keys];
+    }
+
+    HashSet<String> seen = new HashSet<String>();
+    int count = 0;
+
+    for (long attempt = 0; count < keys && attempt < keys * 10L; attempt++) {
+
+      String origin = origins[pick(originCdf, poolRandom)];
+      String dest = dests[poolRandom.nextInt(dests.length)];
+
+      if (origin.equals(dest)) {
+        continue;
+      }
+
+      String carrier = carrierNames[pick(carrierCdf, poolRandom)];
+      String depTime = depTimes[pick(depTimeCdf, poolRandom)];
+      String[] date = dates[poolRandom.nextInt(days)];
+
+      if (seen.add(origin + dest + carrier + depTime + date[0] + "-" + date[1] + "-" + date[2])) {
+        flights[ORIGIN][count] = origin;
+        flights[DEST][count] = dest;
+        flights[CARRIER][count] = carrier;
+        flights[DEP_TIME][count] = depTime;
+        flights[YEAR][count] = date[0];
+        flights[MONTH][count] = date[1];
+        flights[DAY_OF_MONTH][count] = date[2];
+        flights[DAY_OF_WEEK][count] = date[3];
+        count++;
+      }
+    }
+
+    if (count < keys) {
+      for (int field = 0; field < FIELD_COUNT; field++) {
+        flights[field] = Arrays.copyOf(flights[field], count);
+      }
+    }
+  }
+
+  /**
+   * @param n        How many items there are
+   * @param exponent Zipf exponent. 0 gives every item the same chance.
+   * @return Cumulative probabilities of items 0 to i, where item i has weight
+   *         1/(i+1)^exponent
+   */
+  static double[] makeZipfCdf(int n, double exponent) {
+
+    double[] cdf = new double[n];
+
+    for (int i = 0; i < n; i++) {
+      cdf[i] = (i == 0 ? 0 : cdf[i - 1]) + (1 / Math.pow(i + 1, exponent));
+    }
+
+    normalize(cdf);
+
+    return cdf;
+  }
+
+  /**
+   * Scale a cumulative array so its last element is exactly 1.
+   */
+  private static void normalize(double[] cdf) {
+
+    final double total = cdf[cdf.length - 1];
+
+    for (int i = 0; i < cdf.length; i++) {
+      cdf[i] /= total;
+    }
+
+    cdf[cdf.length - 1] = 1;
+  }
+
+  /**
+   * @return An index into 'cdf', chosen with the probabilities it describes
+   */
+  private static int pick(double[] cdf, Random r) {
+
+    int i = Arrays.binarySearch(cdf, r.nextDouble());
+
+    return i >= 0 ? i : -(i + 1);
+  }
+
+  @Override
+  public void nextFlight(Random r, String[] flight) {
+
+    final int i = pick(cdf, r);
+
+    for (int field = 0; field < FIELD_COUNT; field++) {
+      flight[field] = flights[field][i];
+    }
+  }
+
+  /**
+   * @return How many different flights we can ask about
+   */
+  public int getKeyCount() {
+    return cdf.length;
+  }
+
+  @Override
+  public String toString() {
+    return "zipf: keys=" + getKeyCount() + ", s=" + s + ", originSkew=" + originSkew + ", days=" + days + ", start="
+        + start + ", carriers=" + carriers + ", seed=" + seed;
+  }
+
+}
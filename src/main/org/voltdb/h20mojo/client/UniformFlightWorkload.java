@@ -0,0 +1,74 @@
+package org.voltdb.h20mojo.client;
+
+/* This file is part of VoltDB.
+ * Copyright (C) 2008-2019 VoltDB Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+import java.util.Random;
+
+/**
+ * The client's original workload: any origin to any destination, with equal
+ * probability, at a random departure time, always on 1987-10-14 with carrier
+ * PS. Every flight is as likely as every other, so the cache hit rate depends
+ * only on how long the run is.
+ *
+ */
+public class UniformFlightWorkload implements FlightWorkload {
+
+  private final String[] origin = VoltDBH2OMojoClient.getOrigin();
+  private final String[] dest = VoltDBH2OMojoClient.getDest();
+
+  /**
+   * Every value VoltDBH2OMojoClient.getRandomDepTime() can return, equally
+   * often.
+   */
+  private final String[] depTimes = new String[24 * 6];
+
+  public UniformFlightWorkload() {
+    super();
+
+    for (int hour = 0; hour < 24; hour++) {
+      for (int minute = 0; minute < 6; minute++) {
+        depTimes[(hour * 6) + minute] = String.format("%02d%02d", hour, minute);
+      }
+    }
+  }
+
+  @Override
+  public void nextFlight(Random r, String[] flight) {
+
+    flight[ORIGIN] = origin[r.nextInt(origin.length)];
+    flight[DEP_TIME] = depTimes[r.nextInt(depTimes.length)];
+    flight[YEAR] = "1987";
+    flight[MONTH] = "10";
+    flight[DAY_OF_MONTH] = "14";
+    flight[DAY_OF_WEEK] = "3";
+    flight[CARRIER] = "PS";
+    flight[DEST] = dest[r.nextInt(dest.length)];
+  }
+
+  @Override
+  public String toString() {
+    return "uniform: " + origin.length + " origins, " + dest.length + " destinations, " + depTimes.length
+        + " departure times";
+  }
+
+}
@@ -0,0 +1,67 @@
+package org.voltdb.h20mojo.client;
+
+/* This file is part of VoltDB.
+ * Copyright (C) 2008-2019 VoltDB Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.voltdb.client.ClientResponse;
+
+/**
+ * FlightPredictionCallback that also tells a CacheUsageTracker about the
+ * flight, so it can be counted in CACHED_RESULTS later.
+ *
+ */
+public class UsageTrackingCallback extends FlightPredictionCallback {
+
+  private final CacheUsageTracker tracker;
+  private final String[] flight;
+
+  /**
+   * @param tracker Where we record the flight
+   * @param flight  The flight's parameters, in the same order as
+   *                IsFlightLate's
+   */
+  public UsageTrackingCallback(Semaphore inFlight, AtomicLong okCount, AtomicLong errorCount,
+      FlightLatencyStats stats, long startNs, CacheUsageTracker tracker, String[] flight) {
+    super(inFlight, okCount, errorCount, stats, startNs);
+    this.tracker = tracker;
+    this.flight = flight;
+  }
+
+  @Override
+  public void clientCallback(ClientResponse response) throws Exception {
+
+    try {
+      if (response.getStatus() == ClientResponse.SUCCESS) {
+
+        tracker.record(flight[0], flight[1], flight[2], flight[3], flight[4], flight[5], flight[6], flight[7]);
+      }
+    } finally {
+      super.clientCallback(response);
+    }
+
+  }
+
+}
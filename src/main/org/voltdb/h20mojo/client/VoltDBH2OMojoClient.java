@@ -26,18 +26,31 @@ package org.voltdb.h20mojo.client;
  */
 
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashSet;
 import java.util.Random;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.voltdb.VoltTable;
 import org.voltdb.client.Client;
 import org.voltdb.client.ClientConfig;
 import org.voltdb.client.ClientFactory;
 import org.voltdb.client.ClientResponse;
 import org.voltdb.client.NoConnectionsException;
 import org.voltdb.client.ProcCallException;
+import org.voltdb.client.ProcedureCallback;
 import org.voltdb.voltutil.schemabuilder.VoltDBSchemaBuilder;
 
+import ie.voltdb.h2outil.FlightKey;
+import ie.voltdb.h2outil.MojoScorerGenerator;
+
 public class VoltDBH2OMojoClient {
 
   /**
@@ -54,9 +67,58 @@ public class VoltDBH2OMojoClient {
 
       "CREATE INDEX cached_results_ttl_idx on cached_results(last_used);",
 
+      // Lets EvictCachedResults find the least used rows without sorting the
+      // whole partition.
+      "CREATE INDEX cached_results_evict_idx on cached_results(usage_count, last_used);",
+
       "PARTITION TABLE cached_results ON COLUMN origin;",
 
-      "create view cache_effectiveness as select usage_count, count(*) hits from cached_results group by usage_count;"
+      "create view cache_effectiveness as select usage_count, count(*) hits from cached_results group by usage_count;",
+
+      // Compact version of cached_results, used by IsFlightLatePacked. The
+      // key is made by FlightKey.pack(). 'delayed' is the label itself, not
+      // its index, so rows written by an older version of the model still
+      // mean the same thing.
+      "CREATE TABLE cached_results_packed (flight_key bigint not null, delayed varchar(3) not null, "
+          + "last_used timestamp not null, usage_count bigint not null, PRIMARY KEY (flight_key))"
+          + " USING TTL 5 MINUTES ON COLUMN last_used;",
+
+      "CREATE INDEX cached_results_packed_ttl_idx on cached_results_packed(last_used);",
+
+      "PARTITION TABLE cached_results_packed ON COLUMN flight_key;",
+
+      "create view cache_effectiveness_packed as select usage_count, count(*) hits from cached_results_packed group by usage_count;",
+
+      // Model store. Models that are too big for @UpdateClasses, or that
+      // change often, are uploaded in chunks by ModelUploader and switched
+      // to by ActivateModelVersion. These tables are replicated so every
+      // partition can read them.
+      "CREATE TABLE model_chunks (model_name varchar(100) not null, version bigint not null, chunk_id integer not null, "
+          + "chunk varbinary(1048576) not null, PRIMARY KEY (model_name, version, chunk_id));",
+
+      "CREATE TABLE model_versions (model_name varchar(100) not null, version bigint not null, chunk_count integer not null, "
+          + "total_bytes bigint not null, checksum bigint not null, uploaded timestamp not null, "
+          + "PRIMARY KEY (model_name, version));",
+
+      "CREATE TABLE model_active (model_name varchar(100) not null, version bigint not null, activated timestamp not null, "
+          + "PRIMARY KEY (model_name));",
+
+      // If there's a row here for a model IsFlightLate scores
+      // samples_per_10000 in every 10,000 cache misses with challenger_name
+      // as well, to see how it compares. A site stops once the challenger
+      // takes more than max_extra_us on average; null means no limit.
+      // Replicated so every partition can read it.
+      "CREATE TABLE model_challenger (model_name varchar(100) not null, challenger_name varchar(100) not null, "
+          + "samples_per_10000 integer not null, max_extra_us integer, PRIMARY KEY (model_name));",
+
+      // Which version of each model LoadModelVersion last loaded on each
+      // partition. ModelUploader checks every partition has the new version
+      // before it activates it.
+      "CREATE TABLE model_loads (partition_key varchar(20) not null, model_name varchar(100) not null, "
+          + "version bigint not null, checksum bigint not null, loaded timestamp not null, "
+          + "PRIMARY KEY (partition_key, model_name));",
+
+      "PARTITION TABLE model_loads ON COLUMN partition_key;"
 
   };
 
@@ -76,12 +138,60 @@ public class VoltDBH2OMojoClient {
 
       "CREATE PROCEDURE PARTITION ON TABLE cached_results COLUMN origin FROM CLASS mojoprocs.IsFlightLate;",
 
-      "create procedure check_cache as select * from cache_effectiveness;"
+      "CREATE PROCEDURE PARTITION ON TABLE cached_results COLUMN origin PARAMETER 0 FROM CLASS mojoprocs.WarmUpModel;",
+
+      "CREATE PROCEDURE PARTITION ON TABLE cached_results COLUMN origin PARAMETER 0 FROM CLASS mojoprocs.IsFlightLateBatch;",
+
+      "CREATE PROCEDURE PARTITION ON TABLE cached_results COLUMN origin FROM CLASS mojoprocs.IsFlightLateNearCache;",
+
+      "CREATE PROCEDURE PARTITION ON TABLE cached_results COLUMN origin PARAMETER 0 FROM CLASS mojoprocs.NearCacheStats;",
+
+      "CREATE PROCEDURE PARTITION ON TABLE cached_results COLUMN origin PARAMETER 0 FROM CLASS mojoprocs.ShadowScoringStats;",
+
+      "CREATE PROCEDURE PARTITION ON TABLE cached_results COLUMN origin FROM CLASS mojoprocs.IsFlightLateReadOnly;",
+
+      "CREATE PROCEDURE PARTITION ON TABLE cached_results COLUMN origin PARAMETER 0 FROM CLASS mojoprocs.FlushCacheUsage;",
+
+      "CREATE PROCEDURE PARTITION ON TABLE cached_results COLUMN origin PARAMETER 0 FROM CLASS mojoprocs.EvictCachedResults;",
+
+      "CREATE PROCEDURE PARTITION ON TABLE cached_results_packed COLUMN flight_key FROM CLASS mojoprocs.IsFlightLatePacked;",
+
+      "CREATE PROCEDURE FROM CLASS mojoprocs.ActivateModelVersion;",
+
+      "CREATE PROCEDURE PARTITION ON TABLE model_loads COLUMN partition_key PARAMETER 0 FROM CLASS mojoprocs.LoadModelVersion;",
+
+      "CREATE PROCEDURE PARTITION ON TABLE cached_results COLUMN origin PARAMETER 0 FROM CLASS mojoprocs.Predict;",
+
+      "create procedure check_cache as select * from cache_effectiveness;",
+
+      "create procedure check_cache_packed as select * from cache_effectiveness_packed;"
 
   };
   
   final String[] otherClasses = {
-      "ie.voltdb.h2outil.H2OMojoWrangler"
+      "ie.voltdb.h2outil.BinomialScorer",
+      "ie.voltdb.h2outil.CategoricalIndex",
+      "ie.voltdb.h2outil.FeatureLayout",
+      "ie.voltdb.h2outil.FlatTreeEnsemble",
+      "ie.voltdb.h2outil.FlightKey",
+      "ie.voltdb.h2outil.H2OMojoWrangler",
+      "ie.voltdb.h2outil.LazyZipMojoReaderBackend",
+      "ie.voltdb.h2outil.LazyZipMojoReaderBackend$Entry",
+      "ie.voltdb.h2outil.ModelChunkReader",
+      "ie.voltdb.h2outil.ModelVersions",
+      "ie.voltdb.h2outil.MojoModelRegistry",
+      "ie.voltdb.h2outil.MojoModelRegistry$1",
+      "ie.voltdb.h2outil.MojoModelRegistry$LoadedModel",
+      "ie.voltdb.h2outil.MojoModelRegistry$ZipBytesSource",
+      "ie.voltdb.h2outil.MojoScorerGenerator",
+      "ie.voltdb.h2outil.MojoTreeNode",
+      "ie.voltdb.h2outil.MojoTrees",
+      "ie.voltdb.h2outil.OffHeapClockCache",
+      "ie.voltdb.h2outil.ShadowScoreStats",
+      "ie.voltdb.h2outil.SharedMojoModel",
+      "ie.voltdb.h2outil.SiteMetrics",
+      "ie.voltdb.h2outil.SiteMetricsMXBean",
+      "ie.voltdb.h2outil.TreeEnsembleScorer"
   };
 
   // We only create the DDL and procedures if a call to testProcName with
@@ -89,10 +199,47 @@ public class VoltDBH2OMojoClient {
   final String testProcName = "IsFlightLate";
   final Object[] testParams = { "SAN", "0730", "1987", "10", "14", "3", "PS", "SFO", 1 };
 
+  // How many rows we score on each partition when warming up. This needs to
+  // be enough for the JIT to compile the scoring code.
+  final int warmUpRowsPerPartition = 20000;
+
   Client client = null;
 
   Random r = new Random(42);
 
+  /**
+   * Procedure we call for single predictions. Either IsFlightLate or
+   * IsFlightLateNearCache.
+   */
+  String predictionProcName = "IsFlightLate";
+
+  /**
+   * If true we call IsFlightLatePacked for any flight FlightKey can pack.
+   */
+  boolean usePackedCache = false;
+
+  /**
+   * If not null we're calling a procedure that doesn't write, and this counts
+   * usage for us and sends it to FlushCacheUsage.
+   */
+  CacheUsageTracker usageTracker = null;
+
+  /**
+   * Decides which flights we ask about.
+   */
+  FlightWorkload workload = new UniformFlightWorkload();
+
+  /**
+   * Latency histograms for this run.
+   */
+  FlightLatencyStats latencyStats = new FlightLatencyStats();
+
+  /**
+   * What the last async run achieved.
+   */
+  long lastRunTps = 0;
+  long lastRunErrorCount = 0;
+
   private static Logger logger = LoggerFactory.getLogger(VoltDBH2OMojoClient.class);
 
   public VoltDBH2OMojoClient(String hostnames) {
@@ -114,56 +261,121 @@ public class VoltDBH2OMojoClient {
     String hostnames = "localhost";
     int durationSeconds = 60;
 
+    // If maxInFlight is > 0 we call IsFlightLate asynchronously, keeping
+    // up to maxInFlight calls outstanding. 0 means 'one at a time'.
+    int maxInFlight = 0;
+
+    // Target transactions per second in async mode. 0 means 'as fast as the
+    // cluster will go'.
+    int tpsTarget = 0;
+
+    // If batchWindowMs is > 0 async calls are grouped by origin and sent to
+    // IsFlightLateBatch, waiting no more than batchWindowMs to fill a batch of
+    // up to maxBatchSize flights.
+    int batchWindowMs = 0;
+    int maxBatchSize = 50;
+
+    // If true we call IsFlightLateNearCache instead of IsFlightLate.
+    boolean useNearCache = false;
+
+    // If true we call IsFlightLatePacked, which uses cached_results_packed.
+    boolean usePackedCache = false;
+
+    // If usageFlushMs is > 0 cache hits don't write. We call
+    // IsFlightLateReadOnly (or IsFlightLateNearCache) and send usage counts to
+    // FlushCacheUsage every usageFlushMs.
+    int usageFlushMs = 0;
+
+    // Which flights we ask about. See FlightWorkload.create().
+    String workloadSpec = "uniform";
+
     if (args.length > 0) {
       hostnames = args[0];
       durationSeconds = Integer.parseInt(args[1]);
     }
 
+    if (args.length > 2) {
+      maxInFlight = Integer.parseInt(args[2]);
+    }
+
+    if (args.length > 3) {
+      tpsTarget = Integer.parseInt(args[3]);
+    }
+
+    if (args.length > 4) {
+      batchWindowMs = Integer.parseInt(args[4]);
+    }
+
+    if (args.length > 5) {
+      maxBatchSize = Integer.parseInt(args[5]);
+    }
+
+    if (args.length > 6) {
+      useNearCache = Boolean.parseBoolean(args[6]);
+    }
+
+    if (args.length > 7) {
+      usePackedCache = Boolean.parseBoolean(args[7]);
+    }
+
+    if (args.length > 8) {
+      usageFlushMs = Integer.parseInt(args[8]);
+    }
+
+    if (args.length > 9) {
+      workloadSpec = args[9];
+    }
+
     try {
 
       VoltDBH2OMojoClient mc = new VoltDBH2OMojoClient(hostnames);
       mc.createSchemaIfNeeded();
-      Random r = new Random();
-      String[] origin = getOrigin();
-      String[] dest = getDest();
 
-      final long endTimeMs = System.currentTimeMillis() + (durationSeconds * 1000);
+      mc.workload = FlightWorkload.create(workloadSpec);
+      msg("Workload is " + mc.workload);
 
-      int predictionCount = 0;
+      if (useNearCache) {
+        mc.predictionProcName = "IsFlightLateNearCache";
+      }
 
-      while (System.currentTimeMillis() < endTimeMs) {
+      mc.usePackedCache = usePackedCache;
 
-        String depTime = "0730";
-        String year = "1987";
-        String month = "10";
-        String day = "14";
-        String dayOfWeek = "3";
-        String airline = "PS";
+      if (usageFlushMs > 0) {
 
-        String depHour = "" + r.nextInt(24);
-        if (depHour.length() < 2) {
-          depHour = "0" + depHour;
+        if (!useNearCache) {
+          mc.predictionProcName = "IsFlightLateReadOnly";
         }
 
-        String depMin = "" + r.nextInt(6);
-        if (depMin.length() < 2) {
-          depMin = "0" + depMin;
+        if (usePackedCache) {
+          msg("usePackedCache is ignored when usageFlushMs > 0");
+          mc.usePackedCache = false;
         }
 
-        depTime = depHour + depMin;
-        
-     //   Thread.sleep(1000);
+        mc.usageTracker = new CacheUsageTracker(mc.client, usageFlushMs);
+      }
 
-        @SuppressWarnings("unused")
-        String prediction = mc.getPrediction(origin[r.nextInt(origin.length)], depTime, year, month, day, dayOfWeek,
-            airline, dest[r.nextInt(dest.length)]);
+      if (maxInFlight > 0) {
+        mc.runAsyncBenchmark(durationSeconds, maxInFlight, tpsTarget, batchWindowMs, maxBatchSize);
+      } else {
+        mc.runSyncBenchmark(durationSeconds);
+      }
 
-        if (++predictionCount % 1000 == 0) {
-          msg(predictionCount + " predictions done.");
-        }
+      if (mc.workload.isFinished()) {
+        msg("Ran out of flights: " + mc.workload);
+      }
 
+      if (mc.usageTracker != null) {
+        mc.usageTracker.flush();
+        mc.client.drain();
+        msg(mc.usageTracker.getReport());
       }
 
+      mc.reportLatency();
+
+      if (useNearCache) {
+        mc.reportNearCacheStats();
+      }
+      mc.reportShadowScoringStats();
       mc.checkCache();
       mc.disconnect();
 
@@ -176,13 +388,322 @@ public class VoltDBH2OMojoClient {
 
   }
 
- 
+  /**
+   * Original benchmark: call IsFlightLate synchronously, so we only ever have
+   * one request in flight. This measures round trip time, not throughput.
+   * 
+   * @param durationSeconds How long to run for
+   */
+  private void runSyncBenchmark(int durationSeconds) {
+
+    Random r = new Random();
+    String[] flight = new String[FlightWorkload.FIELD_COUNT];
+
+    final long endTimeMs = System.currentTimeMillis() + (durationSeconds * 1000);
+
+    int predictionCount = 0;
+
+    while (System.currentTimeMillis() < endTimeMs && !workload.isFinished()) {
+
+      workload.nextFlight(r, flight);
+
+      @SuppressWarnings("unused")
+      String prediction = getPrediction(flight[0], flight[1], flight[2], flight[3], flight[4], flight[5], flight[6],
+          flight[7]);
+
+      if (usageTracker != null) {
+        usageTracker.flushIfDue();
+      }
+
+      if (++predictionCount % 1000 == 0) {
+        msg(predictionCount + " predictions done.");
+      }
+
+    }
+
+  }
+
+  /**
+   * Call IsFlightLate asynchronously, keeping up to 'maxInFlight' requests
+   * outstanding and optionally limiting ourselves to 'tpsTarget' transactions
+   * per second. At the end we report how many TPS we got, both in total and
+   * per node.
+   * 
+   * If 'batchWindowMs' is > 0 we hand flights to a FlightBatcher, which sends
+   * them to IsFlightLateBatch in groups. In this case 'maxInFlight' and
+   * 'tpsTarget' count flights, not calls.
+   * 
+   * @param durationSeconds How long to run for
+   * @param maxInFlight     How many calls we allow to be outstanding at once
+   * @param tpsTarget       Target TPS. 0 means 'as fast as possible'.
+   * @param batchWindowMs   Longest a flight waits for its batch to fill. 0
+   *                        means 'don't batch'.
+   * @param maxBatchSize    Most flights in a batch
+   * @throws InterruptedException
+   */
+  void runAsyncBenchmark(int durationSeconds, int maxInFlight, int tpsTarget, int batchWindowMs,
+      int maxBatchSize) throws InterruptedException {
+
+    msg("Starting async run: maxInFlight=" + maxInFlight + ", tpsTarget=" + (tpsTarget > 0 ? tpsTarget : "unlimited")
+        + (batchWindowMs > 0 ? ", batchWindowMs=" + batchWindowMs + ", maxBatchSize=" + maxBatchSize : ""));
+
+    Random r = new Random();
+
+    Semaphore inFlight = new Semaphore(maxInFlight);
+    AtomicLong okCount = new AtomicLong();
+    AtomicLong errorCount = new AtomicLong();
+
+    FlightBatcher batcher = null;
+
+    if (batchWindowMs > 0) {
+      batcher = new FlightBatcher(client, batchWindowMs, maxBatchSize, inFlight, okCount, errorCount, latencyStats);
+    }
+
+    // If we have a TPS target we space calls 'intervalNs' apart. We keep
+    // track of when the next call is due rather than sleeping a fixed amount,
+    // so we catch up if the callbacks hold us back for a while.
+    final long intervalNs = tpsTarget > 0 ? 1000000000L / tpsTarget : 0;
+    long nextCallNs = System.nanoTime();
+
+    final long startMs = System.currentTimeMillis();
+    final long endTimeMs = startMs + (durationSeconds * 1000);
+    long nextReportMs = startMs + 10000;
+    long callCount = 0;
+
+    while (System.currentTimeMillis() < endTimeMs && !workload.isFinished()) {
+
+      if (intervalNs > 0) {
+        nextCallNs += intervalNs;
+        long waitNs = nextCallNs - System.nanoTime();
+        if (waitNs > 0) {
+          LockSupport.parkNanos(waitNs);
+        }
+      }
+
+      // The callback may hang on to this, so each call gets its own...
+      String[] flight = new String[FlightWorkload.FIELD_COUNT];
+      workload.nextFlight(r, flight);
+
+      if (batcher != null) {
+
+        // Flights waiting in the batcher hold permits, so we have to keep
+        // flushing while we wait for one...
+        batcher.flushExpired();
+
+        while (!inFlight.tryAcquire(1, TimeUnit.MILLISECONDS)) {
+          batcher.flushExpired();
+        }
+
+        batcher.add(flight[0], flight[1], flight[2], flight[3], flight[4], flight[5], flight[6], flight[7]);
+
+      } else {
+
+        // Wait for a free slot...
+        inFlight.acquire();
+
+        FlightPredictionCallback cb;
+
+        if (usageTracker != null) {
+          usageTracker.flushIfDue();
+          cb = new UsageTrackingCallback(inFlight, okCount, errorCount, latencyStats, System.nanoTime(),
+              usageTracker, flight);
+        } else {
+          cb = new FlightPredictionCallback(inFlight, okCount, errorCount, latencyStats, System.nanoTime());
+        }
+
+        try {
+          if (!callPrediction(cb, flight[0], flight[1], flight[2], flight[3], flight[4], flight[5], flight[6],
+              flight[7], 0)) {
+            inFlight.release();
+            errorCount.incrementAndGet();
+          }
+        } catch (IOException e) {
+          inFlight.release();
+          errorCount.incrementAndGet();
+          logger.error(e.getMessage());
+        }
+      }
+
+      callCount++;
+
+      if (System.currentTimeMillis() > nextReportMs) {
+        nextReportMs += 10000;
+        msg(callCount + " predictions requested, " + okCount.get() + " done, " + errorCount.get() + " failed.");
+      }
+
+    }
+
+    if (batcher != null) {
+      batcher.flushAll();
+      msg(batcher.getBatchCount() + " batches sent, average size "
+          + String.format("%.1f", batcher.getAverageBatchSize()));
+    }
+
+    // Wait for everything to come back...
+    try {
+      client.drain();
+    } catch (NoConnectionsException e) {
+      logger.error(e.getMessage());
+    }
+
+    long elapsedMs = System.currentTimeMillis() - startMs;
+    long tps = okCount.get() * 1000 / Math.max(1, elapsedMs);
+    int hostCount = getClusterHostCount();
+
+    lastRunTps = tps;
+    lastRunErrorCount = errorCount.get();
+
+    msg(okCount.get() + " predictions done, " + errorCount.get() + " failed in " + elapsedMs + "ms");
+    msg("TPS=" + tps + ", hosts=" + hostCount + ", TPS per host=" + (tps / Math.max(1, hostCount)));
+
+  }
+
+  /**
+   * @param r Random number generator
+   * @return A random 4 character departure time
+   */
+  static String getRandomDepTime(Random r) {
+
+    String depHour = "" + r.nextInt(24);
+    if (depHour.length() < 2) {
+      depHour = "0" + depHour;
+    }
+
+    String depMin = "" + r.nextInt(6);
+    if (depMin.length() < 2) {
+      depMin = "0" + depMin;
+    }
+
+    return depHour + depMin;
+  }
+
+  /**
+   * @return How many nodes are in the cluster we are talking to.
+   */
+  private int getClusterHostCount() {
+
+    HashSet<Long> hostIds = new HashSet<Long>();
+
+    if (client != null) {
+      try {
+        ClientResponse cr = client.callProcedure("@SystemInformation", "OVERVIEW");
+        VoltTable overview = cr.getResults()[0];
+        while (overview.advanceRow()) {
+          hostIds.add(overview.getLong("HOST_ID"));
+        }
+      } catch (IOException | ProcCallException e) {
+        logger.error(e.getMessage());
+      }
+    }
+
+    return hostIds.size();
+  }
+
+  /**
+   * Print p50/p99/p99.9/max for cache hits and misses.
+   */
+  void reportLatency() {
+
+    for (String line : latencyStats.getReport()) {
+      msg(line);
+    }
+  }
+
+  /**
+   * Show how each partition's near cache is doing.
+   */
+  private void reportNearCacheStats() {
+
+    if (client != null) {
+      try {
+        VoltTable partitionKeys = client.callProcedure("@GetPartitionKeys", "STRING").getResults()[0];
+
+        while (partitionKeys.advanceRow()) {
+          ClientResponse cr = client.callProcedure("NearCacheStats", partitionKeys.getString("PARTITION_KEY"));
+          msg("Partition " + partitionKeys.getLong("PARTITION_ID") + " near cache:"
+              + cr.getResults()[0].toFormattedString());
+        }
+      } catch (IOException | ProcCallException e) {
+        logger.error(e.getMessage());
+      }
+    }
+  }
+
+  /**
+   * Show how the challenger model compared with the live model on each
+   * partition, if IsFlightLate has been shadow scoring one.
+   */
+  private void reportShadowScoringStats() {
+
+    if (client != null) {
+      try {
+        VoltTable partitionKeys = client.callProcedure("@GetPartitionKeys", "STRING").getResults()[0];
+
+        while (partitionKeys.advanceRow()) {
+          VoltTable stats = client.callProcedure("ShadowScoringStats", partitionKeys.getString("PARTITION_KEY"))
+              .getResults()[0];
+
+          if (stats.advanceRow() && stats.getLong("SAMPLED") + stats.getLong("ERRORS") > 0) {
+            msg("Partition " + partitionKeys.getLong("PARTITION_ID") + " shadow scoring:"
+                + stats.toFormattedString());
+          }
+        }
+      } catch (IOException | ProcCallException e) {
+        logger.error(e.getMessage());
+      }
+    }
+  }
+
+  /**
+   * Call whichever procedure we're using to get a prediction, asynchronously.
+   * 
+   * @return false if the call couldn't be queued
+   * @throws IOException
+   */
+  private boolean callPrediction(ProcedureCallback cb, String origin, String depTime, String year, String month,
+      String day, String dayOfWeek, String airline, String dest, int doStats) throws IOException {
+
+    if (usePackedCache) {
+
+      long flightKey = FlightKey.pack(origin, dest, depTime, year, month, day, dayOfWeek, airline);
+
+      if (flightKey != FlightKey.NOT_PACKABLE) {
+        return client.callProcedure(cb, "IsFlightLatePacked", flightKey, doStats);
+      }
+    }
+
+    return client.callProcedure(cb, predictionProcName, origin, depTime, year, month, day, dayOfWeek, airline, dest,
+        doStats);
+  }
+
+  /**
+   * Call whichever procedure we're using to get a prediction, and wait for the
+   * answer.
+   * 
+   * @throws IOException
+   * @throws ProcCallException
+   */
+  private ClientResponse callPrediction(String origin, String depTime, String year, String month, String day,
+      String dayOfWeek, String airline, String dest, int doStats) throws IOException, ProcCallException {
+
+    if (usePackedCache) {
+
+      long flightKey = FlightKey.pack(origin, dest, depTime, year, month, day, dayOfWeek, airline);
+
+      if (flightKey != FlightKey.NOT_PACKABLE) {
+        return client.callProcedure("IsFlightLatePacked", flightKey, doStats);
+      }
+    }
+
+    return client.callProcedure(predictionProcName, origin, depTime, year, month, day, dayOfWeek, airline, dest,
+        doStats);
+  }
 
   private void checkCache() {
 
     if (client != null) {
       try {
-        ClientResponse cr = client.callProcedure("check_cache");
+        ClientResponse cr = client.callProcedure(usePackedCache ? "check_cache_packed" : "check_cache");
         if (cr.getResults()[0].advanceRow()) {
           msg(cr.getResults()[0].toFormattedString());
         }
@@ -193,17 +714,22 @@ public class VoltDBH2OMojoClient {
 
   }
 
-  private String getPrediction(String origin, String dest, String depTime, String year, String month, String day,
-      String dayOfWeek, String airline) {
+  private String getPrediction(String origin, String depTime, String year, String month, String day,
+      String dayOfWeek, String airline, String dest) {
 
     String prediction = "";
 
     if (client != null) {
       try {
-        ClientResponse cr = client.callProcedure("IsFlightLate", origin, dest, depTime, year, month, day, dayOfWeek,
-            airline, 1);
+        long startNs = System.nanoTime();
+        ClientResponse cr = callPrediction(origin, depTime, year, month, day, dayOfWeek, airline, dest, 1);
+        latencyStats.record(cr, startNs);
         if (cr.getResults()[0].advanceRow()) {
           prediction = cr.getResults()[0].getString("LABEL");
+
+          if (usageTracker != null) {
+            usageTracker.record(origin, depTime, year, month, day, dayOfWeek, airline, dest);
+          }
         }
       } catch (IOException | ProcCallException e) {
         logger.error(e.getMessage());
@@ -217,14 +743,54 @@ public class VoltDBH2OMojoClient {
   public void createSchemaIfNeeded() throws Exception {
 
     VoltDBSchemaBuilder b = new VoltDBSchemaBuilder(ddlStatements, procStatements, zipFiles, "mojoProcs.jar", client,
-        "mojoprocs", testProcName, testParams,otherClasses);
+        "mojoprocs", testProcName, testParams, getClassesToLoad());
 
    // b.setMaxZipFileSize(6000);
+
+    // Only send classes, zip files and DDL the cluster doesn't already have...
+    b.setIncremental(true);
     b.loadClassesAndDDLIfNeeded();
 
+    warmUp();
+
   }
 
-  private void disconnect() {
+  /**
+   * Call WarmUpModel once for every partition, so each site has loaded the
+   * model and JIT compiled the scoring path before real traffic arrives. We
+   * report how long each partition took.
+   * 
+   * @throws IOException
+   * @throws ProcCallException
+   * @throws InterruptedException
+   */
+  public void warmUp() throws IOException, ProcCallException, InterruptedException {
+
+    msg("Warming up model on all partitions...");
+
+    final long startMs = System.currentTimeMillis();
+    AtomicInteger failureCount = new AtomicInteger();
+
+    // @GetPartitionKeys gives us one key that maps to each partition...
+    VoltTable partitionKeys = client.callProcedure("@GetPartitionKeys", "STRING").getResults()[0];
+
+    while (partitionKeys.advanceRow()) {
+
+      long partitionId = partitionKeys.getLong("PARTITION_ID");
+      String partitionKey = partitionKeys.getString("PARTITION_KEY");
+
+      WarmUpCallback cb = new WarmUpCallback(partitionId, System.nanoTime(), failureCount);
+      client.callProcedure(cb, "WarmUpModel", partitionKey, warmUpRowsPerPartition);
+    }
+
+    client.drain();
+
+    msg("Warm up of " + partitionKeys.getRowCount() + " partitions finished in "
+        + (System.currentTimeMillis() - startMs) + "ms with " + failureCount.get() + " failures");
+
+  }
+
+  void disconnect() {
 
     if (client != null) {
       try {
@@ -243,7 +809,7 @@ public class VoltDBH2OMojoClient {
 
   }
 
-  private static final String[] getDest() {
+  static final String[] getDest() {
     String[] sa = new String[134];
 
     sa[0] = "ABE";
@@ -384,7 +950,7 @@ public class VoltDBH2OMojoClient {
     return sa;
   }
 
-  private static final String[] getOrigin() {
+  static final String[] getOrigin() {
 
     String[] sa = new String[132];
 
@@ -525,7 +1091,7 @@ public class VoltDBH2OMojoClient {
 
   }
 
-  private static Client connectVoltDB(String hostnames) throws Exception {
+  static Client connectVoltDB(String hostnames) throws Exception {
     Client newClient = null;
     ClientConfig config = null;
 
@@ -560,6 +1126,41 @@ public class VoltDBH2OMojoClient {
 
   }
 
+  /**
+   * @return otherClasses, plus any classes MojoScorerGenerator has generated
+   *         for our zip files.
+   */
+  private String[] getClassesToLoad() {
+
+    ArrayList<String> classes = new ArrayList<String>(Arrays.asList(otherClasses));
+
+    for (int i = 0; i < zipFiles.length; i++) {
+
+      String generatedClassName = MojoScorerGenerator.DEFAULT_PACKAGE + "."
+          + MojoScorerGenerator.getGeneratedClassName(zipFiles[i]);
+
+      if (classExists(generatedClassName)) {
+
+        msg("Including generated scorer " + generatedClassName);
+        classes.add(generatedClassName);
+
+        // Big models are split into nested classes...
+        int part = 0;
+        String partClassName;
+
+        while (classExists(partClassName = generatedClassName + "$" + MojoScorerGenerator.PART_CLASS_PREFIX + part++)) {
+          classes.add(partClassName);
+        }
+      }
+    }
+
+    return classes.toArray(new String[classes.size()]);
+  }
+
+  private static boolean classExists(String className) {
+    return VoltDBH2OMojoClient.class.getResource("/" + className.replace(".", "/") + ".class") != null;
+  }
+
   public static void msg(String message) {
 
     System.out.println(message);
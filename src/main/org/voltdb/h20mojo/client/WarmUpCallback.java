@@ -0,0 +1,80 @@
+package org.voltdb.h20mojo.client;
+
+/* This file is part of VoltDB.
+ * Copyright (C) 2008-2019 VoltDB Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.voltdb.client.ClientResponse;
+import org.voltdb.client.ProcedureCallback;
+
+/**
+ * Callback for WarmUpModel. Reports how long it took to warm up one
+ * partition, as seen by the client.
+ *
+ */
+public class WarmUpCallback implements ProcedureCallback {
+
+  private final long partitionId;
+  private final long startNs;
+  private final AtomicInteger failureCount;
+
+  /**
+   * @param partitionId  Partition we are warming up
+   * @param startNs      System.nanoTime() from just before the call was made
+   * @param failureCount Counter we increment if the warm up fails
+   */
+  public WarmUpCallback(long partitionId, long startNs, AtomicInteger failureCount) {
+    super();
+    this.partitionId = partitionId;
+    this.startNs = startNs;
+    this.failureCount = failureCount;
+  }
+
+  @Override
+  public void clientCallback(ClientResponse response) throws Exception {
+
+    long elapsedMs = (System.nanoTime() - startNs) / 1000000;
+
+    if (response.getStatus() == ClientResponse.SUCCESS) {
+
+      long rowsScored = 0;
+
+      if (response.getResults()[0].advanceRow()) {
+        rowsScored = response.getResults()[0].getLong("ROWS_SCORED");
+      }
+
+      VoltDBH2OMojoClient.msg("Partition " + partitionId + " warmed up in " + elapsedMs + "ms (cluster "
+          + response.getClusterRoundtrip() + "ms), " + rowsScored + " rows scored");
+
+    } else {
+
+      failureCount.incrementAndGet();
+      VoltDBH2OMojoClient
+          .msg("Partition " + partitionId + " warm up failed after " + elapsedMs + "ms: " + response.getStatusString());
+    }
+
+  }
+
+}
@@ -23,25 +23,40 @@
 package org.voltdb.voltutil.schemabuilder;
 
 import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileNotFoundException;
-import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
 import java.util.jar.Attributes;
 import java.util.jar.JarEntry;
 import java.util.jar.JarOutputStream;
 import java.util.jar.Manifest;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.voltdb.VoltTable;
 import org.voltdb.client.Client;
 import org.voltdb.client.ClientResponse;
 import org.voltdb.client.NoConnectionsException;
 import org.voltdb.client.ProcCallException;
+import org.voltdb.types.TimestampType;
 import org.voltcore.network.VoltPort;
 
 /**
@@ -85,10 +100,53 @@ public final class VoltDBSchemaBuilder {
   String testProcName;
   Object[] testParams;
 
-  // How big zip files have to be before we split and send by themselves.
- // int maxZipFileSize = VoltPort.MAX_MESSAGE_LENGTH / 2;
+  // Biggest JAR file we'll send to @UpdateClasses.
+  static final int MAX_JAR_FILE_SIZE = (int) (VoltPort.MAX_MESSAGE_LENGTH * 0.9);
+
+  // Space we allow for the manifest and JAR headers of a JAR file that holds
+  // zip file fragments.
+  static final int JAR_OVERHEAD = 4096;
+
+  // How big zip files have to be before we split them into fragments and send
+  // them in JAR files of their own. Fragments are called
+  // foo.zip.<first 8 hex digits of its SHA-256>.0, .1 etc, so a new version
+  // never overwrites the fragments of the old one.
+  int maxZipFileSize = VoltPort.MAX_MESSAGE_LENGTH / 2;
+
+  static final Pattern FRAGMENT_NAME = Pattern.compile(".*\\.zip\\.[0-9a-f]{8}\\.[0-9]+");
+
+  // Suffix of the manifest listing a zip file's fragments, which we send
+  // after the fragments. Has to match H2OMojoWrangler.MANIFEST_SUFFIX.
+  static final String MANIFEST_SUFFIX = ".manifest";
 
   private boolean deleteFiles = true;
+
+  // If true we only send classes and zip files that have changed, and only
+  // run DDL that hasn't been run yet.
+  private boolean incremental = false;
+
+  // Table where we keep hashes of what we've loaded, so we can tell what has
+  // changed.
+  static final String RESOURCE_TABLE_NAME = "DEPLOYED_RESOURCES";
+
+  // Prefix of the names we give DDL statements in RESOURCE_TABLE_NAME. We only
+  // keep track of statements that don't create anything we can look for in
+  // the catalog.
+  static final String DDL_RESOURCE_PREFIX = "ddl:";
+
+  // A column in a CREATE TABLE statement: name, type and, if there is one,
+  // size. We only compare sizes of types in SIZED_TYPES.
+  static final Pattern COLUMN_DEFINITION = Pattern.compile("(\\w+)\\s+(\\w+)\\s*(?:\\(\\s*(\\d+)[^)]*\\))?");
+
+  static final HashSet<String> SIZED_TYPES = new HashSet<String>(Arrays.asList("VARCHAR", "VARBINARY"));
+
+  // Things in a CREATE TABLE statement that look like columns but aren't.
+  static final HashSet<String> TABLE_CONSTRAINTS = new HashSet<String>(
+      Arrays.asList("PRIMARY", "CONSTRAINT", "UNIQUE", "ASSUMEUNIQUE", "LIMIT", "FOREIGN"));
+
+  static final String RESOURCE_TABLE_DDL = "CREATE TABLE " + RESOURCE_TABLE_NAME
+      + " (resource_name varchar(512) not null, sha256 varchar(64) not null, size bigint not null,"
+      + " deployed timestamp not null, PRIMARY KEY (resource_name));";
  
  
   /**
@@ -135,113 +193,793 @@ public final class VoltDBSchemaBuilder {
       throws IOException, MissingResourceException, CreatedFileTooBigException, FailedToUpdateClassesException,
       ProcCallException, FailedToCreateDDLException {
 
+    if (incremental) {
+      return loadClassesAndDDLIncrementally();
+    }
+
     if (schemaExists()) {
       return true;
     }
 
-    File tempDir = Files.createTempDirectory("voltdbSchema").toFile();
+    //
+    // Step 1: Create tables etc. We do this before we send any classes, so
+    // the SQL in the procedures can be checked against the tables.
+    //
+    for (int i = 0; i < ddlStatements.length; i++) {
+      try {
+        ClientResponse cr = voltClient.callProcedure("@AdHoc", ddlStatements[i]);
+        if (cr.getStatus() != ClientResponse.SUCCESS) {
+          throw new Exception("Attempt to execute '" + ddlStatements[i] + "' failed:" + cr.getStatusString());
+        }
+        logger.info(ddlStatements[i]);
+      } catch (Exception e) {
 
-    if (!tempDir.canWrite()) {
-      throw new IOException(
-          "Temp Directory (from Files.createTempDirectory()) '" + tempDir.getAbsolutePath() + "' is not writable");
+        if (e.getMessage().indexOf("object name already exists") > -1) {
+          // Someone else has done this...
+          return false;
+        }
+
+        throw new FailedToCreateDDLException(e.getMessage());
+      }
     }
 
     //
-    // Step 1: Load other zip files and classes into a JAR file.
+    // Step 2: Read the classes and zip files we need...
     //
-    logger.info("Creating JAR file in " + tempDir + File.separator + jarFileName);
+    LinkedHashMap<String, byte[]> entries = toJarEntries(readResources());
 
-    JarOutputStream mainJarFileOutputStream = getJarOutputStream(tempDir + File.separator + jarFileName);
+    //
+    // Steps 3 and 4: ...and send them to VoltDB.
+    //
+    uploadResources(entries, new ArrayList<String>());
 
-    for (int i = 0; i < otherClasses.length; i++) {
+    //
+    // Step 5: Create procedures
+    //
+    for (int i = 0; i < procStatements.length; i++) {
+      logger.info(procStatements[i]);
+      ClientResponse cr = voltClient.callProcedure("@AdHoc", procStatements[i]);
+      if (cr.getStatus() != ClientResponse.SUCCESS) {
+        throw new FailedToCreateDDLException(
+            "Attempt to execute '" + procStatements[i] + "' failed:" + cr.getStatusString());
+      }
+    }
+
+    return schemaExists();
+
+  }
+
+  /**
+   * Incremental version of loadClassesAndDDLIfNeeded. We keep a SHA-256 hash
+   * of every class, zip file, fragment and manifest we've loaded in
+   * RESOURCE_TABLE_NAME, and only send the ones that have changed. Anything
+   * we sent before but don't need any more is deleted. We look in the
+   * catalog to see which DDL and procedure statements haven't been run yet.
+   * The DDL goes first, in one @AdHoc call, then the classes, then the
+   * procedure statements in another @AdHoc call, so procedures are always
+   * checked against the tables they'll use. Statements that don't create
+   * anything we can find in the catalog are remembered by hash in
+   * RESOURCE_TABLE_NAME instead. Tables that already exist are never
+   * altered; if one has different columns to its CREATE TABLE statement we
+   * throw FailedToCreateDDLException before changing anything.
+   * 
+   * @return true if the schema exists when we're finished
+   * @throws IOException
+   * @throws MissingResourceException
+   * @throws CreatedFileTooBigException
+   * @throws FailedToUpdateClassesException
+   * @throws ProcCallException
+   * @throws FailedToCreateDDLException
+   */
+  private boolean loadClassesAndDDLIncrementally()
+      throws IOException, MissingResourceException, CreatedFileTooBigException, FailedToUpdateClassesException,
+      ProcCallException, FailedToCreateDDLException {
 
-      String resourceName = "/" + otherClasses[i].replace(".", "/") + ".class";
-      InputStream is = getValidatedRelativeInputStream(resourceName);
-      logger.info("processing " + resourceName);
-      add(otherClasses[i].replace(".", "/") + ".class", is, mainJarFileOutputStream);
+    HashSet<String> tables = getCatalogNames("TABLES", "TABLE_NAME");
+    HashSet<String> indexes = getCatalogNames("INDEXINFO", "INDEX_NAME");
+    HashSet<String> procedures = getCatalogNames("PROCEDURES", "PROCEDURE_NAME");
+
+    //
+    // Step 1: Find out which classes and zip files have changed...
+    //
+    HashMap<String, String> deployedHashes = new HashMap<String, String>();
+    HashMap<String, Long> deployedSizes = new HashMap<String, Long>();
+
+    if (tables.contains(RESOURCE_TABLE_NAME)) {
+
+      VoltTable t = voltClient
+          .callProcedure("@AdHoc", "SELECT resource_name, sha256, size FROM " + RESOURCE_TABLE_NAME + ";")
+          .getResults()[0];
+
+      while (t.advanceRow()) {
+        deployedHashes.put(t.getString(0), t.getString(1));
+        deployedSizes.put(t.getString(0), t.getLong(2));
+      }
     }
 
-    for (int i = 0; i < procClassNames.length; i++) {
-      String resourceName = "/" + procPackageName.replace(".", "/") + "/" + procClassNames[i] + ".class";
-      InputStream is = getValidatedRelativeInputStream(resourceName);
-      logger.info("processing " + resourceName);
-      add(procPackageName.replace(".", "/") + "/" + procClassNames[i] + ".class", is, mainJarFileOutputStream);
+    LinkedHashMap<String, byte[]> entries = toJarEntries(readResources());
+    LinkedHashMap<String, byte[]> changedEntries = new LinkedHashMap<String, byte[]>();
+    HashMap<String, String> changedHashes = new HashMap<String, String>();
+
+    for (Map.Entry<String, byte[]> entry : entries.entrySet()) {
+
+      String hash = sha256(entry.getValue());
+
+      if (!hash.equals(deployedHashes.get(entry.getKey()))) {
+        changedEntries.put(entry.getKey(), entry.getValue());
+        changedHashes.put(entry.getKey(), hash);
+      }
     }
 
-    if (zipFiles != null) {
+    // Anything we sent last time that we aren't sending now has to go, or
+    // H2OMojoWrangler might find an old version of a zip file, and classes
+    // that have been removed or renamed would stay in the catalog for ever...
+    ArrayList<String> staleEntries = new ArrayList<String>();
+    ArrayList<String> deletedEntries = new ArrayList<String>();
 
-      for (int i = 0; i < zipFiles.length; i++) {
+    for (String deployedName : deployedHashes.keySet()) {
 
-        String resourceName = "/" + procPackageName.replace(".", "/") + "/" + zipFiles[i];
-        InputStream is = getValidatedRelativeInputStream(resourceName);
-        logger.info("processing " + resourceName);
-        add(procPackageName.replace(".", "/") + "/" + zipFiles[i], is, mainJarFileOutputStream);
+      if (deployedName.startsWith(DDL_RESOURCE_PREFIX)) {
+        continue;
+      }
+
+      final boolean replaced = changedEntries.containsKey(deployedName) || !entries.containsKey(deployedName);
+
+      if (!entries.containsKey(deployedName)) {
+        staleEntries.add(deployedName);
+        deletedEntries.add(deployedName);
+      }
+
+      // Before we had manifests big zip files were split into foo.zip.0,
+      // foo.zip.1 etc, and we only kept track of foo.zip...
+      if (replaced && deployedName.endsWith(".zip") && deployedSizes.get(deployedName) > maxZipFileSize) {
 
+        for (int i = 0; i * (long) maxZipFileSize < deployedSizes.get(deployedName); i++) {
+          deletedEntries.add(deployedName + "." + i);
+        }
       }
     }
 
-    mainJarFileOutputStream.close();
-    File newJarFile = new File(tempDir + File.separator + jarFileName);
+    //
+    // Step 2: Run whatever table, index and other DDL hasn't been run yet as
+    // one batch, before any classes change, so new and changed procedures
+    // can be checked against the tables they use. Procedures made from
+    // classes we're about to delete are dropped in the same batch, as
+    // VoltDB won't delete a class a procedure still needs. We don't alter
+    // tables that already exist, so we stop if one doesn't match its CREATE
+    // TABLE statement.
+    //
+    checkTableColumns(tables);
+
+    ArrayList<String> trackedStatements = new ArrayList<String>();
+    StringBuffer ddlBatch = new StringBuffer();
+    int ddlCount = 0;
+
+    if (!tables.contains(RESOURCE_TABLE_NAME)) {
+      ddlBatch.append(RESOURCE_TABLE_DDL);
+      ddlBatch.append(System.lineSeparator());
+      ddlCount++;
+    }
+
+    for (int i = 0; i < staleEntries.size(); i++) {
+
+      String procName = getProcNameForClass(staleEntries.get(i));
+
+      if (procName != null && procedures.contains(procName.toUpperCase())) {
+        String statement = "DROP PROCEDURE " + procName + ";";
+        logger.info(statement);
+        ddlBatch.append(statement);
+        ddlBatch.append(System.lineSeparator());
+        ddlCount++;
+      }
+    }
+
+    ddlCount += addPendingStatements(ddlStatements, tables, indexes, procedures, deployedHashes, trackedStatements,
+        ddlBatch);
+    runDDLBatch(ddlBatch, ddlCount);
 
     //
-    // Step 2: Once we know how big the JAR file see if it will work with
-    // UpdateClasses...
+    // Step 3: Send the classes and zip files that have changed to VoltDB.
     //
-    if (newJarFile.length() > (VoltPort.MAX_MESSAGE_LENGTH * 0.9)) {
-      throw new CreatedFileTooBigException("Payload file " + newJarFile.getName() + " is too big at "
-          + newJarFile.length() + "; max length is " + (VoltPort.MAX_MESSAGE_LENGTH * 0.9));
+    if (changedEntries.isEmpty() && deletedEntries.isEmpty()) {
+      logger.info("All " + entries.size() + " classes, zip files and fragments are already loaded");
+    } else {
+      logger.info(changedEntries.size() + " of " + entries.size() + " classes, zip files and fragments have changed, "
+          + deletedEntries.size() + " to delete");
+      uploadResources(changedEntries, deletedEntries);
     }
 
+    //
+    // Step 4: Create whatever procedures don't exist yet, now their classes
+    // are there, as another batch.
+    //
+    StringBuffer procBatch = new StringBuffer();
+    int procCount = addPendingStatements(procStatements, tables, indexes, procedures, deployedHashes,
+        trackedStatements, procBatch);
+    runDDLBatch(procBatch, procCount);
 
     //
-    // Step 3: Load the JAR file we created earlier into VoltDB...
+    // Step 5: Remember what we've loaded. We do this last so that if anything
+    // above fails we try again next time.
     //
-    byte[] jarFileContents = loadFileIntoByteArray(newJarFile);
+    for (Map.Entry<String, String> hash : changedHashes.entrySet()) {
+      voltClient.callProcedure(RESOURCE_TABLE_NAME + ".upsert", hash.getKey(), hash.getValue(),
+          entries.get(hash.getKey()).length, new TimestampType());
+    }
+
+    for (int i = 0; i < staleEntries.size(); i++) {
+      voltClient.callProcedure(RESOURCE_TABLE_NAME + ".delete", staleEntries.get(i));
+    }
+
+    for (int i = 0; i < trackedStatements.size(); i++) {
+      String resourceName = getDDLResourceName(trackedStatements.get(i));
+      voltClient.callProcedure(RESOURCE_TABLE_NAME + ".upsert", resourceName,
+          resourceName.substring(DDL_RESOURCE_PREFIX.length()), trackedStatements.get(i).length(),
+          new TimestampType());
+    }
+
+    return schemaExists();
+  }
+
+  /**
+   * Read every class and zip file we need to load.
+   * 
+   * @return contents of each, keyed by the name they'll have in a JAR file,
+   *         in the order we found them.
+   * @throws MissingResourceException
+   * @throws IOException
+   */
+  private LinkedHashMap<String, byte[]> readResources() throws MissingResourceException, IOException {
 
-    logger.info("Calling @UpdateClasses to load JAR file containing procedures");
+    LinkedHashMap<String, byte[]> resources = new LinkedHashMap<String, byte[]>();
 
-    callUpdateClasses(jarFileContents);
+    for (int i = 0; i < otherClasses.length; i++) {
+      String entryName = otherClasses[i].replace(".", "/") + ".class";
+      resources.put(entryName, readFully(getValidatedRelativeInputStream("/" + entryName)));
+    }
+
+    for (int i = 0; i < procClassNames.length; i++) {
+      String entryName = procPackageName.replace(".", "/") + "/" + procClassNames[i] + ".class";
+      resources.put(entryName, readFully(getValidatedRelativeInputStream("/" + entryName)));
+    }
 
-    if (deleteFiles) {
-      newJarFile.delete();
+    if (zipFiles != null) {
+      for (int i = 0; i < zipFiles.length; i++) {
+        String entryName = procPackageName.replace(".", "/") + "/" + zipFiles[i];
+        resources.put(entryName, readFully(getValidatedRelativeInputStream("/" + entryName)));
+      }
     }
 
-    
+    return resources;
+  }
+
+  /**
+   * Split zip files that are bigger than maxZipFileSize into fragments, which
+   * H2OMojoWrangler knows how to glue back together, and add a manifest
+   * listing the fragments and the length and CRC32 of the whole zip file.
+   * 
+   * @param resources contents of each class and zip file, keyed by the name
+   *                  they'll have in a JAR file.
+   * @return What we'll actually put in JAR files, keyed by name, in the same
+   *         order.
+   */
+  private LinkedHashMap<String, byte[]> toJarEntries(LinkedHashMap<String, byte[]> resources) {
+
+    LinkedHashMap<String, byte[]> entries = new LinkedHashMap<String, byte[]>();
+
+    for (Map.Entry<String, byte[]> resource : resources.entrySet()) {
+
+      String entryName = resource.getKey();
+      byte[] contents = resource.getValue();
+
+      if (entryName.endsWith(".class") || contents.length <= maxZipFileSize) {
+        entries.put(entryName, contents);
+        continue;
+      }
+
+      String fragmentPrefix = entryName + "." + sha256(contents).substring(0, 8) + ".";
+      int fragmentCount = (contents.length + maxZipFileSize - 1) / maxZipFileSize;
+      StringBuffer fragmentNames = new StringBuffer();
+
+      for (int j = 0; j < fragmentCount; j++) {
+
+        entries.put(fragmentPrefix + j, Arrays.copyOfRange(contents, j * maxZipFileSize,
+            Math.min((j + 1) * maxZipFileSize, contents.length)));
+
+        // The manifest is next to the fragments, so it doesn't need their
+        // directory...
+        if (j > 0) {
+          fragmentNames.append(',');
+        }
+
+        fragmentNames.append(fragmentPrefix.substring(fragmentPrefix.lastIndexOf('/') + 1));
+        fragmentNames.append(j);
+      }
+
+      CRC32 crc = new CRC32();
+      crc.update(contents);
+
+      String manifest = "fragments=" + fragmentNames + "\nlength=" + contents.length + "\ncrc32=" + crc.getValue()
+          + "\n";
+      entries.put(entryName + MANIFEST_SUFFIX, manifest.getBytes(StandardCharsets.ISO_8859_1));
+    }
+
+    return entries;
+  }
+
+  /**
+   * Send classes, zip files, fragments and manifests to VoltDB using
+   * @UpdateClasses.
+   * 
+   * Fragments are sent first, in as many JAR files as they need. They're
+   * named after what's in them, so nothing uses them until the manifest that
+   * lists them arrives. That, and everything else, goes in one last JAR file,
+   * so a procedure never sees part of a new version of a zip file. There's no
+   * way to remove a file that isn't a class, so anything in 'deletedEntries'
+   * that isn't a class is replaced by an empty file in the last JAR file,
+   * which H2OMojoWrangler treats as missing. Classes are deleted by the same
+   * call. All the JAR files are built in memory.
+   * 
+   * @param entries        contents of each entry, keyed by the name it'll
+   *                       have in a JAR file.
+   * @param deletedEntries names of entries to delete
+   * @throws IOException
+   * @throws CreatedFileTooBigException
+   * @throws FailedToUpdateClassesException
+   * @throws ProcCallException
+   */
+  private void uploadResources(LinkedHashMap<String, byte[]> entries, ArrayList<String> deletedEntries)
+      throws IOException, CreatedFileTooBigException, FailedToUpdateClassesException, ProcCallException {
+
     //
-    // Step 4: Create tables etc
+    // Load classes, small zip files and manifests into a JAR file in memory.
     //
-    for (int i = 0; i < ddlStatements.length; i++) {
-      try {
-        ClientResponse cr = voltClient.callProcedure("@AdHoc", ddlStatements[i]);
-        if (cr.getStatus() != ClientResponse.SUCCESS) {
-          throw new Exception("Attempt to execute '" + ddlStatements[i] + "' failed:" + cr.getStatusString());
-        }
-        logger.info(ddlStatements[i]);
-      } catch (Exception e) {
+    logger.info("Creating JAR file " + jarFileName);
 
-        if (e.getMessage().indexOf("object name already exists") > -1) {
-          // Someone else has done this...
-          return false;
+    ByteArrayOutputStream mainJarBytes = new ByteArrayOutputStream();
+    JarOutputStream mainJarFileOutputStream = getJarOutputStream(mainJarBytes);
+    ArrayList<String> fragmentNames = new ArrayList<String>();
+    ArrayList<byte[]> fragments = new ArrayList<byte[]>();
+    int mainJarEntryCount = 0;
+
+    for (Map.Entry<String, byte[]> resource : entries.entrySet()) {
+
+      String entryName = resource.getKey();
+      byte[] contents = resource.getValue();
+
+      if (entryName.endsWith(".class")) {
+
+        logger.info("processing " + entryName);
+        add(entryName, new ByteArrayInputStream(contents), mainJarFileOutputStream);
+        mainJarEntryCount++;
+
+      } else if (FRAGMENT_NAME.matcher(entryName).matches()) {
+
+        fragmentNames.add(entryName);
+        fragments.add(contents);
+
+      } else {
+
+        logger.info("processing " + entryName);
+        addStored(entryName, contents, 0, contents.length, mainJarFileOutputStream);
+        mainJarEntryCount++;
+      }
+    }
+
+    StringBuffer deletedClasses = new StringBuffer();
+
+    for (int i = 0; i < deletedEntries.size(); i++) {
+
+      String entryName = deletedEntries.get(i);
+      logger.info("deleting " + entryName);
+
+      if (entryName.endsWith(".class")) {
+
+        if (deletedClasses.length() > 0) {
+          deletedClasses.append(',');
         }
 
-        throw new FailedToCreateDDLException(e.getMessage());
+        deletedClasses.append(entryName.substring(0, entryName.length() - ".class".length()).replace("/", "."));
+
+      } else {
+        addStored(entryName, new byte[0], 0, 0, mainJarFileOutputStream);
+        mainJarEntryCount++;
       }
     }
 
+    mainJarFileOutputStream.close();
+
+    // Once we know how big the JAR file is see if it will work with
+    // UpdateClasses...
+    if (mainJarBytes.size() > MAX_JAR_FILE_SIZE) {
+      throw new CreatedFileTooBigException("Payload file " + jarFileName + " is too big at " + mainJarBytes.size()
+          + "; max length is " + MAX_JAR_FILE_SIZE);
+    }
+
     //
-    // Step 5: Create procedures
+    // Load any fragments, in as few extra JAR files as will fit, and then the
+    // JAR file we created earlier, into VoltDB.
     //
-    for (int i = 0; i < procStatements.length; i++) {
-      logger.info(procStatements[i]);
-      ClientResponse cr = voltClient.callProcedure("@AdHoc", procStatements[i]);
+    ArrayList<byte[]> fragmentJars = createFragmentJars(fragmentNames, fragments);
+
+    for (int i = 0; i < fragmentJars.size(); i++) {
+      logger.info("Calling @UpdateClasses to load zip file fragments, part " + (i + 1) + " of "
+          + fragmentJars.size() + " (" + fragmentJars.get(i).length + " bytes)");
+      keepCopyIfNeeded("fragments" + i + "_" + jarFileName, fragmentJars.get(i));
+      callUpdateClasses(fragmentJars.get(i), null);
+    }
+
+    if (mainJarEntryCount > 0 || deletedClasses.length() > 0) {
+
+      byte[] jarFileContents = mainJarEntryCount > 0 ? mainJarBytes.toByteArray() : null;
+
+      logger.info("Calling @UpdateClasses to load JAR file containing procedures");
+
+      if (jarFileContents != null) {
+        keepCopyIfNeeded(jarFileName, jarFileContents);
+      }
+
+      callUpdateClasses(jarFileContents, deletedClasses.length() > 0 ? deletedClasses.toString() : null);
+    }
+  }
+
+  /**
+   * @param selector  @SystemCatalog selector, e.g. "TABLES"
+   * @param nameColumn column of the output we want
+   * @return Everything in 'nameColumn', in upper case
+   * @throws IOException
+   * @throws ProcCallException
+   */
+  private HashSet<String> getCatalogNames(String selector, String nameColumn) throws IOException, ProcCallException {
+
+    HashSet<String> names = new HashSet<String>();
+    VoltTable t = voltClient.callProcedure("@SystemCatalog", selector).getResults()[0];
+
+    while (t.advanceRow()) {
+      names.add(t.getString(nameColumn).toUpperCase());
+    }
+
+    return names;
+  }
+
+  /**
+   * Add the statements in 'statements' that haven't been run yet to 'batch'.
+   * 
+   * @param statements        DDL or procedure statements
+   * @param tables            Tables and views in the catalog
+   * @param indexes           Indexes in the catalog
+   * @param procedures        Procedures in the catalog
+   * @param deployedHashes    What's in RESOURCE_TABLE_NAME
+   * @param trackedStatements Statements we have to remember running in
+   *                          RESOURCE_TABLE_NAME, as we can't find what they
+   *                          create in the catalog
+   * @param batch             where we put the statements
+   * @return how many statements we added
+   */
+  private int addPendingStatements(String[] statements, HashSet<String> tables, HashSet<String> indexes,
+      HashSet<String> procedures, HashMap<String, String> deployedHashes, ArrayList<String> trackedStatements,
+      StringBuffer batch) {
+
+    int count = 0;
+
+    for (int i = 0; i < statements.length; i++) {
+
+      String statement = statements[i];
+      Boolean inCatalog = isInCatalog(statement, tables, indexes, procedures);
+
+      if (inCatalog == null) {
+
+        // Nothing to look for, so we go by whether we've run it before...
+        if (deployedHashes.containsKey(getDDLResourceName(statement))) {
+          continue;
+        }
+
+        trackedStatements.add(statement);
+
+      } else if (inCatalog) {
+        continue;
+      }
+
+      logger.info(statement);
+      batch.append(statement);
+      batch.append(System.lineSeparator());
+      count++;
+    }
+
+    return count;
+  }
+
+  /**
+   * Send DDL statements to VoltDB in one @AdHoc call, so it only has to
+   * change its catalog once.
+   * 
+   * @param batch DDL statements, one per line
+   * @param count how many there are
+   * @throws IOException
+   * @throws FailedToCreateDDLException
+   */
+  private void runDDLBatch(StringBuffer batch, int count) throws IOException, FailedToCreateDDLException {
+
+    if (count == 0) {
+      return;
+    }
+
+    logger.info("Sending " + count + " DDL statements in one batch");
+
+    try {
+      ClientResponse cr = voltClient.callProcedure("@AdHoc", batch.toString());
       if (cr.getStatus() != ClientResponse.SUCCESS) {
-        throw new FailedToCreateDDLException(
-            "Attempt to execute '" + procStatements[i] + "' failed:" + cr.getStatusString());
+        throw new FailedToCreateDDLException("DDL batch failed:" + cr.getStatusString());
       }
+    } catch (ProcCallException e) {
+      throw new FailedToCreateDDLException(e.getMessage());
     }
+  }
 
-    return schemaExists();
+  /**
+   * Make sure every table in ddlStatements that already exists has the
+   * columns its CREATE TABLE statement says it should, in the same order and
+   * with the same types. We never alter an existing table, so if it doesn't
+   * someone has to change or drop it by hand.
+   * 
+   * @param tables Tables and views in the catalog
+   * @throws IOException
+   * @throws ProcCallException
+   * @throws FailedToCreateDDLException if a table doesn't match
+   */
+  private void checkTableColumns(HashSet<String> tables)
+      throws IOException, ProcCallException, FailedToCreateDDLException {
+
+    HashMap<String, TreeMap<Integer, String>> catalogColumns = null;
+    StringBuffer problems = new StringBuffer();
+
+    for (int i = 0; i < ddlStatements.length; i++) {
+
+      String tableName = getCreateTableName(ddlStatements[i]);
+
+      if (tableName == null || !tables.contains(tableName)) {
+        continue;
+      }
+
+      if (catalogColumns == null) {
+        catalogColumns = getCatalogColumns();
+      }
+
+      ArrayList<String> wanted = getCreateTableColumns(ddlStatements[i]);
+      ArrayList<String> actual = new ArrayList<String>();
+
+      if (catalogColumns.containsKey(tableName)) {
+        actual.addAll(catalogColumns.get(tableName).values());
+      }
+
+      if (!wanted.equals(actual)) {
+        problems.append(System.lineSeparator());
+        problems.append(tableName + " has columns " + actual + " but its DDL wants " + wanted);
+      }
+    }
+
+    if (problems.length() > 0) {
+      throw new FailedToCreateDDLException("Existing tables don't match their DDL, and we don't alter tables. "
+          + "Alter or drop them by hand and try again:" + problems);
+    }
+  }
+
+  /**
+   * @return columns of every table in the catalog, as "NAME TYPE", or "NAME
+   *         TYPE(SIZE)" for VARCHAR and VARBINARY, keyed by table name and
+   *         then position.
+   * @throws IOException
+   * @throws ProcCallException
+   */
+  private HashMap<String, TreeMap<Integer, String>> getCatalogColumns() throws IOException, ProcCallException {
+
+    HashMap<String, TreeMap<Integer, String>> columns = new HashMap<String, TreeMap<Integer, String>>();
+    VoltTable t = voltClient.callProcedure("@SystemCatalog", "COLUMNS").getResults()[0];
+
+    while (t.advanceRow()) {
+
+      String tableName = t.getString("TABLE_NAME").toUpperCase();
+      String typeName = t.getString("TYPE_NAME").toUpperCase();
+      String column = t.getString("COLUMN_NAME").toUpperCase() + " " + typeName;
+
+      if (SIZED_TYPES.contains(typeName)) {
+        column = column + "(" + t.getLong("COLUMN_SIZE") + ")";
+      }
 
+      TreeMap<Integer, String> tableColumns = columns.get(tableName);
+
+      if (tableColumns == null) {
+        tableColumns = new TreeMap<Integer, String>();
+        columns.put(tableName, tableColumns);
+      }
+
+      tableColumns.put((int) t.getLong("ORDINAL_POSITION"), column);
+    }
+
+    return columns;
+  }
+
+  /**
+   * @param statement A DDL statement
+   * @return The name of the table it creates, in upper case, or null if it
+   *         isn't a CREATE TABLE statement.
+   */
+  static String getCreateTableName(String statement) {
+
+    String[] words = statement.toUpperCase().replace("(", " (").trim().split("\\s+");
+
+    if (words.length >= 3 && words[0].equals("CREATE") && words[1].equals("TABLE")) {
+      return words[2];
+    }
+
+    return null;
+  }
+
+  /**
+   * Find the columns in a CREATE TABLE statement, in the same form as
+   * getCatalogColumns().
+   * 
+   * @param statement A CREATE TABLE statement
+   * @return its columns, in order
+   */
+  static ArrayList<String> getCreateTableColumns(String statement) {
+
+    ArrayList<String> columns = new ArrayList<String>();
+    ArrayList<String> items = new ArrayList<String>();
+
+    // Split what's inside the outermost brackets at commas that aren't
+    // inside other brackets or quotes...
+    int depth = 0;
+    boolean quoted = false;
+    StringBuffer item = new StringBuffer();
+
+    for (int i = statement.indexOf('('); i >= 0 && i < statement.length(); i++) {
+
+      char c = statement.charAt(i);
+
+      if (c == '\'') {
+        quoted = !quoted;
+      } else if (!quoted && c == '(') {
+        depth++;
+        if (depth == 1) {
+          continue;
+        }
+      } else if (!quoted && c == ')') {
+        depth--;
+        if (depth == 0) {
+          items.add(item.toString());
+          break;
+        }
+      } else if (!quoted && depth == 1 && c == ',') {
+        items.add(item.toString());
+        item.setLength(0);
+        continue;
+      }
+
+      item.append(c);
+    }
+
+    for (int i = 0; i < items.size(); i++) {
+
+      Matcher m = COLUMN_DEFINITION.matcher(items.get(i).trim().toUpperCase());
+
+      if (!m.lookingAt() || TABLE_CONSTRAINTS.contains(m.group(1))) {
+        continue;
+      }
+
+      String typeName = m.group(2);
+
+      if (typeName.equals("INT")) {
+        typeName = "INTEGER";
+      }
+
+      String column = m.group(1) + " " + typeName;
+
+      if (SIZED_TYPES.contains(typeName) && m.group(3) != null) {
+        column = column + "(" + m.group(3) + ")";
+      }
+
+      columns.add(column);
+    }
+
+    return columns;
+  }
+
+  /**
+   * @param entryName name of something we loaded, e.g. "mojoprocs/Foo.class"
+   * @return The name of the procedure CREATE PROCEDURE FROM CLASS would give
+   *         it, or null if it isn't a class.
+   */
+  static String getProcNameForClass(String entryName) {
+
+    if (!entryName.endsWith(".class") || entryName.indexOf('$') > -1) {
+      return null;
+    }
+
+    String className = entryName.substring(0, entryName.length() - ".class".length());
+    return className.substring(className.lastIndexOf('/') + 1);
+  }
+
+  /**
+   * Work out if a DDL or procedure statement has already been run, by looking
+   * for the object it creates in the catalog. We understand CREATE TABLE,
+   * CREATE VIEW, CREATE INDEX, PARTITION TABLE and CREATE PROCEDURE. Anything
+   * else, such as ALTER TABLE, PARTITION PROCEDURE or DR TABLE, doesn't create
+   * anything we can look for.
+   * 
+   * @param statement  A DDL or procedure statement
+   * @param tables     Tables and views in the catalog
+   * @param indexes    Indexes in the catalog
+   * @param procedures Procedures in the catalog
+   * @return true if 'statement' doesn't need to be run, false if it does, or
+   *         null if we can't tell from the catalog.
+   */
+  static Boolean isInCatalog(String statement, HashSet<String> tables, HashSet<String> indexes,
+      HashSet<String> procedures) {
+
+    String[] words = statement.toUpperCase().replace("(", " (").replace(";", " ").trim().split("\\s+");
+
+    if (words.length >= 3 && words[0].equals("CREATE") && (words[1].equals("TABLE") || words[1].equals("VIEW"))) {
+      return tables.contains(words[2]);
+    }
+
+    if (words.length >= 3 && words[0].equals("PARTITION") && words[1].equals("TABLE")) {
+      // We assume this was run when the table was created...
+      return tables.contains(words[2]);
+    }
+
+    if (words.length >= 3 && words[0].equals("CREATE")) {
+
+      // CREATE [UNIQUE|ASSUMEUNIQUE] INDEX name ...
+      for (int i = 1; i < words.length - 1 && i < 3; i++) {
+        if (words[i].equals("INDEX")) {
+          return indexes.contains(words[i + 1]);
+        }
+      }
+    }
+
+    if (words.length >= 3 && words[0].equals("CREATE") && words[1].equals("PROCEDURE")) {
+
+      // A procedure made from a class is named after the class...
+      if (words.length >= 5 && words[words.length - 3].equals("FROM") && words[words.length - 2].equals("CLASS")) {
+        String className = words[words.length - 1];
+        return procedures.contains(className.substring(className.lastIndexOf('.') + 1));
+      }
+
+      return procedures.contains(words[2]);
+    }
+
+    return null;
+  }
+
+  /**
+   * @param statement A DDL statement isInCatalog() doesn't understand
+   * @return The name we keep its hash under in RESOURCE_TABLE_NAME.
+   */
+  static String getDDLResourceName(String statement) {
+    return DDL_RESOURCE_PREFIX + sha256(statement.trim().getBytes(StandardCharsets.UTF_8));
+  }
+
+  /**
+   * @return SHA-256 of 'contents', in hex.
+   */
+  private static String sha256(byte[] contents) {
+
+    try {
+
+      byte[] digest = MessageDigest.getInstance("SHA-256").digest(contents);
+      StringBuffer b = new StringBuffer();
+
+      for (int i = 0; i < digest.length; i++) {
+        b.append(String.format("%02x", digest[i]));
+      }
+
+      return b.toString();
+
+    } catch (NoSuchAlgorithmException e) {
+      // Every JVM has to support SHA-256...
+      throw new IllegalStateException(e);
+    }
   }
 
   /**
@@ -264,15 +1002,16 @@ public final class VoltDBSchemaBuilder {
   /**
    * Call UpdateClasses for the byte[] 'payload'
    * @param payload
+   * @param deleteClasses comma separated classes to delete, or null
    * @throws FailedToUpdateClassesException
    * @throws NoConnectionsException
    * @throws IOException
    * @throws ProcCallException
    */
-  private void callUpdateClasses(byte[] payload)
+  private void callUpdateClasses(byte[] payload, String deleteClasses)
       throws FailedToUpdateClassesException, NoConnectionsException, IOException, ProcCallException {
 
-    ClientResponse cr = voltClient.callProcedure("@UpdateClasses", payload, null);
+    ClientResponse cr = voltClient.callProcedure("@UpdateClasses", payload, deleteClasses);
     if (cr.getStatus() != ClientResponse.SUCCESS) {
       throw new FailedToUpdateClassesException("Attempt to execute UpdateClasses failed:" + cr.getStatusString());
     }
@@ -280,19 +1019,99 @@ public final class VoltDBSchemaBuilder {
   }
 
   /**
-   * Load a file into a byte array
-   * @param file
-   * @return byte[] containing contents of file
+   * Put zip file fragments into as few JAR files as we can, without any of
+   * them being too big for @UpdateClasses.
+   * 
+   * @param fragmentNames names of fragments
+   * @param fragments     contents of fragments
+   * @return JAR files, as byte arrays
    * @throws IOException
+   * @throws CreatedFileTooBigException if a fragment won't fit in a JAR by
+   *                                    itself
    */
-  private byte[] loadFileIntoByteArray(File file) throws IOException {
+  private ArrayList<byte[]> createFragmentJars(ArrayList<String> fragmentNames, ArrayList<byte[]> fragments)
+      throws IOException, CreatedFileTooBigException {
+
+    ArrayList<byte[]> jars = new ArrayList<byte[]>();
+    ByteArrayOutputStream jarBytes = null;
+    JarOutputStream jarOutputStream = null;
+    long jarSize = 0;
+
+    for (int i = 0; i < fragments.size(); i++) {
+
+      long fragmentSize = fragments.get(i).length + fragmentNames.get(i).length() + JAR_OVERHEAD;
 
-    byte[] fileContents = new byte[(int) file.length()];
-    FileInputStream fis = new FileInputStream(file);
-    fis.read(fileContents);
-    fis.close();
-    return fileContents;
+      if (fragmentSize > MAX_JAR_FILE_SIZE) {
+        throw new CreatedFileTooBigException("Fragment " + fragmentNames.get(i) + " is too big at "
+            + fragments.get(i).length + "; reduce maxZipFileSize");
+      }
+
+      if (jarOutputStream != null && jarSize + fragmentSize > MAX_JAR_FILE_SIZE) {
+        jarOutputStream.close();
+        jars.add(jarBytes.toByteArray());
+        jarOutputStream = null;
+      }
+
+      if (jarOutputStream == null) {
+        jarBytes = new ByteArrayOutputStream();
+        jarOutputStream = getJarOutputStream(jarBytes);
+        jarSize = 0;
+      }
+
+      logger.info("processing " + fragmentNames.get(i));
+      addStored(fragmentNames.get(i), fragments.get(i), 0, fragments.get(i).length, jarOutputStream);
+      jarSize += fragmentSize;
+    }
+
+    if (jarOutputStream != null) {
+      jarOutputStream.close();
+      jars.add(jarBytes.toByteArray());
+    }
 
+    return jars;
+  }
+
+  /**
+   * If deleteFiles is false, write a copy of a JAR file we're about to send
+   * to the temp directory so it can be looked at.
+   * 
+   * @param fileName
+   * @param contents
+   * @throws IOException
+   */
+  private void keepCopyIfNeeded(String fileName, byte[] contents) throws IOException {
+
+    if (!deleteFiles) {
+      File copy = new File(System.getProperty("java.io.tmpdir"), fileName);
+      logger.info("Keeping copy of JAR file in " + copy.getAbsolutePath());
+      Files.write(copy.toPath(), contents);
+    }
+  }
+
+  /**
+   * Read everything in an InputStream, and close it.
+   * 
+   * @param source
+   * @return everything in 'source'
+   * @throws IOException
+   */
+  private byte[] readFully(InputStream source) throws IOException {
+
+    try {
+
+      ByteArrayOutputStream os = new ByteArrayOutputStream(Math.max(source.available(), 1024));
+      byte[] buffer = new byte[65536];
+      int count;
+
+      while ((count = source.read(buffer)) != -1) {
+        os.write(buffer, 0, count);
+      }
+
+      return os.toByteArray();
+
+    } finally {
+      source.close();
+    }
   }
 
   
@@ -367,6 +1186,35 @@ public final class VoltDBSchemaBuilder {
     }
   }
 
+  /**
+   * Add an entry to our JAR file without compressing it. We use this for zip
+   * files, which are already compressed.
+   * 
+   * @param fileName
+   * @param source
+   * @param offset
+   * @param length
+   * @param target
+   * @throws IOException
+   */
+  private void addStored(String fileName, byte[] source, int offset, int length, JarOutputStream target)
+      throws IOException {
+
+    CRC32 crc = new CRC32();
+    crc.update(source, offset, length);
+
+    JarEntry entry = new JarEntry(fileName.replace("\\", "/"));
+    entry.setTime(System.currentTimeMillis());
+    entry.setMethod(ZipEntry.STORED);
+    entry.setSize(length);
+    entry.setCompressedSize(length);
+    entry.setCrc(crc.getValue());
+
+    target.putNextEntry(entry);
+    target.write(source, offset, length);
+    target.closeEntry();
+  }
+
    /**
    * See if we think Schema already exists...
    * 
@@ -407,32 +1255,69 @@ public final class VoltDBSchemaBuilder {
   }
 
   /**
-   * Take a file name and return a JAR output stream.
-   * @param fileName
+   * Take a stream and return a JAR output stream that writes to it.
+   * @param target
    * @return  a JAR output stream.
-   * @throws FileNotFoundException
    * @throws IOException
    */
-  private JarOutputStream getJarOutputStream(String fileName) throws FileNotFoundException, IOException {
+  private JarOutputStream getJarOutputStream(OutputStream target) throws IOException {
 
     Manifest mainJarManifest = new Manifest();
     mainJarManifest.getMainAttributes().put(Attributes.Name.MANIFEST_VERSION, "1.0");
-    JarOutputStream mainJarFileOutputStream = new JarOutputStream(new FileOutputStream(fileName), mainJarManifest);
+    JarOutputStream mainJarFileOutputStream = new JarOutputStream(target, mainJarManifest);
 
     return mainJarFileOutputStream;
 
   }
 
+  /**
+   * @return true if we only load what has changed.
+   */
+  public boolean isIncremental() {
+    return incremental;
+  }
+
+  /**
+   * @param incremental If true loadClassesAndDDLIfNeeded() compares a hash of
+   *                    each class and zip file with what we loaded last time
+   *                    and only sends the ones that have changed, and runs
+   *                    any DDL that isn't in the catalog yet in batches. If
+   *                    false (the default) we do nothing if the test
+   *                    procedure works, and load everything if it doesn't.
+   */
+  public void setIncremental(boolean incremental) {
+    this.incremental = incremental;
+  }
+
+  /**
+   * @return Size above which zip files are split into fragments.
+   */
+  public int getMaxZipFileSize() {
+    return maxZipFileSize;
+  }
+
+  /**
+   * @param maxZipFileSize Size above which zip files are split into fragments
+   *                       and sent in JAR files of their own. Each fragment
+   *                       is at most this big. Defaults to half of
+   *                       VoltPort.MAX_MESSAGE_LENGTH.
+   */
+  public void setMaxZipFileSize(int maxZipFileSize) {
+    this.maxZipFileSize = maxZipFileSize;
+  }
+
   /**
    * 
-   * @return true if we delete JAR files after creation.
+   * @return false if we keep copies of the JAR files we send.
    */
   public boolean isDeleteFiles() {
     return deleteFiles;
   }
 
   /**
-   * @param false if we keep files after creation. Default is 'true'
+   * @param false if we keep copies of the JAR files we send, in
+   *        java.io.tmpdir. They're built in memory, so otherwise nothing is
+   *        written to disk. Default is 'true'
    */
   public void setDeleteFiles(boolean deleteFiles) {
     this.deleteFiles = deleteFiles;
@@ -0,0 +1,315 @@
+package ie.voltdb.h2outil;
+
+/* This file is part of VoltDB.
+ * Copyright (C) 2008-2019 VoltDB Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+
+import javax.tools.JavaCompiler;
+import javax.tools.ToolProvider;
+
+import org.junit.BeforeClass;
+import org.junit.ClassRule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import hex.genmodel.ModelMojoReader;
+import hex.genmodel.MojoReaderBackend;
+import hex.genmodel.algos.gbm.GbmMojoModel;
+import hex.genmodel.easy.EasyPredictModelWrapper;
+import hex.genmodel.easy.RowData;
+import hex.genmodel.easy.prediction.BinomialModelPrediction;
+
+/**
+ * Checks that FlatTreeEnsemble and a class written by MojoScorerGenerator
+ * give exactly the same predictions as EasyPredictModelWrapper.
+ *
+ * tiny_gbm.zip is a hand-made binomial GBM MOJO with inputs Distance
+ * (numeric), UniqueCarrier (AA, DL, UA, WN) and Origin (BOS, JFK, LAX, ORD,
+ * SFO), and one tree of each kind SharedTreeMojoModel.scoreTree() handles:
+ *
+ * <pre>
+ * t00_000: Distance >= 500 ? (UniqueCarrier in {DL, WN} ? 0.3 : -0.05) : -0.1   NA left, 32 bit bitset
+ * t00_001: Origin in {JFK, ORD} ? -0.2 : (Distance >= 1200.5 ? 0.15 : 0.02)     NA right, bitset of levels 1..3
+ * t00_002: Distance is NA ? 0.25 : 0.01                                         NA vs rest
+ * t00_003: 0.05                                                                 just a leaf
+ * </pre>
+ *
+ * so BOS and SFO fall outside t00_001's bitset, and go the same way as NA.
+ *
+ */
+public class TreeScorerEquivalenceTest {
+
+  private static final String FIXTURE = "tiny_gbm.zip";
+
+  private static final String[] DISTANCES = { null, "0", "499.99", "500", "500.0001", "1200", "1200.5", "1201",
+      "-3", "123456" };
+
+  @ClassRule
+  public static final TemporaryFolder TEMP = new TemporaryFolder();
+
+  private static GbmMojoModel model;
+  private static MojoTrees trees;
+  private static FeatureLayout layout;
+  private static EasyPredictModelWrapper modelWrapper;
+  private static String[] inputNames;
+  private static FlatTreeEnsemble flatTrees;
+  private static TreeEnsembleScorer generated;
+  private static String[] scorerNames;
+  private static BinomialScorer[] scorers;
+
+  @BeforeClass
+  public static void loadFixture() throws Exception {
+
+    byte[] zipBytes = readFixture();
+    CRC32 crc = new CRC32();
+    crc.update(zipBytes, 0, zipBytes.length);
+
+    MojoReaderBackend reader = H2OMojoWrangler.createLazyReaderBackendFromZipBytes(zipBytes);
+    model = (GbmMojoModel) ModelMojoReader.readFrom(reader);
+    trees = MojoTrees.read(reader, model);
+
+    inputNames = Arrays.copyOf(model.getNames(), model.nfeatures());
+    layout = new FeatureLayout(model, inputNames);
+
+    // Unknown levels become NA, so we can score rows with them...
+    modelWrapper = new EasyPredictModelWrapper(
+        new EasyPredictModelWrapper.Config().setModel(model).setConvertUnknownCategoricalLevelsToNa(true));
+
+    flatTrees = FlatTreeEnsemble.build(trees, crc.getValue());
+    generated = compileGeneratedScorer(crc.getValue());
+
+    scorerNames = new String[] { "MOJO tree walker", "FlatTreeEnsemble", "generated" };
+    scorers = new BinomialScorer[] { new BinomialScorer(layout), new BinomialScorer(layout, flatTrees),
+        new BinomialScorer(layout, generated) };
+  }
+
+  @Test
+  public void testFixtureHasEveryKindOfTree() {
+
+    assertEquals(4, trees.getNTreeGroups());
+    assertEquals(1, trees.getNTreesPerGroup());
+    assertEquals(3, trees.getFeatureCount());
+    assertEquals(14, trees.getNodeCount());
+    assertTrue(trees.getTree(0, 3).isLeaf());
+    assertTrue(trees.getTree(0, 2).isNaVsRest());
+    assertEquals(1, trees.getTree(0, 1).getBitOffset());
+    assertEquals(3, trees.getTree(0, 1).getLevelsRight().length);
+    assertEquals(32, trees.getTree(0, 0).getRight().getLevelsRight().length);
+    assertTrue(scorers[1].isUsingTreeScorer());
+    assertTrue(scorers[2].isUsingTreeScorer());
+  }
+
+  @Test
+  public void testEveryLevelAndSplit() throws Exception {
+
+    ArrayList<String[]> rows = new ArrayList<String[]>();
+
+    for (String distance : DISTANCES) {
+      for (String carrier : layout.getInputDomain(1)) {
+        for (String origin : layout.getInputDomain(2)) {
+          rows.add(new String[] { distance, carrier, origin });
+        }
+      }
+    }
+
+    compare(rows);
+  }
+
+  @Test
+  public void testMissingInputs() throws Exception {
+
+    ArrayList<String[]> rows = new ArrayList<String[]>();
+
+    for (String distance : DISTANCES) {
+      rows.add(new String[] { distance, null, null });
+      rows.add(new String[] { distance, "DL", null });
+      rows.add(new String[] { distance, null, "JFK" });
+      rows.add(new String[] { distance, null, "LAX" });
+    }
+
+    compare(rows);
+  }
+
+  /**
+   * BinomialScorer refuses levels it has never seen, so callers fall back to
+   * EasyPredictModelWrapper. The tree scorers still have to treat a level
+   * index past the end of the domain as NA, the way scoreTree() does.
+   */
+  @Test
+  public void testOutOfDomainLevels() throws Exception {
+
+    for (BinomialScorer scorer : scorers) {
+      assertFalse(scorer.setInput(1, "XX"));
+      assertFalse(scorer.setInput(2, "DUB"));
+      assertFalse(scorer.setInput(0, "far"));
+    }
+
+    double[] row = new double[model.nfeatures()];
+    double[] preds = new double[model.getPredsSize()];
+
+    for (String distance : DISTANCES) {
+
+      BinomialModelPrediction expected = modelWrapper
+          .predictBinomial(makeRowData(new String[] { distance, "XX", "DUB" }));
+
+      row[0] = distance == null ? Double.NaN : Double.parseDouble(distance);
+      row[1] = layout.getInputDomain(1).length;
+      row[2] = layout.getInputDomain(2).length;
+
+      for (TreeEnsembleScorer treeScorer : new TreeEnsembleScorer[] { flatTrees, generated }) {
+
+        treeScorer.scoreTrees(row, preds);
+        model.unifyPreds(row, 0, preds);
+
+        String where = treeScorer.getClass().getSimpleName() + " " + Arrays.toString(row);
+        assertEquals(where, expected.labelIndex, (int) preds[0]);
+        assertEquals(where, expected.classProbabilities[0], preds[1], 0);
+        assertEquals(where, expected.classProbabilities[1], preds[2], 0);
+      }
+    }
+  }
+
+  /**
+   * The same check MojoModelRegistry runs before it uses a generated class.
+   */
+  @Test
+  public void testFindMismatch() {
+    assertNull(trees.findMismatch(flatTrees, model, MojoScorerGenerator.VERIFY_ROWS));
+    assertNull(trees.findMismatch(generated, model, MojoScorerGenerator.VERIFY_ROWS));
+  }
+
+  private static void compare(ArrayList<String[]> rows) throws Exception {
+
+    for (String[] row : rows) {
+
+      BinomialModelPrediction expected = modelWrapper.predictBinomial(makeRowData(row));
+
+      for (int i = 0; i < scorers.length; i++) {
+
+        String where = scorerNames[i] + " " + Arrays.toString(row);
+
+        for (int j = 0; j < row.length; j++) {
+          assertTrue(where, scorers[i].setInput(j, row[j]));
+        }
+
+        assertEquals(where, expected.label, scorers[i].scoreLabel());
+        assertEquals(where, expected.classProbabilities[0], scorers[i].getClassProbability(0), 0);
+        assertEquals(where, expected.classProbabilities[1], scorers[i].getClassProbability(1), 0);
+      }
+    }
+  }
+
+  private static RowData makeRowData(String[] row) {
+
+    RowData rowData = new RowData();
+
+    for (int j = 0; j < inputNames.length; j++) {
+      if (row[j] != null) {
+        rowData.put(inputNames[j], row[j]);
+      }
+    }
+
+    return rowData;
+  }
+
+  /**
+   * Write the scorer for the fixture with MojoScorerGenerator, compile it the
+   * way the build does, and load it.
+   */
+  private static TreeEnsembleScorer compileGeneratedScorer(long checksum) throws Exception {
+
+    JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+    assertNotNull("Tests need a JDK, not a JRE", compiler);
+
+    String className = MojoScorerGenerator.getGeneratedClassName(FIXTURE);
+    File sourceDir = TEMP.newFolder("src");
+    File classDir = TEMP.newFolder("classes");
+    File packageDir = new File(sourceDir, MojoScorerGenerator.DEFAULT_PACKAGE);
+    assertTrue(packageDir.mkdirs());
+    File sourceFile = new File(packageDir, className + ".java");
+
+    PrintWriter pw = new PrintWriter(new OutputStreamWriter(new FileOutputStream(sourceFile), "UTF-8"));
+
+    try {
+      MojoScorerGenerator.writeClass(trees, checksum, MojoScorerGenerator.DEFAULT_PACKAGE, className, pw);
+    } finally {
+      pw.close();
+    }
+
+    String classPath = new File(TreeEnsembleScorer.class.getProtectionDomain().getCodeSource().getLocation().toURI())
+        .getPath();
+
+    assertEquals("javac failed", 0, compiler.run(null, null, null, "-classpath", classPath, "-d",
+        classDir.getPath(), sourceFile.getPath()));
+
+    URLClassLoader loader = new URLClassLoader(new URL[] { classDir.toURI().toURL() },
+        TreeScorerEquivalenceTest.class.getClassLoader());
+
+    TreeEnsembleScorer scorer = (TreeEnsembleScorer) loader
+        .loadClass(MojoScorerGenerator.DEFAULT_PACKAGE + "." + className).getDeclaredConstructor().newInstance();
+
+    assertEquals(checksum, scorer.getModelChecksum());
+    return scorer;
+  }
+
+  private static byte[] readFixture() throws IOException {
+
+    InputStream is = TreeScorerEquivalenceTest.class.getResourceAsStream(FIXTURE);
+    assertNotNull(FIXTURE + " is missing", is);
+
+    try {
+
+      ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+      byte[] buffer = new byte[8192];
+      int n;
+
+      while ((n = is.read(buffer)) > 0) {
+        bytes.write(buffer, 0, n);
+      }
+
+      return bytes.toByteArray();
+
+    } finally {
+      is.close();
+    }
+  }
+
+}